@@ -99,7 +99,13 @@ reset_data_files() {
             echo "[]" > "$filepath"
             print_info "Created: $file"
         fi
+        # Discard the write-ahead log so it is not replayed over the empty file,
+        # and the binary snapshot of the old contents
+        rm -f "$DATA_DIR/${file%.json}.wal" "$DATA_DIR/${file%.json}.snapshot"
+        rm -rf "$DATA_DIR/${file%.json}.segments" "$DATA_DIR/${file%.json}.archive"
     done
+    # Collections stored in H2 or segments are imported again from the empty data files
+    rm -f "$DATA_DIR"/jsondb.*.db
 }
 
 # Function to reset counter files
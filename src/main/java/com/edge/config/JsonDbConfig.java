@@ -4,6 +4,10 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
 @Configuration
 @EnableConfigurationProperties
 @ConfigurationProperties(prefix = "jsondb")
@@ -12,6 +16,27 @@ public class JsonDbConfig
     
     private String filePath = "./data/users.json";
     private boolean autoSave = true;
+    private boolean writeBehind = false;
+    private long flushIntervalMillis = 500;
+    private int flushMaxPending = 200;
+    private int bootstrapThreads = 4;
+    private boolean binarySnapshot = true;
+    private int sequenceBlockSize = 1000;
+    private String defaultStorage = "json";
+    private Map<String, String> storage = new HashMap<>();
+    private String h2Url;
+    private int segmentSize = 2000;
+    private boolean archive = true;
+    private int archiveAfterMonths = 3;
+    private int archiveCachePartitions = 6;
+    private Map<String, Boolean> lazy = new HashMap<>();
+    private long changeLogMaxBytes = 16L * 1024 * 1024;
+    private String backupDir = "./backups";
+    private boolean compress = false;
+    private int compressionLevel = 1;
+    private String replicaOf;
+    private String replicaBackupDir;
+    private long replicaPollIntervalMillis = 200;
     
     public String getFilePath()
     {
@@ -32,4 +57,242 @@ public class JsonDbConfig
     {
         this.autoSave = autoSave;
     }
+    
+    public boolean isWriteBehind()
+    {
+        return writeBehind;
+    }
+    
+    public void setWriteBehind(boolean writeBehind)
+    {
+        this.writeBehind = writeBehind;
+    }
+    
+    public long getFlushIntervalMillis()
+    {
+        return flushIntervalMillis;
+    }
+    
+    public void setFlushIntervalMillis(long flushIntervalMillis)
+    {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+    
+    public int getFlushMaxPending()
+    {
+        return flushMaxPending;
+    }
+    
+    public void setFlushMaxPending(int flushMaxPending)
+    {
+        this.flushMaxPending = flushMaxPending;
+    }
+    
+    public int getBootstrapThreads()
+    {
+        return bootstrapThreads;
+    }
+    
+    public void setBootstrapThreads(int bootstrapThreads)
+    {
+        this.bootstrapThreads = bootstrapThreads;
+    }
+    
+    public boolean isBinarySnapshot()
+    {
+        return binarySnapshot;
+    }
+    
+    public void setBinarySnapshot(boolean binarySnapshot)
+    {
+        this.binarySnapshot = binarySnapshot;
+    }
+    
+    public int getSequenceBlockSize()
+    {
+        return sequenceBlockSize;
+    }
+    
+    public void setSequenceBlockSize(int sequenceBlockSize)
+    {
+        this.sequenceBlockSize = sequenceBlockSize;
+    }
+    
+    public String getDefaultStorage()
+    {
+        return defaultStorage;
+    }
+    
+    public void setDefaultStorage(String defaultStorage)
+    {
+        this.defaultStorage = defaultStorage;
+    }
+    
+    public Map<String, String> getStorage()
+    {
+        return storage;
+    }
+    
+    public void setStorage(Map<String, String> storage)
+    {
+        this.storage = storage;
+    }
+    
+    /**
+     * Returns the storage engine configured for a collection, e.g. "h2" for
+     * jsondb.storage.orders=h2, or the default storage if none is set.
+     */
+    public String getStorageFor(String collectionName)
+    {
+        return storage.getOrDefault(collectionName, defaultStorage).trim().toLowerCase(Locale.ROOT);
+    }
+    
+    public String getH2Url()
+    {
+        return h2Url;
+    }
+    
+    public void setH2Url(String h2Url)
+    {
+        this.h2Url = h2Url;
+    }
+    
+    public int getSegmentSize()
+    {
+        return segmentSize;
+    }
+    
+    public void setSegmentSize(int segmentSize)
+    {
+        this.segmentSize = segmentSize;
+    }
+    
+    public boolean isArchive()
+    {
+        return archive;
+    }
+    
+    public void setArchive(boolean archive)
+    {
+        this.archive = archive;
+    }
+    
+    public int getArchiveAfterMonths()
+    {
+        return archiveAfterMonths;
+    }
+    
+    public void setArchiveAfterMonths(int archiveAfterMonths)
+    {
+        this.archiveAfterMonths = archiveAfterMonths;
+    }
+    
+    public int getArchiveCachePartitions()
+    {
+        return archiveCachePartitions;
+    }
+    
+    public void setArchiveCachePartitions(int archiveCachePartitions)
+    {
+        this.archiveCachePartitions = archiveCachePartitions;
+    }
+    
+    public Map<String, Boolean> getLazy()
+    {
+        return lazy;
+    }
+    
+    public void setLazy(Map<String, Boolean> lazy)
+    {
+        this.lazy = lazy;
+    }
+    
+    /**
+     * Whether a collection is loaded lazily, e.g. jsondb.lazy.orders=true.
+     */
+    public boolean isLazy(String collectionName)
+    {
+        return lazy.getOrDefault(collectionName, false);
+    }
+    
+    public long getChangeLogMaxBytes()
+    {
+        return changeLogMaxBytes;
+    }
+    
+    public void setChangeLogMaxBytes(long changeLogMaxBytes)
+    {
+        this.changeLogMaxBytes = changeLogMaxBytes;
+    }
+    
+    public String getBackupDir()
+    {
+        return backupDir;
+    }
+    
+    public void setBackupDir(String backupDir)
+    {
+        this.backupDir = backupDir;
+    }
+    
+    public boolean isCompress()
+    {
+        return compress;
+    }
+    
+    public void setCompress(boolean compress)
+    {
+        this.compress = compress;
+    }
+    
+    /**
+     * Deflate level for compressed files, 1 (fastest) to 9 (smallest).
+     */
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+    
+    public void setCompressionLevel(int compressionLevel)
+    {
+        this.compressionLevel = compressionLevel;
+    }
+    
+    /**
+     * Data directory of the primary whose change log this instance follows as a
+     * read-only replica, e.g. /shared/primary/data; unset for a primary.
+     */
+    public String getReplicaOf()
+    {
+        return replicaOf;
+    }
+    
+    public void setReplicaOf(String replicaOf)
+    {
+        this.replicaOf = replicaOf;
+    }
+    
+    /**
+     * The primary's backup directory the replica seeds itself from; by default the
+     * backups directory next to the primary's data directory.
+     */
+    public String getReplicaBackupDir()
+    {
+        return replicaBackupDir;
+    }
+    
+    public void setReplicaBackupDir(String replicaBackupDir)
+    {
+        this.replicaBackupDir = replicaBackupDir;
+    }
+    
+    public long getReplicaPollIntervalMillis()
+    {
+        return replicaPollIntervalMillis;
+    }
+    
+    public void setReplicaPollIntervalMillis(long replicaPollIntervalMillis)
+    {
+        this.replicaPollIntervalMillis = replicaPollIntervalMillis;
+    }
 }
@@ -0,0 +1,48 @@
+package com.edge.config;
+
+import com.edge.controller.FieldProjectionAdvice;
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.databind.introspect.NopAnnotationIntrospector;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Prepares the REST object mapper for {@code fields=} projections: entity classes get
+ * the projection filter id, as if annotated with {@code @JsonFilter}, and the mapper
+ * gets a filter provider that leaves entities unfiltered unless a response sets the
+ * filter (see {@link FieldProjectionAdvice}). The repositories' own mappers, which
+ * write the data files, are not affected.
+ */
+@Configuration
+public class ProjectionConfig
+{
+
+    private static final String ENTITY_PACKAGE = "com.edge.entity";
+
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer projectionFilterCustomizer()
+    {
+        return builder -> builder
+            .annotationIntrospector(current -> AnnotationIntrospector.pair(new EntityFilterIntrospector(),
+                current != null ? current : new JacksonAnnotationIntrospector()))
+            .filters(new SimpleFilterProvider().setFailOnUnknownId(false));
+    }
+
+    private static final class EntityFilterIntrospector extends NopAnnotationIntrospector
+    {
+        @Override
+        public Object findFilterId(Annotated annotated)
+        {
+            if (annotated instanceof AnnotatedClass type && ENTITY_PACKAGE.equals(type.getRawType().getPackageName()))
+            {
+                return FieldProjectionAdvice.FILTER_ID;
+            }
+            return null;
+        }
+    }
+}
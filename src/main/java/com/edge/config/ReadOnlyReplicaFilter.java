@@ -0,0 +1,54 @@
+package com.edge.config;
+
+import com.edge.repository.ReadReplica;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * On a read replica, answers every request that would change data with
+ * 405 Method Not Allowed and an explanation, before it reaches a controller. Logging
+ * in and making a backup of the replica's own data are still allowed.
+ */
+@Component
+public class ReadOnlyReplicaFilter extends OncePerRequestFilter
+{
+
+    private static final String ERROR_BODY =
+        "{\"error\":\"This instance is a read-only replica; send changes to the primary\"}";
+
+    @Autowired
+    private ReadReplica readReplica;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request)
+    {
+        String method = request.getMethod();
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !readReplica.isReplica()
+            || "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method) || "OPTIONS".equalsIgnoreCase(method)
+            || !path.startsWith("/api/")
+            || path.startsWith("/api/auth/")
+            || ("POST".equalsIgnoreCase(method) && path.equals("/api/backups"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException
+    {
+        response.setStatus(HttpStatus.METHOD_NOT_ALLOWED.value());
+        response.setHeader(HttpHeaders.ALLOW, "GET, HEAD, OPTIONS");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(ERROR_BODY);
+    }
+}
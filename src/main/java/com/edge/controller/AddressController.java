@@ -4,6 +4,7 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Address;
+import com.edge.repository.PageRequest;
 import com.edge.service.AddressService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -11,8 +12,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 @Component
 @RestController
 @RequestMapping("/api/addresses")
@@ -23,9 +22,10 @@ public class AddressController
     private AddressService addressService;
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<Address> getAllAddresses()
+    public ResponseEntity<?> getAllAddresses(PageRequest pageRequest)
     {
-        return addressService.getAllAddresses();
+        return Pages.listOrPage(pageRequest, () -> addressService.getAllAddresses(),
+            request -> addressService.getAllAddresses(request));
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -37,23 +37,27 @@ public class AddressController
     }
 
     @GetMapping(value = "/customer/{customerId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Address>> getAddressesByCustomerId(@PathVariable String customerId)
+    public ResponseEntity<?> getAddressesByCustomerId(@PathVariable String customerId, PageRequest pageRequest)
     {
-        return ResponseEntity.ok(addressService.getAddressesByCustomerId(customerId));
+        return Pages.listOrPage(pageRequest, () -> addressService.getAddressesByCustomerId(customerId),
+            request -> addressService.getAddressesByCustomerId(customerId, request));
     }
 
     @GetMapping(value = "/customer/{customerId}/type/{addressType}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Address>> getAddressesByCustomerIdAndType(
+    public ResponseEntity<?> getAddressesByCustomerIdAndType(
             @PathVariable String customerId,
-            @PathVariable String addressType)
+            @PathVariable String addressType,
+            PageRequest pageRequest)
     {
-        return ResponseEntity.ok(addressService.getAddressesByCustomerIdAndType(customerId, addressType));
+        return Pages.listOrPage(pageRequest, () -> addressService.getAddressesByCustomerIdAndType(customerId, addressType),
+            request -> addressService.getAddressesByCustomerIdAndType(customerId, addressType, request));
     }
 
     @GetMapping(value = "/vendor/{vendorId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Address>> getAddressesByVendorId(@PathVariable String vendorId)
+    public ResponseEntity<?> getAddressesByVendorId(@PathVariable String vendorId, PageRequest pageRequest)
     {
-        return ResponseEntity.ok(addressService.getAddressesByVendorId(vendorId));
+        return Pages.listOrPage(pageRequest, () -> addressService.getAddressesByVendorId(vendorId),
+            request -> addressService.getAddressesByVendorId(vendorId, request));
     }
 
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
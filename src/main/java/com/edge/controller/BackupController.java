@@ -0,0 +1,76 @@
+package com.edge.controller;
+
+import com.edge.repository.BackupManifest;
+import com.edge.repository.BackupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/backups")
+public class BackupController
+{
+
+    @Autowired
+    private BackupService backupService;
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<List<BackupManifest>> getAllBackups()
+    {
+        return ResponseEntity.ok(backupService.listBackups());
+    }
+
+    @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<BackupManifest> getBackupById(@PathVariable String id)
+    {
+        return backupService.getBackup(id)
+            .map(ResponseEntity::ok)
+            .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Makes a backup; with incremental=true only what changed since the latest backup
+     * is stored.
+     */
+    @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<BackupManifest> createBackup(@RequestParam(defaultValue = "false") boolean incremental)
+    {
+        return ResponseEntity.status(HttpStatus.CREATED).body(backupService.backup(incremental));
+    }
+
+    @GetMapping(value = "/{id}/verify", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<Map<String, Object>> verifyBackup(@PathVariable String id)
+    {
+        return backupService.getBackup(id)
+            .map(backup ->
+            {
+                List<String> problems = backupService.verify(backup);
+                return ResponseEntity.ok(Map.<String, Object>of("valid", problems.isEmpty(), "problems", problems));
+            })
+            .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PostMapping(value = "/{id}/restore", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<BackupManifest> restoreBackup(@PathVariable String id)
+    {
+        BackupManifest backup = backupService.getBackup(id).orElse(null);
+        if (backup == null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        try
+        {
+            backupService.restore(backup);
+            return ResponseEntity.ok(backup);
+        }
+        catch (IllegalStateException e)
+        {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+}
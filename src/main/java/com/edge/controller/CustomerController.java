@@ -4,6 +4,7 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Customer;
+import com.edge.repository.PageRequest;
 import com.edge.service.CustomerService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -11,8 +12,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 @Component
 @RestController
 @RequestMapping("/api/customers")
@@ -23,9 +22,10 @@ public class CustomerController
     private CustomerService customerService;
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<Customer> getAllCustomers()
+    public ResponseEntity<?> getAllCustomers(PageRequest pageRequest)
     {
-        return customerService.getAllCustomers();
+        return Pages.listOrPage(pageRequest, () -> customerService.getAllCustomers(),
+            request -> customerService.getAllCustomers(request));
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -0,0 +1,56 @@
+package com.edge.controller;
+
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Maps entity versions to HTTP entity tags: an entity at version 3 has the tag
+ * {@code "3"}. A client sends the tag back in {@code If-Match} to update the entity
+ * only if nobody has changed it since it was read.
+ */
+final class EntityTags
+{
+    private static final long NO_VERSION = -1;
+
+    private EntityTags()
+    {
+    }
+
+    /**
+     * Returns a 200 response with the entity and, if it has a version, its tag.
+     */
+    static <T> ResponseEntity<T> ok(T entity, Long version)
+    {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (version != null)
+        {
+            builder.eTag("\"" + version + "\"");
+        }
+        return builder.body(entity);
+    }
+
+    /**
+     * Returns the version an If-Match header asks for, or null if there is no header
+     * or it is {@code *}. If-Match uses strong comparison, so a weak or malformed tag
+     * yields a version no entity has and the update fails with 412.
+     */
+    static Long expectedVersion(String ifMatch)
+    {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*"))
+        {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() < 3 || !tag.startsWith("\"") || !tag.endsWith("\""))
+        {
+            return NO_VERSION;
+        }
+        try
+        {
+            return Long.parseLong(tag.substring(1, tag.length() - 1));
+        }
+        catch (NumberFormatException e)
+        {
+            return NO_VERSION;
+        }
+    }
+}
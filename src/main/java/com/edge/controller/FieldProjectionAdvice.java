@@ -0,0 +1,178 @@
+package com.edge.controller;
+
+import com.edge.entity.Customer;
+import com.edge.entity.Order;
+import com.edge.entity.Product;
+import com.edge.entity.PurchaseOrder;
+import com.edge.entity.RMA;
+import com.edge.entity.SFC;
+import com.edge.entity.Vendor;
+import com.edge.repository.Page;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.AbstractMappingJacksonResponseBodyAdvice;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Sparse fieldsets for every JSON response: with {@code fields=orderNumber,status,total}
+ * an entity, or each entity in a list or {@link Page}, is serialized with only those
+ * properties and its {@code id}. A name may also be a named projection of the entity
+ * type, e.g. {@code fields=summary} for the order and A/R lists, and be combined with
+ * properties ({@code fields=summary,notes}). The projection is a Jackson property
+ * filter (see {@code ProjectionConfig}), so unrequested properties are skipped while
+ * writing rather than removed from an intermediate map. Nested objects, such as order
+ * items when {@code items} is requested, are written in full.
+ */
+@RestControllerAdvice
+public class FieldProjectionAdvice extends AbstractMappingJacksonResponseBodyAdvice
+{
+    public static final String FILTER_ID = "projection";
+
+    private static final String FIELDS_PARAMETER = "fields";
+    private static final String ID_PROPERTY = "id";
+
+    private static final Map<Class<?>, Map<String, List<String>>> NAMED_PROJECTIONS = Map.of(
+        Order.class, Map.of("summary", List.of("orderNumber", "customerId", "status", "orderDate", "shipDate",
+            "invoiceNumber", "invoiceDate", "total", "version")),
+        PurchaseOrder.class, Map.of("summary", List.of("orderNumber", "supplierId", "status", "orderDate",
+            "expectedDeliveryDate", "invoiceNumber", "invoiceDate", "total")),
+        RMA.class, Map.of("summary", List.of("rmaNumber", "orderId", "orderNumber", "customerId", "customerName",
+            "rmaDate", "receivedDate", "status", "total")),
+        SFC.class, Map.of("summary", List.of("sfcNumber", "rmaId", "rmaNumber", "orderNumber", "customerName",
+            "createdDate", "completedDate", "status", "assignedTo")),
+        Customer.class, Map.of("summary", List.of("customerNumber", "companyName", "firstName", "lastName", "email")),
+        Vendor.class, Map.of("summary", List.of("vendorNumber", "companyName", "firstName", "lastName", "email")),
+        Product.class, Map.of("summary", List.of("productCode", "productName", "unitPrice", "active")));
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    protected void beforeBodyWriteInternal(MappingJacksonValue bodyContainer, MediaType contentType,
+            MethodParameter returnType, ServerHttpRequest request, ServerHttpResponse response)
+    {
+        if (!(request instanceof ServletServerHttpRequest servletRequest))
+        {
+            return;
+        }
+        String fields = servletRequest.getServletRequest().getParameter(FIELDS_PARAMETER);
+        Class<?> entityType = entityTypeOf(bodyContainer.getValue());
+        if (fields == null || fields.isBlank() || entityType == null)
+        {
+            return;
+        }
+        try
+        {
+            Set<String> properties = resolve(entityType, fields);
+            bodyContainer.setFilters(new SimpleFilterProvider().addFilter(FILTER_ID, new ProjectionFilter(entityType, properties)));
+        }
+        catch (IllegalArgumentException e)
+        {
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            bodyContainer.setValue(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * The entity class of a response body: the body itself, or the first element of a
+     * list or page. Null for other bodies and empty lists.
+     */
+    private static Class<?> entityTypeOf(Object body)
+    {
+        Object sample = body;
+        if (body instanceof Page<?> page)
+        {
+            sample = page.getItems().isEmpty() ? null : page.getItems().get(0);
+        }
+        else if (body instanceof Collection<?> collection)
+        {
+            sample = collection.isEmpty() ? null : collection.iterator().next();
+        }
+        return sample != null && sample.getClass().getPackage() == Order.class.getPackage() ? sample.getClass() : null;
+    }
+
+    private Set<String> resolve(Class<?> entityType, String fields)
+    {
+        Set<String> known = objectMapper.getSerializationConfig()
+            .introspect(objectMapper.constructType(entityType))
+            .findProperties().stream()
+            .map(BeanPropertyDefinition::getName)
+            .collect(Collectors.toCollection(TreeSet::new));
+        Map<String, List<String>> named = NAMED_PROJECTIONS.getOrDefault(entityType, Map.of());
+        Set<String> properties = new LinkedHashSet<>();
+        properties.add(ID_PROPERTY);
+        for (String field : fields.split(","))
+        {
+            String name = field.trim();
+            if (name.isEmpty())
+            {
+                continue;
+            }
+            if (named.containsKey(name))
+            {
+                properties.addAll(named.get(name));
+            }
+            else if (known.contains(name))
+            {
+                properties.add(name);
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown field '" + name + "' for " + entityType.getSimpleName()
+                    + ", fields: " + known + (named.isEmpty() ? "" : ", projections: " + new TreeSet<>(named.keySet())));
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Writes only the selected properties of the projected entity type; other beans,
+     * e.g. nested items, are written in full.
+     */
+    private static final class ProjectionFilter extends SimpleBeanPropertyFilter
+    {
+        private final Class<?> entityType;
+        private final Set<String> properties;
+
+        ProjectionFilter(Class<?> entityType, Set<String> properties)
+        {
+            this.entityType = entityType;
+            this.properties = properties;
+        }
+
+        @Override
+        public void serializeAsField(Object pojo, JsonGenerator generator, SerializerProvider provider, PropertyWriter writer)
+                throws Exception
+        {
+            if (pojo.getClass() != entityType || properties.contains(writer.getName()))
+            {
+                writer.serializeAsField(pojo, generator, provider);
+            }
+            else if (!generator.canOmitFields())
+            {
+                writer.serializeAsOmittedField(pojo, generator, provider);
+            }
+        }
+    }
+}
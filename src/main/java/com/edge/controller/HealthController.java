@@ -0,0 +1,33 @@
+package com.edge.controller;
+
+import com.edge.repository.RepositoryBootstrap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/health")
+public class HealthController
+{
+    
+    @Autowired
+    private RepositoryBootstrap repositoryBootstrap;
+    
+    /**
+     * Readiness probe: 503 until every repository has finished loading its data file.
+     */
+    @GetMapping(value = "/ready", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<Map<String, Object>> getReadiness()
+    {
+        boolean ready = repositoryBootstrap.isReady();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("ready", ready);
+        body.put("repositories", repositoryBootstrap.getStates());
+        return ResponseEntity.status(ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(body);
+    }
+}
@@ -4,15 +4,16 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Inventory;
+import com.edge.repository.AbstractJsonRepository.VersionConflictException;
+import com.edge.repository.PageRequest;
 import com.edge.service.InventoryService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 @RestController
 @RequestMapping("/api/inventory")
 public class InventoryController
@@ -22,29 +23,32 @@ public class InventoryController
     private InventoryService inventoryService;
     
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Inventory>> getAllInventory()
+    public ResponseEntity<?> getAllInventory(PageRequest pageRequest)
     {
-            return ResponseEntity.ok(inventoryService.getAllInventory());
+        return Pages.listOrPage(pageRequest, () -> inventoryService.getAllInventory(),
+            request -> inventoryService.getAllInventory(request));
     }
     
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<Inventory> getInventoryById(@PathVariable String id)
     {
             return inventoryService.getInventoryById(id)
-            .map(ResponseEntity::ok)
+            .map(inventory -> EntityTags.ok(inventory, inventory.getVersion()))
             .orElse(ResponseEntity.notFound().build());
     }
     
     @GetMapping(value = "/product/{productId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Inventory>> getInventoryByProductId(@PathVariable String productId)
+    public ResponseEntity<?> getInventoryByProductId(@PathVariable String productId, PageRequest pageRequest)
     {
-            return ResponseEntity.ok(inventoryService.getInventoryByProductId(productId));
+        return Pages.listOrPage(pageRequest, () -> inventoryService.getInventoryByProductId(productId),
+            request -> inventoryService.getInventoryByProductId(productId, request));
     }
     
     @GetMapping(value = "/warehouse/{warehouseId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Inventory>> getInventoryByWarehouseId(@PathVariable String warehouseId)
+    public ResponseEntity<?> getInventoryByWarehouseId(@PathVariable String warehouseId, PageRequest pageRequest)
     {
-            return ResponseEntity.ok(inventoryService.getInventoryByWarehouseId(warehouseId));
+        return Pages.listOrPage(pageRequest, () -> inventoryService.getInventoryByWarehouseId(warehouseId),
+            request -> inventoryService.getInventoryByWarehouseId(warehouseId, request));
     }
     
     @GetMapping(value = "/product/{productId}/warehouse/{warehouseId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -72,12 +76,17 @@ public class InventoryController
     }
     
     @PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<Inventory> updateInventory(@PathVariable String id, @RequestBody Inventory inventory)
+    public ResponseEntity<Inventory> updateInventory(@PathVariable String id, @RequestBody Inventory inventory,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
     {
         try
         {
-            Inventory updated = inventoryService.updateInventory(id, inventory);
-            return ResponseEntity.ok(updated);
+            Inventory updated = inventoryService.updateInventory(id, inventory, EntityTags.expectedVersion(ifMatch));
+            return EntityTags.ok(updated, updated.getVersion());
+        }
+        catch (VersionConflictException e)
+        {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
         }
         catch (Exception e)
         {
@@ -4,15 +4,21 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Order;
+import com.edge.repository.AbstractJsonRepository.ArchivedEntityException;
+import com.edge.repository.AbstractJsonRepository.EntityAlreadyExistsException;
+import com.edge.repository.AbstractJsonRepository.EntityNotFoundException;
+import com.edge.repository.AbstractJsonRepository.ReadOnlyException;
+import com.edge.repository.AbstractJsonRepository.VersionConflictException;
+import com.edge.repository.PageRequest;
 import com.edge.service.OrderService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 @Component
 @RestController
 @RequestMapping("/api/orders")
@@ -23,29 +29,32 @@ public class OrderController
     private OrderService orderService;
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<Order> getAllOrders()
+    public ResponseEntity<?> getAllOrders(PageRequest pageRequest)
     {
-        return orderService.getAllOrders();
+        return Pages.listOrPage(pageRequest, () -> orderService.getAllOrders(),
+            request -> orderService.getAllOrders(request));
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<Order> getOrderById(@PathVariable String id)
     {
         return orderService.getOrderById(id)
-            .map(ResponseEntity::ok)
+            .map(order -> EntityTags.ok(order, order.getVersion()))
             .orElse(ResponseEntity.notFound().build());
     }
 
     @GetMapping(value = "/customer/{customerId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Order>> getOrdersByCustomerId(@PathVariable String customerId)
+    public ResponseEntity<?> getOrdersByCustomerId(@PathVariable String customerId, PageRequest pageRequest)
     {
-        return ResponseEntity.ok(orderService.getOrdersByCustomerId(customerId));
+        return Pages.listOrPage(pageRequest, () -> orderService.getOrdersByCustomerId(customerId),
+            request -> orderService.getOrdersByCustomerId(customerId, request));
     }
 
     @GetMapping(value = "/status/{status}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Order>> getOrdersByStatus(@PathVariable String status)
+    public ResponseEntity<?> getOrdersByStatus(@PathVariable String status, PageRequest pageRequest)
     {
-        return ResponseEntity.ok(orderService.getOrdersByStatus(status));
+        return Pages.listOrPage(pageRequest, () -> orderService.getOrdersByStatus(status),
+            request -> orderService.getOrdersByStatus(status, request));
     }
 
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -55,37 +64,39 @@ public class OrderController
     }
 
     @PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<Order> updateOrder(@PathVariable String id, @RequestBody Order orderDetails)
+    public ResponseEntity<Order> updateOrder(@PathVariable String id, @RequestBody Order orderDetails,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
     {
         try
         {
             System.out.println("Received update request for order ID: " + id);
             System.out.println("Order details status: " + orderDetails.getStatus());
-            Order updatedOrder = orderService.updateOrder(id, orderDetails);
+            Order updatedOrder = orderService.updateOrder(id, orderDetails, EntityTags.expectedVersion(ifMatch));
             System.out.println("Updated order status: " + updatedOrder.getStatus());
-            return ResponseEntity.ok(updatedOrder);
+            return EntityTags.ok(updatedOrder, updatedOrder.getVersion());
         }
         catch (RuntimeException e)
         {
             System.err.println("Error updating order: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.notFound().build();
+            return updateFailed(e);
         }
     }
 
     @PostMapping(value = "/{orderId}/items", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
     public ResponseEntity<Order> addOrderItem(
             @PathVariable String orderId,
-            @RequestBody AddOrderItemRequest request)
+            @RequestBody AddOrderItemRequest request,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
     {
         try
         {
-            Order updatedOrder = orderService.addOrderItem(orderId, request.getProductId(), request.getQuantity());
-            return ResponseEntity.ok(updatedOrder);
+            Order updatedOrder = orderService.addOrderItem(orderId, request.getProductId(), request.getQuantity(),
+                EntityTags.expectedVersion(ifMatch));
+            return EntityTags.ok(updatedOrder, updatedOrder.getVersion());
         }
         catch (RuntimeException e)
         {
-            return ResponseEntity.notFound().build();
+            return updateFailed(e);
         }
     }
 
@@ -93,32 +104,35 @@ public class OrderController
     public ResponseEntity<Order> updateOrderItemQuantity(
             @PathVariable String orderId,
             @PathVariable String itemId,
-            @RequestBody UpdateQuantityRequest request)
+            @RequestBody UpdateQuantityRequest request,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
     {
         try
         {
-            Order updatedOrder = orderService.updateOrderItemQuantity(orderId, itemId, request.getQuantity());
-            return ResponseEntity.ok(updatedOrder);
+            Order updatedOrder = orderService.updateOrderItemQuantity(orderId, itemId, request.getQuantity(),
+                EntityTags.expectedVersion(ifMatch));
+            return EntityTags.ok(updatedOrder, updatedOrder.getVersion());
         }
         catch (RuntimeException e)
         {
-            return ResponseEntity.notFound().build();
+            return updateFailed(e);
         }
     }
 
     @DeleteMapping(value = "/{orderId}/items/{itemId}")
     public ResponseEntity<Order> removeOrderItem(
             @PathVariable String orderId,
-            @PathVariable String itemId)
+            @PathVariable String itemId,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
     {
         try
         {
-            Order updatedOrder = orderService.removeOrderItem(orderId, itemId);
-            return ResponseEntity.ok(updatedOrder);
+            Order updatedOrder = orderService.removeOrderItem(orderId, itemId, EntityTags.expectedVersion(ifMatch));
+            return EntityTags.ok(updatedOrder, updatedOrder.getVersion());
         }
         catch (RuntimeException e)
         {
-            return ResponseEntity.notFound().build();
+            return updateFailed(e);
         }
     }
 
@@ -150,6 +164,35 @@ public class OrderController
         }
     }
     
+    /**
+     * Maps the failure of an order update to its status: 404 if the order, item or
+     * product does not exist, 412 if If-Match names a stale version, 409 if the order
+     * cannot be changed here (archived, duplicate order number, read-only replica),
+     * 400 for invalid input and 500 if the change could not be stored.
+     */
+    private static ResponseEntity<Order> updateFailed(RuntimeException e)
+    {
+        if (e instanceof EntityNotFoundException)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        if (e instanceof VersionConflictException)
+        {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        }
+        if (e instanceof ArchivedEntityException || e instanceof EntityAlreadyExistsException
+            || e instanceof ReadOnlyException)
+        {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        if (e instanceof IllegalArgumentException)
+        {
+            return ResponseEntity.badRequest().build();
+        }
+        e.printStackTrace();
+        return ResponseEntity.internalServerError().build();
+    }
+    
     static class InvoiceNumberResponse
     {
         private String invoiceNumber;
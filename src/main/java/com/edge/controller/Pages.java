@@ -0,0 +1,49 @@
+package com.edge.controller;
+
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Serves a list endpoint either as before, the full list as a JSON array, or, if the
+ * request has any of the {@code limit}, {@code cursor} and {@code sort} parameters, as
+ * one {@link Page}: {@code {"items": [...], "nextCursor": "...", "total": n}}. The
+ * next page is requested with the same parameters and {@code cursor=nextCursor}.
+ * A {@code filter} narrows either form; with {@code explain=true} the page also
+ * reports how the filter was evaluated.
+ */
+final class Pages
+{
+    private Pages()
+    {
+    }
+
+    /**
+     * Returns the list or the requested page, or 400 if the sort, cursor, limit or
+     * filter is not valid.
+     */
+    static <T> ResponseEntity<?> listOrPage(PageRequest request, Supplier<List<T>> list, Function<PageRequest, Page<T>> page)
+    {
+        if (!request.isPaged() && request.getFilter() == null)
+        {
+            return ResponseEntity.ok(list.get());
+        }
+        try
+        {
+            if (!request.isPaged())
+            {
+                return ResponseEntity.ok(page.apply(request.unlimited()).getItems());
+            }
+            return ResponseEntity.ok(page.apply(request));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+}
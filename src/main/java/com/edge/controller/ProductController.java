@@ -4,6 +4,7 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Product;
+import com.edge.repository.PageRequest;
 import com.edge.service.ProductService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -11,8 +12,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 @Component
 @RestController
 @RequestMapping("/api/products")
@@ -23,15 +22,17 @@ public class ProductController
     private ProductService productService;
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<Product> getAllProducts()
+    public ResponseEntity<?> getAllProducts(PageRequest pageRequest)
     {
-        return productService.getAllProducts();
+        return Pages.listOrPage(pageRequest, () -> productService.getAllProducts(),
+            request -> productService.getAllProducts(request));
     }
 
     @GetMapping(value = "/active", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<Product> getActiveProducts()
+    public ResponseEntity<?> getActiveProducts(PageRequest pageRequest)
     {
-        return productService.getActiveProducts();
+        return Pages.listOrPage(pageRequest, () -> productService.getActiveProducts(),
+            request -> productService.getActiveProducts(request));
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
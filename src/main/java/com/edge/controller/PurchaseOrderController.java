@@ -5,6 +5,7 @@ package com.edge.controller;
  */
 
 import com.edge.entity.PurchaseOrder;
+import com.edge.repository.PageRequest;
 import com.edge.service.PurchaseOrderService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -12,8 +13,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 @Component
 @RestController
 @RequestMapping("/api/purchase-orders")
@@ -24,9 +23,10 @@ public class PurchaseOrderController
   private PurchaseOrderService purchaseOrderService;
 
   @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-  public List<PurchaseOrder> getAllPurchaseOrders()
+  public ResponseEntity<?> getAllPurchaseOrders(PageRequest pageRequest)
   {
-    return purchaseOrderService.getAllPurchaseOrders();
+    return Pages.listOrPage(pageRequest, () -> purchaseOrderService.getAllPurchaseOrders(),
+      request -> purchaseOrderService.getAllPurchaseOrders(request));
   }
 
   @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -38,15 +38,17 @@ public class PurchaseOrderController
   }
 
   @GetMapping(value = "/supplier/{supplierId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-  public ResponseEntity<List<PurchaseOrder>> getPurchaseOrdersBySupplierId(@PathVariable String supplierId)
+  public ResponseEntity<?> getPurchaseOrdersBySupplierId(@PathVariable String supplierId, PageRequest pageRequest)
   {
-    return ResponseEntity.ok(purchaseOrderService.getPurchaseOrdersBySupplierId(supplierId));
+    return Pages.listOrPage(pageRequest, () -> purchaseOrderService.getPurchaseOrdersBySupplierId(supplierId),
+      request -> purchaseOrderService.getPurchaseOrdersBySupplierId(supplierId, request));
   }
 
   @GetMapping(value = "/status/{status}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-  public ResponseEntity<List<PurchaseOrder>> getPurchaseOrdersByStatus(@PathVariable String status)
+  public ResponseEntity<?> getPurchaseOrdersByStatus(@PathVariable String status, PageRequest pageRequest)
   {
-    return ResponseEntity.ok(purchaseOrderService.getPurchaseOrdersByStatus(status));
+    return Pages.listOrPage(pageRequest, () -> purchaseOrderService.getPurchaseOrdersByStatus(status),
+      request -> purchaseOrderService.getPurchaseOrdersByStatus(status, request));
   }
 
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -5,6 +5,7 @@ package com.edge.controller;
  */
 
 import com.edge.entity.RMA;
+import com.edge.repository.PageRequest;
 import com.edge.service.RMAService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -12,8 +13,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 @Component
 @RestController
 @RequestMapping("/api/rmas")
@@ -24,9 +23,10 @@ public class RMAController
   private RMAService rmaService;
 
   @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-  public List<RMA> getAllRMAs()
+  public ResponseEntity<?> getAllRMAs(PageRequest pageRequest)
   {
-    return rmaService.getAllRMAs();
+    return Pages.listOrPage(pageRequest, () -> rmaService.getAllRMAs(),
+      request -> rmaService.getAllRMAs(request));
   }
 
   @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -38,21 +38,24 @@ public class RMAController
   }
 
   @GetMapping(value = "/order/{orderId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-  public ResponseEntity<List<RMA>> getRMAsByOrderId(@PathVariable String orderId)
+  public ResponseEntity<?> getRMAsByOrderId(@PathVariable String orderId, PageRequest pageRequest)
   {
-    return ResponseEntity.ok(rmaService.getRMAsByOrderId(orderId));
+    return Pages.listOrPage(pageRequest, () -> rmaService.getRMAsByOrderId(orderId),
+      request -> rmaService.getRMAsByOrderId(orderId, request));
   }
 
   @GetMapping(value = "/customer/{customerId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-  public ResponseEntity<List<RMA>> getRMAsByCustomerId(@PathVariable String customerId)
+  public ResponseEntity<?> getRMAsByCustomerId(@PathVariable String customerId, PageRequest pageRequest)
   {
-    return ResponseEntity.ok(rmaService.getRMAsByCustomerId(customerId));
+    return Pages.listOrPage(pageRequest, () -> rmaService.getRMAsByCustomerId(customerId),
+      request -> rmaService.getRMAsByCustomerId(customerId, request));
   }
 
   @GetMapping(value = "/status/{status}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-  public ResponseEntity<List<RMA>> getRMAsByStatus(@PathVariable String status)
+  public ResponseEntity<?> getRMAsByStatus(@PathVariable String status, PageRequest pageRequest)
   {
-    return ResponseEntity.ok(rmaService.getRMAsByStatus(status));
+    return Pages.listOrPage(pageRequest, () -> rmaService.getRMAsByStatus(status),
+      request -> rmaService.getRMAsByStatus(status, request));
   }
 
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
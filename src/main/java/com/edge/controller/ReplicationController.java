@@ -0,0 +1,46 @@
+package com.edge.controller;
+
+import com.edge.repository.ChangeFeed;
+import com.edge.repository.ReadReplica;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/replication")
+public class ReplicationController
+{
+
+    @Autowired
+    private ReadReplica readReplica;
+
+    @Autowired
+    private ChangeFeed changeFeed;
+
+    /**
+     * Role of this instance; on a replica also how far it has applied the primary's
+     * change log and its lag behind the primary.
+     */
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<Map<String, Object>> getStatus()
+    {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("state", readReplica.getState());
+        if (readReplica.isReplica())
+        {
+            body.put("appliedSequence", readReplica.getAppliedSequence());
+            body.put("primarySequence", readReplica.getPrimarySequence());
+            body.put("lag", readReplica.getLag());
+            body.put("problem", readReplica.getProblem());
+        }
+        else
+        {
+            body.put("lastSequence", changeFeed.getLastSequence());
+        }
+        return ResponseEntity.ok(body);
+    }
+}
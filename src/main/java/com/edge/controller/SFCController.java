@@ -4,6 +4,7 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.SFC;
+import com.edge.repository.PageRequest;
 import com.edge.service.SFCService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -11,8 +12,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 @Component
 @RestController
 @RequestMapping("/api/sfcs")
@@ -23,9 +22,10 @@ public class SFCController
     private SFCService sfcService;
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<SFC> getAllSFCs()
+    public ResponseEntity<?> getAllSFCs(PageRequest pageRequest)
     {
-        return sfcService.getAllSFCs();
+        return Pages.listOrPage(pageRequest, () -> sfcService.getAllSFCs(),
+            request -> sfcService.getAllSFCs(request));
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -37,15 +37,17 @@ public class SFCController
     }
 
     @GetMapping(value = "/rma/{rmaId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<SFC>> getSFCsByRMAId(@PathVariable String rmaId)
+    public ResponseEntity<?> getSFCsByRMAId(@PathVariable String rmaId, PageRequest pageRequest)
     {
-        return ResponseEntity.ok(sfcService.getSFCsByRMAId(rmaId));
+        return Pages.listOrPage(pageRequest, () -> sfcService.getSFCsByRMAId(rmaId),
+            request -> sfcService.getSFCsByRMAId(rmaId, request));
     }
 
     @GetMapping(value = "/status/{status}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<SFC>> getSFCsByStatus(@PathVariable String status)
+    public ResponseEntity<?> getSFCsByStatus(@PathVariable String status, PageRequest pageRequest)
     {
-        return ResponseEntity.ok(sfcService.getSFCsByStatus(status));
+        return Pages.listOrPage(pageRequest, () -> sfcService.getSFCsByStatus(status),
+            request -> sfcService.getSFCsByStatus(status, request));
     }
 
     @PostMapping(value = "/from-rma/{rmaId}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
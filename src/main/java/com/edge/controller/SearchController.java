@@ -0,0 +1,67 @@
+package com.edge.controller;
+
+import com.edge.service.SearchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/search")
+public class SearchController
+{
+
+    @Autowired
+    private SearchService searchService;
+
+    /**
+     * Ranked full-text search, e.g. {@code /api/search?q=widget&types=products}; types
+     * defaults to products, customers and vendors.
+     */
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<Map<String, Object>> search(@RequestParam String q, @RequestParam(required = false) String types,
+        @RequestParam(defaultValue = "20") int limit)
+    {
+        Set<String> requested = types == null || types.isBlank() ? Set.copyOf(SearchService.TYPES)
+            : Arrays.stream(types.split(",")).map(String::trim).filter(type -> !type.isEmpty()).collect(Collectors.toSet());
+        long start = System.nanoTime();
+        Map<String, Object> body = new LinkedHashMap<>();
+        try
+        {
+            body.put("query", q);
+            body.put("results", searchService.search(q, requested, limit));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        body.put("micros", (System.nanoTime() - start) / 1000);
+        return ResponseEntity.ok(body);
+    }
+
+    /**
+     * Autocompletion of codes and numbers, e.g.
+     * {@code /api/search/typeahead?field=productCode&prefix=pr}: the first matches in
+     * the field's order, ignoring case. Combine with {@code fields=} to return only what the
+     * dropdown shows.
+     */
+    @GetMapping(value = "/typeahead", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
+    public ResponseEntity<?> typeahead(@RequestParam String field, @RequestParam String prefix,
+        @RequestParam(defaultValue = "10") int limit)
+    {
+        try
+        {
+            return ResponseEntity.ok(searchService.typeahead(field, prefix, limit));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+}
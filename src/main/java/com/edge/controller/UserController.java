@@ -1,6 +1,7 @@
 package com.edge.controller;
 
 import com.edge.entity.User;
+import com.edge.repository.PageRequest;
 import com.edge.service.AuthService;
 import com.edge.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,7 +13,6 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
 import java.util.Map;
 
 @Component
@@ -28,9 +28,10 @@ public class UserController
     private AuthService authService;
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<User> getAllUsers()
+    public ResponseEntity<?> getAllUsers(PageRequest pageRequest)
     {
-        return userService.getAllUsers();
+        return Pages.listOrPage(pageRequest, () -> userService.getAllUsers(),
+            request -> userService.getAllUsers(request));
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
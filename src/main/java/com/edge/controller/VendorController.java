@@ -4,6 +4,7 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Vendor;
+import com.edge.repository.PageRequest;
 import com.edge.service.VendorService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -11,8 +12,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 @Component
 @RestController
 @RequestMapping("/api/vendors")
@@ -23,9 +22,10 @@ public class VendorController
     private VendorService vendorService;
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public List<Vendor> getAllVendors()
+    public ResponseEntity<?> getAllVendors(PageRequest pageRequest)
     {
-        return vendorService.getAllVendors();
+        return Pages.listOrPage(pageRequest, () -> vendorService.getAllVendors(),
+            request -> vendorService.getAllVendors(request));
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
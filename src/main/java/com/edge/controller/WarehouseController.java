@@ -4,6 +4,7 @@ package com.edge.controller;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Warehouse;
+import com.edge.repository.PageRequest;
 import com.edge.service.WarehouseService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -11,8 +12,6 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 @RestController
 @RequestMapping("/api/warehouses")
 public class WarehouseController
@@ -22,15 +21,17 @@ public class WarehouseController
     private WarehouseService warehouseService;
     
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Warehouse>> getAllWarehouses()
+    public ResponseEntity<?> getAllWarehouses(PageRequest pageRequest)
     {
-        return ResponseEntity.ok(warehouseService.getAllWarehouses());
+        return Pages.listOrPage(pageRequest, () -> warehouseService.getAllWarehouses(),
+            request -> warehouseService.getAllWarehouses(request));
     }
     
     @GetMapping(value = "/active", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
-    public ResponseEntity<List<Warehouse>> getActiveWarehouses()
+    public ResponseEntity<?> getActiveWarehouses(PageRequest pageRequest)
     {
-        return ResponseEntity.ok(warehouseService.getActiveWarehouses());
+        return Pages.listOrPage(pageRequest, () -> warehouseService.getActiveWarehouses(),
+            request -> warehouseService.getActiveWarehouses(request));
     }
     
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8")
@@ -14,5 +14,6 @@ public class Inventory
     private String warehouseId;
     private Integer quantity;
     private Map<String, Object> jsonData;
+    private Long version; // Advanced by the repository on every save
 }
 
@@ -30,6 +30,7 @@ public class Order
     private BigDecimal total;
     private String notes;
     private Map<String, Object> jsonData;
+    private Long version; // Advanced by the repository on every save
 
     public Order()
     {
@@ -1,185 +1,2200 @@
 package com.edge.repository;
 
+import com.edge.config.JsonDbConfig;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.YearMonth;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
+/**
+ * Base class for the JSON file repositories.
+ * <p>
+ * Concurrency: all mutations run under a single per-repository writer lock and are
+ * published as an immutable {@link RepositorySnapshot} when the outermost locked
+ * section ends. Readers use the current snapshot without locking, so they always see
+ * a consistent, committed version of the collection and its indexes. Code running
+ * inside the writer lock reads the uncommitted state instead.
+ * <p>
+ * Loading: the data file is not read in the constructor. {@link RepositoryBootstrap}
+ * loads all repositories in parallel once the application context is up; any access
+ * before that waits for the load to finish, or performs it if nobody has started it.
+ * <p>
+ * Storage: the collection is persisted by the {@link StorageEngine} configured for it
+ * with {@code jsondb.storage.<collection>}, the JSON data file by default. Repositories
+ * with an {@link ArchivePolicy} move old closed entities out of memory into a
+ * read-only {@link PartitionArchive}; finders still return them.
+ * <p>
+ * Lazy loading: with {@code jsondb.lazy.<collection>=true}, a repository that declares
+ * {@link #getLazyKeyProperties()} keeps each stored record as raw JSON plus a stub
+ * carrying only those properties, and deserializes it the first time a finder
+ * returns it (see {@link LazyRecord}). Indexes and the archive policy work on stubs.
+ */
 public abstract class AbstractJsonRepository<T>
 {
     protected static final Logger logger = LoggerFactory.getLogger(AbstractJsonRepository.class);
+    protected static final int DEFAULT_WAL_COMPACTION_THRESHOLD = 1000;
+    // Filters that take longer are logged with the access path they used
+    private static final long SLOW_QUERY_MICROS = 100_000;
     
     protected final ObjectMapper objectMapper;
     protected final Path dataFilePath;
     protected final String entityName;
-    protected List<T> items = new ArrayList<>();
+    protected final Class<T> entityType;
+    // Writer-side state, only accessed while holding writeLock: every entity has a
+    // position, assigned in insertion order, which findAll preserves. Both structures
+    // are persistent, so a snapshot shares them instead of copying.
+    private PersistentMap<String, Integer> positionsById = PersistentMap.empty();
+    private PersistentSequence<T> items = PersistentSequence.empty();
+    private int nextPosition;
+    private final List<EntityIndex<T>> indexes = new ArrayList<>();
+    private final List<SortIndex<T>> sortIndexes = new ArrayList<>();
+    private final List<TextIndex<T>> textIndexes = new ArrayList<>();
+    private final QueryPlanner<T> planner = new QueryPlanner<>(this, indexes, sortIndexes);
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private long version;
+    private boolean dirty;
+    // Set while setItems loads the collection
+    private boolean bulkLoading;
+    private volatile RepositorySnapshot<T> snapshot;
+    private final AtomicBoolean loadStarted = new AtomicBoolean();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private JsonDbConfig config = new JsonDbConfig();
+    private volatile StorageEngine<T> storageEngine;
+    private volatile PartitionArchive<T> archive;
+    // IDs of archived entities that were also in memory when the archive last changed,
+    // e.g. after a crash during an archive run; usually empty
+    private volatile Set<String> archivedInMemory = Set.of();
+    // Records loaded lazily, by ID. An entry only applies while its stub is the stored
+    // entity; it is kept after the entity is replaced, as older snapshots may still
+    // hold the stub.
+    private final Map<String, LazyRecord<T>> lazyRecords = new ConcurrentHashMap<>();
+    private final AtomicBoolean stubMismatchReported = new AtomicBoolean();
+    private WriteBehindFlusher writeBehindFlusher;
+    // Changes buffered by the unit of work this repository takes part in, by ID, with
+    // null for a delete; null outside a unit of work. Writer-side state.
+    private Map<String, T> unitOfWorkChanges;
+    // JSON of each entity the unit of work changes, as it was before its first change
+    private Map<String, JsonNode> unitOfWorkImages;
+    private RestorePoint unitOfWorkRestorePoint;
+    private volatile SequenceService sequenceService;
+    private volatile ChangeFeed changeFeed;
+    // Change events recorded while the writer lock is held, passed to the feed once
+    // the snapshot holding them is published. Writer-side state.
+    private List<ChangeEvent> unpublishedChanges = new ArrayList<>();
+    // Set on a read replica, where only replicated changes are stored
+    private volatile boolean readOnly;
 
     public AbstractJsonRepository(String dataDirName, String fileName, String entityName)
     {
         this.objectMapper = createObjectMapper();
         this.dataFilePath = initializeDataFilePath(dataDirName, fileName);
         this.entityName = entityName;
-        loadItems();
+        this.entityType = resolveEntityType();
+    }
+
+    @Autowired(required = false)
+    public void setJsonDbConfig(JsonDbConfig config)
+    {
+        this.config = config;
+    }
+
+    @Autowired(required = false)
+    public void setWriteBehindFlusher(WriteBehindFlusher writeBehindFlusher)
+    {
+        this.writeBehindFlusher = writeBehindFlusher;
+        writeBehindFlusher.register(this);
+    }
+
+    @Autowired(required = false)
+    public void setSequenceService(SequenceService sequenceService)
+    {
+        this.sequenceService = sequenceService;
+    }
+
+    @Autowired(required = false)
+    public void setChangeFeed(ChangeFeed changeFeed)
+    {
+        this.changeFeed = changeFeed;
+    }
+
+    /**
+     * Returns the next document number from the counter file, e.g. for order numbers.
+     */
+    protected long nextSequenceValue(Path counterFilePath, long initialValue)
+    {
+        if (sequenceService == null)
+        {
+            // Not running in a Spring context
+            synchronized (this)
+            {
+                if (sequenceService == null)
+                {
+                    sequenceService = new SequenceService();
+                }
+            }
+        }
+        return sequenceService.next(counterFilePath, initialValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<T> resolveEntityType()
+    {
+        // Walk up to the class that extends AbstractJsonRepository<Entity> directly
+        Class<?> type = getClass();
+        while (type.getSuperclass() != AbstractJsonRepository.class)
+        {
+            type = type.getSuperclass();
+        }
+        ParameterizedType superType = (ParameterizedType) type.getGenericSuperclass();
+        return (Class<T>) superType.getActualTypeArguments()[0];
     }
 
     protected ObjectMapper createObjectMapper()
     {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        return mapper;
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        return mapper;
+    }
+
+    protected Path initializeDataFilePath(String dataDirName, String fileName)
+    {
+        Path currentDir = Paths.get("").toAbsolutePath();
+        Path dataDir = currentDir.resolve(dataDirName);
+        return dataDir.resolve(fileName);
+    }
+
+    public String getEntityName()
+    {
+        return entityName;
+    }
+
+    /**
+     * Name of the collection in the {@code jsondb.storage.<collection>} setting: the
+     * entity name with spaces replaced by dashes, e.g. {@code purchase-orders}.
+     */
+    public String getCollectionName()
+    {
+        return entityName.replace(' ', '-');
+    }
+
+    public boolean isLoaded()
+    {
+        return loaded.getCount() == 0;
+    }
+
+    /**
+     * Loads the collection if that has not happened yet. If another thread is already
+     * loading it, waits for that thread to finish.
+     */
+    public final void ensureLoaded()
+    {
+        if (isLoaded() || writeLock.isHeldByCurrentThread())
+        {
+            return;
+        }
+        if (loadStarted.compareAndSet(false, true))
+        {
+            loadItems();
+            return;
+        }
+        try
+        {
+            loaded.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new DataPersistenceException("Interrupted while waiting for " + entityName + " to load", e);
+        }
+    }
+
+    protected void loadItems()
+    {
+        try
+        {
+            lockedWrite(() ->
+            {
+                try
+                {
+                    storageEngine = createStorageEngine();
+                    logger.info("Loading {} from {} storage", entityName, storageEngine.getType());
+                    clearItems();
+                    Set<String> keyProperties = getLazyKeyProperties();
+                    if (keyProperties != null && config.isLazy(getCollectionName()))
+                    {
+                        storageEngine.loadLazily(keyProperties, this::addLazyRecord, this::addLoadedItem, this::removeItem);
+                    }
+                    else
+                    {
+                        storageEngine.load(this::addLoadedItem, this::removeItem);
+                    }
+                    logger.info("Loaded {} {} ({} not yet deserialized)", items.size(), entityName, lazyRecords.size());
+                    openArchive();
+                }
+                catch (Exception e)
+                {
+                    // Without an engine, writes fail instead of overwriting the stored data
+                    logger.error("Error loading {}, starting empty and read-only: {}", entityName, e.getMessage(), e);
+                    if (storageEngine != null)
+                    {
+                        storageEngine.close();
+                        storageEngine = null;
+                    }
+                    setItems(new ArrayList<>());
+                }
+                return null;
+            });
+        }
+        finally
+        {
+            // Only after unlocking, which publishes the loaded snapshot to the waiting readers
+            loaded.countDown();
+        }
+    }
+
+    /**
+     * Creates the storage engine configured for this collection. The JSON engine also
+     * serves as the import source when a collection is switched to another engine.
+     */
+    protected StorageEngine<T> createStorageEngine()
+    {
+        FileCompression compression = config.isCompress()
+            ? FileCompression.gzip(config.getCompressionLevel())
+            : FileCompression.NONE;
+        JsonFileStorageEngine<T> jsonEngine = new JsonFileStorageEngine<>(entityName, dataFilePath, objectMapper,
+            entityType, config.isBinarySnapshot(), getWalCompactionThreshold(), compression);
+        String type = config.getStorageFor(getCollectionName());
+        switch (type)
+        {
+            case JsonFileStorageEngine.TYPE:
+                return jsonEngine;
+            case SegmentedStorageEngine.TYPE:
+                return new SegmentedStorageEngine<>(entityName,
+                    JsonFileStorageEngine.resolveSiblingPath(dataFilePath, SegmentedStorageEngine.DIRECTORY_EXTENSION),
+                    objectMapper, entityType, this::getId, config.getSegmentSize(), jsonEngine, compression);
+            case H2StorageEngine.TYPE:
+                String jdbcUrl = config.getH2Url() != null && !config.getH2Url().isBlank()
+                    ? config.getH2Url()
+                    : "jdbc:h2:file:" + dataFilePath.getParent().resolve("jsondb").toAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE";
+                return new H2StorageEngine<>(jdbcUrl, entityName, objectMapper, entityType, this::getId, indexes, jsonEngine);
+            default:
+                throw new IllegalStateException("Unknown storage engine '" + type + "' for " + getCollectionName());
+        }
+    }
+
+    /**
+     * Returns the properties a stub needs when the collection is loaded lazily: the ID
+     * and every property used by an index or by the archive policy. Null (the
+     * default) means the collection is always loaded in full.
+     */
+    protected Set<String> getLazyKeyProperties()
+    {
+        return null;
+    }
+
+    private void addLazyRecord(LazyRecord<T> record)
+    {
+        addLoadedItem(record.getStub());
+        lazyRecords.put(getId(record.getStub()), record);
+    }
+
+    /**
+     * Returns the full entity for an entity taken from the collection, deserializing
+     * it if it is still a stub.
+     */
+    private T resolve(T entity)
+    {
+        if (entity == null || lazyRecords.isEmpty())
+        {
+            return entity;
+        }
+        LazyRecord<T> record = lazyRecords.get(getId(entity));
+        return record != null && record.getStub() == entity ? record.get(raw -> materialize(entity, raw)) : entity;
+    }
+
+    /**
+     * Like {@link #resolve}, but does not keep the deserialized entity, for entities
+     * that are about to be written out or leave memory.
+     */
+    T peek(T entity)
+    {
+        LazyRecord<T> record = lazyRecords.get(getId(entity));
+        return record != null && record.getStub() == entity ? record.peek(raw -> materialize(entity, raw)) : entity;
+    }
+
+    /**
+     * Returns a read-only view of the entities that deserializes stubs as they are
+     * accessed, or the list itself if nothing was loaded lazily.
+     */
+    List<T> resolveAll(List<T> entities)
+    {
+        if (lazyRecords.isEmpty())
+        {
+            return entities;
+        }
+        return new AbstractList<>()
+        {
+            @Override
+            public T get(int index)
+            {
+                return resolve(entities.get(index));
+            }
+
+            @Override
+            public int size()
+            {
+                return entities.size();
+            }
+
+            @Override
+            public Iterator<T> iterator()
+            {
+                Iterator<T> iterator = entities.iterator();
+                return new Iterator<>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public T next()
+                    {
+                        return resolve(iterator.next());
+                    }
+                };
+            }
+        };
+    }
+
+    private T materialize(T stub, byte[] raw)
+    {
+        T entity;
+        try
+        {
+            entity = objectMapper.readValue(raw, entityType);
+        }
+        catch (IOException e)
+        {
+            throw new DataPersistenceException("Failed to read " + entityName + " with ID: " + getId(stub), e);
+        }
+        if (getId(entity) == null || getId(entity).isEmpty())
+        {
+            // The ID was assigned at load time
+            setId(entity, getId(stub));
+        }
+        for (EntityIndex<T> index : indexes)
+        {
+            if (!Objects.equals(index.keyOf(stub), index.keyOf(entity)) && stubMismatchReported.compareAndSet(false, true))
+            {
+                logger.warn("Index {} of {} differs between stub and stored record, check getLazyKeyProperties()", index.getName(), entityName);
+            }
+        }
+        for (SortIndex<T> sortIndex : sortIndexes)
+        {
+            if (!Objects.equals(sortIndex.valueOf(stub), sortIndex.valueOf(entity)) && stubMismatchReported.compareAndSet(false, true))
+            {
+                logger.warn("Sort index {} of {} differs between stub and stored record, check getLazyKeyProperties()", sortIndex.getName(), entityName);
+            }
+        }
+        for (TextIndex<T> textIndex : textIndexes)
+        {
+            if (!textIndex.sameText(stub, entity) && stubMismatchReported.compareAndSet(false, true))
+            {
+                logger.warn("Text index {} of {} differs between stub and stored record, check getLazyKeyProperties()", textIndex.getName(), entityName);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Returns the rule for moving closed entities to the archive, or null (the default)
+     * if this collection is never archived.
+     */
+    protected ArchivePolicy<T> getArchivePolicy()
+    {
+        return null;
+    }
+
+    /**
+     * Opens the archive and moves eligible entities into it. Failures are logged; the
+     * collection then works without an archive, with archived entities invisible.
+     */
+    private void openArchive()
+    {
+        if (getArchivePolicy() == null || !config.isArchive())
+        {
+            return;
+        }
+        PartitionArchive<T> opened = new PartitionArchive<>(entityName, getArchiveDirectory(),
+            objectMapper, entityType, this::getId, indexes,
+            sortIndexes.stream().filter(sortIndex -> sortIndex.getPrefixOf() == null).toList(),
+            config.getArchiveCachePartitions());
+        try
+        {
+            opened.open();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.error("Failed to open {} archive, archived {} are not available: {}", entityName, entityName, e.getMessage(), e);
+            return;
+        }
+        archive = opened;
+        try
+        {
+            archiveClosedEntities();
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Failed to archive closed {}: {}", entityName, e.getMessage(), e);
+        }
+        finally
+        {
+            updateArchivedInMemory();
+        }
+    }
+
+    /**
+     * Moves entities that the archive policy considers closed and old enough from
+     * memory and the storage engine to the archive. Runs at startup and before every
+     * compaction; returns the number of archived entities.
+     */
+    public int archive()
+    {
+        return inWriteLock(() ->
+        {
+            checkNotInUnitOfWork("archived");
+            return archiveClosedEntities();
+        });
+    }
+
+    private int archiveClosedEntities()
+    {
+        ArchivePolicy<T> policy = getArchivePolicy();
+        if (archive == null || policy == null)
+        {
+            return 0;
+        }
+        YearMonth firstHotMonth = YearMonth.now().minusMonths(config.getArchiveAfterMonths());
+        Map<YearMonth, List<T>> closedByMonth = new TreeMap<>();
+        for (T entity : items.asList())
+        {
+            if (policy.isArchivable(entity, firstHotMonth))
+            {
+                closedByMonth.computeIfAbsent(policy.partitionOf(entity), month -> new ArrayList<>()).add(entity);
+            }
+        }
+        if (closedByMonth.isEmpty())
+        {
+            return 0;
+        }
+
+        // Archive first: after a crash in between, the entity is still in memory and
+        // wins over its archived copy until the next run archives it again
+        StorageEngine<T> engine = requireStorageEngine();
+        int archived = 0;
+        try
+        {
+            Map<YearMonth, List<T>> toArchive = closedByMonth;
+            if (!lazyRecords.isEmpty())
+            {
+                toArchive = new TreeMap<>();
+                for (Map.Entry<YearMonth, List<T>> entry : closedByMonth.entrySet())
+                {
+                    toArchive.put(entry.getKey(), entry.getValue().stream().map(this::peek).toList());
+                }
+            }
+            archive.add(toArchive);
+            for (List<T> entities : closedByMonth.values())
+            {
+                for (T entity : entities)
+                {
+                    removeItem(getId(entity));
+                    engine.delete(getId(entity));
+                    archived++;
+                }
+            }
+            engine.flush(false);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to archive {}: {}", entityName, e.getMessage(), e);
+            throw new DataPersistenceException("Failed to archive " + entityName, e);
+        }
+        finally
+        {
+            updateArchivedInMemory();
+        }
+        logger.info("Archived {} {} into {} monthly partitions, {} remain in memory", archived, entityName, closedByMonth.size(), items.size());
+        return archived;
+    }
+
+    /**
+     * Records which archived entities are also in memory, so counting the archived
+     * entities a page includes does not have to look at every archived ID. An entity
+     * only gets into both by an archive run, as an archived ID cannot be saved again.
+     */
+    private void updateArchivedInMemory()
+    {
+        PartitionArchive<T> current = archive;
+        archivedInMemory = current == null ? Set.of() : Set.copyOf(current.findIds(positionsById::containsKey));
+    }
+
+    private boolean isArchived(String id)
+    {
+        PartitionArchive<T> current = archive;
+        return current != null && current.contains(id) && !positionsById.containsKey(id);
+    }
+
+    private void checkNotArchived(String id)
+    {
+        if (isArchived(id))
+        {
+            throw new ArchivedEntityException(entityName + " with ID " + id + " is archived and read-only");
+        }
+    }
+
+    /**
+     * Adds the archived entities matching an index key to the in-memory matches.
+     * Archived copies of entities that are also in memory are left out.
+     */
+    List<T> withArchived(EntityIndex<T> index, Object key, List<T> matches)
+    {
+        PartitionArchive<T> current = archive;
+        if (current == null)
+        {
+            return matches;
+        }
+        List<T> archived = current.findByIndex(index, key);
+        if (archived.isEmpty())
+        {
+            return matches;
+        }
+        List<T> combined = new ArrayList<>(archived.size() + matches.size());
+        for (T entity : archived)
+        {
+            if (!isInMemory(getId(entity)))
+            {
+                combined.add(entity);
+            }
+        }
+        combined.addAll(matches);
+        return List.copyOf(combined);
+    }
+
+    private boolean isInMemory(String id)
+    {
+        return isWriting() ? positionsById.containsKey(id) : snapshot().findById(id).isPresent();
+    }
+
+    private StorageEngine<T> requireStorageEngine()
+    {
+        StorageEngine<T> engine = storageEngine;
+        if (engine == null)
+        {
+            throw new DataPersistenceException("No storage engine for " + entityName + ", see the startup log", null);
+        }
+        return engine;
+    }
+
+    /**
+     * Runs a read-modify-write sequence under the repository's writer lock and
+     * publishes the result as a new snapshot once the outermost locked section ends.
+     * The lock is reentrant, so locked sections may call each other.
+     */
+    protected final <R> R inWriteLock(Supplier<R> action)
+    {
+        ensureLoaded();
+        return lockedWrite(action);
+    }
+
+    protected final void inWriteLock(Runnable action)
+    {
+        ensureLoaded();
+        lockedWrite(() ->
+        {
+            action.run();
+            return null;
+        });
+    }
+
+    private <R> R lockedWrite(Supplier<R> action)
+    {
+        writeLock.lock();
+        try
+        {
+            return action.get();
+        }
+        finally
+        {
+            unlockWrite();
+        }
+    }
+
+    private void unlockWrite()
+    {
+        List<ChangeEvent> changes = null;
+        try
+        {
+            if (writeLock.getHoldCount() == 1)
+            {
+                if (!unpublishedChanges.isEmpty())
+                {
+                    changes = unpublishedChanges;
+                    unpublishedChanges = new ArrayList<>();
+                }
+                if (dirty || snapshot == null)
+                {
+                    version++;
+                    snapshot = new RepositorySnapshot<>(version, positionsById, items, indexes, sortIndexes, textIndexes);
+                    dirty = false;
+                }
+            }
+        }
+        finally
+        {
+            writeLock.unlock();
+            if (changes != null)
+            {
+                changeFeed.publish(changes);
+            }
+        }
+    }
+
+    boolean isWriting()
+    {
+        return writeLock.isHeldByCurrentThread();
+    }
+
+    /**
+     * Returns the latest committed snapshot of the collection without locking.
+     */
+    public RepositorySnapshot<T> snapshot()
+    {
+        ensureLoaded();
+        return snapshot;
+    }
+
+    /**
+     * Replaces the in-memory collection with entities read from the data file,
+     * rebuilding the primary-key and secondary indexes.
+     */
+    protected void setItems(List<T> loadedItems)
+    {
+        clearItems();
+        // Text indexes are built in one go once the collection is complete
+        bulkLoading = true;
+        try
+        {
+            for (T item : loadedItems)
+            {
+                addLoadedItem(item);
+            }
+        }
+        finally
+        {
+            bulkLoading = false;
+        }
+        for (TextIndex<T> textIndex : textIndexes)
+        {
+            textIndex.rebuild(items, positionsById, this::getId);
+        }
+    }
+
+    private void clearItems()
+    {
+        positionsById = PersistentMap.empty();
+        items = PersistentSequence.empty();
+        nextPosition = 0;
+        for (EntityIndex<T> index : indexes)
+        {
+            index.clear();
+        }
+        for (SortIndex<T> sortIndex : sortIndexes)
+        {
+            sortIndex.clear();
+        }
+        for (TextIndex<T> textIndex : textIndexes)
+        {
+            textIndex.clear();
+        }
+        dirty = true;
+    }
+
+    private void addLoadedItem(T item)
+    {
+        if (item == null)
+        {
+            return;
+        }
+        if (getId(item) == null || getId(item).isEmpty())
+        {
+            setId(item, generateId());
+            logger.warn("Loaded {} record without an ID, assigned ID: {}", entityName, getId(item));
+        }
+        if (positionsById.containsKey(getId(item)))
+        {
+            // A later change from the log, or a duplicate record in the data file
+            logger.debug("Replacing loaded {} with ID: {}", entityName, getId(item));
+        }
+        putItem(item);
+    }
+
+    /**
+     * Declares a secondary index whose key identifies at most one entity, e.g. an
+     * order number. Intended to be called from a field initializer of the subclass;
+     * the index is built from the entities already loaded and maintained on every
+     * mutation from then on. Saving an entity whose key another entity, in memory or
+     * archived, already has fails with an {@link EntityAlreadyExistsException}; entities
+     * without a key (a null or blank key part) are not checked.
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    protected final EntityIndex<T> uniqueIndex(String name, Function<T, ?>... keyParts)
+    {
+        return registerIndex(new EntityIndex<>(this, name, true, List.of(keyParts)));
+    }
+
+    /**
+     * Declares a non-unique secondary index over one field, or over several fields
+     * for a composite key.
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    protected final EntityIndex<T> index(String name, Function<T, ?>... keyParts)
+    {
+        return registerIndex(new EntityIndex<>(this, name, false, List.of(keyParts)));
+    }
+
+    /**
+     * Declares a sort index over one field, which {@link #findPage} can order pages by
+     * under the index's name. Like the other indexes, it is intended to be called from
+     * a field initializer of the subclass.
+     */
+    protected final <C extends Comparable<? super C>> SortIndex<T> sortIndex(String name, Class<C> type, Function<T, C> field)
+    {
+        return registerSortIndex(new SortIndex<>(name, type, field));
+    }
+
+    /**
+     * Declares a prefix index over the keys of a unique index over one field, which
+     * {@link #findByPrefix} completes prefixes from. Keys are normalized like text in
+     * a {@link TextIndex} (NFKC and lower case); archived entities are found through
+     * the unique index's keys in the archive's key files.
+     */
+    protected final SortIndex<T> prefixIndex(EntityIndex<T> keys)
+    {
+        if (!keys.isUnique() || keys.getKeyPartCount() != 1)
+        {
+            throw new IllegalArgumentException("Index " + keys.getName() + " of " + entityName + " is not a unique index over one field");
+        }
+        return registerSortIndex(SortIndex.prefixIndex(keys));
+    }
+
+    private SortIndex<T> registerSortIndex(SortIndex<T> sortIndex)
+    {
+        return lockedWrite(() ->
+        {
+            positionsById.forEach((id, position) -> sortIndex.put(id, items.get(position)));
+            sortIndexes.add(sortIndex);
+            dirty = true;
+            return sortIndex;
+        });
+    }
+
+    /**
+     * Declares a full-text index over text fields, see {@link TextIndex}. Like the
+     * other indexes, it is intended to be called from a field initializer of the
+     * subclass.
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    protected final TextIndex<T> textIndex(String name, TextIndex.Field<T>... fields)
+    {
+        TextIndex<T> textIndex = new TextIndex<>(this, name, List.of(fields));
+        return lockedWrite(() ->
+        {
+            positionsById.forEach((id, position) -> textIndex.put(id, position, items.get(position)));
+            textIndexes.add(textIndex);
+            dirty = true;
+            return textIndex;
+        });
+    }
+
+    /**
+     * The names {@link PageRequest#getSort()} accepts, in declaration order.
+     */
+    public List<String> getSortFields()
+    {
+        return sortIndexes.stream().filter(sortIndex -> sortIndex.getPrefixOf() == null).map(SortIndex::getName).toList();
+    }
+
+    private EntityIndex<T> registerIndex(EntityIndex<T> index)
+    {
+        // Indexes are declared while the subclass is constructed, before loading
+        return lockedWrite(() ->
+        {
+            positionsById.forEach((id, position) -> index.put(id, position, items.get(position)));
+            indexes.add(index);
+            dirty = true;
+            return index;
+        });
+    }
+
+    private T getItem(String id)
+    {
+        Integer position = positionsById.get(id);
+        return position == null ? null : items.get(position);
+    }
+
+    private void putItem(T entity)
+    {
+        String id = getId(entity);
+        Integer position = positionsById.get(id);
+        if (position == null)
+        {
+            if (nextPosition > PersistentSequence.MAX_POSITION)
+            {
+                renumberItems();
+            }
+            position = nextPosition++;
+            positionsById = positionsById.with(id, position);
+        }
+        items = items.with(position, entity);
+        for (EntityIndex<T> index : indexes)
+        {
+            index.put(id, position, entity);
+        }
+        for (SortIndex<T> sortIndex : sortIndexes)
+        {
+            sortIndex.put(id, entity);
+        }
+        if (!bulkLoading)
+        {
+            for (TextIndex<T> textIndex : textIndexes)
+            {
+                textIndex.put(id, position, entity);
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Assigns consecutive positions again once they have run out, which takes about
+     * a billion inserts; removed entities leave gaps.
+     */
+    private void renumberItems()
+    {
+        List<T> current = List.copyOf(items.asList());
+        clearItems();
+        for (T entity : current)
+        {
+            putItem(entity);
+        }
+    }
+
+    private boolean removeItem(String id)
+    {
+        Integer position = positionsById.get(id);
+        if (position == null)
+        {
+            return false;
+        }
+        positionsById = positionsById.without(id);
+        items = items.without(position);
+        for (EntityIndex<T> index : indexes)
+        {
+            index.remove(id);
+        }
+        for (SortIndex<T> sortIndex : sortIndexes)
+        {
+            sortIndex.remove(id);
+        }
+        for (TextIndex<T> textIndex : textIndexes)
+        {
+            textIndex.remove(id);
+        }
+        dirty = true;
+        return true;
+    }
+
+    // Abstract methods for entity ID management
+    protected abstract String getId(T entity);
+    protected abstract void setId(T entity, String id);
+
+    /**
+     * Returns the version of an entity, or null if it has none. Repositories whose
+     * entities carry a version override this and {@link #setVersion}; the version is
+     * then advanced on every save, and saving an entity read at an older version fails
+     * with a {@link VersionConflictException}. The default keeps entities unversioned.
+     */
+    protected Long getVersion(T entity)
+    {
+        return null;
+    }
+
+    protected void setVersion(T entity, long version)
+    {
+    }
+
+    private long versionOf(T entity)
+    {
+        Long version = getVersion(entity);
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * Fails if an expected version is given and the entity is no longer at it, e.g.
+     * for an update conditional on an HTTP If-Match header.
+     */
+    protected void checkVersion(T current, Long expectedVersion)
+    {
+        if (expectedVersion != null && expectedVersion != versionOf(current))
+        {
+            throw new VersionConflictException(entityName + " with ID " + getId(current) + " is at version "
+                + versionOf(current) + ", not " + expectedVersion);
+        }
+    }
+
+    /**
+     * Checks the version the entity was read at against the stored entity and gives
+     * it the next version. A new entity starts at version 1; an entity without a
+     * version is saved unconditionally.
+     */
+    private void advanceVersion(T entity)
+    {
+        T stored = getItem(getId(entity));
+        long current = stored == null ? 0 : versionOf(peek(stored));
+        Long expected = getVersion(entity);
+        if (stored != null && expected != null && expected != current)
+        {
+            throw new VersionConflictException(entityName + " with ID " + getId(entity) + " was changed concurrently: version "
+                + expected + " is stale, current version is " + current);
+        }
+        setVersion(entity, current + 1);
+    }
+
+    // Generic CRUD operations
+    public Optional<T> findById(String id)
+    {
+        if (id == null || id.trim().isEmpty())
+        {
+            return Optional.empty();
+        }
+        
+        Optional<T> found = (isWriting() ? Optional.ofNullable(getItem(id)) : snapshot().findById(id)).map(this::resolve);
+        PartitionArchive<T> current = archive;
+        if (found.isEmpty() && current != null)
+        {
+            return current.findById(id);
+        }
+        return found;
+    }
+
+    /**
+     * Returns a private deep copy of the entity that the caller may modify and then
+     * pass to save() or an update method. Entities returned by the other finders
+     * belong to the published snapshot and must not be modified.
+     */
+    public Optional<T> findByIdForUpdate(String id)
+    {
+        return findById(id).map(this::copyOf);
+    }
+
+    protected T copyOf(T entity)
+    {
+        try
+        {
+            return objectMapper.treeToValue(objectMapper.valueToTree(entity), entityType);
+        }
+        catch (IOException e)
+        {
+            throw new DataPersistenceException("Failed to copy " + entityName + " with ID: " + getId(entity), e);
+        }
+    }
+
+    public T save(T entity)
+    {
+        if (entity == null)
+        {
+            throw new IllegalArgumentException(entityName + " cannot be null");
+        }
+        
+        return inWriteLock(() ->
+        {
+            if (getId(entity) == null || getId(entity).isEmpty())
+            {
+                setId(entity, generateId());
+                saveItem(entity);
+                logger.info("Created new {} with ID: {}", entityName, getId(entity));
+            }
+            else
+            {
+                // Update existing, keeping its position
+                checkNotArchived(getId(entity));
+                if (!positionsById.containsKey(getId(entity)))
+                {
+                    throw new EntityNotFoundException(entityName + " not found with id: " + getId(entity));
+                }
+                saveItem(entity);
+                logger.info("Updated {} with ID: {}", entityName, getId(entity));
+            }
+            
+            return entity;
+        });
+    }
+
+    public void deleteById(String id)
+    {
+        if (id == null || id.trim().isEmpty())
+        {
+            throw new IllegalArgumentException(entityName + " ID cannot be null or empty");
+        }
+        
+        checkWritable();
+        inWriteLock(() ->
+        {
+            JsonNode before = imageOf(getItem(id));
+            boolean removed = removeItem(id);
+            if (removed)
+            {
+                writeToStorage(id, null, before);
+                logger.info("Deleted {} with ID: {}", entityName, id);
+            }
+            else
+            {
+                checkNotArchived(id);
+                logger.warn("Attempted to delete {} with ID: {}, but {} was not found", entityName, id, entityName);
+            }
+        });
+    }
+
+    /**
+     * Records a created or modified entity as a single change in the storage engine
+     * (one write-ahead log record for JSON storage, one row for H2), so the cost of a
+     * write is proportional to the entity rather than the collection. Subclasses call
+     * this after changing an entity in place; it also refreshes the entity's
+     * secondary index entries and advances its version, if it has one.
+     */
+    protected void saveItem(T entity)
+    {
+        checkWritable();
+        inWriteLock(() ->
+        {
+            checkNotArchived(getId(entity));
+            checkUniqueKeys(entity);
+            JsonNode before = imageOf(getItem(getId(entity)));
+            advanceVersion(entity);
+            putItem(entity);
+            writeToStorage(getId(entity), entity, before);
+        });
+    }
+
+    /**
+     * Rejects an entity whose key in a unique index already belongs to another entity.
+     */
+    private void checkUniqueKeys(T entity)
+    {
+        for (EntityIndex<T> index : indexes)
+        {
+            T conflict = index.findConflict(getId(entity), entity);
+            if (conflict != null)
+            {
+                throw new EntityAlreadyExistsException(entityName + " with " + index.getName() + " "
+                    + EntityIndex.keyString(index.keyOf(entity)) + " already exists (ID " + getId(conflict) + ")");
+            }
+        }
+    }
+
+    /**
+     * Writes a put, or a delete if the entity is null, to the storage engine and
+     * records the change in the change feed; inside a unit of work the change is
+     * buffered until the unit commits. before is the JSON of the entity as it was.
+     */
+    private void writeToStorage(String id, T entity, JsonNode before)
+    {
+        if (unitOfWorkChanges != null)
+        {
+            unitOfWorkChanges.put(id, entity);
+            if (!unitOfWorkImages.containsKey(id))
+            {
+                unitOfWorkImages.put(id, before);
+            }
+            return;
+        }
+        StorageEngine<T> engine = requireStorageEngine();
+        try
+        {
+            if (entity == null)
+            {
+                engine.delete(id);
+            }
+            else
+            {
+                engine.put(id, entity);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write {} change to {} storage: {}", entityName, engine.getType(), e.getMessage(), e);
+            throw new DataPersistenceException("Failed to save " + entityName, e);
+        }
+        recordChange(id, before, entity);
+        flushWritten(engine);
+    }
+
+    /**
+     * Returns the JSON of a stored entity for the change feed, or null if there is no
+     * entity or no feed.
+     */
+    private JsonNode imageOf(T stored)
+    {
+        return stored == null || changeFeed == null ? null : objectMapper.valueToTree(peek(stored));
+    }
+
+    private void recordChange(String id, JsonNode before, T entity)
+    {
+        ChangeFeed feed = changeFeed;
+        if (feed != null && (before != null || entity != null))
+        {
+            unpublishedChanges.add(feed.record(getCollectionName(), id, before, entity == null ? null : objectMapper.valueToTree(entity)));
+        }
+    }
+
+    private void flushWritten(StorageEngine<T> engine)
+    {
+        try
+        {
+            if (!isWriteBehind() || engine.getPendingCount() >= writeBehindFlusher.getMaxPending())
+            {
+                engine.flush(false);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write {} change to {} storage: {}", entityName, engine.getType(), e.getMessage(), e);
+            throw new DataPersistenceException("Failed to save " + entityName, e);
+        }
+        
+        if (engine.needsCompaction())
+        {
+            saveItems();
+        }
+    }
+
+    /**
+     * Joins a unit of work: takes the writer lock, held until
+     * {@link #leaveUnitOfWork()}, and from then on buffers changes instead of writing
+     * them. Reads on this thread see the buffered changes, other readers keep seeing
+     * the last published snapshot.
+     */
+    void enterUnitOfWork()
+    {
+        ensureLoaded();
+        writeLock.lock();
+        if (unitOfWorkChanges != null)
+        {
+            writeLock.unlock();
+            throw new IllegalStateException(entityName + " already takes part in a unit of work");
+        }
+        unitOfWorkRestorePoint = new RestorePoint();
+        unitOfWorkChanges = new LinkedHashMap<>();
+        unitOfWorkImages = new HashMap<>();
+    }
+
+    /**
+     * First step of the commit: hands the unit's changes to the storage engine as one
+     * batch, which the engine may buffer until the next flush. If the engine does not
+     * accept the batch, the unit is undone, see {@link #undoUnitOfWork}.
+     */
+    void writeUnitOfWork()
+    {
+        if (unitOfWorkChanges.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            requireStorageEngine().applyBatch(unitOfWorkChanges);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.error("Failed to write {} {} changes to storage: {}", unitOfWorkChanges.size(), entityName, e.getMessage(), e);
+            // The engine may have taken part of the batch
+            undoUnitOfWork();
+            throw new DataPersistenceException("Failed to save " + entityName, e);
+        }
+    }
+
+    /**
+     * Second step, once every participant's batch has been accepted: records the
+     * changes in the change feed and flushes them. A batch that fails to flush stays
+     * pending in the engine, like any other change, and is kept in memory.
+     */
+    void commitUnitOfWork()
+    {
+        Map<String, T> changes = unitOfWorkChanges;
+        Map<String, JsonNode> images = unitOfWorkImages;
+        unitOfWorkChanges = null;
+        unitOfWorkImages = null;
+        if (changes.isEmpty())
+        {
+            return;
+        }
+        logger.info("Committed {} {} changes in one batch", changes.size(), entityName);
+        // An entity created and deleted again within the unit records nothing
+        changes.forEach((id, entity) -> recordChange(id, images.get(id), entity));
+        flushWritten(requireStorageEngine());
+    }
+
+    /**
+     * Takes back a unit whose batch the engine has already accepted, because another
+     * participant failed to write its own: the engine gets a second batch that puts
+     * back every changed entity as it was before the unit (or deletes it if it is
+     * new), and memory is rolled back. Nothing is flushed before every participant
+     * has accepted its batch, so unless the write-behind flusher runs in between, the
+     * two batches reach storage together.
+     */
+    void undoUnitOfWork()
+    {
+        Map<String, T> changes = unitOfWorkChanges;
+        if (!changes.isEmpty())
+        {
+            Map<String, T> compensation = new LinkedHashMap<>();
+            for (String id : changes.keySet())
+            {
+                T before = unitOfWorkRestorePoint.entityBefore(id);
+                compensation.put(id, before == null ? null : peek(before));
+            }
+            try
+            {
+                requireStorageEngine().applyBatch(compensation);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                logger.error("Failed to take back {} {} changes in storage, the stored collection may hold them until "
+                    + "the next compaction: {}", changes.size(), entityName, e.getMessage(), e);
+            }
+        }
+        rollbackUnitOfWork();
+    }
+
+    void rollbackUnitOfWork()
+    {
+        unitOfWorkChanges = null;
+        unitOfWorkImages = null;
+        unitOfWorkRestorePoint.restore();
+    }
+
+    void leaveUnitOfWork()
+    {
+        unitOfWorkChanges = null;
+        unitOfWorkImages = null;
+        unitOfWorkRestorePoint = null;
+        unlockWrite();
+    }
+
+    /**
+     * The in-memory state when a unit of work started. The collection and indexes are
+     * persistent, so capturing and restoring them copies nothing.
+     */
+    private final class RestorePoint
+    {
+        private final PersistentMap<String, Integer> savedPositionsById = positionsById;
+        private final PersistentSequence<T> savedItems = items;
+        private final int savedNextPosition = nextPosition;
+        private final boolean savedDirty = dirty;
+        private final List<EntityIndex.SavedState<T>> savedIndexes = new ArrayList<>();
+        private final List<SortIndex.SavedState<T>> savedSortIndexes = new ArrayList<>();
+        private final List<TextIndex.State> savedTextIndexes = new ArrayList<>();
+
+        RestorePoint()
+        {
+            for (EntityIndex<T> index : indexes)
+            {
+                savedIndexes.add(index.saveState());
+            }
+            for (SortIndex<T> sortIndex : sortIndexes)
+            {
+                savedSortIndexes.add(sortIndex.saveState());
+            }
+            for (TextIndex<T> textIndex : textIndexes)
+            {
+                savedTextIndexes.add(textIndex.state());
+            }
+        }
+
+        /**
+         * The entity with the ID as it was when the unit started, or null.
+         */
+        T entityBefore(String id)
+        {
+            Integer position = savedPositionsById.get(id);
+            return position == null ? null : savedItems.get(position);
+        }
+
+        void restore()
+        {
+            positionsById = savedPositionsById;
+            items = savedItems;
+            nextPosition = savedNextPosition;
+            for (int i = 0; i < indexes.size(); i++)
+            {
+                indexes.get(i).restore(savedIndexes.get(i));
+            }
+            for (int i = 0; i < sortIndexes.size(); i++)
+            {
+                sortIndexes.get(i).restore(savedSortIndexes.get(i));
+            }
+            for (int i = 0; i < textIndexes.size(); i++)
+            {
+                textIndexes.get(i).restore(savedTextIndexes.get(i));
+            }
+            dirty = savedDirty;
+        }
+    }
+
+    boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    /**
+     * Makes the repository reject all changes except replicated ones, see
+     * {@link #applyReplicated}.
+     */
+    void setReadOnly(boolean readOnly)
+    {
+        this.readOnly = readOnly;
+    }
+
+    private void checkWritable()
+    {
+        if (readOnly)
+        {
+            throw new ReadOnlyException(entityName + " cannot be changed on a read-only replica; send changes to the primary");
+        }
+    }
+
+    /**
+     * Stores a change replicated from the primary's change feed: the entity as the
+     * primary stored it, version included, or a delete if after is null. The change
+     * is recorded in this instance's own change feed like any other.
+     */
+    void applyReplicated(String id, JsonNode after)
+    {
+        T entity;
+        try
+        {
+            entity = after == null ? null : objectMapper.treeToValue(after, entityType);
+        }
+        catch (IOException e)
+        {
+            throw new DataPersistenceException("Failed to read replicated " + entityName + " with ID: " + id, e);
+        }
+        inWriteLock(() ->
+        {
+            JsonNode before = imageOf(getItem(id));
+            if (entity != null)
+            {
+                putItem(entity);
+                writeToStorage(id, entity, before);
+            }
+            else if (removeItem(id))
+            {
+                writeToStorage(id, null, before);
+            }
+        });
+    }
+
+    Path getArchiveDirectory()
+    {
+        return JsonFileStorageEngine.resolveSiblingPath(dataFilePath, PartitionArchive.DIRECTORY_EXTENSION);
+    }
+
+    /**
+     * Replaces the collection, in storage and in memory, and its archive with the
+     * content of a backup. Called by {@link BackupService} with the writer lock held;
+     * the restored collection is published when the lock is released.
+     */
+    void restoreBackup(List<T> entities, List<Path> archiveFiles) throws IOException
+    {
+        checkNotInUnitOfWork("restored");
+        requireStorageEngine().compact(entities);
+        lazyRecords.clear();
+        clearItems();
+        for (T entity : entities)
+        {
+            putItem(entity);
+        }
+
+        archive = null;
+        Path archiveDirectory = getArchiveDirectory();
+        if (Files.isDirectory(archiveDirectory))
+        {
+            try (Stream<Path> files = Files.list(archiveDirectory))
+            {
+                for (Path file : (Iterable<Path>) files::iterator)
+                {
+                    Files.delete(file);
+                }
+            }
+        }
+        if (!archiveFiles.isEmpty())
+        {
+            Files.createDirectories(archiveDirectory);
+            for (Path file : archiveFiles)
+            {
+                Files.copy(file, archiveDirectory.resolve(file.getFileName().toString()));
+            }
+        }
+        openArchive();
+        logger.info("Restored {} {} and {} archive files from backup", entities.size(), entityName, archiveFiles.size());
+    }
+
+    private void checkNotInUnitOfWork(String action)
+    {
+        if (unitOfWorkChanges != null)
+        {
+            throw new IllegalStateException(entityName + " cannot be " + action + " inside a unit of work");
+        }
     }
 
-    protected Path initializeDataFilePath(String dataDirName, String fileName)
+    protected int getWalCompactionThreshold()
     {
-        Path currentDir = Paths.get("").toAbsolutePath();
-        Path dataDir = currentDir.resolve(dataDirName);
-        return dataDir.resolve(fileName);
+        return DEFAULT_WAL_COMPACTION_THRESHOLD;
     }
 
-    protected void loadItems()
+    private boolean isWriteBehind()
     {
-        logger.info("Loading {} from data file: {}", entityName, dataFilePath);
-        
+        return writeBehindFlusher != null && writeBehindFlusher.isEnabled();
+    }
+
+    /**
+     * Writes any changes buffered in write-behind mode to the storage engine.
+     */
+    public void flush()
+    {
+        flushStorage(false);
+    }
+
+    /**
+     * Blocks until every change made so far is written and forced to disk. Callers
+     * that must not acknowledge a change before it is durable call this after the
+     * mutation; it is a cheap no-op when nothing is pending.
+     */
+    public void awaitDurable()
+    {
+        flushStorage(true);
+    }
+
+    private void flushStorage(boolean force)
+    {
+        // Nothing can be pending before the collection has been loaded
+        StorageEngine<T> engine = storageEngine;
+        if (engine == null)
+        {
+            return;
+        }
         try
         {
-            if (Files.exists(dataFilePath) && Files.isReadable(dataFilePath))
+            engine.flush(force);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to flush {} to {} storage: {}", entityName, engine.getType(), e.getMessage(), e);
+            throw new DataPersistenceException("Failed to save " + entityName, e);
+        }
+        ChangeFeed feed = changeFeed;
+        if (force && feed != null)
+        {
+            feed.force();
+        }
+    }
+
+    @PreDestroy
+    public void close()
+    {
+        awaitDurable();
+        StorageEngine<T> engine = storageEngine;
+        if (engine != null)
+        {
+            engine.close();
+        }
+    }
+
+    /**
+     * Compacts the collection: replaces the stored collection with the in-memory one,
+     * which for JSON storage rewrites the data file and truncates the write-ahead log.
+     * Entities that have become eligible for the archive are moved there first.
+     */
+    protected void saveItems()
+    {
+        inWriteLock(() ->
+        {
+            checkNotInUnitOfWork("compacted");
+            archiveClosedEntities();
+            StorageEngine<T> engine = requireStorageEngine();
+            logger.info("Saving {} {} to {} storage", items.size(), entityName, engine.getType());
+            
+            try
             {
-                loadItemsFromFile();
+                engine.compact(lazyRecords.isEmpty() ? items.asList() : peekingView(items.asList()));
+                logger.info("Successfully saved {} {}", items.size(), entityName);
             }
-            else
+            catch (IOException e)
+            {
+                logger.error("Failed to save {}: {}", entityName, e.getMessage(), e);
+                throw new DataPersistenceException("Failed to save " + entityName, e);
+            }
+            catch (Exception e)
+            {
+                logger.error("Unexpected error in saveItems: {}", e.getMessage(), e);
+                throw new DataPersistenceException("Failed to save " + entityName, e);
+            }
+        });
+    }
+
+    /**
+     * A view of the entities in which stubs are deserialized one at a time as the view
+     * is iterated, so writing the collection out does not deserialize all of it at once.
+     */
+    private Collection<T> peekingView(Collection<T> entities)
+    {
+        return new AbstractCollection<>()
+        {
+            @Override
+            public Iterator<T> iterator()
+            {
+                Iterator<T> iterator = entities.iterator();
+                return new Iterator<>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public T next()
+                    {
+                        return peek(iterator.next());
+                    }
+                };
+            }
+
+            @Override
+            public int size()
             {
-                logger.info("Data file does not exist or is not readable, starting with empty {} list", entityName);
-                items = new ArrayList<>();
+                return entities.size();
             }
+        };
+    }
+
+    /**
+     * Returns all entities in insertion order as an unmodifiable list, preceded by the
+     * archived ones (oldest partition first) if the collection has an archive.
+     */
+    public List<T> findAll()
+    {
+        List<T> inMemory;
+        if (isWriting())
+        {
+            inMemory = resolveAll(items.asList());
+        }
+        else
+        {
+            RepositorySnapshot<T> current = snapshot();
+            logger.debug("Getting all {}, returning {} items (version {})", entityName, current.size(), current.getVersion());
+            inMemory = resolveAll(current.getItems());
+        }
+        PartitionArchive<T> currentArchive = archive;
+        if (currentArchive == null || currentArchive.size() == 0)
+        {
+            return inMemory;
         }
-        catch (Exception e)
+        List<T> all = new ArrayList<>(currentArchive.size() + inMemory.size());
+        for (T entity : currentArchive.findAll())
         {
-            logger.error("Error loading {} from file: {}", entityName, e.getMessage(), e);
-            items = new ArrayList<>();
+            if (!isInMemory(getId(entity)))
+            {
+                all.add(entity);
+            }
         }
+        all.addAll(inMemory);
+        return Collections.unmodifiableList(all);
     }
 
-    protected abstract void loadItemsFromFile() throws IOException;
+    /**
+     * Returns one page of the collection, in insertion order or ordered by a sort
+     * index (see {@link PageRequest}). A page costs O(log n) plus its size to find, as
+     * it is read from the collection or sort index of a single snapshot, starting where
+     * the cursor points. Archived entities are included and, in insertion order, come
+     * first, as in {@link #findAll()}; pages over them read the archive's partitions.
+     * <p>
+     * A request with a filter pages the entities that match it, as selected by
+     * {@link QueryPlanner}.
+     *
+     * @throws IllegalArgumentException if the sort, cursor, limit or filter is not valid
+     */
+    public Page<T> findPage(PageRequest request)
+    {
+        SortIndex<T> sortIndex = sortIndexFor(request);
+        if (request.isFiltered())
+        {
+            return filteredPage(Filter.parse(request.getFilter()), null, null, sortIndex, request);
+        }
+        RepositorySnapshot<T> current = currentState();
+        return page(current.items(), current.positionsById(), sortIndex == null ? null : current.sorted(sortIndex),
+            sortIndex, wholeArchive(current.positionsById()), request);
+    }
 
-    // Abstract methods for entity ID management
-    protected abstract String getId(T entity);
-    protected abstract void setId(T entity, String id);
+    /**
+     * Returns one page of the entities an index holds for a key, see
+     * {@link EntityIndex#findPage}.
+     */
+    Page<T> findPage(EntityIndex<T> index, Object key, PageRequest request)
+    {
+        SortIndex<T> sortIndex = sortIndexFor(request);
+        if (request.isFiltered() && key != null)
+        {
+            // The index's key becomes one more condition, which the planner may use the index for
+            Filter.Node indexed = new Filter.Comparison(index.getName(), Filter.Operator.EQ, Collections.singletonList(key));
+            return filteredPage(new Filter.And(List.of(indexed, Filter.parse(request.getFilter()))), null, null, sortIndex, request);
+        }
+        RepositorySnapshot<T> current = currentState();
+        PersistentSequence<T> bucket = key == null ? PersistentSequence.empty() : current.bucket(index, key);
+        List<T> archived = key == null ? List.of() : withArchived(index, key, List.of());
+        return page(bucket, current.positionsById(), null, sortIndex, archivedPart(archived), request);
+    }
 
-    // Generic CRUD operations
-    public Optional<T> findById(String id)
+    /**
+     * Returns one page of the entities with the given IDs, for lists kept as references
+     * elsewhere (e.g. the address IDs of a customer). Archived entities come first, in
+     * the order of the IDs; IDs of entities that do not exist are skipped.
+     */
+    public Page<T> findPageByIds(Collection<String> ids, PageRequest request)
     {
-        if (id == null || id.trim().isEmpty())
+        SortIndex<T> sortIndex = sortIndexFor(request);
+        RepositorySnapshot<T> current = currentState();
+        PersistentMap<String, Integer> positions = current.positionsById();
+        PartitionArchive<T> currentArchive = archive;
+        PersistentSequence<T> selected = PersistentSequence.empty();
+        List<T> archived = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String id : ids)
         {
-            return Optional.empty();
+            Integer position = id == null ? null : positions.get(id);
+            if (position != null)
+            {
+                selected = selected.with(position, current.items().get(position));
+            }
+            else if (id != null && currentArchive != null && seen.add(id))
+            {
+                currentArchive.findById(id).ifPresent(archived::add);
+            }
         }
-        
-        return items.stream()
-            .filter(entity -> id.equals(getId(entity)))
-            .findFirst();
+        if (request.isFiltered())
+        {
+            return filteredPage(Filter.parse(request.getFilter()), selected, archived, sortIndex, request);
+        }
+        return page(selected, positions, null, sortIndex, archivedPart(archived), request);
     }
 
-    public T save(T entity)
+    /**
+     * Pages the entities matching the filter, from the whole collection and archive or
+     * only from those given, in one consistent state of the collection.
+     */
+    private Page<T> filteredPage(Filter.Node filter, PersistentSequence<T> within, List<T> archivedWithin,
+        SortIndex<T> sortIndex, PageRequest request)
     {
-        if (entity == null)
+        RepositorySnapshot<T> state = currentState();
+        ArchivedPart<T> archived = archivedWithin != null ? archivedPart(archivedWithin) : wholeArchive(state.positionsById());
+        QueryPlanner.Result<T> result = planner.execute(filter, state, within, archived);
+        if (result.plan().getMicros() > SLOW_QUERY_MICROS)
         {
-            throw new IllegalArgumentException(entityName + " cannot be null");
+            logger.info("Slow filter on {}: {} took {} us via {}", entityName, result.plan().getFilter(),
+                result.plan().getMicros(), result.plan().getAccess());
         }
-        
-        if (getId(entity) == null || getId(entity).isEmpty())
+        Page<T> page = page(result.matches(), state.positionsById(), null, sortIndex, archivedPart(result.archived()), request);
+        return request.isExplain() ? new Page<>(page.getItems(), page.getNextCursor(), page.getTotal(), result.plan()) : page;
+    }
+
+    /**
+     * The state pages are read from: the published snapshot, or the writer's own
+     * state inside a write.
+     */
+    private RepositorySnapshot<T> currentState()
+    {
+        return isWriting()
+            ? new RepositorySnapshot<>(version, positionsById, items, indexes, sortIndexes, textIndexes)
+            : snapshot();
+    }
+
+    /**
+     * Archived entities a page or filter includes besides the in-memory ones, in
+     * archive order.
+     */
+    interface ArchivedPart<T>
+    {
+        int size();
+
+        /**
+         * Iterates from the entity after the one with the ID, or from the first if null.
+         *
+         * @throws IllegalArgumentException if there is no entity with the ID
+         */
+        Iterator<T> after(String id);
+
+        /**
+         * Iterates in the order of a sort index from the entity after the key, or from
+         * the first if null.
+         */
+        Iterator<Map.Entry<SortIndex.SortKey, T>> sorted(SortIndex<T> sortIndex, SortIndex.SortKey after, boolean descending);
+
+        List<T> all();
+
+        /**
+         * Returns the entities an index holds for a key.
+         */
+        List<T> lookup(EntityIndex<T> index, Object key);
+
+        /**
+         * Returns the given entities of this part in its order.
+         */
+        List<T> inOrder(Collection<T> entities);
+    }
+
+    private static <T> ArchivedPart<T> archivedPart(List<T> entities, Function<T, String> idOf)
+    {
+        return new ArchivedPart<>()
         {
-            setId(entity, generateId());
-            items.add(entity);
-            saveItems();
-            logger.info("Created new {} with ID: {}", entityName, getId(entity));
+            @Override
+            public int size()
+            {
+                return entities.size();
+            }
+
+            @Override
+            public Iterator<T> after(String id)
+            {
+                if (id == null)
+                {
+                    return entities.iterator();
+                }
+                for (int i = 0; i < entities.size(); i++)
+                {
+                    if (id.equals(idOf.apply(entities.get(i))))
+                    {
+                        return entities.subList(i + 1, entities.size()).iterator();
+                    }
+                }
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+
+            @Override
+            public Iterator<Map.Entry<SortIndex.SortKey, T>> sorted(SortIndex<T> sortIndex, SortIndex.SortKey after,
+                boolean descending)
+            {
+                return sortedEntries(entities, sortIndex, after, descending, idOf);
+            }
+
+            @Override
+            public List<T> all()
+            {
+                return entities;
+            }
+
+            @Override
+            public List<T> lookup(EntityIndex<T> index, Object key)
+            {
+                String keyString = EntityIndex.keyString(key);
+                return entities.stream().filter(entity -> keyString.equals(index.keyStringOf(entity))).toList();
+            }
+
+            @Override
+            public List<T> inOrder(Collection<T> selected)
+            {
+                Set<String> ids = new HashSet<>();
+                selected.forEach(entity -> ids.add(idOf.apply(entity)));
+                return entities.stream().filter(entity -> ids.contains(idOf.apply(entity))).toList();
+            }
+        };
+    }
+
+    private ArchivedPart<T> archivedPart(List<T> entities)
+    {
+        return archivedPart(entities, this::getId);
+    }
+
+    /**
+     * All archived entities that are not also in memory, read from the archive's
+     * partitions only as far as a page needs them.
+     */
+    private ArchivedPart<T> wholeArchive(PersistentMap<String, Integer> positions)
+    {
+        PartitionArchive<T> current = archive;
+        if (current == null || current.size() == 0)
+        {
+            return archivedPart(List.of());
         }
-        else
+        Predicate<String> notInMemory = id -> !positions.containsKey(id);
+        Set<String> alsoInMemory = archivedInMemory;
+        return new ArchivedPart<>()
         {
-            // Update existing
-            findById(getId(entity))
-                .orElseThrow(() -> new EntityNotFoundException(entityName + " not found with id: " + getId(entity)));
-            
-            // Replace in list
-            items.removeIf(item -> getId(entity).equals(getId(item)));
-            items.add(entity);
-            saveItems();
-            logger.info("Updated {} with ID: {}", entityName, getId(entity));
+            @Override
+            public int size()
+            {
+                int inMemory = 0;
+                for (String id : alsoInMemory)
+                {
+                    if (positions.containsKey(id))
+                    {
+                        inMemory++;
+                    }
+                }
+                return current.size() - inMemory;
+            }
+
+            @Override
+            public Iterator<T> after(String id)
+            {
+                return current.iterator(id, notInMemory);
+            }
+
+            @Override
+            public Iterator<Map.Entry<SortIndex.SortKey, T>> sorted(SortIndex<T> sortIndex, SortIndex.SortKey after,
+                boolean descending)
+            {
+                return current.sorted(sortIndex, after, descending, notInMemory);
+            }
+
+            @Override
+            public List<T> all()
+            {
+                List<T> all = new ArrayList<>();
+                current.iterator(null, notInMemory).forEachRemaining(all::add);
+                return all;
+            }
+
+            @Override
+            public List<T> lookup(EntityIndex<T> index, Object key)
+            {
+                return current.findByIndex(index, key).stream().filter(entity -> notInMemory.test(getId(entity))).toList();
+            }
+
+            @Override
+            public List<T> inOrder(Collection<T> entities)
+            {
+                return current.inOrder(entities);
+            }
+        };
+    }
+
+    /**
+     * Returns up to limit entities whose key in a prefix index starts with the prefix,
+     * in the order of the normalized keys, for autocompletion. The prefix is normalized
+     * like the keys, so matching ignores case and full-width forms. In-memory matches
+     * are the first entries of the range the prefix spans in the prefix index of the
+     * current snapshot, so a lookup costs O(log n + limit) whatever the size of the
+     * collection; archived ones are completed from the normalized keys of the
+     * archive's key files, and only their partitions are read.
+     *
+     * @throws IllegalArgumentException if the prefix is empty, the limit is not
+     *                                  positive or the index is not a prefix index
+     */
+    protected final List<T> findByPrefix(SortIndex<T> prefixIndex, String prefix, int limit)
+    {
+        EntityIndex<T> keys = prefixIndex.getPrefixOf();
+        if (keys == null)
+        {
+            throw new IllegalArgumentException("Sort index " + prefixIndex.getName() + " of " + entityName + " is not a prefix index");
         }
-        
-        return entity;
+        if (prefix == null || prefix.isEmpty())
+        {
+            throw new IllegalArgumentException("prefix must not be empty");
+        }
+        if (limit < 1)
+        {
+            throw new IllegalArgumentException("limit must be at least 1 but was " + limit);
+        }
+        String normalized = TextIndex.normalize(prefix);
+        RepositorySnapshot<T> current = currentState();
+        List<Map.Entry<SortIndex.SortKey, T>> matches = prefixRange(current.sorted(prefixIndex), normalized, limit);
+        PartitionArchive<T> currentArchive = archive;
+        if (currentArchive != null)
+        {
+            for (T entity : currentArchive.findByKeyPrefix(keys, normalized, limit))
+            {
+                String id = getId(entity);
+                if (!current.positionsById().containsKey(id))
+                {
+                    matches.add(Map.entry(prefixIndex.keyOf(id, entity), entity));
+                }
+            }
+            matches.sort(Map.Entry.comparingByKey());
+        }
+        List<T> found = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i++)
+        {
+            found.add(matches.get(i).getValue());
+        }
+        return List.copyOf(resolveAll(found));
     }
 
-    public void deleteById(String id)
+    private static <T> List<Map.Entry<SortIndex.SortKey, T>> prefixRange(PersistentTreeMap<SortIndex.SortKey, T> sorted,
+        String prefix, int limit)
     {
-        if (id == null || id.trim().isEmpty())
+        // Strings starting with the prefix sort before the prefix with its last
+        // character incremented
+        String end = prefix;
+        while (!end.isEmpty() && end.charAt(end.length() - 1) == Character.MAX_VALUE)
         {
-            throw new IllegalArgumentException(entityName + " ID cannot be null or empty");
+            end = end.substring(0, end.length() - 1);
         }
-        
-        boolean removed = items.removeIf(entity -> id.equals(getId(entity)));
-        if (removed)
+        SortIndex.SortKey endKey = end.isEmpty() ? null
+            : SortIndex.SortKey.before(end.substring(0, end.length() - 1) + (char) (end.charAt(end.length() - 1) + 1));
+        List<Map.Entry<SortIndex.SortKey, T>> range = new ArrayList<>();
+        Iterator<Map.Entry<SortIndex.SortKey, T>> entries = sorted.entriesAfter(SortIndex.SortKey.before(prefix), false);
+        while (range.size() < limit && entries.hasNext())
         {
-            saveItems();
-            logger.info("Deleted {} with ID: {}", entityName, id);
+            Map.Entry<SortIndex.SortKey, T> entry = entries.next();
+            if (entry.getKey().value == null || (endKey != null && entry.getKey().compareTo(endKey) >= 0))
+            {
+                break;
+            }
+            range.add(entry);
+        }
+        return range;
+    }
+
+    /**
+     * Searches a text index, see {@link TextIndex#search}.
+     */
+    List<SearchHit<T>> search(TextIndex<T> textIndex, String query, int limit)
+    {
+        List<TextIndex.Match> matches;
+        PersistentSequence<T> collection;
+        if (isWriting())
+        {
+            matches = textIndex.search(textIndex.state(), query, limit);
+            collection = items;
         }
         else
         {
-            logger.warn("Attempted to delete {} with ID: {}, but {} was not found", entityName, id, entityName);
+            RepositorySnapshot<T> current = snapshot();
+            matches = textIndex.search(current.text(textIndex), query, limit);
+            collection = current.items();
+        }
+        List<SearchHit<T>> hits = new ArrayList<>(matches.size());
+        for (TextIndex.Match match : matches)
+        {
+            hits.add(new SearchHit<>(resolve(collection.get(match.position())), match.score(), match.fields()));
         }
+        return hits;
     }
 
-    protected void saveItems()
+    private SortIndex<T> sortIndexFor(PageRequest request)
     {
-        logger.info("Saving {} {} to data file", items.size(), entityName);
-        
-        try
+        String field = request.sortField();
+        if (field == null)
         {
-            ensureDataDirectoryExists();
-            objectMapper.writeValue(dataFilePath.toFile(), items);
-            logger.info("Successfully saved {} {} to data file", items.size(), entityName);
+            return null;
         }
-        catch (IOException e)
+        for (SortIndex<T> sortIndex : sortIndexes)
+        {
+            if (sortIndex.getName().equals(field) && sortIndex.getPrefixOf() == null)
+            {
+                return sortIndex;
+            }
+        }
+        throw new IllegalArgumentException("Cannot sort " + entityName + " by '" + field + "', sort fields: " + getSortFields());
+    }
+
+    /**
+     * Reads a page from the archived entities and those of the source (the collection
+     * or an index bucket): in archive and then position order or, with a sort index,
+     * merged from the sorted entries if given, else by sorting the source, and the
+     * sorted archived entities.
+     */
+    private Page<T> page(PersistentSequence<T> source, PersistentMap<String, Integer> positions,
+        PersistentTreeMap<SortIndex.SortKey, T> sorted, SortIndex<T> sortIndex, ArchivedPart<T> archived, PageRequest request)
+    {
+        int limit = request.pageSize();
+        String sort = sortIndex == null ? null : (request.isDescending() ? "-" : "") + sortIndex.getName();
+        PageCursor cursor = request.getCursor() == null ? null : PageCursor.decode(objectMapper, request.getCursor(), sort);
+        List<T> page = new ArrayList<>(Math.min(limit, source.size()));
+        String nextCursor = null;
+        if (sortIndex == null)
         {
-            logger.error("Failed to save {}: {}", entityName, e.getMessage(), e);
-            throw new DataPersistenceException("Failed to save " + entityName + " to file", e);
+            int start = 0;
+            if (cursor == null || cursor.getArchivedId() != null)
+            {
+                Iterator<T> entities = archived.after(cursor == null ? null : cursor.getArchivedId());
+                while (page.size() < limit && entities.hasNext())
+                {
+                    page.add(entities.next());
+                }
+                if (page.size() == limit && (entities.hasNext() || !source.isEmpty()))
+                {
+                    nextCursor = PageCursor.atArchived(getId(page.get(limit - 1))).encode(objectMapper);
+                }
+            }
+            else
+            {
+                start = source.countBefore(cursor.getPosition() + 1);
+            }
+            if (page.size() < limit)
+            {
+                List<T> all = source.asList();
+                int end = Math.min(all.size(), start + limit - page.size());
+                for (int i = start; i < end; i++)
+                {
+                    page.add(all.get(i));
+                }
+                if (end < all.size())
+                {
+                    nextCursor = PageCursor.atPosition(positions.get(getId(page.get(page.size() - 1)))).encode(objectMapper);
+                }
+            }
         }
-        catch (Exception e)
+        else
         {
-            logger.error("Unexpected error in saveItems: {}", e.getMessage(), e);
-            throw new DataPersistenceException("Failed to save " + entityName + " to file", e);
+            SortIndex.SortKey after = cursor == null ? null : new SortIndex.SortKey(cursorValue(sortIndex, cursor), cursor.getId());
+            Iterator<Map.Entry<SortIndex.SortKey, T>> entries = sorted != null
+                ? sorted.entriesAfter(after, request.isDescending())
+                : sortedEntries(source.asList(), sortIndex, after, request.isDescending(), this::getId);
+            if (archived.size() > 0)
+            {
+                entries = merged(entries, archived.sorted(sortIndex, after, request.isDescending()), request.isDescending());
+            }
+            SortIndex.SortKey last = null;
+            while (page.size() < limit && entries.hasNext())
+            {
+                Map.Entry<SortIndex.SortKey, T> entry = entries.next();
+                page.add(entry.getValue());
+                last = entry.getKey();
+            }
+            if (last != null && entries.hasNext())
+            {
+                nextCursor = PageCursor.atKey(sort, objectMapper.valueToTree(last.value), last.id).encode(objectMapper);
+            }
         }
+        return new Page<>(List.copyOf(resolveAll(page)), nextCursor, source.size() + archived.size());
     }
 
-    protected void ensureDataDirectoryExists()
+    private static <T> Iterator<Map.Entry<SortIndex.SortKey, T>> sortedEntries(List<T> source, SortIndex<T> sortIndex,
+        SortIndex.SortKey after, boolean descending, Function<T, String> idOf)
     {
-        Path dataDir = dataFilePath.getParent();
-        if (!Files.exists(dataDir))
+        List<Map.Entry<SortIndex.SortKey, T>> entries = new ArrayList<>();
+        for (T entity : source)
         {
-            try
+            SortIndex.SortKey key = sortIndex.keyOf(idOf.apply(entity), entity);
+            if (after == null || (descending ? key.compareTo(after) < 0 : key.compareTo(after) > 0))
             {
-                Files.createDirectories(dataDir);
-                logger.info("Created data directory: {}", dataDir);
+                entries.add(Map.entry(key, entity));
             }
-            catch (IOException e)
+        }
+        Comparator<Map.Entry<SortIndex.SortKey, T>> order = Map.Entry.comparingByKey();
+        entries.sort(descending ? order.reversed() : order);
+        return entries.iterator();
+    }
+
+    /**
+     * Merges two iterators over entries in the same sort order.
+     */
+    private static <T> Iterator<Map.Entry<SortIndex.SortKey, T>> merged(Iterator<Map.Entry<SortIndex.SortKey, T>> first,
+        Iterator<Map.Entry<SortIndex.SortKey, T>> second, boolean descending)
+    {
+        return new Iterator<>()
+        {
+            private Map.Entry<SortIndex.SortKey, T> nextFirst = first.hasNext() ? first.next() : null;
+            private Map.Entry<SortIndex.SortKey, T> nextSecond = second.hasNext() ? second.next() : null;
+
+            @Override
+            public boolean hasNext()
             {
-                logger.error("Failed to create data directory: {}", e.getMessage(), e);
-                throw new DataPersistenceException("Failed to create data directory", e);
+                return nextFirst != null || nextSecond != null;
             }
-        }
+
+            @Override
+            public Map.Entry<SortIndex.SortKey, T> next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                boolean takeFirst = nextSecond == null || (nextFirst != null
+                    && (descending ? nextFirst.getKey().compareTo(nextSecond.getKey()) > 0
+                        : nextFirst.getKey().compareTo(nextSecond.getKey()) < 0));
+                Map.Entry<SortIndex.SortKey, T> entry;
+                if (takeFirst)
+                {
+                    entry = nextFirst;
+                    nextFirst = first.hasNext() ? first.next() : null;
+                }
+                else
+                {
+                    entry = nextSecond;
+                    nextSecond = second.hasNext() ? second.next() : null;
+                }
+                return entry;
+            }
+        };
     }
 
-    public List<T> findAll()
+    private Comparable<?> cursorValue(SortIndex<T> sortIndex, PageCursor cursor)
     {
-        logger.debug("Getting all {}, returning {} items", entityName, items.size());
-        return new ArrayList<>(items);
+        JsonNode value = cursor.getValue();
+        if (value == null || value.isNull())
+        {
+            return null;
+        }
+        try
+        {
+            return (Comparable<?>) objectMapper.treeToValue(value, sortIndex.getType());
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
     }
 
     protected String generateId()
@@ -217,5 +2232,29 @@ public abstract class AbstractJsonRepository<T>
         }
     }
 
+    public static class ArchivedEntityException extends RuntimeException
+    {
+        public ArchivedEntityException(String message)
+        {
+            super(message);
+        }
+    }
+
+    public static class VersionConflictException extends RuntimeException
+    {
+        public VersionConflictException(String message)
+        {
+            super(message);
+        }
+    }
+
+    public static class ReadOnlyException extends RuntimeException
+    {
+        public ReadOnlyException(String message)
+        {
+            super(message);
+        }
+    }
+
 }
 
@@ -4,12 +4,10 @@ package com.edge.repository;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Address;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -21,33 +19,16 @@ public class AddressRepository extends AbstractJsonRepository<Address>
     private static final String DATA_FILE_NAME = "addresses.json";
     private static final String DATA_DIR_NAME = "data";
 
+    private final EntityIndex<Address> byCustomerId = index("customerId", Address::getCustomerId);
+    private final SortIndex<Address> cityOrder = sortIndex("city", String.class, Address::getCity);
+    private final SortIndex<Address> postalCodeOrder = sortIndex("postalCode", String.class, Address::getPostalCode);
+    private final SortIndex<Address> countryOrder = sortIndex("country", String.class, Address::getCountry);
+
     public AddressRepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "addresses");
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException
-    {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty address list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Address>>() {});
-            logger.info("Successfully loaded {} addresses from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
-    }
-
     @Override
     protected String getId(Address entity)
     {
@@ -70,6 +51,11 @@ public class AddressRepository extends AbstractJsonRepository<Address>
         return findAll();
     }
 
+    public Page<Address> getAllAddresses(PageRequest request)
+    {
+        return findPage(request);
+    }
+
     public List<Address> getAddressesByCustomerId(String customerId)
     {
         // This method is now handled by AddressService to avoid circular dependency
@@ -79,9 +65,7 @@ public class AddressRepository extends AbstractJsonRepository<Address>
             return new java.util.ArrayList<>();
         }
         // Fallback to old method for backward compatibility
-        return items.stream()
-            .filter(address -> customerId.equals(address.getCustomerId()))
-            .collect(Collectors.toList());
+        return byCustomerId.findAll(customerId);
     }
 
     public List<Address> getAddressesByCustomerIdAndType(String customerId, String addressType)
@@ -113,25 +97,28 @@ public class AddressRepository extends AbstractJsonRepository<Address>
         if (addressDetails == null)
             throw new IllegalArgumentException("Address details cannot be null");
 
-        Address existingAddress = findById(id).orElseThrow(() -> 
-            new AddressNotFoundException("Address not found with id: " + id));
-
-        // Update fields (customerId and customerIds are no longer used - managed by Customer entity)
-        existingAddress.setAddressType(addressDetails.getAddressType());
-        existingAddress.setStreetAddress1(addressDetails.getStreetAddress1());
-        existingAddress.setStreetAddress2(addressDetails.getStreetAddress2());
-        existingAddress.setCity(addressDetails.getCity());
-        existingAddress.setState(addressDetails.getState());
-        existingAddress.setPostalCode(addressDetails.getPostalCode());
-        existingAddress.setCountry(addressDetails.getCountry());
-        existingAddress.setContactName(addressDetails.getContactName());
-        existingAddress.setContactPhone(addressDetails.getContactPhone());
-        existingAddress.setDefaultAddress(addressDetails.getDefaultAddress());
-        existingAddress.setJsonData(addressDetails.getJsonData());
+        return inWriteLock(() ->
+        {
+            Address existingAddress = findByIdForUpdate(id).orElseThrow(() -> 
+                new AddressNotFoundException("Address not found with id: " + id));
+
+            // Update fields (customerId and customerIds are no longer used - managed by Customer entity)
+            existingAddress.setAddressType(addressDetails.getAddressType());
+            existingAddress.setStreetAddress1(addressDetails.getStreetAddress1());
+            existingAddress.setStreetAddress2(addressDetails.getStreetAddress2());
+            existingAddress.setCity(addressDetails.getCity());
+            existingAddress.setState(addressDetails.getState());
+            existingAddress.setPostalCode(addressDetails.getPostalCode());
+            existingAddress.setCountry(addressDetails.getCountry());
+            existingAddress.setContactName(addressDetails.getContactName());
+            existingAddress.setContactPhone(addressDetails.getContactPhone());
+            existingAddress.setDefaultAddress(addressDetails.getDefaultAddress());
+            existingAddress.setJsonData(addressDetails.getJsonData());
         
-        saveItems();
-        logger.info("Updated address with ID: {}", id);
-        return existingAddress;
+            saveItem(existingAddress);
+            logger.info("Updated address with ID: {}", id);
+            return existingAddress;
+        });
     }
 
     public void deleteAddress(String id)
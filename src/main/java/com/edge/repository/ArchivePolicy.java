@@ -0,0 +1,52 @@
+package com.edge.repository;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Says which entities of a repository may move to its cold archive: those in a
+ * closed status (e.g. PAID or CANCELLED) whose date lies in a month before the hot
+ * window of {@code jsondb.archive-after-months}. Archived entities are partitioned
+ * by that month. A repository opts in by overriding
+ * {@link AbstractJsonRepository#getArchivePolicy()}.
+ */
+public final class ArchivePolicy<T>
+{
+    private final Function<T, LocalDateTime> dateOf;
+    private final Function<T, String> statusOf;
+    private final Set<String> closedStatuses;
+
+    private ArchivePolicy(Function<T, LocalDateTime> dateOf, Function<T, String> statusOf, Set<String> closedStatuses)
+    {
+        this.dateOf = dateOf;
+        this.statusOf = statusOf;
+        this.closedStatuses = closedStatuses;
+    }
+
+    public static <T> ArchivePolicy<T> monthly(Function<T, LocalDateTime> dateOf, Function<T, String> statusOf, String... closedStatuses)
+    {
+        return new ArchivePolicy<>(dateOf, statusOf, Set.of(closedStatuses));
+    }
+
+    /**
+     * Returns the month partition for the entity, or null if it has no date.
+     */
+    YearMonth partitionOf(T entity)
+    {
+        LocalDateTime date = dateOf.apply(entity);
+        return date == null ? null : YearMonth.from(date);
+    }
+
+    boolean isClosed(T entity)
+    {
+        return closedStatuses.contains(statusOf.apply(entity));
+    }
+
+    boolean isArchivable(T entity, YearMonth firstHotMonth)
+    {
+        YearMonth partition = partitionOf(entity);
+        return partition != null && partition.isBefore(firstHotMonth) && isClosed(entity);
+    }
+}
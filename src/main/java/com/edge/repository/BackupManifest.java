@@ -0,0 +1,161 @@
+package com.edge.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Contents of a backup made by {@link BackupService}, stored as {@code manifest.json}
+ * in the backup's directory. A backup lists every file it consists of; a file that
+ * had not changed since the base backup is not copied again but names the backup
+ * that holds it.
+ */
+public class BackupManifest
+{
+    private String id;
+    private String created;
+    private String base;
+    private long changeSequence;
+    private Map<String, Integer> collections = new TreeMap<>();
+    private Map<String, Long> counters = new TreeMap<>();
+    private List<FileEntry> files = new ArrayList<>();
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public void setId(String id)
+    {
+        this.id = id;
+    }
+
+    public String getCreated()
+    {
+        return created;
+    }
+
+    public void setCreated(String created)
+    {
+        this.created = created;
+    }
+
+    /**
+     * The backup this one was made incrementally against, or null for a full backup.
+     */
+    public String getBase()
+    {
+        return base;
+    }
+
+    public void setBase(String base)
+    {
+        this.base = base;
+    }
+
+    /**
+     * Sequence number of the last {@link ChangeEvent} included in the backup.
+     */
+    public long getChangeSequence()
+    {
+        return changeSequence;
+    }
+
+    public void setChangeSequence(long changeSequence)
+    {
+        this.changeSequence = changeSequence;
+    }
+
+    /**
+     * Number of in-memory entities per collection; archived entities are not counted.
+     */
+    public Map<String, Integer> getCollections()
+    {
+        return collections;
+    }
+
+    public void setCollections(Map<String, Integer> collections)
+    {
+        this.collections = collections;
+    }
+
+    /**
+     * Document number counters by counter file name.
+     */
+    public Map<String, Long> getCounters()
+    {
+        return counters;
+    }
+
+    public void setCounters(Map<String, Long> counters)
+    {
+        this.counters = counters;
+    }
+
+    public List<FileEntry> getFiles()
+    {
+        return files;
+    }
+
+    public void setFiles(List<FileEntry> files)
+    {
+        this.files = files;
+    }
+
+    /**
+     * A file of the backup, e.g. {@code orders/part-00000.json} or
+     * {@code orders/archive/2024-01.json}.
+     */
+    public static class FileEntry
+    {
+        private String path;
+        private String sha256;
+        private long size;
+        private String backup;
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public void setPath(String path)
+        {
+            this.path = path;
+        }
+
+        public String getSha256()
+        {
+            return sha256;
+        }
+
+        public void setSha256(String sha256)
+        {
+            this.sha256 = sha256;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public void setSize(long size)
+        {
+            this.size = size;
+        }
+
+        /**
+         * ID of the backup whose directory holds the file: this backup, or an earlier
+         * one if the file was unchanged.
+         */
+        public String getBackup()
+        {
+            return backup;
+        }
+
+        public void setBackup(String backup)
+        {
+            this.backup = backup;
+        }
+    }
+}
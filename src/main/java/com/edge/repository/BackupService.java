@@ -0,0 +1,577 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Online backups of all collections into {@code jsondb.backup-dir} (default
+ * {@code ./backups}), one directory per backup with a {@link BackupManifest}.
+ * <p>
+ * A backup is a consistent cut: the writer locks of all repositories are taken in
+ * collection name order, the current snapshots, counters and change feed position
+ * are captured, the archive files are pinned, and the locks are released again. As
+ * snapshots are immutable and share their structure, and archive files are pinned by
+ * hard links, this takes microseconds however large the collections are; writers
+ * only wait for the lock, and the snapshots are written out afterwards. Each
+ * collection is stored as JSON array parts of {@code jsondb.segment-size} entities
+ * in insertion order, plus a copy of its archive files, each with a SHA-256
+ * checksum. An incremental backup does not copy a part or archive file whose
+ * checksum matches the latest backup, but refers to the backup that holds it, so it
+ * depends on that backup being kept.
+ * <p>
+ * A restore verifies every checksum first and then replaces all collections, in
+ * storage and in memory, while holding all writer locks. Counters are only ever
+ * moved forward, so numbers issued after the backup are not reused. The change feed
+ * does not record a restore; projections built from it must be rebuilt.
+ */
+@Component
+public class BackupService
+{
+    private static final Logger logger = LoggerFactory.getLogger(BackupService.class);
+    static final String MANIFEST_FILE_NAME = "manifest.json";
+    private static final String COUNTER_FILE_SUFFIX = "_counter.json";
+    private static final String ARCHIVE_DIRECTORY_NAME = "archive";
+    private static final DateTimeFormatter ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final List<AbstractJsonRepository<?>> repositories;
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private final Path dataDir = Paths.get("").toAbsolutePath().resolve("data");
+    private Path backupDir = Paths.get("").toAbsolutePath().resolve("backups");
+    private int partSize = 2000;
+    private SequenceService sequenceService;
+    private ChangeFeed changeFeed;
+
+    @Autowired
+    public BackupService(List<AbstractJsonRepository<?>> repositories)
+    {
+        this.repositories = new ArrayList<>(repositories);
+        this.repositories.sort(Comparator.comparing(AbstractJsonRepository::getCollectionName));
+    }
+
+    @Autowired(required = false)
+    public void setJsonDbConfig(JsonDbConfig config)
+    {
+        this.backupDir = Paths.get(config.getBackupDir()).toAbsolutePath();
+        this.partSize = Math.max(1, config.getSegmentSize());
+    }
+
+    @Autowired(required = false)
+    public void setSequenceService(SequenceService sequenceService)
+    {
+        this.sequenceService = sequenceService;
+    }
+
+    @Autowired(required = false)
+    public void setChangeFeed(ChangeFeed changeFeed)
+    {
+        this.changeFeed = changeFeed;
+    }
+
+    /**
+     * The state of all collections at one instant.
+     */
+    private static final class Cut
+    {
+        final Map<AbstractJsonRepository<?>, RepositorySnapshot<?>> snapshots = new LinkedHashMap<>();
+        final Map<AbstractJsonRepository<?>, List<Path>> archiveFiles = new LinkedHashMap<>();
+        final Map<String, Long> counters = new LinkedHashMap<>();
+        long changeSequence;
+    }
+
+    /**
+     * Makes a backup of all collections; incremental, it only stores the files that
+     * changed since the latest backup, or everything if there is none.
+     */
+    public synchronized BackupManifest backup(boolean incremental)
+    {
+        BackupManifest base = incremental ? latestBackup().orElse(null) : null;
+        Map<String, BackupManifest.FileEntry> baseFiles = new LinkedHashMap<>();
+        if (base != null)
+        {
+            base.getFiles().forEach(entry -> baseFiles.put(entry.getPath(), entry));
+        }
+
+        long start = System.nanoTime();
+        BackupManifest manifest = new BackupManifest();
+        manifest.setId(LocalDateTime.now().format(ID_FORMAT));
+        manifest.setCreated(LocalDateTime.now().toString());
+        manifest.setBase(base == null ? null : base.getId());
+        Path directory = backupDir.resolve(manifest.getId());
+        Cut cut = new Cut();
+        long lockedNanos;
+        try
+        {
+            Files.createDirectories(directory);
+            lockedNanos = withAllLocked(0, () -> capture(cut, directory));
+            manifest.setChangeSequence(cut.changeSequence);
+            manifest.setCounters(new java.util.TreeMap<>(cut.counters));
+            for (Map.Entry<AbstractJsonRepository<?>, RepositorySnapshot<?>> entry : cut.snapshots.entrySet())
+            {
+                writeCollection(entry.getKey(), entry.getValue(), cut.archiveFiles.get(entry.getKey()), manifest,
+                    directory, baseFiles);
+            }
+            writeAtomically(directory.resolve(MANIFEST_FILE_NAME), objectMapper.writeValueAsBytes(manifest));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            deleteDirectory(directory);
+            logger.error("Backup {} failed: {}", manifest.getId(), e.getMessage(), e);
+            throw new AbstractJsonRepository.DataPersistenceException("Backup failed", e);
+        }
+        long stored = manifest.getFiles().stream().filter(file -> file.getBackup().equals(manifest.getId())).count();
+        logger.info("Backup {} written in {} ms (writers paused {} us): {} of {} files stored, base {}",
+            manifest.getId(), (System.nanoTime() - start) / 1_000_000, lockedNanos / 1_000,
+            stored, manifest.getFiles().size(), manifest.getBase());
+        return manifest;
+    }
+
+    private void capture(Cut cut, Path directory)
+    {
+        for (AbstractJsonRepository<?> repository : repositories)
+        {
+            cut.snapshots.put(repository, repository.snapshot());
+            try
+            {
+                cut.archiveFiles.put(repository, pinArchive(repository, directory));
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException("Failed to pin the " + repository.getEntityName() + " archive", e);
+            }
+        }
+        cut.counters.putAll(readCounters());
+        cut.changeSequence = changeFeed == null ? 0 : changeFeed.getLastSequence();
+    }
+
+    /**
+     * Pins the collection's archive files as they are now at their place in the backup
+     * directory. The archive never changes a file in place but replaces it by an atomic
+     * move, so a hard link keeps this version of the file whatever happens to the
+     * archive later; a file is only copied if it cannot be linked, e.g. because the
+     * backups are on another file system.
+     */
+    private static List<Path> pinArchive(AbstractJsonRepository<?> repository, Path directory) throws IOException
+    {
+        List<Path> pinned = new ArrayList<>();
+        Path archiveDirectory = repository.getArchiveDirectory();
+        if (!Files.isDirectory(archiveDirectory))
+        {
+            return pinned;
+        }
+        Path target = directory.resolve(repository.getCollectionName()).resolve(ARCHIVE_DIRECTORY_NAME);
+        Files.createDirectories(target);
+        for (Path file : listFiles(archiveDirectory))
+        {
+            String name = file.getFileName().toString();
+            if (name.endsWith(".tmp"))
+            {
+                // Left behind by a write that did not complete; not part of the archive
+                continue;
+            }
+            Path link = target.resolve(name);
+            try
+            {
+                Files.createLink(link, file);
+            }
+            catch (UnsupportedOperationException | FileSystemException e)
+            {
+                Files.copy(file, link);
+            }
+            pinned.add(link);
+        }
+        return pinned;
+    }
+
+    /**
+     * Runs the action with the writer locks of all repositories from the given one on
+     * held, and returns how long the action took.
+     */
+    private long withAllLocked(int from, Runnable action)
+    {
+        if (from == repositories.size())
+        {
+            long start = System.nanoTime();
+            action.run();
+            return System.nanoTime() - start;
+        }
+        long[] nanos = new long[1];
+        repositories.get(from).inWriteLock(() -> nanos[0] = withAllLocked(from + 1, action));
+        return nanos[0];
+    }
+
+    private <T> void writeCollection(AbstractJsonRepository<T> repository, RepositorySnapshot<?> captured,
+        List<Path> archiveFiles, BackupManifest manifest, Path directory,
+        Map<String, BackupManifest.FileEntry> baseFiles) throws IOException
+    {
+        @SuppressWarnings("unchecked")
+        List<T> items = ((RepositorySnapshot<T>) captured).getItems();
+        String collection = repository.getCollectionName();
+        manifest.getCollections().put(collection, items.size());
+        for (int from = 0, part = 0; from < items.size(); from += partSize, part++)
+        {
+            List<T> entities = new ArrayList<>();
+            for (T entity : items.subList(from, Math.min(items.size(), from + partSize)))
+            {
+                entities.add(repository.peek(entity));
+            }
+            byte[] content = repository.objectMapper.writeValueAsBytes(entities);
+            String path = collection + "/" + String.format("part-%05d.json", part);
+            addFile(manifest, directory, baseFiles, path, sha256(content), content.length, target -> Files.write(target, content));
+        }
+
+        // The pinned archive files are already in place; unchanged ones are dropped again
+        for (Path file : archiveFiles)
+        {
+            String path = collection + "/" + ARCHIVE_DIRECTORY_NAME + "/" + file.getFileName();
+            String checksum;
+            try (InputStream in = Files.newInputStream(file))
+            {
+                checksum = sha256(in);
+            }
+            BackupManifest.FileEntry entry = addFile(manifest, directory, baseFiles, path, checksum, Files.size(file),
+                target -> { });
+            if (!entry.getBackup().equals(manifest.getId()))
+            {
+                Files.delete(file);
+            }
+        }
+        Path archiveDirectory = directory.resolve(collection).resolve(ARCHIVE_DIRECTORY_NAME);
+        if (Files.isDirectory(archiveDirectory) && listFiles(archiveDirectory).isEmpty())
+        {
+            Files.delete(archiveDirectory);
+        }
+    }
+
+    private interface FileWriter
+    {
+        void write(Path target) throws IOException;
+    }
+
+    private BackupManifest.FileEntry addFile(BackupManifest manifest, Path directory,
+        Map<String, BackupManifest.FileEntry> baseFiles, String path, String checksum, long size, FileWriter writer)
+        throws IOException
+    {
+        BackupManifest.FileEntry entry = new BackupManifest.FileEntry();
+        entry.setPath(path);
+        entry.setSha256(checksum);
+        entry.setSize(size);
+        BackupManifest.FileEntry previous = baseFiles.get(path);
+        if (previous != null && previous.getSha256().equals(checksum))
+        {
+            entry.setBackup(previous.getBackup());
+        }
+        else
+        {
+            Path target = directory.resolve(path);
+            Files.createDirectories(target.getParent());
+            writer.write(target);
+            // The manifest written last must not list a file that is not yet on disk
+            DurableFiles.force(target);
+            entry.setBackup(manifest.getId());
+        }
+        manifest.getFiles().add(entry);
+        return entry;
+    }
+
+    /**
+     * Returns the completed backups, oldest first.
+     */
+    public List<BackupManifest> listBackups()
+    {
+        return listBackups(backupDir);
+    }
+
+    /**
+     * Returns the completed backups in the given backup directory, e.g. another
+     * instance's, oldest first.
+     */
+    List<BackupManifest> listBackups(Path backupDir)
+    {
+        List<BackupManifest> backups = new ArrayList<>();
+        if (!Files.isDirectory(backupDir))
+        {
+            return backups;
+        }
+        try
+        {
+            for (Path directory : listFiles(backupDir))
+            {
+                Path manifestFile = directory.resolve(MANIFEST_FILE_NAME);
+                if (Files.exists(manifestFile))
+                {
+                    backups.add(objectMapper.readValue(manifestFile.toFile(), BackupManifest.class));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new AbstractJsonRepository.DataPersistenceException("Failed to list backups in " + backupDir, e);
+        }
+        return backups;
+    }
+
+    public Optional<BackupManifest> getBackup(String id)
+    {
+        return listBackups().stream().filter(backup -> backup.getId().equals(id)).findFirst();
+    }
+
+    private Optional<BackupManifest> latestBackup()
+    {
+        List<BackupManifest> backups = listBackups();
+        return backups.isEmpty() ? Optional.empty() : Optional.of(backups.get(backups.size() - 1));
+    }
+
+    /**
+     * Checks that every file of the backup, including those held by earlier backups,
+     * is present and matches its checksum. Returns the problems found; none means the
+     * backup can be restored.
+     */
+    public List<String> verify(BackupManifest manifest)
+    {
+        return verify(manifest, backupDir);
+    }
+
+    private List<String> verify(BackupManifest manifest, Path backupDir)
+    {
+        List<String> problems = new ArrayList<>();
+        for (BackupManifest.FileEntry entry : manifest.getFiles())
+        {
+            Path file = resolve(backupDir, entry);
+            if (!Files.exists(file))
+            {
+                problems.add(entry.getPath() + " is missing from backup " + entry.getBackup());
+                continue;
+            }
+            try (InputStream in = Files.newInputStream(file))
+            {
+                if (!sha256(in).equals(entry.getSha256()))
+                {
+                    problems.add(entry.getPath() + " in backup " + entry.getBackup() + " does not match its checksum");
+                }
+            }
+            catch (IOException e)
+            {
+                problems.add(entry.getPath() + " in backup " + entry.getBackup() + " is unreadable: " + e.getMessage());
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Replaces all collections with the content of the backup. Nothing is changed if
+     * the backup fails verification.
+     */
+    public void restore(BackupManifest manifest)
+    {
+        restore(manifest, backupDir);
+    }
+
+    /**
+     * Restores a backup from the given backup directory, e.g. another instance's.
+     */
+    synchronized void restore(BackupManifest manifest, Path backupDir)
+    {
+        List<String> problems = verify(manifest, backupDir);
+        if (!problems.isEmpty())
+        {
+            throw new IllegalStateException("Backup " + manifest.getId() + " cannot be restored: " + String.join("; ", problems));
+        }
+
+        long start = System.nanoTime();
+        // Read everything before taking the locks
+        Map<AbstractJsonRepository<?>, List<?>> contents = new LinkedHashMap<>();
+        Map<AbstractJsonRepository<?>, List<Path>> archiveFiles = new LinkedHashMap<>();
+        for (AbstractJsonRepository<?> repository : repositories)
+        {
+            String collection = repository.getCollectionName();
+            if (!manifest.getCollections().containsKey(collection))
+            {
+                logger.warn("Backup {} has no {}, leaving them unchanged", manifest.getId(), repository.getEntityName());
+                continue;
+            }
+            contents.put(repository, readCollection(repository, manifest, backupDir));
+            List<Path> files = new ArrayList<>();
+            for (BackupManifest.FileEntry entry : manifest.getFiles())
+            {
+                if (entry.getPath().startsWith(collection + "/" + ARCHIVE_DIRECTORY_NAME + "/"))
+                {
+                    files.add(resolve(backupDir, entry));
+                }
+            }
+            archiveFiles.put(repository, files);
+        }
+
+        withAllLocked(0, () ->
+        {
+            for (Map.Entry<AbstractJsonRepository<?>, List<?>> entry : contents.entrySet())
+            {
+                restoreCollection(entry.getKey(), entry.getValue(), archiveFiles.get(entry.getKey()));
+            }
+        });
+        if (sequenceService != null)
+        {
+            manifest.getCounters().forEach((name, value) -> sequenceService.advanceTo(dataDir.resolve(name), value));
+        }
+        logger.info("Restored backup {} in {} ms", manifest.getId(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private <T> List<T> readCollection(AbstractJsonRepository<T> repository, BackupManifest manifest, Path backupDir)
+    {
+        String prefix = repository.getCollectionName() + "/part-";
+        List<T> entities = new ArrayList<>();
+        for (BackupManifest.FileEntry entry : manifest.getFiles())
+        {
+            if (!entry.getPath().startsWith(prefix))
+            {
+                continue;
+            }
+            try
+            {
+                entities.addAll(repository.objectMapper.readValue(resolve(backupDir, entry).toFile(),
+                    repository.objectMapper.getTypeFactory().constructCollectionType(List.class, repository.entityType)));
+            }
+            catch (IOException e)
+            {
+                throw new AbstractJsonRepository.DataPersistenceException("Failed to read " + entry.getPath() + " from backup", e);
+            }
+        }
+        return entities;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void restoreCollection(AbstractJsonRepository<T> repository, List<?> entities, List<Path> archiveFiles)
+    {
+        try
+        {
+            repository.restoreBackup((List<T>) entities, archiveFiles);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to restore {}: {}", repository.getEntityName(), e.getMessage(), e);
+            throw new AbstractJsonRepository.DataPersistenceException("Failed to restore " + repository.getEntityName(), e);
+        }
+    }
+
+    private static Path resolve(Path backupDir, BackupManifest.FileEntry entry)
+    {
+        return backupDir.resolve(entry.getBackup()).resolve(entry.getPath());
+    }
+
+    /**
+     * Reads the document number counters; a counter file holds at least the last
+     * number issued, so restoring it never reissues a number.
+     */
+    private Map<String, Long> readCounters()
+    {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        if (!Files.isDirectory(dataDir))
+        {
+            return counters;
+        }
+        try
+        {
+            for (Path file : listFiles(dataDir))
+            {
+                String name = file.getFileName().toString();
+                if (name.endsWith(COUNTER_FILE_SUFFIX))
+                {
+                    String content = Files.readString(file, StandardCharsets.UTF_8).trim();
+                    if (!content.isEmpty())
+                    {
+                        counters.put(name, Long.parseLong(content));
+                    }
+                }
+            }
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            throw new AbstractJsonRepository.DataPersistenceException("Failed to read the counters in " + dataDir, e);
+        }
+        return counters;
+    }
+
+    private static List<Path> listFiles(Path directory) throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory))
+        {
+            return files.sorted().toList();
+        }
+    }
+
+    private static void writeAtomically(Path file, byte[] content) throws IOException
+    {
+        Path tempFilePath = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tempFilePath, content);
+        DurableFiles.moveIntoPlace(tempFilePath, file);
+    }
+
+    private static void deleteDirectory(Path directory)
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+            {
+                Files.deleteIfExists(path);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to remove incomplete backup {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static String sha256(byte[] content)
+    {
+        return HexFormat.of().formatHex(newDigest().digest(content));
+    }
+
+    private static String sha256(InputStream in) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        try (DigestInputStream digesting = new DigestInputStream(in, digest); OutputStream sink = OutputStream.nullOutputStream())
+        {
+            digesting.transferTo(sink);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary copy of a collection, kept next to its JSON data file (e.g.
+ * {@code data/orders.snapshot}) so that a restart can skip parsing JSON text. The
+ * payload is the same array of entities encoded as Smile (binary JSON), which avoids
+ * tokenizing text and parsing decimal numbers.
+ * <p>
+ * File layout, all numbers big-endian:
+ * <pre>
+ * magic "EDGESNAP" | format version (int) | schema hash (long)
+ * | data file size (long) | data file modified time (long) | record count (int)
+ * | payload length (long) | payload CRC32 (long) | payload
+ * </pre>
+ * The payload is GZIP-compressed when {@code jsondb.compress} was on when it was
+ * written; the length and checksum are those of the stored bytes.
+ * <p>
+ * A snapshot is only current while the data file still has the size and modification
+ * time recorded in its header, i.e. it was written after (from) that exact file.
+ * Anything else - missing, stale, a different entity schema or a bad checksum - makes
+ * the repository fall back to the JSON file.
+ */
+class BinarySnapshot<T>
+{
+    static final String FILE_EXTENSION = ".snapshot";
+
+    private static final byte[] MAGIC = "EDGESNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 4 + 8 + 8 + 8 + 4 + 8 + 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path snapshotFilePath;
+    private final Path dataFilePath;
+    private final ObjectMapper smileMapper;
+    private final Class<T> entityType;
+    private final long schemaHash;
+    private final FileCompression compression;
+
+    BinarySnapshot(Path snapshotFilePath, Path dataFilePath, ObjectMapper objectMapper, Class<T> entityType,
+        FileCompression compression)
+    {
+        this.snapshotFilePath = snapshotFilePath;
+        this.dataFilePath = dataFilePath;
+        // Same modules and features as the JSON mapper (e.g. JavaTimeModule), binary encoding
+        this.smileMapper = objectMapper.copyWith(new SmileFactory())
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.smileMapper.getFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        this.entityType = entityType;
+        this.schemaHash = computeSchemaHash(objectMapper, entityType);
+        this.compression = compression;
+    }
+
+    Path getSnapshotFilePath()
+    {
+        return snapshotFilePath;
+    }
+
+    /**
+     * Hash over the entity's serialized property names and types, so a snapshot
+     * written by a build with a different entity shape is ignored.
+     */
+    private static long computeSchemaHash(ObjectMapper objectMapper, Class<?> entityType)
+    {
+        BeanDescription description = objectMapper.getSerializationConfig().introspect(objectMapper.constructType(entityType));
+        TreeSet<String> properties = new TreeSet<>();
+        for (BeanPropertyDefinition property : description.findProperties())
+        {
+            properties.add(property.getName() + ":" + property.getPrimaryType().toCanonical());
+        }
+        CRC32 crc = new CRC32();
+        crc.update((entityType.getName() + properties).getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * Returns whether a snapshot exists that was written from the current data file.
+     * Only the header is read; the checksum is verified by {@link #read}.
+     */
+    boolean isCurrent() throws IOException
+    {
+        if (!Files.exists(snapshotFilePath) || !Files.exists(dataFilePath))
+        {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFilePath, StandardOpenOption.READ))
+        {
+            return readHeader(channel) != null;
+        }
+    }
+
+    /**
+     * Streams every entity in the snapshot to the consumer and returns the count.
+     * Throws if the snapshot is not current or fails its checksum; in that case the
+     * consumer may already have received some entities.
+     */
+    int read(Consumer<T> onEntity) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(snapshotFilePath, StandardOpenOption.READ))
+        {
+            Header header = readHeader(channel);
+            if (header == null)
+            {
+                throw new IOException("Snapshot " + snapshotFilePath + " does not match data file " + dataFilePath);
+            }
+            if (channel.size() != HEADER_LENGTH + header.payloadLength)
+            {
+                throw new IOException("Snapshot " + snapshotFilePath + " is truncated");
+            }
+
+            CRC32 crc = new CRC32();
+            channel.position(HEADER_LENGTH);
+            InputStream in = new CheckedInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE), crc);
+            InputStream payload = FileCompression.decode(in);
+            int count = 0;
+            try (JsonParser parser = smileMapper.createParser(payload))
+            {
+                if (parser.nextToken() != JsonToken.START_ARRAY)
+                {
+                    throw new IOException("Snapshot " + snapshotFilePath + " does not contain an array");
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT)
+                {
+                    onEntity.accept(smileMapper.readValue(parser, entityType));
+                    count++;
+                }
+                // Checksum the rest of the payload the parser may not have consumed
+                payload.transferTo(OutputStream.nullOutputStream());
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+
+            if (crc.getValue() != header.checksum)
+            {
+                throw new IOException("Snapshot " + snapshotFilePath + " failed its checksum");
+            }
+            if (count != header.recordCount)
+            {
+                throw new IOException("Snapshot " + snapshotFilePath + " has " + count + " records, header says " + header.recordCount);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Writes the entities as a new snapshot of the current data file. The file is
+     * written to a temporary sibling first and moved into place atomically.
+     */
+    void write(Collection<T> entities) throws IOException
+    {
+        BasicFileAttributes dataAttributes = Files.readAttributes(dataFilePath, BasicFileAttributes.class);
+        Path tempFilePath = snapshotFilePath.resolveSibling(snapshotFilePath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFilePath,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            CRC32 crc = new CRC32();
+            channel.position(HEADER_LENGTH);
+            OutputStream out = new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), crc);
+            OutputStream payload = compression.encode(out);
+            try (JsonGenerator generator = smileMapper.createGenerator(payload))
+            {
+                generator.writeStartArray();
+                for (T entity : entities)
+                {
+                    smileMapper.writeValue(generator, entity);
+                }
+                generator.writeEndArray();
+            }
+            FileCompression.finish(payload);
+            long payloadLength = channel.size() - HEADER_LENGTH;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.put(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putLong(schemaHash)
+                .putLong(dataAttributes.size())
+                .putLong(dataAttributes.lastModifiedTime().toMillis())
+                .putInt(entities.size())
+                .putLong(payloadLength)
+                .putLong(crc.getValue())
+                .flip();
+            while (header.hasRemaining())
+            {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        catch (IOException e)
+        {
+            Files.deleteIfExists(tempFilePath);
+            throw e;
+        }
+        Files.move(tempFilePath, snapshotFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void delete() throws IOException
+    {
+        Files.deleteIfExists(snapshotFilePath);
+    }
+
+    private Header readHeader(FileChannel channel) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                return null;
+            }
+        }
+        buffer.flip();
+
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != FORMAT_VERSION || buffer.getLong() != schemaHash)
+        {
+            return null;
+        }
+        BasicFileAttributes dataAttributes = Files.readAttributes(dataFilePath, BasicFileAttributes.class);
+        if (buffer.getLong() != dataAttributes.size() || buffer.getLong() != dataAttributes.lastModifiedTime().toMillis())
+        {
+            return null;
+        }
+        return new Header(buffer.getInt(), buffer.getLong(), buffer.getLong());
+    }
+
+    private static final class Header
+    {
+        final int recordCount;
+        final long payloadLength;
+        final long checksum;
+
+        Header(int recordCount, long payloadLength, long checksum)
+        {
+            this.recordCount = recordCount;
+            this.payloadLength = payloadLength;
+            this.checksum = checksum;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * One change in the {@link ChangeFeed}: a created, updated or deleted entity with its
+ * JSON before and after the change. Sequence numbers are assigned across all
+ * collections in the order the changes were stored, starting at 1.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class ChangeEvent
+{
+    public enum Type
+    {
+        CREATE, UPDATE, DELETE
+    }
+
+    private final long sequence;
+    private final String collection;
+    private final Type type;
+    private final String id;
+    private final long timestamp;
+    private final JsonNode before;
+    private final JsonNode after;
+
+    @JsonCreator
+    public ChangeEvent(@JsonProperty("sequence") long sequence,
+                       @JsonProperty("collection") String collection,
+                       @JsonProperty("type") Type type,
+                       @JsonProperty("id") String id,
+                       @JsonProperty("timestamp") long timestamp,
+                       @JsonProperty("before") JsonNode before,
+                       @JsonProperty("after") JsonNode after)
+    {
+        this.sequence = sequence;
+        this.collection = collection;
+        this.type = type;
+        this.id = id;
+        this.timestamp = timestamp;
+        // Jackson reads a JSON null as a NullNode
+        this.before = before == null || before.isNull() ? null : before;
+        this.after = after == null || after.isNull() ? null : after;
+    }
+
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Collection name of the repository, e.g. {@code purchase-orders}.
+     */
+    public String getCollection()
+    {
+        return collection;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * When the change was stored, in milliseconds since the epoch.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * The entity before the change; null for a create.
+     */
+    public JsonNode getBefore()
+    {
+        return before;
+    }
+
+    /**
+     * The entity after the change; null for a delete.
+     */
+    public JsonNode getAfter()
+    {
+        return after;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ChangeEvent{" + sequence + " " + type + " " + collection + "/" + id + "}";
+    }
+}
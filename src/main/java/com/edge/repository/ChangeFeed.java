@@ -0,0 +1,399 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Change data capture for all repositories: every stored create, update and delete
+ * becomes a {@link ChangeEvent} with a sequence number, so consumers such as the
+ * WebSocket push can follow the data without each service having to report its
+ * changes.
+ * <p>
+ * Events are appended to {@code data/changes.log} (one JSON object per line) as the
+ * repositories store the changes, and delivered to subscribers in sequence order on a
+ * single dispatcher thread once the repository has published the change, so a
+ * subscriber reading the repository sees it. Changes made in a {@link UnitOfWork} are
+ * recorded when it commits; a rolled back unit records nothing. When the log grows
+ * beyond {@code jsondb.change-log-max-bytes} it is rotated to {@code changes.log.1},
+ * replacing the previous rotated file, so the two files hold the recent history a
+ * projection can catch up from with {@link #subscribe(long, Consumer)}.
+ * <p>
+ * The log is written through to the operating system with every change, like the
+ * write-ahead log without write-behind, and forced to disk by
+ * {@link AbstractJsonRepository#awaitDurable()} and on shutdown.
+ */
+@Component
+public class ChangeFeed
+{
+    private static final Logger logger = LoggerFactory.getLogger(ChangeFeed.class);
+    static final String LOG_FILE_NAME = "changes.log";
+    static final long DEFAULT_MAX_LOG_BYTES = 16L * 1024 * 1024;
+    private static final int READ_BLOCK_SIZE = 8192;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path logFilePath;
+    private final Path rotatedLogFilePath;
+    private final List<Consumer<ChangeEvent>> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(runnable ->
+    {
+        Thread thread = new Thread(runnable, "change-feed");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long maxLogBytes = DEFAULT_MAX_LOG_BYTES;
+
+    // Guarded by this
+    private FileChannel log;
+    private long lastSequence;
+    private long lastQueued;
+    // Published events waiting for an earlier event to be published, by sequence
+    private final TreeMap<Long, ChangeEvent> waiting = new TreeMap<>();
+
+    // Set when the log is opened, then only by the dispatcher thread
+    private volatile long lastDispatched;
+
+    public ChangeFeed()
+    {
+        this(Paths.get("").toAbsolutePath().resolve("data"));
+    }
+
+    ChangeFeed(Path dataDir)
+    {
+        this.logFilePath = dataDir.resolve(LOG_FILE_NAME);
+        this.rotatedLogFilePath = dataDir.resolve(LOG_FILE_NAME + ".1");
+    }
+
+    @Autowired(required = false)
+    public void setJsonDbConfig(JsonDbConfig config)
+    {
+        this.maxLogBytes = Math.max(1, config.getChangeLogMaxBytes());
+    }
+
+    /**
+     * Sequence number of the last recorded change, 0 if there is none.
+     */
+    public synchronized long getLastSequence()
+    {
+        ensureOpen();
+        return lastSequence;
+    }
+
+    /**
+     * Delivers every change published from now on to the listener, on the dispatcher
+     * thread. An exception thrown by the listener is logged and does not stop the feed.
+     */
+    public void subscribe(Consumer<ChangeEvent> listener)
+    {
+        subscribers.add(listener);
+    }
+
+    /**
+     * Delivers the logged changes after the given sequence number and then every
+     * further change to the listener, without gaps or duplicates; e.g. for a
+     * projection that stored the sequence number it has processed up to. Changes
+     * rotated out of the log are not delivered, so a listener that has fallen further
+     * behind than the log reaches must rebuild from the repositories.
+     */
+    public void subscribe(long afterSequence, Consumer<ChangeEvent> listener)
+    {
+        // Runs between two dispatches, so the log holds every event dispatched so far
+        dispatcher.execute(() ->
+        {
+            for (ChangeEvent event : readSince(afterSequence))
+            {
+                if (event.getSequence() > lastDispatched)
+                {
+                    break;
+                }
+                deliver(listener, event);
+            }
+            subscribers.add(listener);
+        });
+    }
+
+    public void unsubscribe(Consumer<ChangeEvent> listener)
+    {
+        subscribers.remove(listener);
+    }
+
+    /**
+     * Returns the logged changes after the given sequence number, oldest first.
+     */
+    public synchronized List<ChangeEvent> readSince(long afterSequence)
+    {
+        ensureOpen();
+        List<ChangeEvent> events = new ArrayList<>();
+        try
+        {
+            readLog(rotatedLogFilePath, afterSequence, events);
+            readLog(logFilePath, afterSequence, events);
+        }
+        catch (IOException e)
+        {
+            throw new AbstractJsonRepository.DataPersistenceException("Failed to read the change log", e);
+        }
+        return events;
+    }
+
+    private void readLog(Path path, long afterSequence, List<ChangeEvent> events) throws IOException
+    {
+        if (!Files.exists(path))
+        {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++)
+        {
+            if (bytes[i] == '\n')
+            {
+                ChangeEvent event = objectMapper.readValue(bytes, start, i - start, ChangeEvent.class);
+                if (event.getSequence() > afterSequence)
+                {
+                    events.add(event);
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Assigns the next sequence number to a change and appends it to the log. Called
+     * while the repository's writer lock is held; the event reaches subscribers once
+     * the repository passes it to {@link #publish}.
+     */
+    synchronized ChangeEvent record(String collection, String id, JsonNode before, JsonNode after)
+    {
+        ensureOpen();
+        ChangeEvent.Type type = before == null ? ChangeEvent.Type.CREATE : after == null ? ChangeEvent.Type.DELETE : ChangeEvent.Type.UPDATE;
+        ChangeEvent event = new ChangeEvent(lastSequence + 1, collection, type, id, System.currentTimeMillis(), before, after);
+        lastSequence = event.getSequence();
+        try
+        {
+            ByteBuffer line = ByteBuffer.wrap((objectMapper.writeValueAsString(event) + "\n").getBytes(StandardCharsets.UTF_8));
+            if (log.size() > 0 && log.size() + line.remaining() > maxLogBytes)
+            {
+                rotate();
+            }
+            while (line.hasRemaining())
+            {
+                log.write(line);
+            }
+        }
+        catch (IOException e)
+        {
+            // The change itself is stored; subscribers still receive it
+            logger.error("Failed to append change {} to the change log: {}", event.getSequence(), e.getMessage(), e);
+        }
+        return event;
+    }
+
+    /**
+     * Hands recorded events over for delivery once the repository has published them.
+     * Events are dispatched strictly in sequence order, so an event published before
+     * an earlier one waits for it.
+     */
+    synchronized void publish(List<ChangeEvent> events)
+    {
+        for (ChangeEvent event : events)
+        {
+            waiting.put(event.getSequence(), event);
+        }
+        while (!waiting.isEmpty() && waiting.firstKey() == lastQueued + 1)
+        {
+            ChangeEvent event = waiting.pollFirstEntry().getValue();
+            lastQueued = event.getSequence();
+            dispatcher.execute(() -> dispatch(event));
+        }
+    }
+
+    private void dispatch(ChangeEvent event)
+    {
+        for (Consumer<ChangeEvent> subscriber : subscribers)
+        {
+            deliver(subscriber, event);
+        }
+        lastDispatched = event.getSequence();
+    }
+
+    private void deliver(Consumer<ChangeEvent> subscriber, ChangeEvent event)
+    {
+        try
+        {
+            subscriber.accept(event);
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Change feed subscriber failed on {}: {}", event, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Forces the logged changes to disk.
+     */
+    public synchronized void force()
+    {
+        if (log == null)
+        {
+            return;
+        }
+        try
+        {
+            log.force(false);
+        }
+        catch (IOException e)
+        {
+            throw new AbstractJsonRepository.DataPersistenceException("Failed to force the change log", e);
+        }
+    }
+
+    private void rotate() throws IOException
+    {
+        log.force(false);
+        log.close();
+        Files.move(logFilePath, rotatedLogFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logFilePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        logger.info("Rotated the change log at sequence {}", lastSequence);
+    }
+
+    /**
+     * Opens the log on first use and resumes the sequence after its last complete
+     * line; a line torn by a crash is cut off.
+     */
+    private void ensureOpen()
+    {
+        if (log != null)
+        {
+            return;
+        }
+        try
+        {
+            Files.createDirectories(logFilePath.getParent());
+            FileChannel channel = FileChannel.open(logFilePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            String lastLine = lastCompleteLine(channel, true);
+            if (lastLine == null && Files.exists(rotatedLogFilePath))
+            {
+                try (FileChannel rotated = FileChannel.open(rotatedLogFilePath, StandardOpenOption.READ))
+                {
+                    lastLine = lastCompleteLine(rotated, false);
+                }
+            }
+            lastSequence = lastLine == null ? 0 : objectMapper.readValue(lastLine, ChangeEvent.class).getSequence();
+            lastQueued = lastSequence;
+            lastDispatched = lastSequence;
+            channel.position(channel.size());
+            log = channel;
+            logger.info("Change log opened at sequence {}", lastSequence);
+        }
+        catch (IOException e)
+        {
+            throw new AbstractJsonRepository.DataPersistenceException("Failed to open the change log " + logFilePath, e);
+        }
+    }
+
+    /**
+     * Returns the last newline-terminated line of the file, or null if there is none,
+     * reading backwards from the end. With truncate, anything after it is cut off.
+     */
+    static String lastCompleteLine(FileChannel channel, boolean truncate) throws IOException
+    {
+        long lineEnd = lastNewlineBefore(channel, channel.size());
+        if (truncate && lineEnd + 1 < channel.size())
+        {
+            channel.truncate(lineEnd + 1);
+        }
+        if (lineEnd < 0)
+        {
+            return null;
+        }
+        long lineStart = lastNewlineBefore(channel, lineEnd) + 1;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (lineEnd - lineStart));
+        readFully(channel, buffer, lineStart);
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    private static long lastNewlineBefore(FileChannel channel, long end) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BLOCK_SIZE);
+        while (end > 0)
+        {
+            long start = Math.max(0, end - READ_BLOCK_SIZE);
+            buffer.clear().limit((int) (end - start));
+            readFully(channel, buffer, start);
+            for (int i = buffer.position() - 1; i >= 0; i--)
+            {
+                if (buffer.get(i) == '\n')
+                {
+                    return start + i;
+                }
+            }
+            end = start;
+        }
+        return -1;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close()
+    {
+        dispatcher.shutdown();
+        try
+        {
+            dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this)
+        {
+            if (log != null)
+            {
+                try
+                {
+                    log.force(false);
+                    log.close();
+                }
+                catch (IOException e)
+                {
+                    logger.error("Failed to close the change log: {}", e.getMessage(), e);
+                }
+                log = null;
+            }
+        }
+    }
+}
@@ -4,12 +4,10 @@ package com.edge.repository;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Customer;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,33 +18,24 @@ public class CustomerRepository extends AbstractJsonRepository<Customer>
     private static final String DATA_FILE_NAME = "customers.json";
     private static final String DATA_DIR_NAME = "data";
 
+    private final EntityIndex<Customer> byEmail = uniqueIndex("email", Customer::getEmail);
+    private final EntityIndex<Customer> byCustomerNumber = uniqueIndex("customerNumber", Customer::getCustomerNumber);
+    private final SortIndex<Customer> customerNumberOrder = sortIndex("customerNumber", String.class, Customer::getCustomerNumber);
+    private final SortIndex<Customer> companyNameOrder = sortIndex("companyName", String.class, Customer::getCompanyName);
+    private final SortIndex<Customer> lastNameOrder = sortIndex("lastName", String.class, Customer::getLastName);
+    private final SortIndex<Customer> customerNumberPrefix = prefixIndex(byCustomerNumber);
+    private final TextIndex<Customer> customerText = textIndex("text",
+        TextIndex.field("companyName", Customer::getCompanyName),
+        TextIndex.field("customerNumber", Customer::getCustomerNumber),
+        TextIndex.field("lastName", Customer::getLastName),
+        TextIndex.field("firstName", Customer::getFirstName),
+        TextIndex.field("email", Customer::getEmail));
+
     public CustomerRepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "customers");
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException
-    {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty customer list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Customer>>() {});
-            logger.info("Successfully loaded {} customers from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
-    }
-
     @Override
     protected String getId(Customer entity)
     {
@@ -65,7 +54,7 @@ public class CustomerRepository extends AbstractJsonRepository<Customer>
         {
             return Optional.empty();
         }
-        return items.stream().filter(customer -> email.equals(customer.getEmail())).findFirst();
+        return byEmail.findFirst(email);
     }
 
     public Optional<Customer> getCustomerByCustomerNumber(String customerNumber)
@@ -74,7 +63,7 @@ public class CustomerRepository extends AbstractJsonRepository<Customer>
         {
             return Optional.empty();
         }
-        return items.stream().filter(customer -> customerNumber.equals(customer.getCustomerNumber())).findFirst();
+        return byCustomerNumber.findFirst(customerNumber);
     }
 
     public Optional<Customer> getCustomerById(String id)
@@ -87,6 +76,21 @@ public class CustomerRepository extends AbstractJsonRepository<Customer>
         return findAll();
     }
 
+    public Page<Customer> getAllCustomers(PageRequest request)
+    {
+        return findPage(request);
+    }
+
+    public List<SearchHit<Customer>> searchCustomers(String query, int limit)
+    {
+        return customerText.search(query, limit);
+    }
+
+    public List<Customer> findByCustomerNumberPrefix(String prefix, int limit)
+    {
+        return findByPrefix(customerNumberPrefix, prefix, limit);
+    }
+
     public Customer createCustomer(Customer customer)
     {
         if (customer == null)
@@ -117,54 +121,57 @@ public class CustomerRepository extends AbstractJsonRepository<Customer>
             throw new IllegalArgumentException("Customer details cannot be null");
         }
 
-        Customer existingCustomer = findById(id).orElseThrow(() -> 
-            new CustomerNotFoundException("Customer not found with id: " + id));
-        
-        if (customerDetails.getEmail() != null && !customerDetails.getEmail().trim().isEmpty())
+        return inWriteLock(() ->
         {
-            Optional<Customer> emailCheck = getCustomerByEmail(customerDetails.getEmail());
-            if (emailCheck.isPresent() && !id.equals(emailCheck.get().getId()))
+            Customer existingCustomer = findByIdForUpdate(id).orElseThrow(() -> 
+                new CustomerNotFoundException("Customer not found with id: " + id));
+        
+            if (customerDetails.getEmail() != null && !customerDetails.getEmail().trim().isEmpty())
             {
-                throw new CustomerAlreadyExistsException("Customer with email " + customerDetails.getEmail() + " already exists");
+                Optional<Customer> emailCheck = getCustomerByEmail(customerDetails.getEmail());
+                if (emailCheck.isPresent() && !id.equals(emailCheck.get().getId()))
+                {
+                    throw new CustomerAlreadyExistsException("Customer with email " + customerDetails.getEmail() + " already exists");
+                }
             }
-        }
 
-        // Update fields
-        existingCustomer.setCustomerNumber(customerDetails.getCustomerNumber());
-        existingCustomer.setCompanyName(customerDetails.getCompanyName());
-        existingCustomer.setFirstName(customerDetails.getFirstName());
-        existingCustomer.setLastName(customerDetails.getLastName());
-        existingCustomer.setEmail(customerDetails.getEmail());
-        existingCustomer.setPhone(customerDetails.getPhone());
-        existingCustomer.setAddressId(customerDetails.getAddressId());
+            // Update fields
+            existingCustomer.setCustomerNumber(customerDetails.getCustomerNumber());
+            existingCustomer.setCompanyName(customerDetails.getCompanyName());
+            existingCustomer.setFirstName(customerDetails.getFirstName());
+            existingCustomer.setLastName(customerDetails.getLastName());
+            existingCustomer.setEmail(customerDetails.getEmail());
+            existingCustomer.setPhone(customerDetails.getPhone());
+            existingCustomer.setAddressId(customerDetails.getAddressId());
         
-        // Update jsonData, preserving addressIds if not provided
-        if (customerDetails.getJsonData() != null)
-        {
-            java.util.Map<String, Object> newJsonData = new java.util.HashMap<>(customerDetails.getJsonData());
-            // If addressIds is in the new jsonData, use it; otherwise preserve existing
-            if (!newJsonData.containsKey("addressIds") && existingCustomer.getJsonData() != null && 
-                existingCustomer.getJsonData().containsKey("addressIds"))
+            // Update jsonData, preserving addressIds if not provided
+            if (customerDetails.getJsonData() != null)
             {
-                newJsonData.put("addressIds", existingCustomer.getJsonData().get("addressIds"));
+                java.util.Map<String, Object> newJsonData = new java.util.HashMap<>(customerDetails.getJsonData());
+                // If addressIds is in the new jsonData, use it; otherwise preserve existing
+                if (!newJsonData.containsKey("addressIds") && existingCustomer.getJsonData() != null && 
+                    existingCustomer.getJsonData().containsKey("addressIds"))
+                {
+                    newJsonData.put("addressIds", existingCustomer.getJsonData().get("addressIds"));
+                }
+                existingCustomer.setJsonData(new java.util.HashMap<>(newJsonData));
+            }
+            else if (existingCustomer.getJsonData() != null && existingCustomer.getJsonData().containsKey("addressIds"))
+            {
+                // Preserve existing addressIds if jsonData is null in update
+                java.util.Map<String, Object> jsonData = new java.util.HashMap<>();
+                jsonData.put("addressIds", existingCustomer.getJsonData().get("addressIds"));
+                existingCustomer.setJsonData(jsonData);
+            }
+            else
+            {
+                existingCustomer.setJsonData(customerDetails.getJsonData());
             }
-            existingCustomer.setJsonData(new java.util.HashMap<>(newJsonData));
-        }
-        else if (existingCustomer.getJsonData() != null && existingCustomer.getJsonData().containsKey("addressIds"))
-        {
-            // Preserve existing addressIds if jsonData is null in update
-            java.util.Map<String, Object> jsonData = new java.util.HashMap<>();
-            jsonData.put("addressIds", existingCustomer.getJsonData().get("addressIds"));
-            existingCustomer.setJsonData(jsonData);
-        }
-        else
-        {
-            existingCustomer.setJsonData(customerDetails.getJsonData());
-        }
         
-        saveItems();
-        logger.info("Updated customer with ID: {}", id);
-        return existingCustomer;
+            saveItem(existingCustomer);
+            logger.info("Updated customer with ID: {}", id);
+            return existingCustomer;
+        });
     }
 
     public void deleteCustomer(String id)
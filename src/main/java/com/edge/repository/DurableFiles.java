@@ -0,0 +1,59 @@
+package com.edge.repository;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * fsync helpers for files that are written to a temporary file and moved into place.
+ * The temporary file is forced before the move so the rename can never expose a file
+ * whose contents are still in the page cache, and the directory is forced after it so
+ * the rename itself survives a power loss.
+ */
+final class DurableFiles
+{
+    private DurableFiles()
+    {
+    }
+
+    /**
+     * Forces the contents and metadata of the file to the device.
+     */
+    static void force(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+        {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces the directory entry changes (creates, renames, deletes) in the directory.
+     * Some platforms cannot open a directory for this; there the rename is as durable
+     * as the file system makes it on its own.
+     */
+    static void forceDirectory(Path directory)
+    {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ))
+        {
+            channel.force(true);
+        }
+        catch (IOException e)
+        {
+            // Not supported on this platform (Windows)
+        }
+    }
+
+    /**
+     * Forces the temporary file, moves it over the target and forces the directory.
+     */
+    static void moveIntoPlace(Path tempFile, Path target) throws IOException
+    {
+        force(tempFile);
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(target.toAbsolutePath().getParent());
+    }
+}
@@ -0,0 +1,308 @@
+package com.edge.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Hash index over one or more entity fields, declared by a repository through
+ * {@link AbstractJsonRepository#index} or {@link AbstractJsonRepository#uniqueIndex}
+ * and kept up to date by the repository on every mutation.
+ * <p>
+ * Composite keys (e.g. productId + warehouseId) are matched on all parts. Entities
+ * with a null key part are not indexed, so lookups with a null value find nothing.
+ * The key last indexed for each entity is remembered, which keeps the index correct
+ * when an entity is modified in place before being saved.
+ * <p>
+ * Lookups made while the calling thread holds the repository's write lock see the
+ * uncommitted state of the index; all other lookups read the version held by the
+ * repository's current {@link RepositorySnapshot}. In-memory matches come in
+ * collection order; matches in archived partitions (see {@link ArchivePolicy}) are
+ * included before them.
+ */
+public class EntityIndex<T>
+{
+    private static final Logger logger = LoggerFactory.getLogger(EntityIndex.class);
+
+    private final AbstractJsonRepository<T> owner;
+    private final String name;
+    private final boolean unique;
+    private final List<Function<T, ?>> keyParts;
+    // Key -> entities with that key by collection position; persistent, so snapshots
+    // share it as it is
+    private PersistentMap<Object, PersistentSequence<T>> entriesByKey = PersistentMap.empty();
+    // ID -> key and position the entity was last indexed under
+    private PersistentMap<String, IndexedKey> keysById = PersistentMap.empty();
+
+    EntityIndex(AbstractJsonRepository<T> owner, String name, boolean unique, List<Function<T, ?>> keyParts)
+    {
+        if (keyParts.isEmpty())
+        {
+            throw new IllegalArgumentException("Index " + name + " must have at least one key part");
+        }
+        this.owner = owner;
+        this.name = name;
+        this.unique = unique;
+        this.keyParts = List.copyOf(keyParts);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public boolean isUnique()
+    {
+        return unique;
+    }
+
+    public int getKeyPartCount()
+    {
+        return keyParts.size();
+    }
+
+    public Optional<T> findFirst(Object... keyValues)
+    {
+        List<T> entries = lookup(keyValues);
+        return entries.isEmpty() ? Optional.empty() : Optional.of(entries.get(0));
+    }
+
+    /**
+     * Returns the matching entities as an unmodifiable list.
+     */
+    public List<T> findAll(Object... keyValues)
+    {
+        return lookup(keyValues);
+    }
+
+    public int count(Object... keyValues)
+    {
+        return lookup(keyValues).size();
+    }
+
+    private List<T> lookup(Object... keyValues)
+    {
+        Object key = toLookupKey(keyValues);
+        if (key == null)
+        {
+            return List.of();
+        }
+        List<T> matches;
+        if (owner.isWriting())
+        {
+            PersistentSequence<T> entries = entriesByKey.get(key);
+            matches = entries == null ? List.of() : entries.asList();
+        }
+        else
+        {
+            matches = owner.snapshot().lookup(this, key);
+        }
+        return owner.withArchived(this, key, owner.resolveAll(matches));
+    }
+
+    /**
+     * Returns one page of the entities with the key, in collection order or sorted by
+     * one of the repository's sort indexes (see {@link PageRequest}). Unsorted pages
+     * are read from the index entries starting at the cursor; a sorted page sorts the
+     * entries for the key, which does not touch the rest of the collection. Archived
+     * matches come first, as in {@link #findAll}.
+     *
+     * @throws IllegalArgumentException if the sort, cursor or limit is not valid
+     */
+    public Page<T> findPage(PageRequest request, Object... keyValues)
+    {
+        return owner.findPage(this, toLookupKey(keyValues), request);
+    }
+
+    Object keyOf(T entity)
+    {
+        List<Object> values = new ArrayList<>(keyParts.size());
+        for (Function<T, ?> part : keyParts)
+        {
+            values.add(part.apply(entity));
+        }
+        return toKey(values);
+    }
+
+    /**
+     * The entity's key as a string for storing outside the heap, e.g. in an H2 column
+     * or an archive key file; composite keys are joined with '|'. Null if a key part
+     * is null.
+     */
+    String keyStringOf(T entity)
+    {
+        return keyString(keyOf(entity));
+    }
+
+    static String keyString(Object key)
+    {
+        if (key instanceof List<?> parts)
+        {
+            return parts.stream().map(String::valueOf).collect(Collectors.joining("|"));
+        }
+        return key == null ? null : String.valueOf(key);
+    }
+
+    /**
+     * Converts lookup values to a key the same way as findAll, or null if any is null.
+     */
+    Object toLookupKey(Object... keyValues)
+    {
+        if (keyValues.length != keyParts.size())
+        {
+            throw new IllegalArgumentException("Index " + name + " expects " + keyParts.size() + " key values but got " + keyValues.length);
+        }
+        return toKey(Arrays.asList(keyValues));
+    }
+
+    private static Object toKey(List<Object> values)
+    {
+        for (Object value : values)
+        {
+            if (value == null)
+            {
+                return null;
+            }
+        }
+        return values.size() == 1 ? values.get(0) : values;
+    }
+
+    /**
+     * For a unique index, returns an entity other than the one with the given ID that
+     * is indexed under the entity's key, in memory or in the archive; null if there is
+     * none or the index is not unique. A blank text key part, like a null one, means
+     * the entity has no key to clash, as optional fields such as a customer's email
+     * are often left empty.
+     */
+    T findConflict(String id, T entity)
+    {
+        Object key = unique ? keyOf(entity) : null;
+        if (key == null || (key instanceof List<?> parts ? parts : List.of(key)).stream()
+            .anyMatch(part -> part instanceof String text && text.isBlank()))
+        {
+            return null;
+        }
+        for (T indexed : owner.withArchived(this, key, bucket(key).asList()))
+        {
+            if (!id.equals(owner.getId(indexed)))
+            {
+                return indexed;
+            }
+        }
+        return null;
+    }
+
+    void put(String id, int position, T entity)
+    {
+        Object newKey = keyOf(entity);
+        IndexedKey old = keysById.get(id);
+        if (old != null && (!old.key.equals(newKey) || old.position != position))
+        {
+            removeEntry(old);
+        }
+        if (newKey == null)
+        {
+            keysById = keysById.without(id);
+            return;
+        }
+
+        keysById = keysById.with(id, new IndexedKey(newKey, position));
+        PersistentSequence<T> entries = entriesByKey.get(newKey);
+        entries = (entries == null ? PersistentSequence.<T>empty() : entries).with(position, entity);
+        entriesByKey = entriesByKey.with(newKey, entries);
+        if (unique && entries.size() > 1)
+        {
+            // Writes are checked with findConflict; this only happens for stored data
+            // that already holds duplicates
+            logger.warn("Unique index {} has {} entries for key {}", name, entries.size(), newKey);
+        }
+    }
+
+    void remove(String id)
+    {
+        IndexedKey old = keysById.get(id);
+        if (old != null)
+        {
+            keysById = keysById.without(id);
+            removeEntry(old);
+        }
+    }
+
+    private void removeEntry(IndexedKey indexed)
+    {
+        PersistentSequence<T> entries = entriesByKey.get(indexed.key);
+        if (entries != null)
+        {
+            entries = entries.without(indexed.position);
+            entriesByKey = entries.isEmpty() ? entriesByKey.without(indexed.key) : entriesByKey.with(indexed.key, entries);
+        }
+    }
+
+    /**
+     * The entities currently indexed under the key, for the writer side.
+     */
+    PersistentSequence<T> bucket(Object key)
+    {
+        PersistentSequence<T> entries = entriesByKey.get(key);
+        return entries == null ? PersistentSequence.empty() : entries;
+    }
+
+    /**
+     * The current entries, for a snapshot; later changes do not affect them.
+     */
+    PersistentMap<Object, PersistentSequence<T>> entries()
+    {
+        return entriesByKey;
+    }
+
+    void clear()
+    {
+        entriesByKey = PersistentMap.empty();
+        keysById = PersistentMap.empty();
+    }
+
+    /**
+     * Captures the writer-side state, which {@link #restore} brings back, e.g. when a
+     * unit of work rolls back. Both maps are persistent, so this copies nothing.
+     */
+    SavedState<T> saveState()
+    {
+        return new SavedState<>(entriesByKey, keysById);
+    }
+
+    void restore(SavedState<T> state)
+    {
+        entriesByKey = state.entriesByKey;
+        keysById = state.keysById;
+    }
+
+    static final class SavedState<T>
+    {
+        private final PersistentMap<Object, PersistentSequence<T>> entriesByKey;
+        private final PersistentMap<String, IndexedKey> keysById;
+
+        private SavedState(PersistentMap<Object, PersistentSequence<T>> entriesByKey, PersistentMap<String, IndexedKey> keysById)
+        {
+            this.entriesByKey = entriesByKey;
+            this.keysById = keysById;
+        }
+    }
+
+    private static final class IndexedKey
+    {
+        final Object key;
+        final int position;
+
+        IndexedKey(Object key, int position)
+        {
+            this.key = key;
+            this.position = position;
+        }
+    }
+}
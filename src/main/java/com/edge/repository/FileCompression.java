@@ -0,0 +1,116 @@
+package com.edge.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk encoding of the files the storage engines write (data files, segments and
+ * binary snapshot payloads): plain or GZIP. The encoding is chosen when a file is
+ * written ({@code jsondb.compress}); reading recognizes GZIP by its magic bytes, so a
+ * directory may hold a mix of both and switching the setting needs no migration.
+ */
+final class FileCompression
+{
+    static final FileCompression NONE = new FileCompression(false, 0);
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final boolean enabled;
+    private final int level;
+
+    private FileCompression(boolean enabled, int level)
+    {
+        this.enabled = enabled;
+        this.level = level;
+    }
+
+    /**
+     * GZIP at the given deflate level (1 fastest to 9 smallest).
+     */
+    static FileCompression gzip(int level)
+    {
+        return new FileCompression(true, Math.max(1, Math.min(9, level)));
+    }
+
+    boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Wraps the stream so that what is written to it is stored in this encoding.
+     * Closing the returned stream closes the target; use {@link #finish} to complete
+     * the encoding while keeping the target open.
+     */
+    OutputStream encode(OutputStream out) throws IOException
+    {
+        if (!enabled)
+        {
+            return out;
+        }
+        return new GZIPOutputStream(out, BUFFER_SIZE)
+        {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    OutputStream newOutputStream(Path file) throws IOException
+    {
+        return encode(Files.newOutputStream(file));
+    }
+
+    /**
+     * Writes any buffered compressed data and the trailer to the target and flushes it.
+     */
+    static void finish(OutputStream out) throws IOException
+    {
+        if (out instanceof DeflaterOutputStream deflating)
+        {
+            deflating.finish();
+        }
+        out.flush();
+    }
+
+    static boolean isCompressed(Path file) throws IOException
+    {
+        try (InputStream in = Files.newInputStream(file))
+        {
+            return in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+        }
+    }
+
+    /**
+     * Opens the file for reading its content, decompressing it if it is compressed.
+     */
+    static InputStream open(Path file) throws IOException
+    {
+        return isCompressed(file)
+            ? new GZIPInputStream(Files.newInputStream(file), BUFFER_SIZE)
+            : Files.newInputStream(file);
+    }
+
+    /**
+     * Returns a stream of the content of the encoded stream, decompressing it if it
+     * starts with the GZIP magic bytes.
+     */
+    static InputStream decode(InputStream in) throws IOException
+    {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] magic = new byte[2];
+        int read = pushback.readNBytes(magic, 0, 2);
+        pushback.unread(magic, 0, read);
+        boolean compressed = read == 2 && (magic[0] & 0xff) == GZIP_MAGIC_1 && (magic[1] & 0xff) == GZIP_MAGIC_2;
+        return compressed ? new GZIPInputStream(pushback, BUFFER_SIZE) : pushback;
+    }
+}
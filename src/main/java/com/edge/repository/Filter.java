@@ -0,0 +1,366 @@
+package com.edge.repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Parsed filter expression of a list request ({@code filter=} on the list endpoints):
+ * comparisons of entity properties with literals, combined with {@code and} and
+ * {@code or} and grouped with parentheses, e.g.
+ * {@code customerId = 'C1' and status in ('PAID', 'INVOICED')} or
+ * {@code quantity < 10 or (total >= 1000 and status != 'CANCELLED')}.
+ * <p>
+ * Operators are {@code =}, {@code !=} (or {@code <>}), {@code <}, {@code <=},
+ * {@code >}, {@code >=} and {@code in}; keywords are case-insensitive. Literals are
+ * single-quoted strings (a quote is written twice), numbers, {@code true},
+ * {@code false} and {@code null}. Properties are named as in the JSON of the entity,
+ * and literals are converted to the property's type when the query is planned, so
+ * dates are written as strings, e.g. {@code orderDate >= '2025-01-01T00:00:00'}.
+ * {@link QueryPlanner} decides how an expression is evaluated.
+ */
+final class Filter
+{
+    // Deepest nesting of parentheses; the parser, planner and plan recurse per level
+    static final int MAX_DEPTH = 32;
+
+    enum Operator
+    {
+        EQ("="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">="), IN("in");
+
+        final String symbol;
+
+        Operator(String symbol)
+        {
+            this.symbol = symbol;
+        }
+    }
+
+    /**
+     * A node of the expression tree: {@link Or}, {@link And} or {@link Comparison}.
+     */
+    abstract static class Node
+    {
+    }
+
+    static final class Or extends Node
+    {
+        final List<Node> operands;
+
+        Or(List<Node> operands)
+        {
+            this.operands = List.copyOf(operands);
+        }
+
+        @Override
+        public String toString()
+        {
+            return operands.stream().map(Node::toString).collect(Collectors.joining(" or ", "(", ")"));
+        }
+    }
+
+    static final class And extends Node
+    {
+        final List<Node> operands;
+
+        And(List<Node> operands)
+        {
+            this.operands = List.copyOf(operands);
+        }
+
+        @Override
+        public String toString()
+        {
+            return operands.stream().map(Node::toString).collect(Collectors.joining(" and "));
+        }
+    }
+
+    /**
+     * A property compared with one literal, or with a list of them for {@code in}.
+     * Literals are Strings, BigDecimals, Booleans or null until the query is planned.
+     */
+    static final class Comparison extends Node
+    {
+        final String property;
+        final Operator operator;
+        final List<Object> values;
+
+        Comparison(String property, Operator operator, List<Object> values)
+        {
+            this.property = property;
+            this.operator = operator;
+            this.values = values;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (operator == Operator.IN)
+            {
+                return property + " in " + values.stream().map(Filter::literal).collect(Collectors.joining(", ", "(", ")"));
+            }
+            return property + " " + operator.symbol + " " + literal(values.get(0));
+        }
+    }
+
+    private Filter()
+    {
+    }
+
+    static String literal(Object value)
+    {
+        if (value instanceof String text)
+        {
+            return "'" + text.replace("'", "''") + "'";
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * Parses an expression.
+     *
+     * @throws IllegalArgumentException if it is not valid or nests parentheses more
+     *                                  than {@link #MAX_DEPTH} deep
+     */
+    static Node parse(String expression)
+    {
+        Parser parser = new Parser(tokenize(expression));
+        Node node = parser.parseOr();
+        if (parser.position < parser.tokens.size())
+        {
+            throw new IllegalArgumentException("Unexpected '" + parser.tokens.get(parser.position).text + "' in filter");
+        }
+        return node;
+    }
+
+    private enum TokenType
+    {
+        WORD, STRING, NUMBER, SYMBOL
+    }
+
+    private record Token(TokenType type, String text)
+    {
+        boolean is(String keyword)
+        {
+            return (type == TokenType.WORD || type == TokenType.SYMBOL) && text.equalsIgnoreCase(keyword);
+        }
+    }
+
+    private static List<Token> tokenize(String expression)
+    {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < expression.length())
+        {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                i++;
+            }
+            else if (Character.isLetter(c) || c == '_')
+            {
+                int start = i;
+                while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_' || expression.charAt(i) == '.'))
+                {
+                    i++;
+                }
+                tokens.add(new Token(TokenType.WORD, expression.substring(start, i)));
+            }
+            else if (Character.isDigit(c) || (c == '-' && i + 1 < expression.length() && Character.isDigit(expression.charAt(i + 1))))
+            {
+                int start = i++;
+                while (i < expression.length() && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.'))
+                {
+                    i++;
+                }
+                tokens.add(new Token(TokenType.NUMBER, expression.substring(start, i)));
+            }
+            else if (c == '\'')
+            {
+                StringBuilder text = new StringBuilder();
+                i++;
+                while (true)
+                {
+                    if (i >= expression.length())
+                    {
+                        throw new IllegalArgumentException("Unterminated string in filter");
+                    }
+                    char next = expression.charAt(i++);
+                    if (next == '\'')
+                    {
+                        if (i < expression.length() && expression.charAt(i) == '\'')
+                        {
+                            text.append('\'');
+                            i++;
+                            continue;
+                        }
+                        break;
+                    }
+                    text.append(next);
+                }
+                tokens.add(new Token(TokenType.STRING, text.toString()));
+            }
+            else
+            {
+                String two = i + 1 < expression.length() ? expression.substring(i, i + 2) : "";
+                if (two.equals("<=") || two.equals(">=") || two.equals("!=") || two.equals("<>"))
+                {
+                    tokens.add(new Token(TokenType.SYMBOL, two.equals("<>") ? "!=" : two));
+                    i += 2;
+                }
+                else if ("=<>(),".indexOf(c) >= 0)
+                {
+                    tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c)));
+                    i++;
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Unexpected '" + c + "' in filter");
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static final class Parser
+    {
+        private final List<Token> tokens;
+        private int position;
+        private int depth;
+
+        Parser(List<Token> tokens)
+        {
+            this.tokens = tokens;
+        }
+
+        private Token peek()
+        {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        private Token next(String expected)
+        {
+            Token token = peek();
+            if (token == null)
+            {
+                throw new IllegalArgumentException("Filter ends where " + expected + " was expected");
+            }
+            position++;
+            return token;
+        }
+
+        private void expect(String symbol)
+        {
+            Token token = next("'" + symbol + "'");
+            if (!token.is(symbol))
+            {
+                throw new IllegalArgumentException("Expected '" + symbol + "' but found '" + token.text + "' in filter");
+            }
+        }
+
+        Node parseOr()
+        {
+            List<Node> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (peek() != null && peek().is("or"))
+            {
+                position++;
+                operands.add(parseAnd());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Or(operands);
+        }
+
+        private Node parseAnd()
+        {
+            List<Node> operands = new ArrayList<>();
+            operands.add(parsePrimary());
+            while (peek() != null && peek().is("and"))
+            {
+                position++;
+                operands.add(parsePrimary());
+            }
+            return operands.size() == 1 ? operands.get(0) : new And(operands);
+        }
+
+        private Node parsePrimary()
+        {
+            Token token = next("a comparison");
+            if (token.is("("))
+            {
+                if (++depth > MAX_DEPTH)
+                {
+                    throw new IllegalArgumentException("Filter nests parentheses more than " + MAX_DEPTH + " deep");
+                }
+                Node node = parseOr();
+                expect(")");
+                depth--;
+                return node;
+            }
+            if (token.type != TokenType.WORD)
+            {
+                throw new IllegalArgumentException("Expected a property name but found '" + token.text + "' in filter");
+            }
+            Token operator = next("an operator");
+            if (operator.is("in"))
+            {
+                expect("(");
+                List<Object> values = new ArrayList<>();
+                values.add(parseValue());
+                while (peek() != null && peek().is(","))
+                {
+                    position++;
+                    values.add(parseValue());
+                }
+                expect(")");
+                return new Comparison(token.text, Operator.IN, values);
+            }
+            for (Operator candidate : Operator.values())
+            {
+                if (candidate != Operator.IN && operator.type == TokenType.SYMBOL && operator.text.equals(candidate.symbol))
+                {
+                    List<Object> values = new ArrayList<>();
+                    values.add(parseValue());
+                    return new Comparison(token.text, candidate, values);
+                }
+            }
+            throw new IllegalArgumentException("Unknown operator '" + operator.text + "' in filter");
+        }
+
+        private Object parseValue()
+        {
+            Token token = next("a value");
+            switch (token.type)
+            {
+                case STRING:
+                    return token.text;
+                case NUMBER:
+                    try
+                    {
+                        return new BigDecimal(token.text);
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        throw new IllegalArgumentException("Invalid number '" + token.text + "' in filter");
+                    }
+                case WORD:
+                    switch (token.text.toLowerCase(Locale.ROOT))
+                    {
+                        case "true":
+                            return Boolean.TRUE;
+                        case "false":
+                            return Boolean.FALSE;
+                        case "null":
+                            return null;
+                        default:
+                            break;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            throw new IllegalArgumentException("Expected a value but found '" + token.text + "' in filter");
+        }
+    }
+}
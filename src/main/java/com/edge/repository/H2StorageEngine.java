@@ -0,0 +1,538 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Stores a collection in a table of an embedded H2 database in file mode, one row per
+ * entity. The row holds the entity as JSON plus one indexed column per
+ * {@link EntityIndex} declared by the repository, so the table can be queried by the
+ * same keys the repository looks entities up by:
+ * <pre>
+ * JSONDB_ORDERS (ID VARCHAR PRIMARY KEY, SEQ BIGINT, BODY CLOB,
+ *                IDX_ORDER_NUMBER VARCHAR, IDX_CUSTOMER_ID VARCHAR, IDX_STATUS VARCHAR)
+ * </pre>
+ * SEQ keeps the insertion order that findAll returns. Buffered changes are written
+ * in one transaction per flush, so a group of changes is either stored completely
+ * or not at all. H2 writes committed transactions to disk shortly after the commit;
+ * a forced flush runs a checkpoint so they are on disk before it returns.
+ * <p>
+ * When the table does not exist yet it is created and filled from the collection's
+ * JSON data file and write-ahead log. From then on those files are no longer
+ * updated, so switching the collection back to {@code json} starts from their state
+ * at the time of the import.
+ */
+class H2StorageEngine<T> implements StorageEngine<T>
+{
+    private static final Logger logger = LoggerFactory.getLogger(H2StorageEngine.class);
+
+    static final String TYPE = "h2";
+    private static final int FETCH_SIZE = 1000;
+    private static final int BATCH_SIZE = 1000;
+
+    private final String jdbcUrl;
+    private final String entityName;
+    private final String tableName;
+    private final ObjectMapper objectMapper;
+    private final Class<T> entityType;
+    private final Function<T, String> idOf;
+    private final List<EntityIndex<T>> indexes;
+    private final List<String> indexColumns;
+    private final StorageEngine<T> importSource;
+    private final List<Change> pending = new ArrayList<>();
+    private Connection connection;
+    private boolean unsynced;
+
+    H2StorageEngine(String jdbcUrl, String entityName, ObjectMapper objectMapper, Class<T> entityType,
+        Function<T, String> idOf, List<EntityIndex<T>> indexes, StorageEngine<T> importSource)
+    {
+        this.jdbcUrl = jdbcUrl;
+        this.entityName = entityName;
+        this.tableName = "JSONDB_" + toSqlName(entityName);
+        this.objectMapper = objectMapper;
+        this.entityType = entityType;
+        this.idOf = idOf;
+        this.indexes = List.copyOf(indexes);
+        this.indexColumns = this.indexes.stream()
+            .map(index -> "IDX_" + toSqlName(index.getName()))
+            .collect(Collectors.toList());
+        this.importSource = importSource;
+    }
+
+    /**
+     * "purchase orders" becomes PURCHASE_ORDERS, "orderNumber" becomes ORDER_NUMBER.
+     */
+    private static String toSqlName(String name)
+    {
+        return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2")
+            .replaceAll("[^A-Za-z0-9]+", "_")
+            .toUpperCase(Locale.ROOT);
+    }
+
+    @Override
+    public String getType()
+    {
+        return TYPE;
+    }
+
+    String getTableName()
+    {
+        return tableName;
+    }
+
+    @Override
+    public synchronized void load(Consumer<T> onEntity, Consumer<String> onDelete) throws IOException
+    {
+        boolean created = false;
+        try
+        {
+            Connection c = openConnection();
+            if (!tableExists(c))
+            {
+                createTable(c);
+                created = true;
+                importFromSource(onEntity, onDelete);
+                return;
+            }
+            List<String> addedColumns = addMissingIndexColumns(c);
+            List<T> entities = readAll(c, onEntity);
+            if (!addedColumns.isEmpty())
+            {
+                logger.info("Filling new index columns {} of {}", addedColumns, tableName);
+                updateIndexColumns(c, entities);
+            }
+            c.commit();
+        }
+        catch (SQLException | IOException | RuntimeException e)
+        {
+            rollback();
+            if (created)
+            {
+                // DDL is not transactional; drop the table so the import is retried next time
+                dropTable();
+            }
+            throw new IOException("Failed to load " + entityName + " from H2 table " + tableName, e);
+        }
+    }
+
+    private void dropTable()
+    {
+        try (Statement statement = openConnection().createStatement())
+        {
+            statement.execute("DROP TABLE IF EXISTS " + tableName);
+        }
+        catch (SQLException e)
+        {
+            logger.error("Failed to drop incomplete H2 table {}: {}", tableName, e.getMessage(), e);
+        }
+    }
+
+    private Connection openConnection() throws SQLException
+    {
+        if (connection == null || connection.isClosed())
+        {
+            connection = DriverManager.getConnection(jdbcUrl, "sa", "");
+            connection.setAutoCommit(false);
+        }
+        return connection;
+    }
+
+    private boolean tableExists(Connection c) throws SQLException
+    {
+        try (ResultSet tables = c.getMetaData().getTables(null, null, tableName, new String[] { "TABLE", "BASE TABLE" }))
+        {
+            return tables.next();
+        }
+    }
+
+    private void createTable(Connection c) throws SQLException
+    {
+        StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(tableName)
+            .append(" (ID VARCHAR PRIMARY KEY, SEQ BIGINT NOT NULL, BODY CLOB NOT NULL");
+        for (String column : indexColumns)
+        {
+            ddl.append(", ").append(column).append(" VARCHAR");
+        }
+        ddl.append(')');
+
+        try (Statement statement = c.createStatement())
+        {
+            statement.execute("CREATE SEQUENCE IF NOT EXISTS " + tableName + "_SEQ");
+            statement.execute(ddl.toString());
+            statement.execute("CREATE INDEX " + tableName + "_SEQ_IDX ON " + tableName + " (SEQ)");
+            for (String column : indexColumns)
+            {
+                createIndex(statement, column);
+            }
+        }
+        logger.info("Created H2 table {} for {}", tableName, entityName);
+    }
+
+    /**
+     * Indexes are never unique in the table; like the in-memory unique indexes they
+     * must accept data that already contains duplicates.
+     */
+    private void createIndex(Statement statement, String column) throws SQLException
+    {
+        statement.execute("CREATE INDEX IF NOT EXISTS " + tableName + "_" + column + " ON " + tableName + " (" + column + ")");
+    }
+
+    private List<String> addMissingIndexColumns(Connection c) throws SQLException
+    {
+        List<String> added = new ArrayList<>();
+        for (String column : indexColumns)
+        {
+            try (ResultSet columns = c.getMetaData().getColumns(null, null, tableName, column))
+            {
+                if (columns.next())
+                {
+                    continue;
+                }
+            }
+            try (Statement statement = c.createStatement())
+            {
+                statement.execute("ALTER TABLE " + tableName + " ADD COLUMN " + column + " VARCHAR");
+                createIndex(statement, column);
+            }
+            added.add(column);
+        }
+        return added;
+    }
+
+    /**
+     * Reads every row in insertion order. A row whose body cannot be mapped to the
+     * entity type is logged and skipped.
+     */
+    private List<T> readAll(Connection c, Consumer<T> onEntity) throws SQLException
+    {
+        List<T> entities = new ArrayList<>();
+        int skipped = 0;
+        try (Statement statement = c.createStatement())
+        {
+            statement.setFetchSize(FETCH_SIZE);
+            try (ResultSet rows = statement.executeQuery("SELECT ID, BODY FROM " + tableName + " ORDER BY SEQ"))
+            {
+                while (rows.next())
+                {
+                    try
+                    {
+                        T entity = objectMapper.readValue(rows.getString(2), entityType);
+                        onEntity.accept(entity);
+                        entities.add(entity);
+                    }
+                    catch (JsonProcessingException e)
+                    {
+                        skipped++;
+                        logger.warn("Skipping corrupt {} row {} in {}: {}", entityName, rows.getString(1), tableName, e.getOriginalMessage());
+                    }
+                }
+            }
+        }
+        logger.info("Successfully loaded {} {} from H2 table {} ({} skipped)", entities.size(), entityName, tableName, skipped);
+        return entities;
+    }
+
+    private void importFromSource(Consumer<T> onEntity, Consumer<String> onDelete) throws IOException, SQLException
+    {
+        // The repository assigns missing IDs in onEntity, so entities are collected after it
+        Map<String, T> imported = new LinkedHashMap<>();
+        importSource.load(entity ->
+        {
+            onEntity.accept(entity);
+            if (entity != null)
+            {
+                imported.put(idOf.apply(entity), entity);
+            }
+        }, id ->
+        {
+            onDelete.accept(id);
+            imported.remove(id);
+        });
+        importSource.close();
+
+        insertAll(openConnection(), imported.values());
+        connection.commit();
+        logger.info("Imported {} {} from the JSON data file into H2 table {}", imported.size(), entityName, tableName);
+    }
+
+    private void insertAll(Connection c, Collection<T> entities) throws SQLException, IOException
+    {
+        try (PreparedStatement insert = c.prepareStatement(insertSql()))
+        {
+            int batched = 0;
+            for (T entity : entities)
+            {
+                bindInsert(insert, new Change(idOf.apply(entity), entity));
+                insert.addBatch();
+                if (++batched % BATCH_SIZE == 0)
+                {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private void updateIndexColumns(Connection c, List<T> entities) throws SQLException
+    {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+        sql.append(indexColumns.stream().map(column -> column + " = ?").collect(Collectors.joining(", ")));
+        sql.append(" WHERE ID = ?");
+        try (PreparedStatement update = c.prepareStatement(sql.toString()))
+        {
+            int batched = 0;
+            for (T entity : entities)
+            {
+                List<String> keys = indexKeys(entity);
+                for (int i = 0; i < keys.size(); i++)
+                {
+                    update.setString(i + 1, keys.get(i));
+                }
+                update.setString(keys.size() + 1, idOf.apply(entity));
+                update.addBatch();
+                if (++batched % BATCH_SIZE == 0)
+                {
+                    update.executeBatch();
+                }
+            }
+            update.executeBatch();
+        }
+    }
+
+    private List<String> indexKeys(T entity)
+    {
+        List<String> keys = new ArrayList<>(indexes.size());
+        for (EntityIndex<T> index : indexes)
+        {
+            keys.add(index.keyStringOf(entity));
+        }
+        return keys;
+    }
+
+    private String insertSql()
+    {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName).append(" (ID, SEQ, BODY");
+        StringBuilder values = new StringBuilder(" VALUES (?, NEXT VALUE FOR ").append(tableName).append("_SEQ, ?");
+        for (String column : indexColumns)
+        {
+            sql.append(", ").append(column);
+            values.append(", ?");
+        }
+        return sql.append(')').append(values).append(')').toString();
+    }
+
+    private String updateSql()
+    {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET BODY = ?");
+        for (String column : indexColumns)
+        {
+            sql.append(", ").append(column).append(" = ?");
+        }
+        return sql.append(" WHERE ID = ?").toString();
+    }
+
+    private void bindInsert(PreparedStatement insert, Change change) throws SQLException
+    {
+        insert.setString(1, change.id);
+        insert.setString(2, change.body);
+        for (int i = 0; i < change.indexKeys.size(); i++)
+        {
+            insert.setString(i + 3, change.indexKeys.get(i));
+        }
+    }
+
+    /**
+     * Serializes the entity right away, so later in-place changes to the object do
+     * not leak into a change that is still buffered.
+     */
+    @Override
+    public synchronized void put(String id, T entity) throws IOException
+    {
+        pending.add(new Change(id, entity));
+    }
+
+    @Override
+    public synchronized void delete(String id)
+    {
+        pending.add(new Change(id));
+    }
+
+    /**
+     * Buffers the batch as one group, which the next flush writes in one transaction.
+     */
+    @Override
+    public synchronized void applyBatch(Map<String, T> changes) throws IOException
+    {
+        StorageEngine.super.applyBatch(changes);
+    }
+
+    @Override
+    public synchronized int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    @Override
+    public synchronized void flush(boolean force) throws IOException
+    {
+        try
+        {
+            if (!pending.isEmpty())
+            {
+                Connection c = openConnection();
+                try (PreparedStatement update = c.prepareStatement(updateSql());
+                     PreparedStatement insert = c.prepareStatement(insertSql());
+                     PreparedStatement delete = c.prepareStatement("DELETE FROM " + tableName + " WHERE ID = ?"))
+                {
+                    for (Change change : pending)
+                    {
+                        apply(change, update, insert, delete);
+                    }
+                }
+                c.commit();
+                pending.clear();
+                unsynced = true;
+            }
+            if (force && unsynced)
+            {
+                try (Statement statement = openConnection().createStatement())
+                {
+                    statement.execute("CHECKPOINT SYNC");
+                }
+                unsynced = false;
+            }
+        }
+        catch (SQLException e)
+        {
+            // The changes stay pending and are retried with the next flush
+            rollback();
+            throw new IOException("Failed to write " + entityName + " to H2 table " + tableName, e);
+        }
+    }
+
+    private void apply(Change change, PreparedStatement update, PreparedStatement insert, PreparedStatement delete) throws SQLException
+    {
+        if (change.body == null)
+        {
+            delete.setString(1, change.id);
+            delete.executeUpdate();
+            return;
+        }
+        update.setString(1, change.body);
+        for (int i = 0; i < change.indexKeys.size(); i++)
+        {
+            update.setString(i + 2, change.indexKeys.get(i));
+        }
+        update.setString(change.indexKeys.size() + 2, change.id);
+        if (update.executeUpdate() == 0)
+        {
+            bindInsert(insert, change);
+            insert.executeUpdate();
+        }
+    }
+
+    @Override
+    public boolean needsCompaction()
+    {
+        return false;
+    }
+
+    /**
+     * Rewrites the table with the given entities in one transaction. Buffered changes
+     * are superseded by the entities and discarded.
+     */
+    @Override
+    public synchronized void compact(Collection<T> entities) throws IOException
+    {
+        try
+        {
+            Connection c = openConnection();
+            try (Statement statement = c.createStatement())
+            {
+                statement.execute("DELETE FROM " + tableName);
+            }
+            insertAll(c, entities);
+            c.commit();
+            pending.clear();
+            unsynced = true;
+        }
+        catch (SQLException e)
+        {
+            rollback();
+            throw new IOException("Failed to rewrite H2 table " + tableName, e);
+        }
+    }
+
+    private void rollback()
+    {
+        try
+        {
+            if (connection != null && !connection.isClosed())
+            {
+                connection.rollback();
+            }
+        }
+        catch (SQLException e)
+        {
+            logger.warn("Failed to roll back {} transaction: {}", tableName, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (connection != null)
+        {
+            try
+            {
+                connection.close();
+            }
+            catch (SQLException e)
+            {
+                logger.warn("Failed to close H2 connection for {}: {}", tableName, e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
+    private final class Change
+    {
+        final String id;
+        // Null for a delete
+        final String body;
+        final List<String> indexKeys;
+
+        Change(String id, T entity) throws IOException
+        {
+            this.id = id;
+            this.body = objectMapper.writeValueAsString(entity);
+            this.indexKeys = indexKeys(entity);
+        }
+
+        Change(String id)
+        {
+            this.id = id;
+            this.body = null;
+            this.indexKeys = List.of();
+        }
+    }
+}
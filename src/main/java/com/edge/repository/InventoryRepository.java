@@ -4,15 +4,12 @@ package com.edge.repository;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Inventory;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Component
 public class InventoryRepository extends AbstractJsonRepository<Inventory>
@@ -21,33 +18,18 @@ public class InventoryRepository extends AbstractJsonRepository<Inventory>
     private static final String DATA_FILE_NAME = "inventory.json";
     private static final String DATA_DIR_NAME = "data";
 
+    private final EntityIndex<Inventory> byProductId = index("productId", Inventory::getProductId);
+    private final EntityIndex<Inventory> byWarehouseId = index("warehouseId", Inventory::getWarehouseId);
+    private final EntityIndex<Inventory> byProductAndWarehouse = uniqueIndex("productAndWarehouse", Inventory::getProductId, Inventory::getWarehouseId);
+    private final SortIndex<Inventory> productIdOrder = sortIndex("productId", String.class, Inventory::getProductId);
+    private final SortIndex<Inventory> warehouseIdOrder = sortIndex("warehouseId", String.class, Inventory::getWarehouseId);
+    private final SortIndex<Inventory> quantityOrder = sortIndex("quantity", Integer.class, Inventory::getQuantity);
+
     public InventoryRepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "inventory");
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException
-    {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty inventory list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Inventory>>() {});
-            logger.info("Successfully loaded {} inventory records from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
-    }
-
     @Override
     protected String getId(Inventory entity)
     {
@@ -60,6 +42,18 @@ public class InventoryRepository extends AbstractJsonRepository<Inventory>
         entity.setId(id);
     }
 
+    @Override
+    protected Long getVersion(Inventory entity)
+    {
+        return entity.getVersion();
+    }
+
+    @Override
+    protected void setVersion(Inventory entity, long version)
+    {
+        entity.setVersion(version);
+    }
+
     public Optional<Inventory> getInventoryById(String id)
     {
         return findById(id);
@@ -68,9 +62,7 @@ public class InventoryRepository extends AbstractJsonRepository<Inventory>
     public Optional<Inventory> getInventoryByProductAndWarehouse(String productId, String warehouseId)
     {
         if (productId == null || warehouseId == null) return Optional.empty();
-        return items.stream()
-            .filter(inv -> productId.equals(inv.getProductId()) && warehouseId.equals(inv.getWarehouseId()))
-            .findFirst();
+        return byProductAndWarehouse.findFirst(productId, warehouseId);
     }
 
     public List<Inventory> getAllInventory()
@@ -78,20 +70,31 @@ public class InventoryRepository extends AbstractJsonRepository<Inventory>
         return findAll();
     }
 
+    public Page<Inventory> getAllInventory(PageRequest request)
+    {
+        return findPage(request);
+    }
+
     public List<Inventory> getInventoryByProductId(String productId)
     {
         if (productId == null) return new java.util.ArrayList<>();
-        return items.stream()
-            .filter(inv -> productId.equals(inv.getProductId()))
-            .collect(Collectors.toList());
+        return byProductId.findAll(productId);
+    }
+
+    public Page<Inventory> getInventoryByProductId(String productId, PageRequest request)
+    {
+        return byProductId.findPage(request, productId);
     }
 
     public List<Inventory> getInventoryByWarehouseId(String warehouseId)
     {
         if (warehouseId == null) return new java.util.ArrayList<>();
-        return items.stream()
-            .filter(inv -> warehouseId.equals(inv.getWarehouseId()))
-            .collect(Collectors.toList());
+        return byWarehouseId.findAll(warehouseId);
+    }
+
+    public Page<Inventory> getInventoryByWarehouseId(String warehouseId, PageRequest request)
+    {
+        return byWarehouseId.findPage(request, warehouseId);
     }
 
     public Inventory createOrUpdateInventory(String productId, String warehouseId, Integer quantity)
@@ -101,25 +104,28 @@ public class InventoryRepository extends AbstractJsonRepository<Inventory>
             throw new IllegalArgumentException("Product ID and Warehouse ID cannot be null");
         }
         
-        Optional<Inventory> existing = getInventoryByProductAndWarehouse(productId, warehouseId);
-        if (existing.isPresent())
-        {
-            Inventory inv = existing.get();
-            inv.setQuantity(quantity != null ? quantity : 0);
-            saveItems();
-            logger.info("Updated inventory for product {} in warehouse {} to quantity {}", productId, warehouseId, quantity);
-            return inv;
-        }
-        else
+        return inWriteLock(() ->
         {
-            Inventory newInventory = new Inventory();
-            newInventory.setProductId(productId);
-            newInventory.setWarehouseId(warehouseId);
-            newInventory.setQuantity(quantity != null ? quantity : 0);
-            Inventory saved = save(newInventory);
-            logger.info("Created inventory for product {} in warehouse {} with quantity {}", productId, warehouseId, quantity);
-            return saved;
-        }
+            Optional<Inventory> existing = getInventoryByProductAndWarehouse(productId, warehouseId);
+            if (existing.isPresent())
+            {
+                Inventory inv = copyOf(existing.get());
+                inv.setQuantity(quantity != null ? quantity : 0);
+                saveItem(inv);
+                logger.info("Updated inventory for product {} in warehouse {} to quantity {}", productId, warehouseId, quantity);
+                return inv;
+            }
+            else
+            {
+                Inventory newInventory = new Inventory();
+                newInventory.setProductId(productId);
+                newInventory.setWarehouseId(warehouseId);
+                newInventory.setQuantity(quantity != null ? quantity : 0);
+                Inventory saved = save(newInventory);
+                logger.info("Created inventory for product {} in warehouse {} with quantity {}", productId, warehouseId, quantity);
+                return saved;
+            }
+        });
     }
 
     public Inventory adjustInventory(String productId, String warehouseId, Integer quantityChange)
@@ -129,16 +135,19 @@ public class InventoryRepository extends AbstractJsonRepository<Inventory>
             throw new IllegalArgumentException("Product ID and Warehouse ID cannot be null");
         }
         
-        Optional<Inventory> existing = getInventoryByProductAndWarehouse(productId, warehouseId);
-        int currentQuantity = existing.map(Inventory::getQuantity).orElse(0);
-        int newQuantity = currentQuantity + (quantityChange != null ? quantityChange : 0);
-        
-        if (newQuantity < 0)
+        return inWriteLock(() ->
         {
-            throw new IllegalArgumentException("Inventory quantity cannot be negative");
-        }
+            Optional<Inventory> existing = getInventoryByProductAndWarehouse(productId, warehouseId);
+            int currentQuantity = existing.map(Inventory::getQuantity).orElse(0);
+            int newQuantity = currentQuantity + (quantityChange != null ? quantityChange : 0);
+        
+            if (newQuantity < 0)
+            {
+                throw new IllegalArgumentException("Inventory quantity cannot be negative");
+            }
         
-        return createOrUpdateInventory(productId, warehouseId, newQuantity);
+            return createOrUpdateInventory(productId, warehouseId, newQuantity);
+        });
     }
 
     public Inventory createInventory(Inventory inventory)
@@ -148,38 +157,51 @@ public class InventoryRepository extends AbstractJsonRepository<Inventory>
     }
 
     public Inventory updateInventory(String id, Inventory inventoryDetails)
+    {
+        return updateInventory(id, inventoryDetails, null);
+    }
+
+    /**
+     * Updates the inventory only if it is still at the expected version; a null expected
+     * version updates it unconditionally.
+     */
+    public Inventory updateInventory(String id, Inventory inventoryDetails, Long expectedVersion)
     {
         if (id == null || id.trim().isEmpty())
             throw new IllegalArgumentException("Inventory ID cannot be null or empty");
         if (inventoryDetails == null)
             throw new IllegalArgumentException("Inventory details cannot be null");
 
-        Inventory existingInventory = findById(id).orElseThrow(() -> 
-            new InventoryNotFoundException("Inventory not found with id: " + id));
-
-        if (inventoryDetails.getQuantity() != null && inventoryDetails.getQuantity() < 0)
-        {
-            throw new IllegalArgumentException("Inventory quantity cannot be negative");
-        }
-
-        // Update fields
-        if (inventoryDetails.getProductId() != null)
+        return inWriteLock(() ->
         {
-            existingInventory.setProductId(inventoryDetails.getProductId());
-        }
-        if (inventoryDetails.getWarehouseId() != null)
-        {
-            existingInventory.setWarehouseId(inventoryDetails.getWarehouseId());
-        }
-        if (inventoryDetails.getQuantity() != null)
-        {
-            existingInventory.setQuantity(inventoryDetails.getQuantity());
-        }
-        existingInventory.setJsonData(inventoryDetails.getJsonData());
+            Inventory existingInventory = findByIdForUpdate(id).orElseThrow(() -> 
+                new InventoryNotFoundException("Inventory not found with id: " + id));
+            checkVersion(existingInventory, expectedVersion);
+
+            if (inventoryDetails.getQuantity() != null && inventoryDetails.getQuantity() < 0)
+            {
+                throw new IllegalArgumentException("Inventory quantity cannot be negative");
+            }
+
+            // Update fields
+            if (inventoryDetails.getProductId() != null)
+            {
+                existingInventory.setProductId(inventoryDetails.getProductId());
+            }
+            if (inventoryDetails.getWarehouseId() != null)
+            {
+                existingInventory.setWarehouseId(inventoryDetails.getWarehouseId());
+            }
+            if (inventoryDetails.getQuantity() != null)
+            {
+                existingInventory.setQuantity(inventoryDetails.getQuantity());
+            }
+            existingInventory.setJsonData(inventoryDetails.getJsonData());
         
-        saveItems();
-        logger.info("Updated inventory with ID: {}", id);
-        return existingInventory;
+            saveItem(existingInventory);
+            logger.info("Updated inventory with ID: {}", id);
+            return existingInventory;
+        });
     }
 
     public void deleteInventory(String id)
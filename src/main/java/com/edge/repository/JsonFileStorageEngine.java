@@ -0,0 +1,483 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The original storage: a JSON array data file (e.g. {@code data/orders.json}) plus a
+ * write-ahead log of the changes made since the file was last written, and
+ * optionally a {@link BinarySnapshot} of the data file for faster loading. The log
+ * is folded into the data file once it reaches the compaction threshold. With
+ * compression the data file and snapshot are written GZIP-compressed under the same
+ * names; the write-ahead log, which is only ever appended to, stays plain.
+ */
+class JsonFileStorageEngine<T> implements StorageEngine<T>
+{
+    private static final Logger logger = LoggerFactory.getLogger(JsonFileStorageEngine.class);
+
+    static final String TYPE = "json";
+    private static final String WAL_FILE_EXTENSION = ".wal";
+    private static final String CORRUPT_FILE_SUFFIX = ".corrupt";
+    private static final int LOAD_PROGRESS_INTERVAL = 10000;
+
+    private final String entityName;
+    private final Path dataFilePath;
+    private final ObjectMapper objectMapper;
+    private final Class<T> entityType;
+    private final WriteAheadLog writeAheadLog;
+    private final BinarySnapshot<T> binarySnapshot;
+    private final boolean binarySnapshotEnabled;
+    private final int compactionThreshold;
+    private final FileCompression compression;
+
+    JsonFileStorageEngine(String entityName, Path dataFilePath, ObjectMapper objectMapper, Class<T> entityType,
+        boolean binarySnapshotEnabled, int compactionThreshold, FileCompression compression)
+    {
+        this.entityName = entityName;
+        this.dataFilePath = dataFilePath;
+        this.objectMapper = objectMapper;
+        this.entityType = entityType;
+        this.writeAheadLog = new WriteAheadLog(resolveSiblingPath(dataFilePath, WAL_FILE_EXTENSION), objectMapper);
+        this.binarySnapshot = new BinarySnapshot<>(resolveSiblingPath(dataFilePath, BinarySnapshot.FILE_EXTENSION),
+            dataFilePath, objectMapper, entityType, compression);
+        this.binarySnapshotEnabled = binarySnapshotEnabled;
+        this.compactionThreshold = compactionThreshold;
+        this.compression = compression;
+    }
+
+    static Path resolveSiblingPath(Path dataFilePath, String extension)
+    {
+        String fileName = dataFilePath.getFileName().toString();
+        int extensionIndex = fileName.lastIndexOf('.');
+        String baseName = extensionIndex > 0 ? fileName.substring(0, extensionIndex) : fileName;
+        return dataFilePath.resolveSibling(baseName + extension);
+    }
+
+    @Override
+    public String getType()
+    {
+        return TYPE;
+    }
+
+    Path getDataFilePath()
+    {
+        return dataFilePath;
+    }
+
+    FileCompression getCompression()
+    {
+        return compression;
+    }
+
+    @Override
+    public void load(Consumer<T> onEntity, Consumer<String> onDelete) throws IOException
+    {
+        if (Files.exists(dataFilePath) && Files.isReadable(dataFilePath))
+        {
+            List<T> entities = loadFromBinarySnapshot();
+            if (entities != null)
+            {
+                entities.forEach(onEntity);
+            }
+            else
+            {
+                entities = readJsonArray(dataFilePath, objectMapper, entityType, entityName);
+                entities.forEach(onEntity);
+                writeBinarySnapshot(entities);
+            }
+        }
+        else
+        {
+            logger.info("Data file does not exist or is not readable, starting with empty {} list", entityName);
+        }
+
+        int replayed = writeAheadLog.replay(entityType, (id, entity) -> onEntity.accept(entity), onDelete);
+        if (replayed > 0)
+        {
+            logger.info("Replayed {} write-ahead log records for {}", replayed, entityName);
+        }
+    }
+
+    /**
+     * Scans the data file without deserializing the records: for each one only the key
+     * properties are read (into the stub) and the rest is skipped, while the record's
+     * bytes are copied out of a memory-mapped view of the file, or out of the
+     * decompressed content if the file is compressed. The write-ahead log is replayed
+     * in full, and the binary snapshot is not used in this mode.
+     */
+    @Override
+    public void loadLazily(Set<String> keyProperties, Consumer<LazyRecord<T>> onRecord,
+        Consumer<T> onEntity, Consumer<String> onDelete) throws IOException
+    {
+        if (Files.exists(dataFilePath) && Files.isReadable(dataFilePath))
+        {
+            if (Files.size(dataFilePath) > Integer.MAX_VALUE)
+            {
+                logger.warn("{} is too large to load lazily, loading it in full", dataFilePath);
+                load(onEntity, onDelete);
+                return;
+            }
+            scanLazily(keyProperties, onRecord);
+        }
+        else
+        {
+            logger.info("Data file does not exist or is not readable, starting with empty {} list", entityName);
+        }
+
+        int replayed = writeAheadLog.replay(entityType, (id, entity) -> onEntity.accept(entity), onDelete);
+        if (replayed > 0)
+        {
+            logger.info("Replayed {} write-ahead log records for {}", replayed, entityName);
+        }
+    }
+
+    private void scanLazily(Set<String> keyProperties, Consumer<LazyRecord<T>> onRecord) throws IOException
+    {
+        int loaded = 0;
+        int skipped = 0;
+        boolean truncated = false;
+
+        ByteBuffer content;
+        JsonParser parser;
+        if (FileCompression.isCompressed(dataFilePath))
+        {
+            byte[] decompressed;
+            try (InputStream in = FileCompression.open(dataFilePath))
+            {
+                decompressed = in.readAllBytes();
+            }
+            content = ByteBuffer.wrap(decompressed);
+            parser = objectMapper.createParser(decompressed);
+        }
+        else
+        {
+            try (FileChannel channel = FileChannel.open(dataFilePath, StandardOpenOption.READ))
+            {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            parser = objectMapper.createParser(dataFilePath.toFile());
+        }
+
+        try (parser)
+        {
+            JsonToken token = parser.nextToken();
+            if (token == null)
+            {
+                logger.info("Data file is empty, starting with empty {} list", entityName);
+                return;
+            }
+            if (token != JsonToken.START_ARRAY)
+            {
+                throw new IOException("Expected a JSON array in " + dataFilePath + " but found " + token);
+            }
+
+            int position = 0;
+            try
+            {
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+                {
+                    if (token != JsonToken.START_OBJECT)
+                    {
+                        parser.skipChildren();
+                        skipped++;
+                        logger.warn("Skipping {} record #{} in {}: not an object", entityName, position++, dataFilePath);
+                        continue;
+                    }
+                    int start = (int) parser.currentTokenLocation().getByteOffset();
+                    // Copied token by token rather than through a tree, which would turn
+                    // 12.50 into 12.5 and make the stub's keys differ from the record's
+                    TokenBuffer keys = new TokenBuffer(parser);
+                    keys.writeStartObject();
+                    while (parser.nextToken() == JsonToken.FIELD_NAME)
+                    {
+                        String name = parser.currentName();
+                        parser.nextToken();
+                        if (keyProperties.contains(name))
+                        {
+                            keys.writeFieldName(name);
+                            keys.copyCurrentStructure(parser);
+                        }
+                        else
+                        {
+                            parser.skipChildren();
+                        }
+                    }
+                    keys.writeEndObject();
+                    int end = (int) parser.currentLocation().getByteOffset();
+                    try
+                    {
+                        T stub = objectMapper.readValue(keys.asParser(), entityType);
+                        byte[] raw = new byte[end - start];
+                        content.get(start, raw);
+                        onRecord.accept(new LazyRecord<>(stub, raw));
+                        loaded++;
+                    }
+                    catch (JsonProcessingException | IllegalArgumentException e)
+                    {
+                        skipped++;
+                        logger.warn("Skipping corrupt {} record #{} in {}: {}", entityName, position, dataFilePath, e.getMessage());
+                    }
+                    position++;
+                }
+            }
+            catch (JsonProcessingException e)
+            {
+                truncated = true;
+                logger.error("Malformed {} data file {} after {} records, keeping the records read so far: {}",
+                    entityName, dataFilePath, position, e.getOriginalMessage());
+            }
+        }
+
+        if (skipped > 0 || truncated)
+        {
+            preserveCorruptFile(dataFilePath, entityName);
+        }
+        logger.info("Successfully scanned {} {} from data file ({} skipped), deserializing them on first access", loaded, entityName, skipped);
+    }
+
+    /**
+     * Streams a JSON array file (a data file or a segment) one element at a time, so
+     * only a single record is materialized as a tree at any point. A record that
+     * cannot be mapped to the entity type is logged and skipped; if the file itself is
+     * malformed (e.g. truncated), the records read up to that point are kept. In both
+     * cases the original file is preserved next to it with a
+     * {@value #CORRUPT_FILE_SUFFIX} suffix before it is ever rewritten.
+     */
+    static <T> List<T> readJsonArray(Path file, ObjectMapper objectMapper, Class<T> entityType, String entityName) throws IOException
+    {
+        // Progress is only known against the size of an uncompressed file
+        long fileSize = FileCompression.isCompressed(file) ? -1 : Files.size(file);
+        List<T> entities = new ArrayList<>();
+        int skipped = 0;
+        boolean truncated = false;
+
+        try (JsonParser parser = objectMapper.createParser(FileCompression.open(file)))
+        {
+            JsonToken token = parser.nextToken();
+            if (token == null)
+            {
+                logger.info("{} is empty, starting with empty {} list", file.getFileName(), entityName);
+                return entities;
+            }
+            if (token != JsonToken.START_ARRAY)
+            {
+                throw new IOException("Expected a JSON array in " + file + " but found " + token);
+            }
+
+            int position = 0;
+            try
+            {
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                {
+                    JsonNode node = objectMapper.readTree(parser);
+                    try
+                    {
+                        entities.add(objectMapper.treeToValue(node, entityType));
+                    }
+                    catch (JsonProcessingException | IllegalArgumentException e)
+                    {
+                        skipped++;
+                        logger.warn("Skipping corrupt {} record #{} in {}: {}", entityName, position, file, e.getMessage());
+                    }
+                    position++;
+                    if (position % LOAD_PROGRESS_INTERVAL == 0 && fileSize < 0)
+                    {
+                        logger.info("Loading {}: {} records read", entityName, position);
+                    }
+                    else if (position % LOAD_PROGRESS_INTERVAL == 0)
+                    {
+                        logger.info("Loading {}: {} records read ({}% of {} bytes)", entityName, position,
+                            fileSize > 0 ? parser.currentLocation().getByteOffset() * 100 / fileSize : 100, fileSize);
+                    }
+                }
+            }
+            catch (JsonProcessingException e)
+            {
+                truncated = true;
+                logger.error("Malformed {} file {} after {} records, keeping the records read so far: {}",
+                    entityName, file, position, e.getOriginalMessage());
+            }
+        }
+
+        if (skipped > 0 || truncated)
+        {
+            preserveCorruptFile(file, entityName);
+        }
+        logger.info("Successfully loaded {} {} from {} ({} skipped)", entities.size(), entityName, file.getFileName(), skipped);
+        return entities;
+    }
+
+    /**
+     * Reads the binary snapshot if there is one for the current data file. Returns
+     * null, leaving the caller to parse the JSON file, if the snapshot is disabled,
+     * missing, stale or unreadable.
+     */
+    private List<T> loadFromBinarySnapshot()
+    {
+        if (!binarySnapshotEnabled)
+        {
+            return null;
+        }
+        try
+        {
+            if (!binarySnapshot.isCurrent())
+            {
+                logger.debug("No current binary snapshot for {}, loading JSON", entityName);
+                return null;
+            }
+            List<T> entities = new ArrayList<>();
+            binarySnapshot.read(entities::add);
+            logger.info("Successfully loaded {} {} from binary snapshot", entities.size(), entityName);
+            return entities;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.warn("Ignoring binary snapshot {} for {}: {}", binarySnapshot.getSnapshotFilePath(), entityName, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the binary snapshot of the data file's contents. The snapshot is only a
+     * cache of the data file, so failures are logged and otherwise ignored.
+     */
+    private void writeBinarySnapshot(Collection<T> entities)
+    {
+        if (!binarySnapshotEnabled)
+        {
+            return;
+        }
+        try
+        {
+            binarySnapshot.write(entities);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.warn("Failed to write binary snapshot for {}: {}", entityName, e.getMessage(), e);
+            try
+            {
+                binarySnapshot.delete();
+            }
+            catch (IOException deleteError)
+            {
+                logger.warn("Failed to delete binary snapshot for {}: {}", entityName, deleteError.getMessage());
+            }
+        }
+    }
+
+    private static void preserveCorruptFile(Path file, String entityName)
+    {
+        Path corruptFilePath = file.resolveSibling(file.getFileName() + CORRUPT_FILE_SUFFIX);
+        try
+        {
+            Files.copy(file, corruptFilePath, StandardCopyOption.REPLACE_EXISTING);
+            logger.warn("Copied corrupt {} file to {}", entityName, corruptFilePath);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to preserve corrupt {} file {}: {}", entityName, file, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void put(String id, T entity) throws IOException
+    {
+        ensureDataDirectoryExists();
+        writeAheadLog.appendPut(id, entity);
+    }
+
+    @Override
+    public void delete(String id) throws IOException
+    {
+        ensureDataDirectoryExists();
+        writeAheadLog.appendDelete(id);
+    }
+
+    /**
+     * Appends the whole batch as a single log record, so a crash cannot leave part
+     * of it behind.
+     */
+    @Override
+    public void applyBatch(Map<String, T> changes) throws IOException
+    {
+        ensureDataDirectoryExists();
+        writeAheadLog.appendBatch(changes);
+    }
+
+    @Override
+    public int getPendingCount()
+    {
+        return writeAheadLog.getPendingCount();
+    }
+
+    @Override
+    public void flush(boolean force) throws IOException
+    {
+        writeAheadLog.flush(force);
+    }
+
+    @Override
+    public boolean needsCompaction()
+    {
+        return writeAheadLog.getRecordCount() >= compactionThreshold;
+    }
+
+    /**
+     * Writes the entities to the data file and truncates the write-ahead log. The file
+     * is written to a temporary file first and moved into place so a crash never
+     * leaves a half-written data file, and the moved file is forced before the
+     * write-ahead log is truncated so the log is only dropped once the data it held is
+     * on disk.
+     */
+    @Override
+    public void compact(Collection<T> entities) throws IOException
+    {
+        ensureDataDirectoryExists();
+        Path tempFilePath = dataFilePath.resolveSibling(dataFilePath.getFileName() + ".tmp");
+        try (OutputStream out = compression.newOutputStream(tempFilePath))
+        {
+            objectMapper.writeValue(out, entities);
+        }
+        DurableFiles.moveIntoPlace(tempFilePath, dataFilePath);
+        writeBinarySnapshot(entities);
+        writeAheadLog.truncate();
+    }
+
+    private void ensureDataDirectoryExists() throws IOException
+    {
+        Path dataDir = dataFilePath.getParent();
+        if (!Files.exists(dataDir))
+        {
+            Files.createDirectories(dataDir);
+            logger.info("Created data directory: {}", dataDir);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        writeAheadLog.close();
+    }
+}
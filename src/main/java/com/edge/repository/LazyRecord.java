@@ -0,0 +1,71 @@
+package com.edge.repository;
+
+import java.util.function.Function;
+
+/**
+ * A record loaded without deserializing it: the raw JSON of the entity plus a stub
+ * instance on which only the repository's key properties are set. The repository
+ * indexes the stub and deserializes the raw JSON the first time the entity is
+ * returned; the full entity is kept from then on and the raw bytes are released.
+ */
+public final class LazyRecord<T>
+{
+    private final T stub;
+    private byte[] raw;
+    private volatile T entity;
+
+    LazyRecord(T stub, byte[] raw)
+    {
+        this.stub = stub;
+        this.raw = raw;
+    }
+
+    T getStub()
+    {
+        return stub;
+    }
+
+    boolean isMaterialized()
+    {
+        return entity != null;
+    }
+
+    /**
+     * Returns the full entity, deserializing it on the first call.
+     */
+    T get(Function<byte[], T> materializer)
+    {
+        T current = entity;
+        if (current == null)
+        {
+            synchronized (this)
+            {
+                current = entity;
+                if (current == null)
+                {
+                    current = materializer.apply(raw);
+                    entity = current;
+                    raw = null;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the full entity without keeping it, e.g. to write the collection out
+     * without growing the heap.
+     */
+    T peek(Function<byte[], T> materializer)
+    {
+        T current = entity;
+        if (current != null)
+        {
+            return current;
+        }
+        synchronized (this)
+        {
+            return entity != null ? entity : materializer.apply(raw);
+        }
+    }
+}
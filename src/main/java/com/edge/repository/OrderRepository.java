@@ -4,7 +4,6 @@ package com.edge.repository;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Order;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -13,9 +12,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 @Component
 public class OrderRepository extends AbstractJsonRepository<Order>
@@ -30,6 +31,15 @@ public class OrderRepository extends AbstractJsonRepository<Order>
     private java.nio.file.Path counterFilePath;
     private java.nio.file.Path invoiceCounterFilePath;
 
+    private final EntityIndex<Order> byOrderNumber = uniqueIndex("orderNumber", Order::getOrderNumber);
+    private final EntityIndex<Order> byCustomerId = index("customerId", Order::getCustomerId);
+    private final EntityIndex<Order> byStatus = index("status", Order::getStatus);
+    private final SortIndex<Order> orderNumberOrder = sortIndex("orderNumber", String.class, Order::getOrderNumber);
+    private final SortIndex<Order> orderDateOrder = sortIndex("orderDate", LocalDateTime.class, Order::getOrderDate);
+    private final SortIndex<Order> statusOrder = sortIndex("status", String.class, Order::getStatus);
+    private final SortIndex<Order> totalOrder = sortIndex("total", BigDecimal.class, Order::getTotal);
+    private final SortIndex<Order> orderNumberPrefix = prefixIndex(byOrderNumber);
+
     public OrderRepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "orders");
@@ -60,25 +70,15 @@ public class OrderRepository extends AbstractJsonRepository<Order>
     }
 
     @Override
-    protected void loadItemsFromFile() throws IOException
+    protected ArchivePolicy<Order> getArchivePolicy()
     {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty order list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Order>>() {});
-            logger.info("Successfully loaded {} orders from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
+        return ArchivePolicy.monthly(Order::getOrderDate, Order::getStatus, "PAID", "CANCELLED");
+    }
+
+    @Override
+    protected Set<String> getLazyKeyProperties()
+    {
+        return Set.of("id", "orderNumber", "customerId", "status", "orderDate", "total");
     }
 
     @Override
@@ -93,6 +93,18 @@ public class OrderRepository extends AbstractJsonRepository<Order>
         entity.setId(id);
     }
 
+    @Override
+    protected Long getVersion(Order entity)
+    {
+        return entity.getVersion();
+    }
+
+    @Override
+    protected void setVersion(Order entity, long version)
+    {
+        entity.setVersion(version);
+    }
+
     public Optional<Order> getOrderById(String id)
     {
         return findById(id);
@@ -101,7 +113,7 @@ public class OrderRepository extends AbstractJsonRepository<Order>
     public Optional<Order> getOrderByOrderNumber(String orderNumber)
     {
         if (orderNumber == null || orderNumber.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(order -> orderNumber.equals(order.getOrderNumber())).findFirst();
+        return byOrderNumber.findFirst(orderNumber);
     }
 
     public List<Order> getAllOrders()
@@ -109,15 +121,28 @@ public class OrderRepository extends AbstractJsonRepository<Order>
         return findAll();
     }
 
+    public Page<Order> getAllOrders(PageRequest request)
+    {
+        return findPage(request);
+    }
+
+    public List<Order> findByOrderNumberPrefix(String prefix, int limit)
+    {
+        return findByPrefix(orderNumberPrefix, prefix, limit);
+    }
+
     public List<Order> getOrdersByCustomerId(String customerId)
     {
         if (customerId == null || customerId.trim().isEmpty())
         {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(order -> customerId.equals(order.getCustomerId()))
-            .collect(Collectors.toList());
+        return byCustomerId.findAll(customerId);
+    }
+
+    public Page<Order> getOrdersByCustomerId(String customerId, PageRequest request)
+    {
+        return byCustomerId.findPage(request, customerId);
     }
 
     public List<Order> getOrdersByStatus(String status)
@@ -126,9 +151,12 @@ public class OrderRepository extends AbstractJsonRepository<Order>
         {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(order -> status.equals(order.getStatus()))
-            .collect(Collectors.toList());
+        return byStatus.findAll(status);
+    }
+
+    public Page<Order> getOrdersByStatus(String status, PageRequest request)
+    {
+        return byStatus.findPage(request, status);
     }
 
     public Order createOrder(Order order)
@@ -152,248 +180,127 @@ public class OrderRepository extends AbstractJsonRepository<Order>
         return save(order);
     }
     
-    private synchronized String generateNextOrderNumber()
+    private String generateNextOrderNumber()
     {
-        try
-        {
-            // Read current counter value from file
-            long currentCounter = readCounter();
-            
-            // Increment the counter
-            long nextOrderNumber = currentCounter + 1;
-            
-            // Update counter file with the new value
-            writeCounter(nextOrderNumber);
-            logger.info("Generated order number: {} (counter updated from {} to {})", 
-                nextOrderNumber, currentCounter, nextOrderNumber);
-            return String.valueOf(nextOrderNumber);
-        }
-        catch (IOException e)
-        {
-            logger.error("Error generating order number", e);
-            throw new RuntimeException("Failed to generate order number", e);
-        }
-    }
-    
-    private long readCounter() throws IOException
-    {
-        // If counter file doesn't exist, initialize it with the initial value
-        if (!java.nio.file.Files.exists(counterFilePath))
-        {
-            long initialValue = INITIAL_ORDER_NUMBER;
-            writeCounter(initialValue);
-            logger.info("Initialized order counter file with value: {}", initialValue);
-            return initialValue;
-        }
-        
-        // Read the counter value from file
-        try
-        {
-            String content = new String(java.nio.file.Files.readAllBytes(counterFilePath)).trim();
-            if (content.isEmpty())
-            {
-                // File exists but is empty, initialize with initial value
-                long initialValue = INITIAL_ORDER_NUMBER;
-                writeCounter(initialValue);
-                logger.info("Counter file was empty, initialized with value: {}", initialValue);
-                return initialValue;
-            }
-            
-            long counterValue = Long.parseLong(content);
-            // Ensure counter is at least INITIAL_ORDER_NUMBER
-            if (counterValue < INITIAL_ORDER_NUMBER)
-            {
-                counterValue = INITIAL_ORDER_NUMBER;
-                writeCounter(counterValue);
-                logger.info("Counter value was below initial value, reset to: {}", counterValue);
-            }
-            return counterValue;
-        }
-        catch (NumberFormatException e)
-        {
-            // File contains invalid data, reset to initial value
-            logger.warn("Counter file contains invalid data, resetting to initial value: {}", INITIAL_ORDER_NUMBER);
-            long initialValue = INITIAL_ORDER_NUMBER;
-            writeCounter(initialValue);
-            return initialValue;
-        }
+        return String.valueOf(nextSequenceValue(counterFilePath, INITIAL_ORDER_NUMBER));
     }
     
-    private void writeCounter(long value) throws IOException
+    public String generateNextInvoiceNumber()
     {
-        java.nio.file.Files.write(counterFilePath, String.valueOf(value).getBytes());
-    }
-    
-    public synchronized String generateNextInvoiceNumber()
-    {
-        try
-        {
-            // Read current invoice counter value from file
-            long currentCounter = readInvoiceCounter();
-            
-            // Increment the counter
-            long nextInvoiceNumber = currentCounter + 1;
-            
-            // Update counter file with the new value
-            writeInvoiceCounter(nextInvoiceNumber);
-            logger.info("Generated invoice number: {} (counter updated from {} to {})", 
-                nextInvoiceNumber, currentCounter, nextInvoiceNumber);
-            return String.valueOf(nextInvoiceNumber);
-        }
-        catch (IOException e)
-        {
-            logger.error("Error generating invoice number", e);
-            throw new RuntimeException("Failed to generate invoice number", e);
-        }
-    }
-    
-    private long readInvoiceCounter() throws IOException
-    {
-        // If counter file doesn't exist, initialize it with the initial value
-        if (!java.nio.file.Files.exists(invoiceCounterFilePath))
-        {
-            long initialValue = INITIAL_INVOICE_NUMBER;
-            writeInvoiceCounter(initialValue);
-            logger.info("Initialized invoice counter file with value: {}", initialValue);
-            return initialValue;
-        }
-        
-        // Read the counter value from file
-        try
-        {
-            String content = new String(java.nio.file.Files.readAllBytes(invoiceCounterFilePath)).trim();
-            if (content.isEmpty())
-            {
-                // File exists but is empty, initialize with initial value
-                long initialValue = INITIAL_INVOICE_NUMBER;
-                writeInvoiceCounter(initialValue);
-                logger.info("Invoice counter file was empty, initialized with value: {}", initialValue);
-                return initialValue;
-            }
-            
-            long counterValue = Long.parseLong(content);
-            // Ensure counter is at least INITIAL_INVOICE_NUMBER
-            if (counterValue < INITIAL_INVOICE_NUMBER)
-            {
-                counterValue = INITIAL_INVOICE_NUMBER;
-                writeInvoiceCounter(counterValue);
-                logger.info("Invoice counter value was below initial value, reset to: {}", counterValue);
-            }
-            return counterValue;
-        }
-        catch (NumberFormatException e)
-        {
-            // File contains invalid data, reset to initial value
-            logger.warn("Invoice counter file contains invalid data, resetting to initial value: {}", INITIAL_INVOICE_NUMBER);
-            long initialValue = INITIAL_INVOICE_NUMBER;
-            writeInvoiceCounter(initialValue);
-            return initialValue;
-        }
+        return String.valueOf(nextSequenceValue(invoiceCounterFilePath, INITIAL_INVOICE_NUMBER));
     }
     
-    private void writeInvoiceCounter(long value) throws IOException
+    public Order updateOrder(String id, Order orderDetails)
     {
-        java.nio.file.Files.write(invoiceCounterFilePath, String.valueOf(value).getBytes());
+        return updateOrder(id, orderDetails, null);
     }
 
-    public Order updateOrder(String id, Order orderDetails)
+    /**
+     * Updates the order only if it is still at the expected version; a null expected
+     * version updates it unconditionally.
+     */
+    public Order updateOrder(String id, Order orderDetails, Long expectedVersion)
     {
         if (id == null || id.trim().isEmpty())
             throw new IllegalArgumentException("Order ID cannot be null or empty");
         if (orderDetails == null)
             throw new IllegalArgumentException("Order details cannot be null");
 
-        Order existingOrder = findById(id).orElseThrow(() -> 
-            new OrderNotFoundException("Order not found with id: " + id));
+        return inWriteLock(() ->
+        {
+            Order existingOrder = findByIdForUpdate(id).orElseThrow(() -> 
+                new OrderNotFoundException("Order not found with id: " + id));
+            checkVersion(existingOrder, expectedVersion);
         
-        logger.info("updateOrder called - ID: {}, incoming status: {}, existing status: {}", 
-            id, orderDetails.getStatus(), existingOrder.getStatus());
-        logger.info("Full orderDetails object: {}", orderDetails);
+            logger.info("updateOrder called - ID: {}, incoming status: {}, existing status: {}", 
+                id, orderDetails.getStatus(), existingOrder.getStatus());
+            logger.info("Full orderDetails object: {}", orderDetails);
 
-        if (orderDetails.getOrderNumber() != null && !orderDetails.getOrderNumber().trim().isEmpty())
-        {
-            Optional<Order> numberCheck = getOrderByOrderNumber(orderDetails.getOrderNumber());
-            if (numberCheck.isPresent() && !id.equals(numberCheck.get().getId()))
+            if (orderDetails.getOrderNumber() != null && !orderDetails.getOrderNumber().trim().isEmpty())
             {
-                throw new OrderAlreadyExistsException("Order with number " + orderDetails.getOrderNumber() + " already exists");
+                Optional<Order> numberCheck = getOrderByOrderNumber(orderDetails.getOrderNumber());
+                if (numberCheck.isPresent() && !id.equals(numberCheck.get().getId()))
+                {
+                    throw new OrderAlreadyExistsException("Order with number " + orderDetails.getOrderNumber() + " already exists");
+                }
             }
-        }
 
-        // Update fields
-        if (orderDetails.getOrderNumber() != null)
-        {
-            existingOrder.setOrderNumber(orderDetails.getOrderNumber());
-        }
-        if (orderDetails.getCustomerId() != null)
-        {
-            existingOrder.setCustomerId(orderDetails.getCustomerId());
-        }
-        if (orderDetails.getShippingAddressId() != null)
-        {
-            existingOrder.setShippingAddressId(orderDetails.getShippingAddressId());
-        }
-        if (orderDetails.getBillingAddressId() != null)
-        {
-            existingOrder.setBillingAddressId(orderDetails.getBillingAddressId());
-        }
-        if (orderDetails.getOrderDate() != null)
-        {
-            existingOrder.setOrderDate(orderDetails.getOrderDate());
-        }
-        if (orderDetails.getShipDate() != null)
-        {
-            existingOrder.setShipDate(orderDetails.getShipDate());
-        }
-        // Always update status if provided (even if it's the same value)
-        String incomingStatus = orderDetails.getStatus();
-        if (incomingStatus != null)
-        {
-            logger.info("Updating order status from '{}' to '{}' for order ID: {}", 
-                existingOrder.getStatus(), incomingStatus, id);
-            existingOrder.setStatus(incomingStatus);
-            logger.info("Status updated successfully. Current status: {}", existingOrder.getStatus());
-        }
-        else
-        {
-            logger.warn("Status is null in orderDetails for order ID: {}", id);
-        }
-        if (orderDetails.getItems() != null)
-        {
-            existingOrder.setItems(orderDetails.getItems());
-        }
-        if (orderDetails.getTax() != null)
-        {
-            existingOrder.setTax(orderDetails.getTax());
-        }
-        if (orderDetails.getShippingCost() != null)
-        {
-            existingOrder.setShippingCost(orderDetails.getShippingCost());
-        }
-        if (orderDetails.getNotes() != null)
-        {
-            existingOrder.setNotes(orderDetails.getNotes());
-        }
-        if (orderDetails.getInvoiceNumber() != null)
-        {
-            existingOrder.setInvoiceNumber(orderDetails.getInvoiceNumber());
-        }
-        if (orderDetails.getInvoiceDate() != null)
-        {
-            existingOrder.setInvoiceDate(orderDetails.getInvoiceDate());
-        }
-        if (orderDetails.getJsonData() != null)
-        {
-            existingOrder.setJsonData(orderDetails.getJsonData());
-        }
+            // Update fields
+            if (orderDetails.getOrderNumber() != null)
+            {
+                existingOrder.setOrderNumber(orderDetails.getOrderNumber());
+            }
+            if (orderDetails.getCustomerId() != null)
+            {
+                existingOrder.setCustomerId(orderDetails.getCustomerId());
+            }
+            if (orderDetails.getShippingAddressId() != null)
+            {
+                existingOrder.setShippingAddressId(orderDetails.getShippingAddressId());
+            }
+            if (orderDetails.getBillingAddressId() != null)
+            {
+                existingOrder.setBillingAddressId(orderDetails.getBillingAddressId());
+            }
+            if (orderDetails.getOrderDate() != null)
+            {
+                existingOrder.setOrderDate(orderDetails.getOrderDate());
+            }
+            if (orderDetails.getShipDate() != null)
+            {
+                existingOrder.setShipDate(orderDetails.getShipDate());
+            }
+            // Always update status if provided (even if it's the same value)
+            String incomingStatus = orderDetails.getStatus();
+            if (incomingStatus != null)
+            {
+                logger.info("Updating order status from '{}' to '{}' for order ID: {}", 
+                    existingOrder.getStatus(), incomingStatus, id);
+                existingOrder.setStatus(incomingStatus);
+                logger.info("Status updated successfully. Current status: {}", existingOrder.getStatus());
+            }
+            else
+            {
+                logger.warn("Status is null in orderDetails for order ID: {}", id);
+            }
+            if (orderDetails.getItems() != null)
+            {
+                existingOrder.setItems(orderDetails.getItems());
+            }
+            if (orderDetails.getTax() != null)
+            {
+                existingOrder.setTax(orderDetails.getTax());
+            }
+            if (orderDetails.getShippingCost() != null)
+            {
+                existingOrder.setShippingCost(orderDetails.getShippingCost());
+            }
+            if (orderDetails.getNotes() != null)
+            {
+                existingOrder.setNotes(orderDetails.getNotes());
+            }
+            if (orderDetails.getInvoiceNumber() != null)
+            {
+                existingOrder.setInvoiceNumber(orderDetails.getInvoiceNumber());
+            }
+            if (orderDetails.getInvoiceDate() != null)
+            {
+                existingOrder.setInvoiceDate(orderDetails.getInvoiceDate());
+            }
+            if (orderDetails.getJsonData() != null)
+            {
+                existingOrder.setJsonData(orderDetails.getJsonData());
+            }
         
-        // Recalculate totals
-        existingOrder.calculateTotals();
+            // Recalculate totals
+            existingOrder.calculateTotals();
         
-        saveItems();
-        logger.info("Updated order with ID: {}, status: {}", id, existingOrder.getStatus());
+            saveItem(existingOrder);
+            logger.info("Updated order with ID: {}, status: {}", id, existingOrder.getStatus());
         
-        // Note: WebSocket broadcast will be handled by OrderService to avoid circular dependency
-        return existingOrder;
+            // Note: WebSocket broadcast will be handled by OrderService to avoid circular dependency
+            return existingOrder;
+        });
     }
 
     public void deleteOrder(String id)
@@ -0,0 +1,53 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One page of a list: the entities, the cursor to pass for the next page (null on the
+ * last page) and the number of entities in the list as of the snapshot the page was
+ * read from. A filtered page also carries the filter's {@link QueryPlan} if the request
+ * asked for {@code explain}.
+ */
+public final class Page<T>
+{
+    private final List<T> items;
+    private final String nextCursor;
+    private final int total;
+    private final QueryPlan plan;
+
+    Page(List<T> items, String nextCursor, int total)
+    {
+        this(items, nextCursor, total, null);
+    }
+
+    Page(List<T> items, String nextCursor, int total, QueryPlan plan)
+    {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.total = total;
+        this.plan = plan;
+    }
+
+    public List<T> getItems()
+    {
+        return items;
+    }
+
+    public String getNextCursor()
+    {
+        return nextCursor;
+    }
+
+    public int getTotal()
+    {
+        return total;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public QueryPlan getPlan()
+    {
+        return plan;
+    }
+}
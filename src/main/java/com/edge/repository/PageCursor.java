@@ -0,0 +1,135 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of the last entity of a {@link Page}, handed to clients as an opaque
+ * string: URL-safe Base64 of a small JSON object. For an unsorted page it holds the
+ * entity's collection position, or its ID if it is archived, for a sorted one the
+ * sort index, the entity's field value and its ID. A cursor only continues the sort
+ * it was made for.
+ */
+final class PageCursor
+{
+    private final String sort;
+    private final int position;
+    private final JsonNode value;
+    private final String id;
+    private final String archivedId;
+
+    private PageCursor(String sort, int position, JsonNode value, String id, String archivedId)
+    {
+        this.sort = sort;
+        this.position = position;
+        this.value = value;
+        this.id = id;
+        this.archivedId = archivedId;
+    }
+
+    static PageCursor atPosition(int position)
+    {
+        return new PageCursor(null, position, null, null, null);
+    }
+
+    /**
+     * A cursor of an unsorted page that ends with an archived entity, which has no
+     * collection position.
+     */
+    static PageCursor atArchived(String id)
+    {
+        return new PageCursor(null, -1, null, null, id);
+    }
+
+    static PageCursor atKey(String sort, JsonNode value, String id)
+    {
+        return new PageCursor(sort, -1, value, id, null);
+    }
+
+    int getPosition()
+    {
+        return position;
+    }
+
+    JsonNode getValue()
+    {
+        return value;
+    }
+
+    String getId()
+    {
+        return id;
+    }
+
+    /**
+     * The ID of the archived entity an unsorted page ended with, or null.
+     */
+    String getArchivedId()
+    {
+        return archivedId;
+    }
+
+    String encode(ObjectMapper objectMapper)
+    {
+        ObjectNode json = objectMapper.createObjectNode();
+        if (archivedId != null)
+        {
+            json.put("a", archivedId);
+        }
+        else if (sort == null)
+        {
+            json.put("p", position);
+        }
+        else
+        {
+            json.put("s", sort);
+            json.set("v", value);
+            json.put("id", id);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a cursor made for the given sort (null for insertion order).
+     *
+     * @throws IllegalArgumentException if the cursor is malformed or was made for a different sort
+     */
+    static PageCursor decode(ObjectMapper objectMapper, String cursor, String sort)
+    {
+        JsonNode json;
+        try
+        {
+            json = objectMapper.readTree(Base64.getUrlDecoder().decode(cursor.trim()));
+        }
+        catch (IllegalArgumentException | IOException e)
+        {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (json == null || !json.isObject())
+        {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (sort == null)
+        {
+            if (json.path("a").isTextual() && !json.has("s"))
+            {
+                return atArchived(json.get("a").asText());
+            }
+            if (!json.path("p").canConvertToInt() || json.has("s"))
+            {
+                throw new IllegalArgumentException("Cursor was not made for unsorted pages");
+            }
+            return atPosition(json.get("p").asInt());
+        }
+        if (!sort.equals(json.path("s").asText(null)) || !json.path("id").isTextual())
+        {
+            throw new IllegalArgumentException("Cursor was not made for sort " + sort);
+        }
+        return atKey(sort, json.get("v"), json.get("id").asText());
+    }
+}
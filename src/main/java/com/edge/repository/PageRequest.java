@@ -0,0 +1,152 @@
+package com.edge.repository;
+
+/**
+ * Which page of a list to return: at most {@code limit} entities following the
+ * position a {@code cursor} from the previous {@link Page} points at, in the order
+ * given by {@code sort}. The sort names a {@link SortIndex} of the repository, with a
+ * leading '-' for descending order; without one, entities come in insertion order.
+ * A {@code filter} (see {@link Filter} for the syntax) narrows the list before it is
+ * paged, and {@code explain} adds the {@link QueryPlan} the filter ran with to the
+ * page. Bound from the query parameters of the list endpoints.
+ */
+public class PageRequest
+{
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 1000;
+
+    private Integer limit;
+    private String cursor;
+    private String sort;
+    private String filter;
+    private boolean explain;
+    // Set on the copy made by unlimited()
+    private boolean all;
+
+    public PageRequest()
+    {
+    }
+
+    public PageRequest(Integer limit, String cursor, String sort)
+    {
+        this.limit = limit;
+        this.cursor = cursor;
+        this.sort = sort;
+    }
+
+    /**
+     * Whether any paging parameter (or {@code explain}) is set; list endpoints return
+     * the full list otherwise, narrowed by the filter if there is one.
+     */
+    public boolean isPaged()
+    {
+        return limit != null || cursor != null || sort != null || explain;
+    }
+
+    /**
+     * Returns a copy of this request for the whole filtered list as a single page,
+     * which is how a list endpoint serves a filter without paging parameters.
+     */
+    public PageRequest unlimited()
+    {
+        PageRequest copy = new PageRequest(null, null, sort);
+        copy.filter = filter;
+        copy.all = true;
+        return copy;
+    }
+
+    public Integer getLimit()
+    {
+        return limit;
+    }
+
+    public void setLimit(Integer limit)
+    {
+        this.limit = limit;
+    }
+
+    public String getCursor()
+    {
+        return cursor;
+    }
+
+    public void setCursor(String cursor)
+    {
+        this.cursor = cursor;
+    }
+
+    public String getSort()
+    {
+        return sort;
+    }
+
+    public void setSort(String sort)
+    {
+        this.sort = sort;
+    }
+
+    public String getFilter()
+    {
+        return filter;
+    }
+
+    public void setFilter(String filter)
+    {
+        this.filter = filter;
+    }
+
+    public boolean isExplain()
+    {
+        return explain;
+    }
+
+    public void setExplain(boolean explain)
+    {
+        this.explain = explain;
+    }
+
+    /**
+     * Whether a non-blank filter is set.
+     */
+    boolean isFiltered()
+    {
+        return filter != null && !filter.isBlank();
+    }
+
+    /**
+     * The number of entities to return, checked against {@link #MAX_LIMIT}.
+     */
+    int pageSize()
+    {
+        if (all)
+        {
+            return Integer.MAX_VALUE;
+        }
+        if (limit == null)
+        {
+            return DEFAULT_LIMIT;
+        }
+        if (limit < 1 || limit > MAX_LIMIT)
+        {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT + " but was " + limit);
+        }
+        return limit;
+    }
+
+    /**
+     * The name of the sort index without the direction prefix, or null if unsorted.
+     */
+    String sortField()
+    {
+        if (sort == null || sort.isBlank())
+        {
+            return null;
+        }
+        String field = sort.trim();
+        return field.startsWith("-") || field.startsWith("+") ? field.substring(1) : field;
+    }
+
+    boolean isDescending()
+    {
+        return sort != null && sort.trim().startsWith("-");
+    }
+}
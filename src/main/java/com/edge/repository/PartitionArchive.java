@@ -0,0 +1,525 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Cold tier of a repository: closed entities moved out of memory into one read-only
+ * JSON array file per month, e.g. {@code data/orders.archive/2024-01.json}.
+ * <p>
+ * Only a key file per partition ({@code 2024-01.keys.json}) is read at startup. It
+ * lists the ID, index keys and sort index values of every archived entity, so an ID
+ * or index lookup knows which partitions to read without scanning the others, and a
+ * sorted page walks the archive's sort keys from its cursor, reading only the
+ * partitions of the entities it returns. Partitions are read on demand and the most
+ * recently used ones ({@code jsondb.archive-cache-partitions}) are kept in memory. A
+ * key file that does not match its partition or the declared sort indexes, e.g.
+ * after a crash between the two writes, is rebuilt from the partition.
+ */
+class PartitionArchive<T>
+{
+    private static final Logger logger = LoggerFactory.getLogger(PartitionArchive.class);
+
+    static final String DIRECTORY_EXTENSION = ".archive";
+    private static final String KEYS_FILE_SUFFIX = ".keys.json";
+
+    private final String entityName;
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private final Class<T> entityType;
+    private final Function<T, String> idOf;
+    private final List<EntityIndex<T>> indexes;
+    private final List<SortIndex<T>> sortIndexes;
+
+    private final Map<String, YearMonth> partitionsById = new HashMap<>();
+    // Index name -> key string -> partitions containing entities with that key
+    private final Map<String, Map<String, Set<YearMonth>>> partitionsByKey = new HashMap<>();
+    // Index name -> normalized key -> keys, built on the first prefix lookup of the index
+    private final Map<String, NavigableMap<String, Set<String>>> normalizedKeys = new HashMap<>();
+    // Sort index name -> sort keys of all archived entities -> partition; persistent,
+    // so a page keeps walking the keys it started with while partitions are added
+    private final Map<String, PersistentTreeMap<SortIndex.SortKey, YearMonth>> sortKeys = new HashMap<>();
+    // Partition -> sort keys of its entities per sort index, removed when it is rewritten
+    private final Map<YearMonth, Map<String, List<SortIndex.SortKey>>> sortKeysByPartition = new HashMap<>();
+    private final TreeMap<YearMonth, Integer> partitionSizes = new TreeMap<>();
+    // Partition -> its entities by ID, in file order
+    private final Map<YearMonth, Map<String, T>> cache;
+
+    PartitionArchive(String entityName, Path directory, ObjectMapper objectMapper, Class<T> entityType,
+        Function<T, String> idOf, List<EntityIndex<T>> indexes, List<SortIndex<T>> sortIndexes, int cachedPartitions)
+    {
+        this.entityName = entityName;
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        this.entityType = entityType;
+        this.idOf = idOf;
+        this.indexes = List.copyOf(indexes);
+        this.sortIndexes = List.copyOf(sortIndexes);
+        int cacheSize = Math.max(1, cachedPartitions);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<YearMonth, Map<String, T>> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Reads the key files of all partitions.
+     */
+    synchronized void open() throws IOException
+    {
+        if (!Files.isDirectory(directory))
+        {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "????-??.json"))
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                try
+                {
+                    openPartition(YearMonth.parse(name.substring(0, name.length() - ".json".length())));
+                }
+                catch (DateTimeParseException e)
+                {
+                    logger.warn("Ignoring unexpected file {} in {} archive", file, entityName);
+                }
+            }
+        }
+        logger.info("Opened {} archive: {} entities in {} partitions", entityName, partitionsById.size(), partitionSizes.size());
+    }
+
+    private void openPartition(YearMonth month) throws IOException
+    {
+        Path keysFile = keysFileOf(month);
+        JsonNode keys = Files.exists(keysFile) ? objectMapper.readTree(keysFile.toFile()) : null;
+        if (keys == null || keys.path("partitionSize").asLong(-1) != Files.size(partitionFileOf(month))
+            || !sortIndexNames().equals(textValues(keys.path("sortIndexes"))))
+        {
+            logger.warn("Rebuilding key file of {} archive partition {}", entityName, month);
+            keys = writeKeysFile(month, readPartition(month).values());
+        }
+        Map<String, List<SortIndex.SortKey>> partitionSortKeys = new HashMap<>();
+        int count = 0;
+        for (JsonNode record : keys.path("records"))
+        {
+            String id = record.path("id").asText();
+            partitionsById.put(id, month);
+            record.path("keys").fields().forEachRemaining(key -> partitionsByKey
+                .computeIfAbsent(key.getKey(), name -> new HashMap<>())
+                .computeIfAbsent(key.getValue().asText(), value -> new TreeSet<>())
+                .add(month));
+            for (SortIndex<T> sortIndex : sortIndexes)
+            {
+                JsonNode value = record.path("sort").path(sortIndex.getName());
+                SortIndex.SortKey key = new SortIndex.SortKey(value.isMissingNode() || value.isNull() ? null
+                    : (Comparable<?>) objectMapper.treeToValue(value, sortIndex.getType()), id);
+                partitionSortKeys.computeIfAbsent(sortIndex.getName(), name -> new ArrayList<>()).add(key);
+                sortKeys.put(sortIndex.getName(), sortKeys.getOrDefault(sortIndex.getName(), PersistentTreeMap.empty())
+                    .with(key, month));
+            }
+            count++;
+        }
+        partitionSizes.put(month, count);
+        sortKeysByPartition.put(month, partitionSortKeys);
+        normalizedKeys.clear();
+    }
+
+    private List<String> sortIndexNames()
+    {
+        return sortIndexes.stream().map(SortIndex::getName).toList();
+    }
+
+    private static List<String> textValues(JsonNode array)
+    {
+        List<String> values = new ArrayList<>();
+        array.forEach(value -> values.add(value.asText()));
+        return values;
+    }
+
+    private Path partitionFileOf(YearMonth month)
+    {
+        return directory.resolve(month + ".json");
+    }
+
+    private Path keysFileOf(YearMonth month)
+    {
+        return directory.resolve(month + KEYS_FILE_SUFFIX);
+    }
+
+    synchronized boolean contains(String id)
+    {
+        return partitionsById.containsKey(id);
+    }
+
+    synchronized int size()
+    {
+        return partitionsById.size();
+    }
+
+    synchronized Optional<T> findById(String id)
+    {
+        YearMonth month = partitionsById.get(id);
+        if (month == null)
+        {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(partition(month).get(id));
+    }
+
+    /**
+     * Returns the archived entities with the given index key, oldest partition first.
+     */
+    synchronized List<T> findByIndex(EntityIndex<T> index, Object key)
+    {
+        String keyString = EntityIndex.keyString(key);
+        Set<YearMonth> months = partitionsByKey.getOrDefault(index.getName(), Map.of()).get(keyString);
+        if (months == null)
+        {
+            return List.of();
+        }
+        List<T> matches = new ArrayList<>();
+        for (YearMonth month : months)
+        {
+            for (T entity : partition(month).values())
+            {
+                if (keyString.equals(index.keyStringOf(entity)))
+                {
+                    matches.add(entity);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns archived entities whose key in the index, normalized as by
+     * {@link TextIndex#normalize}, starts with the normalized prefix: those of the
+     * first keys in normalized order until there are at least limit. Reads only the
+     * partitions holding them.
+     */
+    synchronized List<T> findByKeyPrefix(EntityIndex<T> index, String prefix, int limit)
+    {
+        NavigableMap<String, Set<String>> keys = normalizedKeys.computeIfAbsent(index.getName(), name ->
+        {
+            NavigableMap<String, Set<String>> sorted = new TreeMap<>();
+            for (String key : partitionsByKey.getOrDefault(name, Map.of()).keySet())
+            {
+                sorted.computeIfAbsent(TextIndex.normalize(key), normalized -> new TreeSet<>()).add(key);
+            }
+            return sorted;
+        });
+        List<T> matches = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : keys.tailMap(prefix, true).entrySet())
+        {
+            if (matches.size() >= limit || !entry.getKey().startsWith(prefix))
+            {
+                break;
+            }
+            for (String key : entry.getValue())
+            {
+                matches.addAll(findByIndex(index, key));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns every archived entity, oldest partition first. Reads all partitions.
+     */
+    synchronized List<T> findAll()
+    {
+        List<T> all = new ArrayList<>(partitionsById.size());
+        for (YearMonth month : partitionSizes.keySet())
+        {
+            all.addAll(partition(month).values());
+        }
+        return all;
+    }
+
+    /**
+     * Returns the given archived entities in the order of {@link #findAll()}. Entities
+     * that are not archived are left out.
+     */
+    synchronized List<T> inOrder(Collection<T> entities)
+    {
+        Map<YearMonth, Map<String, T>> byMonth = new TreeMap<>();
+        for (T entity : entities)
+        {
+            String id = idOf.apply(entity);
+            YearMonth month = partitionsById.get(id);
+            if (month != null)
+            {
+                byMonth.computeIfAbsent(month, key -> new HashMap<>()).put(id, entity);
+            }
+        }
+        List<T> ordered = new ArrayList<>(entities.size());
+        for (Map.Entry<YearMonth, Map<String, T>> month : byMonth.entrySet())
+        {
+            for (T archived : partition(month.getKey()).values())
+            {
+                T entity = month.getValue().get(idOf.apply(archived));
+                if (entity != null)
+                {
+                    ordered.add(entity);
+                }
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Iterates over the archived entities whose ID passes the filter, in the order of
+     * {@link #findAll()}, after the one with the given ID (from the start if null),
+     * reading partitions only as the iteration reaches them.
+     *
+     * @throws IllegalArgumentException if no archived entity has the ID
+     */
+    Iterator<T> iterator(String afterId, Predicate<String> idFilter)
+    {
+        List<YearMonth> months;
+        synchronized (this)
+        {
+            YearMonth first = afterId == null ? null : partitionsById.get(afterId);
+            if (afterId != null && first == null)
+            {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            months = List.copyOf(first == null ? partitionSizes.keySet() : partitionSizes.tailMap(first, true).keySet());
+        }
+        Stream<T> entities = months.stream().flatMap(month -> cachedPartition(month).values().stream());
+        if (afterId != null)
+        {
+            entities = entities.dropWhile(entity -> !afterId.equals(idOf.apply(entity))).skip(1);
+        }
+        return entities.filter(entity -> idFilter.test(idOf.apply(entity))).iterator();
+    }
+
+    /**
+     * Iterates over the archived entities whose ID passes the filter in the order of
+     * the sort index, or in reverse order if descending, after the given key (from the
+     * start if null). Walks the sort keys of the key files; an entry reads its
+     * entity's partition only when its value is asked for, so merging the archive
+     * into a page reads no partition beyond those of the entities on the page.
+     */
+    Iterator<Map.Entry<SortIndex.SortKey, T>> sorted(SortIndex<T> sortIndex, SortIndex.SortKey after, boolean descending,
+        Predicate<String> idFilter)
+    {
+        PersistentTreeMap<SortIndex.SortKey, YearMonth> keys;
+        synchronized (this)
+        {
+            keys = sortKeys.getOrDefault(sortIndex.getName(), PersistentTreeMap.empty());
+        }
+        Iterator<Map.Entry<SortIndex.SortKey, YearMonth>> entries = keys.entriesAfter(after, descending);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED), false)
+            .filter(entry -> idFilter.test(entry.getKey().id))
+            .<Map.Entry<SortIndex.SortKey, T>>map(entry -> new SortedEntry(entry.getKey(), entry.getValue()))
+            .iterator();
+    }
+
+    /**
+     * An archived entity's sort key, with the entity read from its partition on
+     * demand. Partitions are only ever merged into, so the entity is still there.
+     */
+    private final class SortedEntry implements Map.Entry<SortIndex.SortKey, T>
+    {
+        private final SortIndex.SortKey key;
+        private final YearMonth month;
+
+        SortedEntry(SortIndex.SortKey key, YearMonth month)
+        {
+            this.key = key;
+            this.month = month;
+        }
+
+        @Override
+        public SortIndex.SortKey getKey()
+        {
+            return key;
+        }
+
+        @Override
+        public T getValue()
+        {
+            return cachedPartition(month).get(key.id);
+        }
+
+        @Override
+        public T setValue(T value)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Returns the IDs of the archived entities that pass the filter, from the key
+     * files alone.
+     */
+    synchronized List<String> findIds(Predicate<String> idFilter)
+    {
+        List<String> ids = new ArrayList<>();
+        for (String id : partitionsById.keySet())
+        {
+            if (idFilter.test(id))
+            {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private synchronized Map<String, T> cachedPartition(YearMonth month)
+    {
+        return partition(month);
+    }
+
+    private Map<String, T> partition(YearMonth month)
+    {
+        Map<String, T> entities = cache.get(month);
+        if (entities == null)
+        {
+            try
+            {
+                entities = Collections.unmodifiableMap(readPartition(month));
+            }
+            catch (IOException e)
+            {
+                throw new AbstractJsonRepository.DataPersistenceException("Failed to read " + entityName + " archive partition " + month, e);
+            }
+            cache.put(month, entities);
+        }
+        return entities;
+    }
+
+    private Map<String, T> readPartition(YearMonth month) throws IOException
+    {
+        logger.debug("Reading {} archive partition {}", entityName, month);
+        Map<String, T> entities = new LinkedHashMap<>();
+        for (T entity : JsonFileStorageEngine.readJsonArray(partitionFileOf(month), objectMapper, entityType, entityName))
+        {
+            entities.put(idOf.apply(entity), entity);
+        }
+        return entities;
+    }
+
+    /**
+     * Adds entities to their month partitions. Each affected partition is rewritten
+     * (merged with what it already holds, replacing entities with the same ID) before
+     * its key file, both via a temporary file and an atomic move.
+     */
+    synchronized void add(Map<YearMonth, List<T>> entitiesByMonth) throws IOException
+    {
+        Files.createDirectories(directory);
+        for (Map.Entry<YearMonth, List<T>> entry : entitiesByMonth.entrySet())
+        {
+            YearMonth month = entry.getKey();
+            Map<String, T> merged = new LinkedHashMap<>();
+            if (Files.exists(partitionFileOf(month)))
+            {
+                for (T entity : partition(month).values())
+                {
+                    merged.put(idOf.apply(entity), entity);
+                }
+            }
+            for (T entity : entry.getValue())
+            {
+                merged.put(idOf.apply(entity), entity);
+            }
+
+            writeAtomically(partitionFileOf(month), merged.values());
+            cache.remove(month);
+            writeKeysFile(month, merged.values());
+            partitionsById.values().removeIf(month::equals);
+            partitionSizes.remove(month);
+            for (Map<String, Set<YearMonth>> keys : partitionsByKey.values())
+            {
+                keys.values().forEach(months -> months.remove(month));
+            }
+            for (Map.Entry<String, List<SortIndex.SortKey>> keys : sortKeysByPartition.getOrDefault(month, Map.of()).entrySet())
+            {
+                PersistentTreeMap<SortIndex.SortKey, YearMonth> sorted = sortKeys.get(keys.getKey());
+                for (SortIndex.SortKey key : keys.getValue())
+                {
+                    sorted = sorted.without(key);
+                }
+                sortKeys.put(keys.getKey(), sorted);
+            }
+            openPartition(month);
+        }
+    }
+
+    private JsonNode writeKeysFile(YearMonth month, Collection<T> entities) throws IOException
+    {
+        ObjectNode keys = objectMapper.createObjectNode();
+        keys.put("partitionSize", Files.size(partitionFileOf(month)));
+        ArrayNode sortIndexNames = keys.putArray("sortIndexes");
+        sortIndexNames().forEach(sortIndexNames::add);
+        ArrayNode records = keys.putArray("records");
+        for (T entity : entities)
+        {
+            ObjectNode record = records.addObject();
+            record.put("id", idOf.apply(entity));
+            ObjectNode indexKeys = record.putObject("keys");
+            for (EntityIndex<T> index : indexes)
+            {
+                String key = index.keyStringOf(entity);
+                if (key != null)
+                {
+                    indexKeys.put(index.getName(), key);
+                }
+            }
+            ObjectNode sortValues = record.putObject("sort");
+            for (SortIndex<T> sortIndex : sortIndexes)
+            {
+                Comparable<?> value = sortIndex.valueOf(entity);
+                if (value != null)
+                {
+                    sortValues.set(sortIndex.getName(), objectMapper.valueToTree(value));
+                }
+            }
+        }
+        writeAtomically(keysFileOf(month), keys);
+        return keys;
+    }
+
+    private void writeAtomically(Path file, Object value) throws IOException
+    {
+        Path tempFilePath = file.resolveSibling(file.getFileName() + ".tmp");
+        objectMapper.writeValue(tempFilePath.toFile(), value);
+        DurableFiles.moveIntoPlace(tempFilePath, file);
+    }
+}
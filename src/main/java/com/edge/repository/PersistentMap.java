@@ -0,0 +1,338 @@
+package com.edge.repository;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash map that shares structure between versions (a hash array mapped
+ * trie): {@link #with} and {@link #without} copy only the path from the root to the
+ * changed entry, O(log32 n) nodes, and leave the previous version intact. Used for
+ * the ID and index maps of a {@link RepositorySnapshot}, so publishing a snapshot
+ * does not copy the collection. Null keys and values are not supported.
+ */
+final class PersistentMap<K, V>
+{
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size)
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty()
+    {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Object key)
+    {
+        return root == null ? null : (V) root.get(0, key.hashCode(), key);
+    }
+
+    boolean containsKey(Object key)
+    {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a map with the key mapped to the value, or this map if it already is.
+     */
+    PersistentMap<K, V> with(K key, V value)
+    {
+        boolean[] added = new boolean[1];
+        Node node = root == null ? BitmapNode.EMPTY : root;
+        Node changed = node.with(0, key.hashCode(), key, value, added);
+        return changed == root ? this : new PersistentMap<>(changed, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map without the key, or this map if it does not contain it.
+     */
+    PersistentMap<K, V> without(Object key)
+    {
+        if (root == null)
+        {
+            return this;
+        }
+        Node changed = root.without(0, key.hashCode(), key);
+        return changed == root ? this : new PersistentMap<>(changed, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        if (root != null)
+        {
+            root.forEach((BiConsumer<Object, Object>) action);
+        }
+    }
+
+    private static int bitOf(int hash, int shift)
+    {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private interface Node
+    {
+        Object get(int shift, int hash, Object key);
+
+        Node with(int shift, int hash, Object key, Object value, boolean[] added);
+
+        // Returns null if the node becomes empty
+        Node without(int shift, int hash, Object key);
+
+        void forEach(BiConsumer<Object, Object> action);
+    }
+
+    /**
+     * Up to 32 slots selected by 5 bits of the hash; {@code array} holds a key and a
+     * value per occupied slot, or a null key and a child node.
+     */
+    private static final class BitmapNode implements Node
+    {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array)
+        {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int indexOf(int bit)
+        {
+            return 2 * Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object get(int shift, int hash, Object key)
+        {
+            int bit = bitOf(hash, shift);
+            if ((bitmap & bit) == 0)
+            {
+                return null;
+            }
+            int index = indexOf(bit);
+            Object storedKey = array[index];
+            if (storedKey == null)
+            {
+                return ((Node) array[index + 1]).get(shift + BITS, hash, key);
+            }
+            return key.equals(storedKey) ? array[index + 1] : null;
+        }
+
+        @Override
+        public Node with(int shift, int hash, Object key, Object value, boolean[] added)
+        {
+            int bit = bitOf(hash, shift);
+            int index = indexOf(bit);
+            if ((bitmap & bit) == 0)
+            {
+                Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, index);
+                copy[index] = key;
+                copy[index + 1] = value;
+                System.arraycopy(array, index, copy, index + 2, array.length - index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, copy);
+            }
+            Object storedKey = array[index];
+            Object storedValue = array[index + 1];
+            if (storedKey == null)
+            {
+                Node child = (Node) storedValue;
+                Node changed = child.with(shift + BITS, hash, key, value, added);
+                return changed == child ? this : replace(index + 1, changed);
+            }
+            if (key.equals(storedKey))
+            {
+                return storedValue == value ? this : replace(index + 1, value);
+            }
+            added[0] = true;
+            Node child = split(shift + BITS, storedKey, storedValue, hash, key, value);
+            Object[] copy = array.clone();
+            copy[index] = null;
+            copy[index + 1] = child;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        private BitmapNode replace(int index, Object value)
+        {
+            Object[] copy = array.clone();
+            copy[index] = value;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        private static Node split(int shift, Object key1, Object value1, int hash2, Object key2, Object value2)
+        {
+            int hash1 = key1.hashCode();
+            if (hash1 == hash2)
+            {
+                return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+            }
+            boolean[] added = new boolean[1];
+            return EMPTY.with(shift, hash1, key1, value1, added).with(shift, hash2, key2, value2, added);
+        }
+
+        @Override
+        public Node without(int shift, int hash, Object key)
+        {
+            int bit = bitOf(hash, shift);
+            if ((bitmap & bit) == 0)
+            {
+                return this;
+            }
+            int index = indexOf(bit);
+            Object storedKey = array[index];
+            if (storedKey == null)
+            {
+                Node child = (Node) array[index + 1];
+                Node changed = child.without(shift + BITS, hash, key);
+                if (changed == child)
+                {
+                    return this;
+                }
+                if (changed != null)
+                {
+                    return replace(index + 1, changed);
+                }
+            }
+            else if (!key.equals(storedKey))
+            {
+                return this;
+            }
+            if (bitmap == bit)
+            {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 2, copy, index, array.length - index - 2);
+            return new BitmapNode(bitmap ^ bit, copy);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action)
+        {
+            for (int i = 0; i < array.length; i += 2)
+            {
+                if (array[i] == null)
+                {
+                    ((Node) array[i + 1]).forEach(action);
+                }
+                else
+                {
+                    action.accept(array[i], array[i + 1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keys whose hash codes are equal in all bits; searched linearly.
+     */
+    private static final class CollisionNode implements Node
+    {
+        final int hash;
+        final Object[] array;
+
+        CollisionNode(int hash, Object[] array)
+        {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key)
+        {
+            for (int i = 0; i < array.length; i += 2)
+            {
+                if (key.equals(array[i]))
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Object get(int shift, int hash, Object key)
+        {
+            int index = indexOf(key);
+            return index < 0 ? null : array[index + 1];
+        }
+
+        @Override
+        public Node with(int shift, int hash, Object key, Object value, boolean[] added)
+        {
+            if (hash != this.hash)
+            {
+                // Push this node one level down, next to the new key
+                BitmapNode parent = new BitmapNode(bitOf(this.hash, shift), new Object[] {null, this});
+                return parent.with(shift, hash, key, value, added);
+            }
+            int index = indexOf(key);
+            if (index >= 0)
+            {
+                if (array[index + 1] == value)
+                {
+                    return this;
+                }
+                Object[] copy = array.clone();
+                copy[index + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+            Object[] copy = Arrays.copyOf(array, array.length + 2);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public Node without(int shift, int hash, Object key)
+        {
+            int index = indexOf(key);
+            if (index < 0)
+            {
+                return this;
+            }
+            if (array.length == 2)
+            {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 2, copy, index, array.length - index - 2);
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action)
+        {
+            for (int i = 0; i < array.length; i += 2)
+            {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+    }
+}
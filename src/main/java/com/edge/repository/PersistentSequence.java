@@ -0,0 +1,394 @@
+package com.edge.repository;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted map from a non-negative int position to a value that shares
+ * structure between versions, like {@link PersistentMap}: a trie of 32-way bitmap
+ * nodes over the position's bits, most significant first, so iteration follows
+ * position order. Each node counts the values below it, which makes the n-th value
+ * reachable in O(log32 n) and lets {@link #asList()} serve as a read-only list
+ * without copying.
+ * <p>
+ * A repository gives every entity a position when it is first stored, so its
+ * collection and each index bucket iterate in insertion order.
+ */
+final class PersistentSequence<V>
+{
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int LEVELS = 6;
+    private static final int ROOT_SHIFT = BITS * (LEVELS - 1);
+    static final int MAX_POSITION = (1 << (BITS * LEVELS)) - 1;
+
+    private static final Node EMPTY_NODE = new Node(0, new Object[0], 0);
+    private static final PersistentSequence<?> EMPTY = new PersistentSequence<>(EMPTY_NODE);
+
+    private final Node root;
+    private List<V> list;
+
+    private PersistentSequence(Node root)
+    {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentSequence<V> empty()
+    {
+        return (PersistentSequence<V>) EMPTY;
+    }
+
+    int size()
+    {
+        return root.count;
+    }
+
+    boolean isEmpty()
+    {
+        return root.count == 0;
+    }
+
+    /**
+     * Builds a sequence of values at strictly increasing positions in O(n), without
+     * the path copies of adding them one at a time, for bulk loads.
+     */
+    static <V> PersistentSequence<V> ofSorted(int[] positions, List<V> values)
+    {
+        if (positions.length != values.size())
+        {
+            throw new IllegalArgumentException("Got " + positions.length + " positions for " + values.size() + " values");
+        }
+        for (int i = 0; i < positions.length; i++)
+        {
+            checkPosition(positions[i]);
+            if (i > 0 && positions[i] <= positions[i - 1])
+            {
+                throw new IllegalArgumentException("Positions must be increasing: " + positions[i - 1] + ", " + positions[i]);
+            }
+        }
+        return positions.length == 0 ? empty() : new PersistentSequence<>(build(ROOT_SHIFT, positions, values, 0, positions.length));
+    }
+
+    // Builds the node for the positions in [from, to), which share all bits above the shift
+    private static Node build(int shift, int[] positions, List<?> values, int from, int to)
+    {
+        int bitmap = 0;
+        List<Object> children = new ArrayList<>();
+        int start = from;
+        while (start < to)
+        {
+            int slot = slotOf(positions[start], shift);
+            int end = start + 1;
+            while (end < to && slotOf(positions[end], shift) == slot)
+            {
+                end++;
+            }
+            bitmap |= 1 << slot;
+            children.add(shift == 0 ? values.get(start) : build(shift - BITS, positions, values, start, end));
+            start = end;
+        }
+        return new Node(bitmap, children.toArray(), to - from);
+    }
+
+    /**
+     * Returns the value at the position, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    V get(int position)
+    {
+        if (position < 0 || position > MAX_POSITION)
+        {
+            return null;
+        }
+        Node node = root;
+        for (int shift = ROOT_SHIFT; ; shift -= BITS)
+        {
+            int bit = 1 << slotOf(position, shift);
+            if ((node.bitmap & bit) == 0)
+            {
+                return null;
+            }
+            Object child = node.children[node.indexOf(bit)];
+            if (shift == 0)
+            {
+                return (V) child;
+            }
+            node = (Node) child;
+        }
+    }
+
+    /**
+     * Returns a sequence with the value at the position, replacing any value there.
+     */
+    PersistentSequence<V> with(int position, V value)
+    {
+        checkPosition(position);
+        Node changed = root.with(ROOT_SHIFT, position, value);
+        return changed == root ? this : new PersistentSequence<>(changed);
+    }
+
+    PersistentSequence<V> without(int position)
+    {
+        checkPosition(position);
+        Node changed = root.without(ROOT_SHIFT, position);
+        if (changed == root)
+        {
+            return this;
+        }
+        return changed == null ? empty() : new PersistentSequence<>(changed);
+    }
+
+    /**
+     * Returns the number of values at positions below the given one, i.e. the list
+     * index of the first value at or after it, in O(log32 n).
+     */
+    int countBefore(int position)
+    {
+        if (position <= 0)
+        {
+            return 0;
+        }
+        if (position > MAX_POSITION)
+        {
+            return root.count;
+        }
+        int count = 0;
+        Node node = root;
+        for (int shift = ROOT_SHIFT; ; shift -= BITS)
+        {
+            int bit = 1 << slotOf(position, shift);
+            int index = node.indexOf(bit);
+            if (shift == 0)
+            {
+                return count + index;
+            }
+            for (int i = 0; i < index; i++)
+            {
+                count += ((Node) node.children[i]).count;
+            }
+            if ((node.bitmap & bit) == 0)
+            {
+                return count;
+            }
+            node = (Node) node.children[index];
+        }
+    }
+
+    private static void checkPosition(int position)
+    {
+        if (position < 0 || position > MAX_POSITION)
+        {
+            throw new IllegalArgumentException("Position out of range: " + position);
+        }
+    }
+
+    /**
+     * Returns the values in position order as an unmodifiable list backed by this
+     * sequence; creating it costs nothing per call after the first.
+     */
+    List<V> asList()
+    {
+        List<V> view = list;
+        if (view == null)
+        {
+            view = new ListView();
+            list = view;
+        }
+        return view;
+    }
+
+    private static int slotOf(int position, int shift)
+    {
+        return (position >>> shift) & MASK;
+    }
+
+    /**
+     * Children (or values, on the last level) of the occupied slots in slot order.
+     */
+    private static final class Node
+    {
+        final int bitmap;
+        final Object[] children;
+        final int count;
+
+        Node(int bitmap, Object[] children, int count)
+        {
+            this.bitmap = bitmap;
+            this.children = children;
+            this.count = count;
+        }
+
+        private int indexOf(int bit)
+        {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        Node with(int shift, int position, Object value)
+        {
+            int bit = 1 << slotOf(position, shift);
+            int index = indexOf(bit);
+            boolean occupied = (bitmap & bit) != 0;
+            Object child;
+            int countChange;
+            if (shift == 0)
+            {
+                if (occupied && children[index] == value)
+                {
+                    return this;
+                }
+                child = value;
+                countChange = occupied ? 0 : 1;
+            }
+            else
+            {
+                Node current = occupied ? (Node) children[index] : EMPTY_NODE;
+                Node changed = current.with(shift - BITS, position, value);
+                if (changed == current)
+                {
+                    return this;
+                }
+                child = changed;
+                countChange = changed.count - current.count;
+            }
+            if (occupied)
+            {
+                Object[] copy = children.clone();
+                copy[index] = child;
+                return new Node(bitmap, copy, count + countChange);
+            }
+            Object[] copy = new Object[children.length + 1];
+            System.arraycopy(children, 0, copy, 0, index);
+            copy[index] = child;
+            System.arraycopy(children, index, copy, index + 1, children.length - index);
+            return new Node(bitmap | bit, copy, count + countChange);
+        }
+
+        // Returns null if the node becomes empty
+        Node without(int shift, int position)
+        {
+            int bit = 1 << slotOf(position, shift);
+            if ((bitmap & bit) == 0)
+            {
+                return this;
+            }
+            int index = indexOf(bit);
+            if (shift > 0)
+            {
+                Node current = (Node) children[index];
+                Node changed = current.without(shift - BITS, position);
+                if (changed == current)
+                {
+                    return this;
+                }
+                if (changed != null)
+                {
+                    Object[] copy = children.clone();
+                    copy[index] = changed;
+                    return new Node(bitmap, copy, count - 1);
+                }
+            }
+            if (bitmap == bit)
+            {
+                return null;
+            }
+            Object[] copy = new Object[children.length - 1];
+            System.arraycopy(children, 0, copy, 0, index);
+            System.arraycopy(children, index + 1, copy, index, children.length - index - 1);
+            return new Node(bitmap ^ bit, copy, count - 1);
+        }
+
+        Object getAt(int shift, int index)
+        {
+            if (shift == 0)
+            {
+                return children[index];
+            }
+            for (Object child : children)
+            {
+                Node node = (Node) child;
+                if (index < node.count)
+                {
+                    return node.getAt(shift - BITS, index);
+                }
+                index -= node.count;
+            }
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    private final class ListView extends AbstractList<V>
+    {
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(int index)
+        {
+            if (index < 0 || index >= root.count)
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + root.count);
+            }
+            return (V) root.getAt(ROOT_SHIFT, index);
+        }
+
+        @Override
+        public int size()
+        {
+            return root.count;
+        }
+
+        @Override
+        public Iterator<V> iterator()
+        {
+            return new SequenceIterator();
+        }
+    }
+
+    /**
+     * Depth-first walk keeping one cursor per level.
+     */
+    private final class SequenceIterator implements Iterator<V>
+    {
+        private final Node[] nodes = new Node[LEVELS];
+        private final int[] cursors = new int[LEVELS];
+        private int remaining = root.count;
+
+        SequenceIterator()
+        {
+            nodes[0] = root;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return remaining > 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next()
+        {
+            if (remaining == 0)
+            {
+                throw new NoSuchElementException();
+            }
+            int level = LEVELS - 1;
+            // Climb to the deepest level that has an unvisited child, then descend
+            while (nodes[level] == null || cursors[level] >= nodes[level].children.length)
+            {
+                level--;
+            }
+            while (level < LEVELS - 1)
+            {
+                Node child = (Node) nodes[level].children[cursors[level]++];
+                level++;
+                nodes[level] = child;
+                cursors[level] = 0;
+            }
+            remaining--;
+            return (V) nodes[level].children[cursors[level]++];
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.edge.repository;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable sorted map that shares structure between versions, like
+ * {@link PersistentMap}, for keys with a natural order: a treap (a binary search tree
+ * kept balanced by random node priorities) whose {@link #with} and {@link #without}
+ * copy only the O(log n) nodes on the paths they touch. Iteration can start after any
+ * key in either direction, which is what a {@link SortIndex} serves pages from. Null
+ * keys and values are not supported.
+ */
+final class PersistentTreeMap<K extends Comparable<? super K>, V>
+{
+    private static final PersistentTreeMap<?, ?> EMPTY = new PersistentTreeMap<>(null);
+
+    private final Node<K, V> root;
+
+    private PersistentTreeMap(Node<K, V> root)
+    {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K extends Comparable<? super K>, V> PersistentTreeMap<K, V> empty()
+    {
+        return (PersistentTreeMap<K, V>) EMPTY;
+    }
+
+    int size()
+    {
+        return root == null ? 0 : root.size;
+    }
+
+    boolean isEmpty()
+    {
+        return root == null;
+    }
+
+    V get(K key)
+    {
+        Node<K, V> node = root;
+        while (node != null)
+        {
+            int comparison = key.compareTo(node.key);
+            if (comparison == 0)
+            {
+                return node.value;
+            }
+            node = comparison < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of keys less than the given one in O(log n), so the size of a
+     * key range is the difference of two counts.
+     */
+    int countBefore(K key)
+    {
+        int count = 0;
+        Node<K, V> node = root;
+        while (node != null)
+        {
+            if (key.compareTo(node.key) <= 0)
+            {
+                node = node.left;
+            }
+            else
+            {
+                count += 1 + (node.left == null ? 0 : node.left.size);
+                node = node.right;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a map with the key mapped to the value, replacing any value it had.
+     */
+    PersistentTreeMap<K, V> with(K key, V value)
+    {
+        Split<K, V> split = split(root, key);
+        if (split.match != null && split.match.value == value)
+        {
+            return this;
+        }
+        Node<K, V> node = new Node<>(key, value, ThreadLocalRandom.current().nextInt(), null, null);
+        return new PersistentTreeMap<>(merge(merge(split.less, node), split.greater));
+    }
+
+    /**
+     * Returns a map without the key, or this map if it does not contain it.
+     */
+    PersistentTreeMap<K, V> without(K key)
+    {
+        Split<K, V> split = split(root, key);
+        if (split.match == null)
+        {
+            return this;
+        }
+        Node<K, V> changed = merge(split.less, split.greater);
+        return changed == null ? empty() : new PersistentTreeMap<>(changed);
+    }
+
+    /**
+     * Returns the entries in key order, or in reverse order if descending, starting
+     * with the first one past the given key (all of them if it is null).
+     */
+    Iterator<Map.Entry<K, V>> entriesAfter(K after, boolean descending)
+    {
+        return new EntryIterator<>(root, after, descending);
+    }
+
+    // Splits the tree into the keys less than, equal to and greater than the key
+    private static <K extends Comparable<? super K>, V> Split<K, V> split(Node<K, V> node, K key)
+    {
+        if (node == null)
+        {
+            return new Split<>(null, null, null);
+        }
+        int comparison = key.compareTo(node.key);
+        if (comparison == 0)
+        {
+            return new Split<>(node.left, node, node.right);
+        }
+        if (comparison < 0)
+        {
+            Split<K, V> split = split(node.left, key);
+            return new Split<>(split.less, split.match, node.withChildren(split.greater, node.right));
+        }
+        Split<K, V> split = split(node.right, key);
+        return new Split<>(node.withChildren(node.left, split.less), split.match, split.greater);
+    }
+
+    // Joins two trees where every key of the first is less than every key of the second
+    private static <K, V> Node<K, V> merge(Node<K, V> first, Node<K, V> second)
+    {
+        if (first == null)
+        {
+            return second;
+        }
+        if (second == null)
+        {
+            return first;
+        }
+        if (first.priority > second.priority)
+        {
+            return first.withChildren(first.left, merge(first.right, second));
+        }
+        return second.withChildren(merge(first, second.left), second.right);
+    }
+
+    private static final class Node<K, V>
+    {
+        final K key;
+        final V value;
+        final int priority;
+        final Node<K, V> left;
+        final Node<K, V> right;
+        final int size;
+
+        Node(K key, V value, int priority, Node<K, V> left, Node<K, V> right)
+        {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + (left == null ? 0 : left.size) + (right == null ? 0 : right.size);
+        }
+
+        Node<K, V> withChildren(Node<K, V> newLeft, Node<K, V> newRight)
+        {
+            return newLeft == left && newRight == right ? this : new Node<>(key, value, priority, newLeft, newRight);
+        }
+    }
+
+    private static final class Split<K, V>
+    {
+        final Node<K, V> less;
+        final Node<K, V> match;
+        final Node<K, V> greater;
+
+        Split(Node<K, V> less, Node<K, V> match, Node<K, V> greater)
+        {
+            this.less = less;
+            this.match = match;
+            this.greater = greater;
+        }
+    }
+
+    /**
+     * In-order walk that keeps the nodes still to visit on the path from the root.
+     */
+    private static final class EntryIterator<K extends Comparable<? super K>, V> implements Iterator<Map.Entry<K, V>>
+    {
+        private final Deque<Node<K, V>> path = new ArrayDeque<>();
+        private final boolean descending;
+
+        EntryIterator(Node<K, V> root, K after, boolean descending)
+        {
+            this.descending = descending;
+            Node<K, V> node = root;
+            while (node != null)
+            {
+                boolean past = after == null || (descending ? node.key.compareTo(after) < 0 : node.key.compareTo(after) > 0);
+                if (past)
+                {
+                    path.push(node);
+                    node = descending ? node.right : node.left;
+                }
+                else
+                {
+                    node = descending ? node.left : node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<K, V> next()
+        {
+            if (path.isEmpty())
+            {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> next = path.pop();
+            Node<K, V> node = descending ? next.left : next.right;
+            while (node != null)
+            {
+                path.push(node);
+                node = descending ? node.right : node.left;
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(next.key, next.value);
+        }
+    }
+}
@@ -4,12 +4,11 @@ package com.edge.repository;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Product;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,33 +19,22 @@ public class ProductRepository extends AbstractJsonRepository<Product>
     private static final String DATA_FILE_NAME = "products.json";
     private static final String DATA_DIR_NAME = "data";
 
+    private final EntityIndex<Product> byProductCode = uniqueIndex("productCode", Product::getProductCode);
+    private final EntityIndex<Product> byActive = index("active", Product::isActive);
+    private final SortIndex<Product> productCodeOrder = sortIndex("productCode", String.class, Product::getProductCode);
+    private final SortIndex<Product> productNameOrder = sortIndex("productName", String.class, Product::getProductName);
+    private final SortIndex<Product> unitPriceOrder = sortIndex("unitPrice", BigDecimal.class, Product::getUnitPrice);
+    private final SortIndex<Product> productCodePrefix = prefixIndex(byProductCode);
+    private final TextIndex<Product> productText = textIndex("text",
+        TextIndex.field("productName", Product::getProductName),
+        TextIndex.field("productCode", Product::getProductCode),
+        TextIndex.field("description", Product::getDescription));
+
     public ProductRepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "products");
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException
-    {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty product list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Product>>() {});
-            logger.info("Successfully loaded {} products from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
-    }
-
     @Override
     protected String getId(Product entity)
     {
@@ -67,7 +55,7 @@ public class ProductRepository extends AbstractJsonRepository<Product>
     public Optional<Product> getProductByProductCode(String productCode)
     {
         if (productCode == null || productCode.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(product -> productCode.equals(product.getProductCode())).findFirst();
+        return byProductCode.findFirst(productCode);
     }
 
     public List<Product> getAllProducts()
@@ -75,11 +63,29 @@ public class ProductRepository extends AbstractJsonRepository<Product>
         return findAll();
     }
 
+    public Page<Product> getAllProducts(PageRequest request)
+    {
+        return findPage(request);
+    }
+
+    public List<SearchHit<Product>> searchProducts(String query, int limit)
+    {
+        return productText.search(query, limit);
+    }
+
+    public List<Product> findByProductCodePrefix(String prefix, int limit)
+    {
+        return findByPrefix(productCodePrefix, prefix, limit);
+    }
+
     public List<Product> getActiveProducts()
     {
-        return items.stream()
-            .filter(product -> product.isActive())
-            .collect(java.util.stream.Collectors.toList());
+        return byActive.findAll(true);
+    }
+
+    public Page<Product> getActiveProducts(PageRequest request)
+    {
+        return byActive.findPage(request, true);
     }
 
     public Product createProduct(Product product)
@@ -100,31 +106,34 @@ public class ProductRepository extends AbstractJsonRepository<Product>
         if (productDetails == null)
             throw new IllegalArgumentException("Product details cannot be null");
 
-        Product existingProduct = findById(id).orElseThrow(() -> 
-            new ProductNotFoundException("Product not found with id: " + id));
-
-        if (productDetails.getProductCode() != null && !productDetails.getProductCode().trim().isEmpty())
+        return inWriteLock(() ->
         {
-            Optional<Product> codeCheck = getProductByProductCode(productDetails.getProductCode());
-            if (codeCheck.isPresent() && !id.equals(codeCheck.get().getId()))
+            Product existingProduct = findByIdForUpdate(id).orElseThrow(() -> 
+                new ProductNotFoundException("Product not found with id: " + id));
+
+            if (productDetails.getProductCode() != null && !productDetails.getProductCode().trim().isEmpty())
             {
-                throw new ProductAlreadyExistsException("Product with code " + productDetails.getProductCode() + " already exists");
+                Optional<Product> codeCheck = getProductByProductCode(productDetails.getProductCode());
+                if (codeCheck.isPresent() && !id.equals(codeCheck.get().getId()))
+                {
+                    throw new ProductAlreadyExistsException("Product with code " + productDetails.getProductCode() + " already exists");
+                }
             }
-        }
 
-        // Update fields
-        existingProduct.setProductCode(productDetails.getProductCode());
-        existingProduct.setProductName(productDetails.getProductName());
-        existingProduct.setDescription(productDetails.getDescription());
-        existingProduct.setUnitPrice(productDetails.getUnitPrice());
-        existingProduct.setCost(productDetails.getCost());
-        existingProduct.setUnitOfMeasure(productDetails.getUnitOfMeasure());
-        existingProduct.setActive(productDetails.isActive());
-        existingProduct.setJsonData(productDetails.getJsonData());
+            // Update fields
+            existingProduct.setProductCode(productDetails.getProductCode());
+            existingProduct.setProductName(productDetails.getProductName());
+            existingProduct.setDescription(productDetails.getDescription());
+            existingProduct.setUnitPrice(productDetails.getUnitPrice());
+            existingProduct.setCost(productDetails.getCost());
+            existingProduct.setUnitOfMeasure(productDetails.getUnitOfMeasure());
+            existingProduct.setActive(productDetails.isActive());
+            existingProduct.setJsonData(productDetails.getJsonData());
         
-        saveItems();
-        logger.info("Updated product with ID: {}", id);
-        return existingProduct;
+            saveItem(existingProduct);
+            logger.info("Updated product with ID: {}", id);
+            return existingProduct;
+        });
     }
 
     public void deleteProduct(String id)
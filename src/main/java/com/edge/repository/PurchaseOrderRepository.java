@@ -4,7 +4,6 @@ package com.edge.repository;
  * @author Hidenori Takaku
  */
 import com.edge.entity.PurchaseOrder;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -13,9 +12,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 @Component
 public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrder>
@@ -30,6 +31,14 @@ public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrde
     private java.nio.file.Path counterFilePath;
     private java.nio.file.Path invoiceCounterFilePath;
 
+    private final EntityIndex<PurchaseOrder> byOrderNumber = uniqueIndex("orderNumber", PurchaseOrder::getOrderNumber);
+    private final EntityIndex<PurchaseOrder> bySupplierId = index("supplierId", PurchaseOrder::getSupplierId);
+    private final EntityIndex<PurchaseOrder> byStatus = index("status", PurchaseOrder::getStatus);
+    private final SortIndex<PurchaseOrder> orderNumberOrder = sortIndex("orderNumber", String.class, PurchaseOrder::getOrderNumber);
+    private final SortIndex<PurchaseOrder> orderDateOrder = sortIndex("orderDate", LocalDateTime.class, PurchaseOrder::getOrderDate);
+    private final SortIndex<PurchaseOrder> statusOrder = sortIndex("status", String.class, PurchaseOrder::getStatus);
+    private final SortIndex<PurchaseOrder> totalOrder = sortIndex("total", BigDecimal.class, PurchaseOrder::getTotal);
+
     public PurchaseOrderRepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "purchase orders");
@@ -60,25 +69,15 @@ public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrde
     }
 
     @Override
-    protected void loadItemsFromFile() throws IOException
+    protected ArchivePolicy<PurchaseOrder> getArchivePolicy()
     {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty purchase order list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<PurchaseOrder>>() {});
-            logger.info("Successfully loaded {} purchase orders from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
+        return ArchivePolicy.monthly(PurchaseOrder::getOrderDate, PurchaseOrder::getStatus, "PAID", "CANCELLED");
+    }
+
+    @Override
+    protected Set<String> getLazyKeyProperties()
+    {
+        return Set.of("id", "orderNumber", "supplierId", "status", "orderDate", "total");
     }
 
     @Override
@@ -101,7 +100,7 @@ public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrde
     public Optional<PurchaseOrder> getPurchaseOrderByOrderNumber(String orderNumber)
     {
         if (orderNumber == null || orderNumber.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(po -> orderNumber.equals(po.getOrderNumber())).findFirst();
+        return byOrderNumber.findFirst(orderNumber);
     }
 
     public List<PurchaseOrder> getAllPurchaseOrders()
@@ -109,15 +108,23 @@ public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrde
         return findAll();
     }
 
+    public Page<PurchaseOrder> getAllPurchaseOrders(PageRequest request)
+    {
+        return findPage(request);
+    }
+
     public List<PurchaseOrder> getPurchaseOrdersBySupplierId(String supplierId)
     {
         if (supplierId == null || supplierId.trim().isEmpty())
         {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(po -> supplierId.equals(po.getSupplierId()))
-            .collect(Collectors.toList());
+        return bySupplierId.findAll(supplierId);
+    }
+
+    public Page<PurchaseOrder> getPurchaseOrdersBySupplierId(String supplierId, PageRequest request)
+    {
+        return bySupplierId.findPage(request, supplierId);
     }
 
     public List<PurchaseOrder> getPurchaseOrdersByStatus(String status)
@@ -126,9 +133,12 @@ public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrde
         {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(po -> status.equals(po.getStatus()))
-            .collect(Collectors.toList());
+        return byStatus.findAll(status);
+    }
+
+    public Page<PurchaseOrder> getPurchaseOrdersByStatus(String status, PageRequest request)
+    {
+        return byStatus.findPage(request, status);
     }
 
     public PurchaseOrder createPurchaseOrder(PurchaseOrder po)
@@ -152,130 +162,16 @@ public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrde
         return save(po);
     }
     
-    private synchronized String generateNextOrderNumber()
-    {
-        try
-        {
-            long currentCounter = readCounter();
-            long nextOrderNumber = currentCounter + 1;
-            writeCounter(nextOrderNumber);
-            logger.info("Generated order number: {} (counter updated from {} to {})", 
-                nextOrderNumber, currentCounter, nextOrderNumber);
-            return String.valueOf(nextOrderNumber);
-        }
-        catch (IOException e)
-        {
-            logger.error("Error generating order number", e);
-            throw new RuntimeException("Failed to generate order number", e);
-        }
-    }
-    
-    private long readCounter() throws IOException
-    {
-        if (!java.nio.file.Files.exists(counterFilePath))
-        {
-            long initialValue = INITIAL_PO_NUMBER;
-            writeCounter(initialValue);
-            logger.info("Initialized purchase order counter file with value: {}", initialValue);
-            return initialValue;
-        }
-        
-        try
-        {
-            String content = new String(java.nio.file.Files.readAllBytes(counterFilePath)).trim();
-            if (content.isEmpty())
-            {
-                long initialValue = INITIAL_PO_NUMBER;
-                writeCounter(initialValue);
-                logger.info("Counter file was empty, initialized with value: {}", initialValue);
-                return initialValue;
-            }
-            
-            long counterValue = Long.parseLong(content);
-            if (counterValue < INITIAL_PO_NUMBER)
-            {
-                counterValue = INITIAL_PO_NUMBER;
-                writeCounter(counterValue);
-                logger.info("Counter value was below initial value, reset to: {}", counterValue);
-            }
-            return counterValue;
-        }
-        catch (NumberFormatException e)
-        {
-            logger.warn("Counter file contains invalid data, resetting to initial value: {}", INITIAL_PO_NUMBER);
-            long initialValue = INITIAL_PO_NUMBER;
-            writeCounter(initialValue);
-            return initialValue;
-        }
-    }
-    
-    private void writeCounter(long value) throws IOException
-    {
-        java.nio.file.Files.write(counterFilePath, String.valueOf(value).getBytes());
-    }
-    
-    public synchronized String generateNextInvoiceNumber()
+    private String generateNextOrderNumber()
     {
-        try
-        {
-            long currentCounter = readInvoiceCounter();
-            long nextInvoiceNumber = currentCounter + 1;
-            writeInvoiceCounter(nextInvoiceNumber);
-            logger.info("Generated invoice number: {} (counter updated from {} to {})", 
-                nextInvoiceNumber, currentCounter, nextInvoiceNumber);
-            return String.valueOf(nextInvoiceNumber);
-        }
-        catch (IOException e)
-        {
-            logger.error("Error generating invoice number", e);
-            throw new RuntimeException("Failed to generate invoice number", e);
-        }
+        return String.valueOf(nextSequenceValue(counterFilePath, INITIAL_PO_NUMBER));
     }
     
-    private long readInvoiceCounter() throws IOException
+    public String generateNextInvoiceNumber()
     {
-        if (!java.nio.file.Files.exists(invoiceCounterFilePath))
-        {
-            long initialValue = INITIAL_PO_INVOICE_NUMBER;
-            writeInvoiceCounter(initialValue);
-            logger.info("Initialized purchase order invoice counter file with value: {}", initialValue);
-            return initialValue;
-        }
-        
-        try
-        {
-            String content = new String(java.nio.file.Files.readAllBytes(invoiceCounterFilePath)).trim();
-            if (content.isEmpty())
-            {
-                long initialValue = INITIAL_PO_INVOICE_NUMBER;
-                writeInvoiceCounter(initialValue);
-                logger.info("Invoice counter file was empty, initialized with value: {}", initialValue);
-                return initialValue;
-            }
-            
-            long counterValue = Long.parseLong(content);
-            if (counterValue < INITIAL_PO_INVOICE_NUMBER)
-            {
-                counterValue = INITIAL_PO_INVOICE_NUMBER;
-                writeInvoiceCounter(counterValue);
-                logger.info("Invoice counter value was below initial value, reset to: {}", counterValue);
-            }
-            return counterValue;
-        }
-        catch (NumberFormatException e)
-        {
-            logger.warn("Invoice counter file contains invalid data, resetting to initial value: {}", INITIAL_PO_INVOICE_NUMBER);
-            long initialValue = INITIAL_PO_INVOICE_NUMBER;
-            writeInvoiceCounter(initialValue);
-            return initialValue;
-        }
+        return String.valueOf(nextSequenceValue(invoiceCounterFilePath, INITIAL_PO_INVOICE_NUMBER));
     }
     
-    private void writeInvoiceCounter(long value) throws IOException
-    {
-        java.nio.file.Files.write(invoiceCounterFilePath, String.valueOf(value).getBytes());
-    }
-
     public PurchaseOrder updatePurchaseOrder(String id, PurchaseOrder poDetails)
     {
         if (id == null || id.trim().isEmpty())
@@ -283,88 +179,91 @@ public class PurchaseOrderRepository extends AbstractJsonRepository<PurchaseOrde
         if (poDetails == null)
             throw new IllegalArgumentException("Purchase Order details cannot be null");
 
-        PurchaseOrder existingPO = findById(id).orElseThrow(() -> 
-            new PurchaseOrderNotFoundException("Purchase Order not found with id: " + id));
+        return inWriteLock(() ->
+        {
+            PurchaseOrder existingPO = findByIdForUpdate(id).orElseThrow(() -> 
+                new PurchaseOrderNotFoundException("Purchase Order not found with id: " + id));
         
-        logger.info("updatePurchaseOrder called - ID: {}, incoming status: {}, existing status: {}", 
-            id, poDetails.getStatus(), existingPO.getStatus());
+            logger.info("updatePurchaseOrder called - ID: {}, incoming status: {}, existing status: {}", 
+                id, poDetails.getStatus(), existingPO.getStatus());
 
-        if (poDetails.getOrderNumber() != null && !poDetails.getOrderNumber().trim().isEmpty())
-        {
-            Optional<PurchaseOrder> numberCheck = getPurchaseOrderByOrderNumber(poDetails.getOrderNumber());
-            if (numberCheck.isPresent() && !id.equals(numberCheck.get().getId()))
+            if (poDetails.getOrderNumber() != null && !poDetails.getOrderNumber().trim().isEmpty())
             {
-                throw new PurchaseOrderAlreadyExistsException("Purchase Order with number " + poDetails.getOrderNumber() + " already exists");
+                Optional<PurchaseOrder> numberCheck = getPurchaseOrderByOrderNumber(poDetails.getOrderNumber());
+                if (numberCheck.isPresent() && !id.equals(numberCheck.get().getId()))
+                {
+                    throw new PurchaseOrderAlreadyExistsException("Purchase Order with number " + poDetails.getOrderNumber() + " already exists");
+                }
             }
-        }
 
-        // Update fields
-        if (poDetails.getOrderNumber() != null)
-        {
-            existingPO.setOrderNumber(poDetails.getOrderNumber());
-        }
-        if (poDetails.getSupplierId() != null)
-        {
-            existingPO.setSupplierId(poDetails.getSupplierId());
-        }
-        if (poDetails.getShippingAddressId() != null)
-        {
-            existingPO.setShippingAddressId(poDetails.getShippingAddressId());
-        }
-        if (poDetails.getBillingAddressId() != null)
-        {
-            existingPO.setBillingAddressId(poDetails.getBillingAddressId());
-        }
-        if (poDetails.getOrderDate() != null)
-        {
-            existingPO.setOrderDate(poDetails.getOrderDate());
-        }
-        if (poDetails.getExpectedDeliveryDate() != null)
-        {
-            existingPO.setExpectedDeliveryDate(poDetails.getExpectedDeliveryDate());
-        }
-        if (poDetails.getStatus() != null)
-        {
-            logger.info("Updating purchase order status from '{}' to '{}' for PO ID: {}", 
-                existingPO.getStatus(), poDetails.getStatus(), id);
-            existingPO.setStatus(poDetails.getStatus());
-        }
-        if (poDetails.getItems() != null)
-        {
-            existingPO.setItems(poDetails.getItems());
-        }
-        if (poDetails.getTax() != null)
-        {
-            existingPO.setTax(poDetails.getTax());
-        }
-        if (poDetails.getShippingCost() != null)
-        {
-            existingPO.setShippingCost(poDetails.getShippingCost());
-        }
-        if (poDetails.getNotes() != null)
-        {
-            existingPO.setNotes(poDetails.getNotes());
-        }
-        if (poDetails.getInvoiceNumber() != null)
-        {
-            existingPO.setInvoiceNumber(poDetails.getInvoiceNumber());
-        }
-        if (poDetails.getInvoiceDate() != null)
-        {
-            existingPO.setInvoiceDate(poDetails.getInvoiceDate());
-        }
-        if (poDetails.getJsonData() != null)
-        {
-            existingPO.setJsonData(poDetails.getJsonData());
-        }
+            // Update fields
+            if (poDetails.getOrderNumber() != null)
+            {
+                existingPO.setOrderNumber(poDetails.getOrderNumber());
+            }
+            if (poDetails.getSupplierId() != null)
+            {
+                existingPO.setSupplierId(poDetails.getSupplierId());
+            }
+            if (poDetails.getShippingAddressId() != null)
+            {
+                existingPO.setShippingAddressId(poDetails.getShippingAddressId());
+            }
+            if (poDetails.getBillingAddressId() != null)
+            {
+                existingPO.setBillingAddressId(poDetails.getBillingAddressId());
+            }
+            if (poDetails.getOrderDate() != null)
+            {
+                existingPO.setOrderDate(poDetails.getOrderDate());
+            }
+            if (poDetails.getExpectedDeliveryDate() != null)
+            {
+                existingPO.setExpectedDeliveryDate(poDetails.getExpectedDeliveryDate());
+            }
+            if (poDetails.getStatus() != null)
+            {
+                logger.info("Updating purchase order status from '{}' to '{}' for PO ID: {}", 
+                    existingPO.getStatus(), poDetails.getStatus(), id);
+                existingPO.setStatus(poDetails.getStatus());
+            }
+            if (poDetails.getItems() != null)
+            {
+                existingPO.setItems(poDetails.getItems());
+            }
+            if (poDetails.getTax() != null)
+            {
+                existingPO.setTax(poDetails.getTax());
+            }
+            if (poDetails.getShippingCost() != null)
+            {
+                existingPO.setShippingCost(poDetails.getShippingCost());
+            }
+            if (poDetails.getNotes() != null)
+            {
+                existingPO.setNotes(poDetails.getNotes());
+            }
+            if (poDetails.getInvoiceNumber() != null)
+            {
+                existingPO.setInvoiceNumber(poDetails.getInvoiceNumber());
+            }
+            if (poDetails.getInvoiceDate() != null)
+            {
+                existingPO.setInvoiceDate(poDetails.getInvoiceDate());
+            }
+            if (poDetails.getJsonData() != null)
+            {
+                existingPO.setJsonData(poDetails.getJsonData());
+            }
         
-        // Recalculate totals
-        existingPO.calculateTotals();
+            // Recalculate totals
+            existingPO.calculateTotals();
         
-        saveItems();
-        logger.info("Updated purchase order with ID: {}, status: {}", id, existingPO.getStatus());
+            saveItem(existingPO);
+            logger.info("Updated purchase order with ID: {}, status: {}", id, existingPO.getStatus());
         
-        return existingPO;
+            return existingPO;
+        });
     }
 
     public void deletePurchaseOrder(String id)
@@ -0,0 +1,112 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * How a filter was evaluated, returned with the page when a list request asks for
+ * {@code explain}: the access path {@link QueryPlanner} chose, the paths it costed,
+ * how it read archived entities, the conditions checked on each candidate
+ * afterwards, and the rows it estimated, examined and matched. A filter with {@code or} at the top whose branches can each
+ * use an index is answered as a union of the branches' plans.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class QueryPlan
+{
+    private final String filter;
+    private final String access;
+    private final String archive;
+    private final List<String> considered;
+    private final String residual;
+    private final List<QueryPlan> branches;
+    private final int estimatedRows;
+    private int examined;
+    private int matched;
+    private long micros;
+
+    QueryPlan(String filter, String access, String archive, List<String> considered, String residual,
+        List<QueryPlan> branches, int estimatedRows)
+    {
+        this.filter = filter;
+        this.access = access;
+        this.archive = archive;
+        this.considered = considered;
+        this.residual = residual;
+        this.branches = branches;
+        this.estimatedRows = estimatedRows;
+    }
+
+    public String getFilter()
+    {
+        return filter;
+    }
+
+    /**
+     * The chosen access path: {@code index <name> ...}, {@code range <name> ...},
+     * {@code scan} or {@code union}.
+     */
+    public String getAccess()
+    {
+        return access;
+    }
+
+    /**
+     * How archived entities were read: by the index lookup named like an access path,
+     * a {@code union of} lookups, or a {@code scan} of the archive. Null if nothing is
+     * archived. Estimates only count the rows in memory.
+     */
+    public String getArchive()
+    {
+        return archive;
+    }
+
+    /**
+     * Every access path that could serve the filter, with its estimated rows.
+     */
+    public List<String> getConsidered()
+    {
+        return considered;
+    }
+
+    /**
+     * The part of the filter checked on each candidate the access path returns, or
+     * null if the access path alone answers it.
+     */
+    public String getResidual()
+    {
+        return residual;
+    }
+
+    public List<QueryPlan> getBranches()
+    {
+        return branches;
+    }
+
+    public int getEstimatedRows()
+    {
+        return estimatedRows;
+    }
+
+    public int getExamined()
+    {
+        return examined;
+    }
+
+    public int getMatched()
+    {
+        return matched;
+    }
+
+    public long getMicros()
+    {
+        return micros;
+    }
+
+    void recordExecution(int examined, int matched, long micros)
+    {
+        this.examined = examined;
+        this.matched = matched;
+        this.micros = micros;
+    }
+}
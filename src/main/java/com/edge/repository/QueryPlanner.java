@@ -0,0 +1,795 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates a {@link Filter} against one {@link RepositorySnapshot} of a repository.
+ * <p>
+ * For a conjunction of conditions the planner costs every access path that can
+ * answer part of it: an {@link EntityIndex} for an {@code =} or {@code in} on the
+ * property it is named after, a {@link SortIndex} for the range the {@code =},
+ * {@code <}, {@code <=}, {@code >} and {@code >=} conditions on its property leave,
+ * and a scan of the collection. The estimates are exact row counts read from the
+ * snapshot (bucket sizes, and ranks in the sort index's tree), so the path with the
+ * fewest rows is the most selective one. The conditions the path does not answer are
+ * checked on each row it returns. A filter with {@code or} at the top is answered as
+ * the union of its branches if every branch can use an index, and by a scan
+ * otherwise.
+ * <p>
+ * Matches are collected by collection position, so they come in insertion order
+ * whatever the access path, and page like any other selection.
+ * <p>
+ * Archived entities have no snapshot and no sort index, only the index keys in the
+ * archive's key files. A plan reads them through the most selective index lookup it
+ * considered (a union through those of its branches), or scans the archive if there
+ * is none, checks them against the whole filter and returns the matches separately,
+ * in archive order.
+ */
+final class QueryPlanner<T>
+{
+    private static final Set<Class<?>> INTEGRAL_TYPES = Set.of(Byte.class, Short.class, Integer.class, Long.class, BigInteger.class);
+
+    private final AbstractJsonRepository<T> owner;
+    private final List<EntityIndex<T>> indexes;
+    private final List<SortIndex<T>> sortIndexes;
+    // JSON property name -> getter, introspected on first use
+    private volatile Map<String, AnnotatedMember> properties;
+
+    QueryPlanner(AbstractJsonRepository<T> owner, List<EntityIndex<T>> indexes, List<SortIndex<T>> sortIndexes)
+    {
+        this.owner = owner;
+        this.indexes = indexes;
+        this.sortIndexes = sortIndexes;
+    }
+
+    record Result<T>(PersistentSequence<T> matches, List<T> archived, QueryPlan plan)
+    {
+    }
+
+    /**
+     * Plans and runs the filter over the collection and the archived entities. If
+     * {@code within} is given, only those entities are candidates and they are
+     * scanned, as are the archived ones.
+     *
+     * @throws IllegalArgumentException if the filter names an unknown property or a
+     *                                  value does not fit its property's type
+     */
+    Result<T> execute(Filter.Node filter, RepositorySnapshot<T> state, PersistentSequence<T> within,
+        AbstractJsonRepository.ArchivedPart<T> archived)
+    {
+        long start = System.nanoTime();
+        Condition<T> condition = bind(filter);
+        Plan<T> plan;
+        if (within != null)
+        {
+            plan = new Plan<>(owner, new Scan<>(within, "scan of " + within.size() + " listed"), List.of(condition));
+            plan.considered.add(plan.access.describe() + ": " + within.size() + " rows");
+        }
+        else if (condition instanceof AnyOf<T> anyOf)
+        {
+            plan = planUnion(anyOf, state);
+        }
+        else
+        {
+            plan = planConjunction(conjunctsOf(condition), state);
+        }
+        boolean hasArchived = archived.size() > 0;
+        QueryPlan explained = plan.explain(condition.toString(), hasArchived ? plan.describeArchived() : null);
+        PersistentSequence<T> matches = plan.run(state, PersistentSequence.empty());
+        List<T> archivedMatches = new ArrayList<>();
+        int[] archivedExamined = new int[1];
+        if (hasArchived)
+        {
+            plan.forEachArchived(archived, entity ->
+            {
+                archivedExamined[0]++;
+                if (condition.test(entity))
+                {
+                    archivedMatches.add(entity);
+                }
+            });
+        }
+        explained.recordExecution(plan.access.examined(plan.examined) + archivedExamined[0],
+            matches.size() + archivedMatches.size(), (System.nanoTime() - start) / 1000);
+        return new Result<>(matches, List.copyOf(archived.inOrder(archivedMatches)), explained);
+    }
+
+    private Plan<T> planUnion(AnyOf<T> anyOf, RepositorySnapshot<T> state)
+    {
+        List<Plan<T>> branches = new ArrayList<>();
+        int estimate = 0;
+        for (Condition<T> branch : anyOf.operands)
+        {
+            Plan<T> plan = planConjunction(conjunctsOf(branch), state);
+            if (plan.access instanceof Scan)
+            {
+                Plan<T> scan = new Plan<>(owner, new Scan<>(state.items(), "scan"), List.of(anyOf));
+                scan.considered.add("union: not possible, branch '" + branch + "' needs a scan");
+                scan.considered.add("scan: " + state.size() + " rows");
+                return scan;
+            }
+            branches.add(plan);
+            estimate += plan.access.estimate;
+        }
+        Plan<T> union = new Plan<>(owner, new Union<>(owner, branches, estimate), List.of());
+        union.considered.add("union: " + estimate + " rows");
+        union.considered.add("scan: " + state.size() + " rows");
+        return union;
+    }
+
+    private Plan<T> planConjunction(List<Condition<T>> conjuncts, RepositorySnapshot<T> state)
+    {
+        List<Access<T>> candidates = new ArrayList<>();
+        for (EntityIndex<T> index : indexes)
+        {
+            if (index.getKeyPartCount() != 1)
+            {
+                continue;
+            }
+            for (Condition<T> conjunct : conjuncts)
+            {
+                if (conjunct instanceof Compare<T> compare && compare.property.equals(index.getName())
+                    && (compare.operator == Filter.Operator.EQ || compare.operator == Filter.Operator.IN)
+                    && !compare.values.contains(null))
+                {
+                    candidates.add(new IndexLookup<>(index, compare, state));
+                    break;
+                }
+            }
+        }
+        for (SortIndex<T> sortIndex : sortIndexes)
+        {
+            if (sortIndex.getPrefixOf() != null)
+            {
+                continue;
+            }
+            List<Compare<T>> bounds = new ArrayList<>();
+            for (Condition<T> conjunct : conjuncts)
+            {
+                if (conjunct instanceof Compare<T> compare && compare.property.equals(sortIndex.getName())
+                    && compare.operator != Filter.Operator.NE && compare.operator != Filter.Operator.IN)
+                {
+                    bounds.add(compare);
+                }
+            }
+            if (!bounds.isEmpty())
+            {
+                candidates.add(new RangeScan<>(sortIndex, bounds, state));
+            }
+        }
+        candidates.add(new Scan<>(state.items(), "scan"));
+        Access<T> best = null;
+        for (Access<T> candidate : candidates)
+        {
+            if (best == null || candidate.estimate < best.estimate)
+            {
+                best = candidate;
+            }
+        }
+        List<Condition<T>> residual = new ArrayList<>(conjuncts);
+        residual.removeAll(best.answered);
+        Plan<T> plan = new Plan<>(owner, best, residual);
+        for (Access<T> candidate : candidates)
+        {
+            plan.considered.add(candidate.describe() + ": " + candidate.estimate + " rows");
+            if (candidate instanceof IndexLookup<T> lookup
+                && (plan.archivedLookup == null || lookup.estimate < plan.archivedLookup.estimate))
+            {
+                plan.archivedLookup = lookup;
+            }
+        }
+        return plan;
+    }
+
+    private static <T> List<Condition<T>> conjunctsOf(Condition<T> condition)
+    {
+        return condition instanceof AllOf<T> allOf ? allOf.operands : List.of(condition);
+    }
+
+    private Condition<T> bind(Filter.Node node)
+    {
+        if (node instanceof Filter.Or or)
+        {
+            return new AnyOf<>(or.operands.stream().map(this::bind).toList());
+        }
+        if (node instanceof Filter.And and)
+        {
+            List<Condition<T>> operands = new ArrayList<>();
+            for (Filter.Node operand : and.operands)
+            {
+                operands.addAll(conjunctsOf(bind(operand)));
+            }
+            return new AllOf<>(operands);
+        }
+        Filter.Comparison comparison = (Filter.Comparison) node;
+        AnnotatedMember getter = properties().get(comparison.property);
+        if (getter == null)
+        {
+            throw new IllegalArgumentException("Cannot filter " + owner.entityName + " by '" + comparison.property
+                + "', fields: " + properties().keySet());
+        }
+        List<Comparable<?>> values = new ArrayList<>();
+        for (Object literal : comparison.values)
+        {
+            if (literal == null && comparison.operator != Filter.Operator.EQ && comparison.operator != Filter.Operator.NE)
+            {
+                throw new IllegalArgumentException("null can only be compared with = and != in filter");
+            }
+            values.add(literal == null ? null : convert(comparison.property, getter, literal));
+        }
+        return new Compare<>(comparison.property, getter, comparison.operator, values);
+    }
+
+    private Comparable<?> convert(String property, AnnotatedMember getter, Object literal)
+    {
+        // Jackson would truncate a fraction, turning quantity < 10.5 into quantity < 10
+        if (literal instanceof BigDecimal number && number.stripTrailingZeros().scale() > 0
+            && INTEGRAL_TYPES.contains(MethodType.methodType(getter.getRawType()).wrap().returnType()))
+        {
+            throw new IllegalArgumentException("Invalid value " + Filter.literal(literal) + " for '" + property
+                + "' in filter, it holds whole numbers");
+        }
+        try
+        {
+            return (Comparable<?>) owner.objectMapper.convertValue(literal, getter.getRawType());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Invalid value " + Filter.literal(literal) + " for '" + property + "' in filter");
+        }
+    }
+
+    /**
+     * The properties of the entity that have comparable values, by JSON name.
+     */
+    private Map<String, AnnotatedMember> properties()
+    {
+        Map<String, AnnotatedMember> found = properties;
+        if (found == null)
+        {
+            found = new LinkedHashMap<>();
+            BeanDescription description = owner.objectMapper.getSerializationConfig()
+                .introspect(owner.objectMapper.constructType(owner.entityType));
+            for (BeanPropertyDefinition property : description.findProperties())
+            {
+                AnnotatedMember getter = property.getAccessor();
+                if (getter != null && Comparable.class.isAssignableFrom(MethodType.methodType(getter.getRawType()).wrap().returnType()))
+                {
+                    found.put(property.getName(), getter);
+                }
+            }
+            properties = found;
+        }
+        return found;
+    }
+
+    // Conditions bound to the entity's getters, with literals converted to the property types
+
+    private abstract static class Condition<T>
+    {
+        abstract boolean test(T entity);
+    }
+
+    private static final class AllOf<T> extends Condition<T>
+    {
+        final List<Condition<T>> operands;
+
+        AllOf(List<Condition<T>> operands)
+        {
+            this.operands = operands;
+        }
+
+        @Override
+        boolean test(T entity)
+        {
+            for (Condition<T> operand : operands)
+            {
+                if (!operand.test(entity))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString()
+        {
+            return operands.stream().map(Condition::toString).collect(Collectors.joining(" and "));
+        }
+    }
+
+    private static final class AnyOf<T> extends Condition<T>
+    {
+        final List<Condition<T>> operands;
+
+        AnyOf(List<Condition<T>> operands)
+        {
+            this.operands = operands;
+        }
+
+        @Override
+        boolean test(T entity)
+        {
+            for (Condition<T> operand : operands)
+            {
+                if (operand.test(entity))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString()
+        {
+            return operands.stream().map(Condition::toString).collect(Collectors.joining(" or ", "(", ")"));
+        }
+    }
+
+    private static final class Compare<T> extends Condition<T>
+    {
+        final String property;
+        final AnnotatedMember getter;
+        final Filter.Operator operator;
+        final List<Comparable<?>> values;
+
+        Compare(String property, AnnotatedMember getter, Filter.Operator operator, List<Comparable<?>> values)
+        {
+            this.property = property;
+            this.getter = getter;
+            this.operator = operator;
+            this.values = values;
+        }
+
+        @Override
+        boolean test(T entity)
+        {
+            Object actual = getter.getValue(entity);
+            switch (operator)
+            {
+                case EQ:
+                    return equal(actual, values.get(0));
+                case NE:
+                    return !equal(actual, values.get(0));
+                case IN:
+                    for (Comparable<?> value : values)
+                    {
+                        if (equal(actual, value))
+                        {
+                            return true;
+                        }
+                    }
+                    return false;
+                case LT:
+                    return actual != null && compare(actual, values.get(0)) < 0;
+                case LE:
+                    return actual != null && compare(actual, values.get(0)) <= 0;
+                case GT:
+                    return actual != null && compare(actual, values.get(0)) > 0;
+                case GE:
+                    return actual != null && compare(actual, values.get(0)) >= 0;
+                default:
+                    throw new IllegalStateException("Unknown operator " + operator);
+            }
+        }
+
+        private static boolean equal(Object actual, Object value)
+        {
+            return actual == null || value == null ? actual == value : compare(actual, value) == 0;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static int compare(Object actual, Object value)
+        {
+            return ((Comparable) actual).compareTo(value);
+        }
+
+        @Override
+        public String toString()
+        {
+            return new Filter.Comparison(property, operator, new ArrayList<>(values)).toString();
+        }
+    }
+
+    // Access paths; the estimate is the number of rows the path returns
+
+    private abstract static class Access<T>
+    {
+        int estimate;
+        // Conditions every row the path returns satisfies
+        List<Condition<T>> answered = List.of();
+
+        abstract String describe();
+
+        /**
+         * Feeds the rows to the sink until it is done.
+         */
+        abstract void forEach(RepositorySnapshot<T> state, Consumer<T> sink);
+
+        /**
+         * The rows the path examined to feed the given number to the sink; more for a
+         * path that filters rows itself.
+         */
+        int examined(int fed)
+        {
+            return fed;
+        }
+    }
+
+    private static final class Scan<T> extends Access<T>
+    {
+        private final PersistentSequence<T> source;
+        private final String description;
+
+        Scan(PersistentSequence<T> source, String description)
+        {
+            this.source = source;
+            this.description = description;
+            this.estimate = source.size();
+        }
+
+        @Override
+        String describe()
+        {
+            return description;
+        }
+
+        @Override
+        void forEach(RepositorySnapshot<T> state, Consumer<T> sink)
+        {
+            for (T entity : source.asList())
+            {
+                sink.accept(entity);
+            }
+        }
+    }
+
+    private static final class IndexLookup<T> extends Access<T>
+    {
+        private final EntityIndex<T> index;
+        private final Compare<T> condition;
+        private final Set<Object> keys;
+
+        IndexLookup(EntityIndex<T> index, Compare<T> condition, RepositorySnapshot<T> state)
+        {
+            this.index = index;
+            this.condition = condition;
+            this.keys = new LinkedHashSet<>(condition.values);
+            this.answered = List.of(condition);
+            for (Object key : keys)
+            {
+                estimate += state.bucket(index, key).size();
+            }
+        }
+
+        @Override
+        String describe()
+        {
+            return "index " + index.getName() + " (" + condition + ")";
+        }
+
+        @Override
+        void forEach(RepositorySnapshot<T> state, Consumer<T> sink)
+        {
+            for (Object key : keys)
+            {
+                for (T entity : state.bucket(index, key).asList())
+                {
+                    sink.accept(entity);
+                }
+            }
+        }
+
+        /**
+         * Feeds the archived entities the index holds for the keys.
+         */
+        void forEachArchived(AbstractJsonRepository.ArchivedPart<T> archived, Consumer<T> sink)
+        {
+            for (Object key : keys)
+            {
+                archived.lookup(index, key).forEach(sink);
+            }
+        }
+    }
+
+    private static final class RangeScan<T> extends Access<T>
+    {
+        private final SortIndex<T> sortIndex;
+        // Bounds that never equal an entity's key; null means unbounded
+        private SortIndex.SortKey low;
+        private SortIndex.SortKey high;
+
+        RangeScan(SortIndex<T> sortIndex, List<Compare<T>> bounds, RepositorySnapshot<T> state)
+        {
+            this.sortIndex = sortIndex;
+            this.answered = List.copyOf(bounds);
+            boolean excludeNulls = false;
+            for (Compare<T> bound : bounds)
+            {
+                Comparable<?> value = bound.values.get(0);
+                switch (bound.operator)
+                {
+                    case EQ:
+                        raiseLow(SortIndex.SortKey.before(value));
+                        lowerHigh(SortIndex.SortKey.after(value));
+                        break;
+                    case LT:
+                        lowerHigh(SortIndex.SortKey.before(value));
+                        break;
+                    case LE:
+                        lowerHigh(SortIndex.SortKey.after(value));
+                        break;
+                    case GT:
+                        raiseLow(SortIndex.SortKey.after(value));
+                        break;
+                    case GE:
+                        raiseLow(SortIndex.SortKey.before(value));
+                        break;
+                    default:
+                        break;
+                }
+                excludeNulls |= value != null;
+            }
+            if (excludeNulls)
+            {
+                // Nulls sort last and never satisfy a comparison with a value
+                lowerHigh(SortIndex.SortKey.before(null));
+            }
+            PersistentTreeMap<SortIndex.SortKey, T> sorted = state.sorted(sortIndex);
+            int from = low == null ? 0 : sorted.countBefore(low);
+            int to = high == null ? sorted.size() : sorted.countBefore(high);
+            this.estimate = Math.max(0, to - from);
+        }
+
+        private void raiseLow(SortIndex.SortKey bound)
+        {
+            if (low == null || bound.compareTo(low) > 0)
+            {
+                low = bound;
+            }
+        }
+
+        private void lowerHigh(SortIndex.SortKey bound)
+        {
+            if (high == null || bound.compareTo(high) < 0)
+            {
+                high = bound;
+            }
+        }
+
+        @Override
+        String describe()
+        {
+            return "range " + sortIndex.getName() + " ("
+                + answered.stream().map(Condition::toString).collect(Collectors.joining(" and ")) + ")";
+        }
+
+        @Override
+        void forEach(RepositorySnapshot<T> state, Consumer<T> sink)
+        {
+            if (estimate == 0)
+            {
+                return;
+            }
+            Iterator<Map.Entry<SortIndex.SortKey, T>> entries = state.sorted(sortIndex).entriesAfter(low, false);
+            while (entries.hasNext())
+            {
+                Map.Entry<SortIndex.SortKey, T> entry = entries.next();
+                if (high != null && entry.getKey().compareTo(high) > 0)
+                {
+                    return;
+                }
+                sink.accept(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Runs the plan of each branch of an {@code or} in turn and feeds the rows that
+     * match a branch, each only once.
+     */
+    private static final class Union<T> extends Access<T>
+    {
+        private final AbstractJsonRepository<T> owner;
+        private final List<Plan<T>> branches;
+
+        Union(AbstractJsonRepository<T> owner, List<Plan<T>> branches, int estimate)
+        {
+            this.owner = owner;
+            this.branches = branches;
+            this.estimate = estimate;
+        }
+
+        @Override
+        String describe()
+        {
+            return "union";
+        }
+
+        @Override
+        void forEach(RepositorySnapshot<T> state, Consumer<T> sink)
+        {
+            Set<String> fed = new HashSet<>();
+            for (Plan<T> branch : branches)
+            {
+                long start = System.nanoTime();
+                branch.access.forEach(state, entity ->
+                {
+                    if (branch.accept(entity) && fed.add(owner.getId(entity)))
+                    {
+                        sink.accept(entity);
+                    }
+                });
+                branch.explained.recordExecution(branch.access.examined(branch.examined), branch.matched,
+                    (System.nanoTime() - start) / 1000);
+            }
+        }
+
+        @Override
+        int examined(int fed)
+        {
+            int examined = 0;
+            for (Plan<T> branch : branches)
+            {
+                examined += branch.access.examined(branch.examined);
+            }
+            return examined;
+        }
+    }
+
+    /**
+     * An access path and the conditions left to check on its rows.
+     */
+    private static final class Plan<T>
+    {
+        final AbstractJsonRepository<T> owner;
+        final Access<T> access;
+        final List<Condition<T>> residual;
+        final List<String> considered = new ArrayList<>();
+        // The most selective index lookup considered, which archived entities are read by
+        IndexLookup<T> archivedLookup;
+        private QueryPlan explained;
+        // Rows the access path fed, and those of them that passed the residual conditions
+        private int examined;
+        private int matched;
+
+        Plan(AbstractJsonRepository<T> owner, Access<T> access, List<Condition<T>> residual)
+        {
+            this.owner = owner;
+            this.access = access;
+            this.residual = residual;
+        }
+
+        QueryPlan explain(String filter, String archivedAccess)
+        {
+            List<QueryPlan> branches = null;
+            if (access instanceof Union<T> union)
+            {
+                branches = new ArrayList<>();
+                for (Plan<T> branch : union.branches)
+                {
+                    branches.add(branch.explain(null, null));
+                }
+            }
+            String residualText = residual.isEmpty() ? null
+                : residual.stream().map(Condition::toString).collect(Collectors.joining(" and "));
+            explained = new QueryPlan(filter, access.describe(), archivedAccess, List.copyOf(considered), residualText,
+                branches, access.estimate);
+            return explained;
+        }
+
+        /**
+         * Feeds the archived candidates: those of the index lookup, of the branches'
+         * lookups for a union whose branches all have one, or else all of them.
+         */
+        void forEachArchived(AbstractJsonRepository.ArchivedPart<T> archived, Consumer<T> sink)
+        {
+            if (archivedLookup != null)
+            {
+                archivedLookup.forEachArchived(archived, sink);
+            }
+            else if (access instanceof Union<T> union && union.branches.stream().allMatch(branch -> branch.archivedLookup != null))
+            {
+                Set<String> fed = new HashSet<>();
+                for (Plan<T> branch : union.branches)
+                {
+                    branch.forEachArchived(archived, entity ->
+                    {
+                        if (fed.add(owner.getId(entity)))
+                        {
+                            sink.accept(entity);
+                        }
+                    });
+                }
+            }
+            else
+            {
+                archived.all().forEach(sink);
+            }
+        }
+
+        String describeArchived()
+        {
+            if (archivedLookup != null)
+            {
+                return archivedLookup.describe();
+            }
+            if (access instanceof Union<T> union && union.branches.stream().allMatch(branch -> branch.archivedLookup != null))
+            {
+                return union.branches.stream().map(branch -> branch.archivedLookup.describe())
+                    .collect(Collectors.joining(" or ", "union of ", ""));
+            }
+            return "scan";
+        }
+
+        /**
+         * Adds the matching rows to the selection, returning the new selection.
+         */
+        PersistentSequence<T> run(RepositorySnapshot<T> state, PersistentSequence<T> selection)
+        {
+            List<T> matches = new ArrayList<>();
+            access.forEach(state, entity ->
+            {
+                if (accept(entity))
+                {
+                    matches.add(entity);
+                }
+            });
+            for (T entity : matches)
+            {
+                selection = selection.with(state.positionsById().get(owner.getId(entity)), entity);
+            }
+            return selection;
+        }
+
+        /**
+         * Checks a row the access path fed against the residual conditions, counting it.
+         */
+        boolean accept(T entity)
+        {
+            examined++;
+            if (matchesResidual(entity))
+            {
+                matched++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean matchesResidual(T entity)
+        {
+            if (residual.isEmpty())
+            {
+                return true;
+            }
+            // Stubs of lazily loaded entities only carry the indexed properties
+            T full = owner.peek(entity);
+            for (Condition<T> condition : residual)
+            {
+                if (!condition.test(full))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
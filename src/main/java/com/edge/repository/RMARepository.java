@@ -4,7 +4,6 @@ package com.edge.repository;
  * @author Hidenori Takaku
  */
 import com.edge.entity.RMA;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -13,9 +12,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 @Component
 public class RMARepository extends AbstractJsonRepository<RMA>
@@ -27,6 +28,16 @@ public class RMARepository extends AbstractJsonRepository<RMA>
     private static final long INITIAL_RMA_NUMBER = 500000L;
     private java.nio.file.Path counterFilePath;
 
+    private final EntityIndex<RMA> byRmaNumber = uniqueIndex("rmaNumber", RMA::getRmaNumber);
+    private final EntityIndex<RMA> byOrderId = index("orderId", RMA::getOrderId);
+    private final EntityIndex<RMA> byCustomerId = index("customerId", RMA::getCustomerId);
+    private final EntityIndex<RMA> byStatus = index("status", RMA::getStatus);
+    private final SortIndex<RMA> rmaNumberOrder = sortIndex("rmaNumber", String.class, RMA::getRmaNumber);
+    private final SortIndex<RMA> rmaDateOrder = sortIndex("rmaDate", LocalDateTime.class, RMA::getRmaDate);
+    private final SortIndex<RMA> statusOrder = sortIndex("status", String.class, RMA::getStatus);
+    private final SortIndex<RMA> totalOrder = sortIndex("total", BigDecimal.class, RMA::getTotal);
+    private final SortIndex<RMA> rmaNumberPrefix = prefixIndex(byRmaNumber);
+
     public RMARepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "rmas");
@@ -56,25 +67,15 @@ public class RMARepository extends AbstractJsonRepository<RMA>
     }
 
     @Override
-    protected void loadItemsFromFile() throws IOException
+    protected ArchivePolicy<RMA> getArchivePolicy()
     {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty RMA list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<RMA>>() {});
-            logger.info("Successfully loaded {} RMAs from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
+        return ArchivePolicy.monthly(RMA::getRmaDate, RMA::getStatus, "PROCESSED", "CANCELLED");
+    }
+
+    @Override
+    protected Set<String> getLazyKeyProperties()
+    {
+        return Set.of("id", "rmaNumber", "orderId", "customerId", "status", "rmaDate", "total");
     }
 
     @Override
@@ -97,7 +98,7 @@ public class RMARepository extends AbstractJsonRepository<RMA>
     public Optional<RMA> getRMAByRMANumber(String rmaNumber)
     {
         if (rmaNumber == null || rmaNumber.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(rma -> rmaNumber.equals(rma.getRmaNumber())).findFirst();
+        return byRmaNumber.findFirst(rmaNumber);
     }
 
     public List<RMA> getAllRMAs()
@@ -105,15 +106,28 @@ public class RMARepository extends AbstractJsonRepository<RMA>
         return findAll();
     }
 
+    public Page<RMA> getAllRMAs(PageRequest request)
+    {
+        return findPage(request);
+    }
+
+    public List<RMA> findByRmaNumberPrefix(String prefix, int limit)
+    {
+        return findByPrefix(rmaNumberPrefix, prefix, limit);
+    }
+
     public List<RMA> getRMAsByOrderId(String orderId)
     {
         if (orderId == null || orderId.trim().isEmpty())
         {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(rma -> orderId.equals(rma.getOrderId()))
-            .collect(Collectors.toList());
+        return byOrderId.findAll(orderId);
+    }
+
+    public Page<RMA> getRMAsByOrderId(String orderId, PageRequest request)
+    {
+        return byOrderId.findPage(request, orderId);
     }
 
     public List<RMA> getRMAsByCustomerId(String customerId)
@@ -122,9 +136,12 @@ public class RMARepository extends AbstractJsonRepository<RMA>
         {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(rma -> customerId.equals(rma.getCustomerId()))
-            .collect(Collectors.toList());
+        return byCustomerId.findAll(customerId);
+    }
+
+    public Page<RMA> getRMAsByCustomerId(String customerId, PageRequest request)
+    {
+        return byCustomerId.findPage(request, customerId);
     }
 
     public List<RMA> getRMAsByStatus(String status)
@@ -133,9 +150,12 @@ public class RMARepository extends AbstractJsonRepository<RMA>
         {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(rma -> status.equals(rma.getStatus()))
-            .collect(Collectors.toList());
+        return byStatus.findAll(status);
+    }
+
+    public Page<RMA> getRMAsByStatus(String status, PageRequest request)
+    {
+        return byStatus.findPage(request, status);
     }
 
     public RMA createRMA(RMA rma)
@@ -159,68 +179,11 @@ public class RMARepository extends AbstractJsonRepository<RMA>
         return save(rma);
     }
     
-    private synchronized String generateNextRMANumber()
+    private String generateNextRMANumber()
     {
-        try
-        {
-            long currentCounter = readCounter();
-            long nextRMANumber = currentCounter + 1;
-            writeCounter(nextRMANumber);
-            logger.info("Generated RMA number: {} (counter updated from {} to {})", 
-                nextRMANumber, currentCounter, nextRMANumber);
-            return String.valueOf(nextRMANumber);
-        }
-        catch (IOException e)
-        {
-            logger.error("Error generating RMA number", e);
-            throw new RuntimeException("Failed to generate RMA number", e);
-        }
-    }
-    
-    private long readCounter() throws IOException
-    {
-        if (!java.nio.file.Files.exists(counterFilePath))
-        {
-            long initialValue = INITIAL_RMA_NUMBER;
-            writeCounter(initialValue);
-            logger.info("Initialized RMA counter file with value: {}", initialValue);
-            return initialValue;
-        }
-        
-        try
-        {
-            String content = new String(java.nio.file.Files.readAllBytes(counterFilePath)).trim();
-            if (content.isEmpty())
-            {
-                long initialValue = INITIAL_RMA_NUMBER;
-                writeCounter(initialValue);
-                logger.info("Counter file was empty, initialized with value: {}", initialValue);
-                return initialValue;
-            }
-            
-            long counterValue = Long.parseLong(content);
-            if (counterValue < INITIAL_RMA_NUMBER)
-            {
-                counterValue = INITIAL_RMA_NUMBER;
-                writeCounter(counterValue);
-                logger.info("Counter value was below initial value, reset to: {}", counterValue);
-            }
-            return counterValue;
-        }
-        catch (NumberFormatException e)
-        {
-            logger.warn("Counter file contains invalid data, resetting to initial value: {}", INITIAL_RMA_NUMBER);
-            long initialValue = INITIAL_RMA_NUMBER;
-            writeCounter(initialValue);
-            return initialValue;
-        }
+        return String.valueOf(nextSequenceValue(counterFilePath, INITIAL_RMA_NUMBER));
     }
     
-    private void writeCounter(long value) throws IOException
-    {
-        java.nio.file.Files.write(counterFilePath, String.valueOf(value).getBytes());
-    }
-
     public RMA updateRMA(String id, RMA rmaDetails)
     {
         if (id == null || id.trim().isEmpty())
@@ -228,84 +191,87 @@ public class RMARepository extends AbstractJsonRepository<RMA>
         if (rmaDetails == null)
             throw new IllegalArgumentException("RMA details cannot be null");
 
-        RMA existingRMA = findById(id).orElseThrow(() -> 
-            new RMANotFoundException("RMA not found with id: " + id));
+        return inWriteLock(() ->
+        {
+            RMA existingRMA = findByIdForUpdate(id).orElseThrow(() -> 
+                new RMANotFoundException("RMA not found with id: " + id));
         
-        logger.info("updateRMA called - ID: {}, incoming status: {}, existing status: {}", 
-            id, rmaDetails.getStatus(), existingRMA.getStatus());
+            logger.info("updateRMA called - ID: {}, incoming status: {}, existing status: {}", 
+                id, rmaDetails.getStatus(), existingRMA.getStatus());
 
-        if (rmaDetails.getRmaNumber() != null && !rmaDetails.getRmaNumber().trim().isEmpty())
-        {
-            Optional<RMA> numberCheck = getRMAByRMANumber(rmaDetails.getRmaNumber());
-            if (numberCheck.isPresent() && !id.equals(numberCheck.get().getId()))
+            if (rmaDetails.getRmaNumber() != null && !rmaDetails.getRmaNumber().trim().isEmpty())
             {
-                throw new RMAAlreadyExistsException("RMA with number " + rmaDetails.getRmaNumber() + " already exists");
+                Optional<RMA> numberCheck = getRMAByRMANumber(rmaDetails.getRmaNumber());
+                if (numberCheck.isPresent() && !id.equals(numberCheck.get().getId()))
+                {
+                    throw new RMAAlreadyExistsException("RMA with number " + rmaDetails.getRmaNumber() + " already exists");
+                }
             }
-        }
 
-        // Update fields
-        if (rmaDetails.getRmaNumber() != null)
-        {
-            existingRMA.setRmaNumber(rmaDetails.getRmaNumber());
-        }
-        if (rmaDetails.getOrderId() != null)
-        {
-            existingRMA.setOrderId(rmaDetails.getOrderId());
-        }
-        if (rmaDetails.getOrderNumber() != null)
-        {
-            existingRMA.setOrderNumber(rmaDetails.getOrderNumber());
-        }
-        if (rmaDetails.getCustomerId() != null)
-        {
-            existingRMA.setCustomerId(rmaDetails.getCustomerId());
-        }
-        if (rmaDetails.getCustomerName() != null)
-        {
-            existingRMA.setCustomerName(rmaDetails.getCustomerName());
-        }
-        if (rmaDetails.getRmaDate() != null)
-        {
-            existingRMA.setRmaDate(rmaDetails.getRmaDate());
-        }
-        if (rmaDetails.getReceivedDate() != null)
-        {
-            existingRMA.setReceivedDate(rmaDetails.getReceivedDate());
-        }
-        if (rmaDetails.getStatus() != null)
-        {
-            logger.info("Updating RMA status from '{}' to '{}' for RMA ID: {}", 
-                existingRMA.getStatus(), rmaDetails.getStatus(), id);
-            existingRMA.setStatus(rmaDetails.getStatus());
-        }
-        if (rmaDetails.getItems() != null)
-        {
-            existingRMA.setItems(rmaDetails.getItems());
-        }
-        if (rmaDetails.getTax() != null)
-        {
-            existingRMA.setTax(rmaDetails.getTax());
-        }
-        if (rmaDetails.getRestockingFee() != null)
-        {
-            existingRMA.setRestockingFee(rmaDetails.getRestockingFee());
-        }
-        if (rmaDetails.getNotes() != null)
-        {
-            existingRMA.setNotes(rmaDetails.getNotes());
-        }
-        if (rmaDetails.getJsonData() != null)
-        {
-            existingRMA.setJsonData(rmaDetails.getJsonData());
-        }
+            // Update fields
+            if (rmaDetails.getRmaNumber() != null)
+            {
+                existingRMA.setRmaNumber(rmaDetails.getRmaNumber());
+            }
+            if (rmaDetails.getOrderId() != null)
+            {
+                existingRMA.setOrderId(rmaDetails.getOrderId());
+            }
+            if (rmaDetails.getOrderNumber() != null)
+            {
+                existingRMA.setOrderNumber(rmaDetails.getOrderNumber());
+            }
+            if (rmaDetails.getCustomerId() != null)
+            {
+                existingRMA.setCustomerId(rmaDetails.getCustomerId());
+            }
+            if (rmaDetails.getCustomerName() != null)
+            {
+                existingRMA.setCustomerName(rmaDetails.getCustomerName());
+            }
+            if (rmaDetails.getRmaDate() != null)
+            {
+                existingRMA.setRmaDate(rmaDetails.getRmaDate());
+            }
+            if (rmaDetails.getReceivedDate() != null)
+            {
+                existingRMA.setReceivedDate(rmaDetails.getReceivedDate());
+            }
+            if (rmaDetails.getStatus() != null)
+            {
+                logger.info("Updating RMA status from '{}' to '{}' for RMA ID: {}", 
+                    existingRMA.getStatus(), rmaDetails.getStatus(), id);
+                existingRMA.setStatus(rmaDetails.getStatus());
+            }
+            if (rmaDetails.getItems() != null)
+            {
+                existingRMA.setItems(rmaDetails.getItems());
+            }
+            if (rmaDetails.getTax() != null)
+            {
+                existingRMA.setTax(rmaDetails.getTax());
+            }
+            if (rmaDetails.getRestockingFee() != null)
+            {
+                existingRMA.setRestockingFee(rmaDetails.getRestockingFee());
+            }
+            if (rmaDetails.getNotes() != null)
+            {
+                existingRMA.setNotes(rmaDetails.getNotes());
+            }
+            if (rmaDetails.getJsonData() != null)
+            {
+                existingRMA.setJsonData(rmaDetails.getJsonData());
+            }
         
-        // Recalculate totals
-        existingRMA.calculateTotals();
+            // Recalculate totals
+            existingRMA.calculateTotals();
         
-        saveItems();
-        logger.info("Updated RMA with ID: {}, status: {}", id, existingRMA.getStatus());
+            saveItem(existingRMA);
+            logger.info("Updated RMA with ID: {}, status: {}", id, existingRMA.getStatus());
         
-        return existingRMA;
+            return existingRMA;
+        });
     }
 
     public void deleteRMA(String id)
@@ -0,0 +1,506 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Read replica mode ({@code jsondb.replica-of}): the instance follows another
+ * instance, the primary, by tailing the primary's change log ({@code changes.log},
+ * see {@link ChangeFeed}) in a shared data directory and applying every change to
+ * its own repositories, which reject all other writes with
+ * {@link AbstractJsonRepository.ReadOnlyException}.
+ * <p>
+ * On first start the replica restores the primary's latest backup from
+ * {@code jsondb.replica-backup-dir} and continues with the changes logged after it,
+ * so the primary must have a backup that its change log still reaches back to. The
+ * sequence number applied up to is kept in {@code data/replica.position}, written
+ * only once the applied changes are durable, so a restarted replica resumes where it
+ * stopped; applying a change twice is harmless as each change carries the whole
+ * entity. Changes are applied in units of work of up to {@value #MAX_BATCH_EVENTS},
+ * so a unit of work on the primary normally becomes visible on the replica at once.
+ * A restore on the primary is not in its change log: reseed the replica afterwards
+ * by deleting its position file.
+ * <p>
+ * If the log skips changes the replica has not applied, because the replica fell
+ * further behind than the log reaches or the primary failed to append a change, only
+ * a backup made after the gap holds them. The replica reseeds from the latest backup
+ * if it is one, and otherwise stalls until the primary makes one.
+ */
+@Component
+public class ReadReplica
+{
+    private static final Logger logger = LoggerFactory.getLogger(ReadReplica.class);
+    static final String POSITION_FILE_NAME = "replica.position";
+    private static final int MAX_BATCH_EVENTS = 1000;
+
+    public enum State
+    {
+        PRIMARY, SEEDING, STREAMING, STALLED
+    }
+
+    private final Map<String, AbstractJsonRepository<?>> repositoriesByCollection = new TreeMap<>();
+    private final BackupService backupService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path positionFilePath;
+    private JsonDbConfig config = new JsonDbConfig();
+    private ScheduledExecutorService tailer;
+    private Path primaryLogFilePath;
+    private Path primaryRotatedLogFilePath;
+    private Path primaryBackupDir;
+
+    // Position in the primary's current log file; only used by the tailer thread
+    private boolean positioned;
+    private Object logFileKey;
+    private long logOffset;
+
+    private volatile State state = State.PRIMARY;
+    private volatile long appliedSequence = -1;
+    private volatile long caughtUpAt;
+    private volatile String problem;
+
+    @Autowired
+    public ReadReplica(List<AbstractJsonRepository<?>> repositories, BackupService backupService)
+    {
+        this(repositories, backupService, Paths.get("").toAbsolutePath().resolve("data"));
+    }
+
+    ReadReplica(List<AbstractJsonRepository<?>> repositories, BackupService backupService, Path dataDir)
+    {
+        for (AbstractJsonRepository<?> repository : repositories)
+        {
+            repositoriesByCollection.put(repository.getCollectionName(), repository);
+        }
+        this.backupService = backupService;
+        this.positionFilePath = dataDir.resolve(POSITION_FILE_NAME);
+    }
+
+    @Autowired(required = false)
+    public void setJsonDbConfig(JsonDbConfig config)
+    {
+        this.config = config;
+    }
+
+    public boolean isReplica()
+    {
+        return config.getReplicaOf() != null && !config.getReplicaOf().isBlank();
+    }
+
+    /**
+     * In replica mode, makes every repository read-only and starts following the
+     * primary; does nothing on a primary.
+     */
+    @PostConstruct
+    public void start()
+    {
+        if (!isReplica())
+        {
+            return;
+        }
+        follow();
+
+        tailer = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "read-replica");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tailer.scheduleWithFixedDelay(this::poll, 0, Math.max(1, config.getReplicaPollIntervalMillis()), TimeUnit.MILLISECONDS);
+        logger.info("Read replica of {}, seeding from backups in {}", primaryLogFilePath.getParent(), primaryBackupDir);
+    }
+
+    /**
+     * Points the replica at the primary and makes every repository read-only; the
+     * changes are applied by {@link #poll}.
+     */
+    void follow()
+    {
+        Path primaryDataDir = Paths.get(config.getReplicaOf()).toAbsolutePath();
+        primaryLogFilePath = primaryDataDir.resolve(ChangeFeed.LOG_FILE_NAME);
+        primaryRotatedLogFilePath = primaryDataDir.resolve(ChangeFeed.LOG_FILE_NAME + ".1");
+        primaryBackupDir = config.getReplicaBackupDir() != null && !config.getReplicaBackupDir().isBlank()
+            ? Paths.get(config.getReplicaBackupDir()).toAbsolutePath()
+            : primaryDataDir.resolveSibling("backups");
+        repositoriesByCollection.values().forEach(repository -> repository.setReadOnly(true));
+        state = State.SEEDING;
+        caughtUpAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Applies the changes the primary has logged since the last poll.
+     */
+    void poll()
+    {
+        long started = System.currentTimeMillis();
+        try
+        {
+            if (appliedSequence < 0)
+            {
+                appliedSequence = readPosition();
+                if (appliedSequence < 0 && !seed())
+                {
+                    return;
+                }
+            }
+
+            List<ChangeEvent> events = readNewEvents();
+            int continuous = 0;
+            while (continuous < events.size() && events.get(continuous).getSequence() == appliedSequence + 1 + continuous)
+            {
+                continuous++;
+            }
+            apply(events.subList(0, continuous));
+            if (continuous < events.size())
+            {
+                positioned = false;
+                reseedOverGap(events.get(continuous).getSequence());
+                return;
+            }
+            caughtUpAt = started;
+            if (state != State.STREAMING)
+            {
+                logger.info("Read replica streaming from sequence {}", appliedSequence);
+            }
+            state = State.STREAMING;
+            problem = null;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            stall("Replication failed at sequence " + appliedSequence + ": " + e.getMessage());
+            positioned = false;
+        }
+    }
+
+    private void stall(String message)
+    {
+        if (!message.equals(problem))
+        {
+            logger.error(message);
+        }
+        state = State.STALLED;
+        problem = message;
+    }
+
+    /**
+     * Restores the primary's latest backup if the change log still holds every change
+     * made after it, and continues from there. Returns whether it did.
+     */
+    private boolean seed() throws IOException
+    {
+        long firstLogged = firstLoggedSequence();
+        BackupManifest latest = latestBackup();
+        if (latest == null || (firstLogged > 0 && latest.getChangeSequence() < firstLogged - 1))
+        {
+            stall("No backup of the primary in " + primaryBackupDir + " that its change log reaches back to;"
+                + " make one with POST /api/backups on the primary");
+            return false;
+        }
+
+        state = State.SEEDING;
+        logger.info("Seeding read replica from backup {} at sequence {}", latest.getId(), latest.getChangeSequence());
+        backupService.restore(latest, primaryBackupDir);
+        appliedSequence = latest.getChangeSequence();
+        writePosition(appliedSequence);
+        positioned = false;
+        return true;
+    }
+
+    /**
+     * Gets past changes missing from the primary's log before the given sequence by
+     * reseeding from the latest backup if it holds them. Otherwise the replica stalls
+     * at the last change it could apply instead of restoring a backup that would only
+     * lead back to the same gap.
+     */
+    private void reseedOverGap(long next) throws IOException
+    {
+        BackupManifest latest = latestBackup();
+        if (latest == null || latest.getChangeSequence() < next - 1)
+        {
+            stall("The primary's change log continues at sequence " + next + ", not " + (appliedSequence + 1)
+                + ", and no backup of the primary in " + primaryBackupDir + " holds the changes in between;"
+                + " make one with POST /api/backups on the primary");
+            return;
+        }
+        logger.warn("The primary's change log continues at sequence {}, not {}; reseeding from backup {}",
+            next, appliedSequence + 1, latest.getId());
+        seed();
+    }
+
+    private BackupManifest latestBackup()
+    {
+        List<BackupManifest> backups = backupService.listBackups(primaryBackupDir);
+        return backups.isEmpty() ? null : backups.get(backups.size() - 1);
+    }
+
+    /**
+     * Reads the complete lines appended to the primary's log since the last poll. On
+     * the first poll, after the log was rotated or whenever the position is in doubt,
+     * both log files are read from the start instead, keeping what follows the
+     * applied sequence.
+     */
+    private List<ChangeEvent> readNewEvents() throws IOException
+    {
+        List<ChangeEvent> events = new ArrayList<>();
+        if (!Files.exists(primaryLogFilePath))
+        {
+            return events;
+        }
+        try (FileChannel log = FileChannel.open(primaryLogFilePath, StandardOpenOption.READ))
+        {
+            Object fileKey = Files.readAttributes(primaryLogFilePath, BasicFileAttributes.class).fileKey();
+            long size = log.size();
+            if (positioned && Objects.equals(fileKey, logFileKey) && size >= logOffset)
+            {
+                logOffset = readLines(log, logOffset, size, events);
+                if (events.isEmpty() || events.get(0).getSequence() == appliedSequence + 1)
+                {
+                    return events;
+                }
+                events.clear();
+            }
+
+            readRotatedLog(events);
+            logOffset = readLines(log, 0, size, events);
+            logFileKey = fileKey;
+            positioned = true;
+        }
+        catch (NoSuchFileException e)
+        {
+            // Rotated away between the check and opening it; read it next time
+            positioned = false;
+        }
+        return events;
+    }
+
+    private void readRotatedLog(List<ChangeEvent> events) throws IOException
+    {
+        try (FileChannel rotated = FileChannel.open(primaryRotatedLogFilePath, StandardOpenOption.READ))
+        {
+            readLines(rotated, 0, rotated.size(), events);
+        }
+        catch (NoSuchFileException e)
+        {
+            // Not rotated yet
+        }
+    }
+
+    /**
+     * Adds the events after the applied sequence from the complete lines between the
+     * two offsets, and returns the offset after the last complete line.
+     */
+    private long readLines(FileChannel channel, long from, long to, List<ChangeEvent> events) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, to - from));
+        ChangeFeed.readFully(channel, buffer, from);
+        byte[] bytes = buffer.array();
+        int start = 0;
+        for (int i = 0; i < buffer.position(); i++)
+        {
+            if (bytes[i] == '\n')
+            {
+                ChangeEvent event = objectMapper.readValue(bytes, start, i - start, ChangeEvent.class);
+                if (event.getSequence() > appliedSequence)
+                {
+                    events.add(event);
+                }
+                start = i + 1;
+            }
+        }
+        return from + start;
+    }
+
+    private long firstLoggedSequence() throws IOException
+    {
+        for (Path file : List.of(primaryRotatedLogFilePath, primaryLogFilePath))
+        {
+            if (Files.exists(file))
+            {
+                try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8))
+                {
+                    String first = lines.findFirst().orElse(null);
+                    if (first != null && !first.isBlank())
+                    {
+                        return objectMapper.readValue(first, ChangeEvent.class).getSequence();
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Applies the events in units of work, making each batch durable before the
+     * position after it is stored.
+     */
+    private void apply(List<ChangeEvent> events)
+    {
+        for (int from = 0; from < events.size(); from += MAX_BATCH_EVENTS)
+        {
+            List<ChangeEvent> batch = events.subList(from, Math.min(events.size(), from + MAX_BATCH_EVENTS));
+            Set<AbstractJsonRepository<?>> touched = new LinkedHashSet<>();
+            for (ChangeEvent event : batch)
+            {
+                AbstractJsonRepository<?> repository = repositoriesByCollection.get(event.getCollection());
+                if (repository == null)
+                {
+                    logger.warn("Skipping replicated change {}: no repository for collection {}", event, event.getCollection());
+                }
+                else
+                {
+                    touched.add(repository);
+                }
+            }
+            if (!touched.isEmpty())
+            {
+                UnitOfWork.execute(new ArrayList<>(touched), () ->
+                {
+                    for (ChangeEvent event : batch)
+                    {
+                        AbstractJsonRepository<?> repository = repositoriesByCollection.get(event.getCollection());
+                        if (repository != null)
+                        {
+                            repository.applyReplicated(event.getId(), event.getAfter());
+                        }
+                    }
+                    return null;
+                });
+                touched.forEach(AbstractJsonRepository::awaitDurable);
+            }
+            appliedSequence = batch.get(batch.size() - 1).getSequence();
+            writePosition(appliedSequence);
+        }
+    }
+
+    private long readPosition() throws IOException
+    {
+        if (!Files.exists(positionFilePath))
+        {
+            return -1;
+        }
+        String content = Files.readString(positionFilePath, StandardCharsets.UTF_8).trim();
+        return content.isEmpty() ? -1 : Long.parseLong(content);
+    }
+
+    private void writePosition(long sequence)
+    {
+        try
+        {
+            Files.createDirectories(positionFilePath.getParent());
+            Path tempFilePath = positionFilePath.resolveSibling(POSITION_FILE_NAME + ".tmp");
+            Files.writeString(tempFilePath, String.valueOf(sequence), StandardCharsets.UTF_8);
+            Files.move(tempFilePath, positionFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            throw new AbstractJsonRepository.DataPersistenceException("Failed to store the replica position", e);
+        }
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    /**
+     * Sequence number of the last of the primary's changes applied here, -1 before
+     * the replica has been seeded.
+     */
+    public long getAppliedSequence()
+    {
+        return appliedSequence;
+    }
+
+    /**
+     * Sequence number of the primary's last logged change.
+     */
+    public long getPrimarySequence()
+    {
+        for (Path file : List.of(primaryLogFilePath, primaryRotatedLogFilePath))
+        {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+            {
+                String lastLine = ChangeFeed.lastCompleteLine(channel, false);
+                if (lastLine != null)
+                {
+                    return objectMapper.readValue(lastLine, ChangeEvent.class).getSequence();
+                }
+            }
+            catch (NoSuchFileException e)
+            {
+                // Try the rotated file, or there is no log yet
+            }
+            catch (IOException e)
+            {
+                throw new AbstractJsonRepository.DataPersistenceException("Failed to read the primary's change log", e);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Replication lag: how many of the primary's changes are not applied yet, and how
+     * long ago the replica last had applied all of them (0 while it has).
+     */
+    public Map<String, Object> getLag()
+    {
+        long primarySequence = getPrimarySequence();
+        long behind = Math.max(0, primarySequence - Math.max(0, appliedSequence));
+        Map<String, Object> lag = new TreeMap<>();
+        lag.put("events", behind);
+        lag.put("millis", behind == 0 ? 0 : System.currentTimeMillis() - caughtUpAt);
+        return lag;
+    }
+
+    /**
+     * Why replication is stalled, or null.
+     */
+    public String getProblem()
+    {
+        return problem;
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        if (tailer != null)
+        {
+            tailer.shutdown();
+            try
+            {
+                tailer.awaitTermination(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
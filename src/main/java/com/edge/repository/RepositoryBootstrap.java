@@ -0,0 +1,126 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads all repositories concurrently on a bounded pool ({@code jsondb.bootstrap-threads})
+ * once every singleton has been created, so cold start takes about as long as the
+ * largest data file instead of the sum of all of them. The application reports
+ * not-ready (see {@link #isReady()}) until every collection has been loaded; requests
+ * that reach a repository earlier simply wait for that repository.
+ */
+@Component
+public class RepositoryBootstrap implements SmartInitializingSingleton
+{
+    private static final Logger logger = LoggerFactory.getLogger(RepositoryBootstrap.class);
+
+    public enum LoadState
+    {
+        PENDING, LOADING, LOADED, FAILED
+    }
+
+    private final List<AbstractJsonRepository<?>> repositories;
+    private final JsonDbConfig config;
+    private final Map<String, LoadState> states = new ConcurrentHashMap<>();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private ExecutorService executor;
+
+    @Autowired
+    public RepositoryBootstrap(List<AbstractJsonRepository<?>> repositories, JsonDbConfig config)
+    {
+        this.repositories = repositories;
+        this.config = config;
+        for (AbstractJsonRepository<?> repository : repositories)
+        {
+            states.put(repository.getEntityName(), LoadState.PENDING);
+        }
+    }
+
+    @Override
+    public void afterSingletonsInstantiated()
+    {
+        int threads = Math.max(1, Math.min(config.getBootstrapThreads(), repositories.size()));
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "repository-bootstrap-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.nanoTime();
+        logger.info("Loading {} repositories on {} threads", repositories.size(), threads);
+        List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (AbstractJsonRepository<?> repository : repositories)
+        {
+            loads.add(CompletableFuture.runAsync(() -> load(repository), executor));
+        }
+        CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).whenComplete((result, error) ->
+        {
+            executor.shutdown();
+            logger.info("All repositories loaded in {} ms", (System.nanoTime() - start) / 1_000_000);
+            completion.complete(null);
+        });
+    }
+
+    private void load(AbstractJsonRepository<?> repository)
+    {
+        String name = repository.getEntityName();
+        states.put(name, LoadState.LOADING);
+        long start = System.nanoTime();
+        try
+        {
+            repository.ensureLoaded();
+            states.put(name, LoadState.LOADED);
+            logger.info("Loaded {} in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+        }
+        catch (Exception e)
+        {
+            states.put(name, LoadState.FAILED);
+            logger.error("Failed to load {}: {}", name, e.getMessage(), e);
+        }
+    }
+
+    public boolean isReady()
+    {
+        return completion.isDone();
+    }
+
+    /**
+     * Completes once every repository has finished loading, successfully or not.
+     */
+    public CompletableFuture<Void> getCompletion()
+    {
+        return completion;
+    }
+
+    public Map<String, LoadState> getStates()
+    {
+        return new TreeMap<>(states);
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+    }
+}
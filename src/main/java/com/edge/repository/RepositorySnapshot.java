@@ -0,0 +1,116 @@
+package com.edge.repository;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Immutable, versioned view of a repository's committed state: the entities in
+ * insertion order, the primary-key map and every secondary, sort and text index. A new snapshot is
+ * published when a write commits; readers pick up the current one with a single
+ * volatile read and never take a lock.
+ * <p>
+ * The collection and index structures are persistent ({@link PersistentMap},
+ * {@link PersistentSequence}, {@link PersistentTreeMap}): a write copies only the paths to the entries it
+ * changes, and a snapshot holds on to the versions current at its commit, so
+ * publishing one and handing out {@link #getItems()} or an index lookup costs no
+ * copy of the collection.
+ * <p>
+ * The entities themselves are shared with later snapshots, so they must not be
+ * modified; writers work on copies (see {@link AbstractJsonRepository#findByIdForUpdate}).
+ */
+public final class RepositorySnapshot<T>
+{
+    private final long version;
+    private final PersistentMap<String, Integer> positionsById;
+    private final PersistentSequence<T> items;
+    private final Map<EntityIndex<T>, PersistentMap<Object, PersistentSequence<T>>> indexEntries;
+    private final Map<SortIndex<T>, PersistentTreeMap<SortIndex.SortKey, T>> sortEntries;
+    private final Map<TextIndex<T>, TextIndex.State> textStates;
+
+    RepositorySnapshot(long version, PersistentMap<String, Integer> positionsById, PersistentSequence<T> items,
+        List<EntityIndex<T>> indexes, List<SortIndex<T>> sortIndexes, List<TextIndex<T>> textIndexes)
+    {
+        this.version = version;
+        this.positionsById = positionsById;
+        this.items = items;
+        Map<EntityIndex<T>, PersistentMap<Object, PersistentSequence<T>>> entries = new HashMap<>();
+        for (EntityIndex<T> index : indexes)
+        {
+            entries.put(index, index.entries());
+        }
+        this.indexEntries = entries;
+        Map<SortIndex<T>, PersistentTreeMap<SortIndex.SortKey, T>> sorted = new HashMap<>();
+        for (SortIndex<T> sortIndex : sortIndexes)
+        {
+            sorted.put(sortIndex, sortIndex.entries());
+        }
+        this.sortEntries = sorted;
+        Map<TextIndex<T>, TextIndex.State> texts = new HashMap<>();
+        for (TextIndex<T> textIndex : textIndexes)
+        {
+            texts.put(textIndex, textIndex.state());
+        }
+        this.textStates = texts;
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public int size()
+    {
+        return items.size();
+    }
+
+    /**
+     * Returns the entities in insertion order as an unmodifiable list backed by the
+     * snapshot.
+     */
+    public List<T> getItems()
+    {
+        return items.asList();
+    }
+
+    public Optional<T> findById(String id)
+    {
+        Integer position = positionsById.get(id);
+        return position == null ? Optional.empty() : Optional.ofNullable(items.get(position));
+    }
+
+    List<T> lookup(EntityIndex<T> index, Object key)
+    {
+        return bucket(index, key).asList();
+    }
+
+    PersistentSequence<T> bucket(EntityIndex<T> index, Object key)
+    {
+        PersistentMap<Object, PersistentSequence<T>> entries = indexEntries.get(index);
+        PersistentSequence<T> matches = entries == null ? null : entries.get(key);
+        return matches == null ? PersistentSequence.empty() : matches;
+    }
+
+    PersistentSequence<T> items()
+    {
+        return items;
+    }
+
+    PersistentMap<String, Integer> positionsById()
+    {
+        return positionsById;
+    }
+
+    PersistentTreeMap<SortIndex.SortKey, T> sorted(SortIndex<T> sortIndex)
+    {
+        PersistentTreeMap<SortIndex.SortKey, T> entries = sortEntries.get(sortIndex);
+        return entries == null ? PersistentTreeMap.empty() : entries;
+    }
+
+    TextIndex.State text(TextIndex<T> textIndex)
+    {
+        TextIndex.State state = textStates.get(textIndex);
+        return state == null ? TextIndex.emptyState() : state;
+    }
+}
@@ -4,7 +4,6 @@ package com.edge.repository;
  * @author Hidenori Takaku
  */
 import com.edge.entity.SFC;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -13,9 +12,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Component
 public class SFCRepository extends AbstractJsonRepository<SFC>
@@ -27,6 +26,13 @@ public class SFCRepository extends AbstractJsonRepository<SFC>
     private static final long INITIAL_SFC_NUMBER = 600000L;
     private java.nio.file.Path counterFilePath;
 
+    private final EntityIndex<SFC> bySfcNumber = uniqueIndex("sfcNumber", SFC::getSfcNumber);
+    private final EntityIndex<SFC> byRmaId = index("rmaId", SFC::getRmaId);
+    private final EntityIndex<SFC> byStatus = index("status", SFC::getStatus);
+    private final SortIndex<SFC> sfcNumberOrder = sortIndex("sfcNumber", String.class, SFC::getSfcNumber);
+    private final SortIndex<SFC> createdDateOrder = sortIndex("createdDate", LocalDateTime.class, SFC::getCreatedDate);
+    private final SortIndex<SFC> statusOrder = sortIndex("status", String.class, SFC::getStatus);
+
     public SFCRepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "sfcs");
@@ -55,28 +61,6 @@ public class SFCRepository extends AbstractJsonRepository<SFC>
         return mapper;
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException
-    {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty SFC list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<SFC>>() {});
-            logger.info("Successfully loaded {} SFCs from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
-    }
-
     @Override
     protected String getId(SFC entity)
     {
@@ -97,7 +81,7 @@ public class SFCRepository extends AbstractJsonRepository<SFC>
     public Optional<SFC> getSFCBySFCNumber(String sfcNumber)
     {
         if (sfcNumber == null || sfcNumber.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(sfc -> sfcNumber.equals(sfc.getSfcNumber())).findFirst();
+        return bySfcNumber.findFirst(sfcNumber);
     }
 
     public List<SFC> getAllSFCs()
@@ -105,15 +89,23 @@ public class SFCRepository extends AbstractJsonRepository<SFC>
         return findAll();
     }
 
+    public Page<SFC> getAllSFCs(PageRequest request)
+    {
+        return findPage(request);
+    }
+
     public List<SFC> getSFCsByRMAId(String rmaId)
     {
         if (rmaId == null || rmaId.trim().isEmpty())
         {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(sfc -> rmaId.equals(sfc.getRmaId()))
-            .collect(Collectors.toList());
+        return byRmaId.findAll(rmaId);
+    }
+
+    public Page<SFC> getSFCsByRMAId(String rmaId, PageRequest request)
+    {
+        return byRmaId.findPage(request, rmaId);
     }
 
     public List<SFC> getSFCsByStatus(String status)
@@ -122,9 +114,12 @@ public class SFCRepository extends AbstractJsonRepository<SFC>
         {
             return new java.util.ArrayList<>();
         }
-        return items.stream()
-            .filter(sfc -> status.equals(sfc.getStatus()))
-            .collect(Collectors.toList());
+        return byStatus.findAll(status);
+    }
+
+    public Page<SFC> getSFCsByStatus(String status, PageRequest request)
+    {
+        return byStatus.findPage(request, status);
     }
 
     public SFC createSFC(SFC sfc)
@@ -146,68 +141,11 @@ public class SFCRepository extends AbstractJsonRepository<SFC>
         return save(sfc);
     }
     
-    private synchronized String generateNextSFCNumber()
-    {
-        try
-        {
-            long currentCounter = readCounter();
-            long nextSFCNumber = currentCounter + 1;
-            writeCounter(nextSFCNumber);
-            logger.info("Generated SFC number: {} (counter updated from {} to {})", 
-                nextSFCNumber, currentCounter, nextSFCNumber);
-            return String.valueOf(nextSFCNumber);
-        }
-        catch (IOException e)
-        {
-            logger.error("Error generating SFC number", e);
-            throw new RuntimeException("Failed to generate SFC number", e);
-        }
-    }
-    
-    private long readCounter() throws IOException
+    private String generateNextSFCNumber()
     {
-        if (!java.nio.file.Files.exists(counterFilePath))
-        {
-            long initialValue = INITIAL_SFC_NUMBER;
-            writeCounter(initialValue);
-            logger.info("Initialized SFC counter file with value: {}", initialValue);
-            return initialValue;
-        }
-        
-        try
-        {
-            String content = new String(java.nio.file.Files.readAllBytes(counterFilePath)).trim();
-            if (content.isEmpty())
-            {
-                long initialValue = INITIAL_SFC_NUMBER;
-                writeCounter(initialValue);
-                logger.info("Counter file was empty, initialized with value: {}", initialValue);
-                return initialValue;
-            }
-            
-            long counterValue = Long.parseLong(content);
-            if (counterValue < INITIAL_SFC_NUMBER)
-            {
-                counterValue = INITIAL_SFC_NUMBER;
-                writeCounter(counterValue);
-                logger.info("Counter value was below initial value, reset to: {}", counterValue);
-            }
-            return counterValue;
-        }
-        catch (NumberFormatException e)
-        {
-            logger.warn("Counter file contains invalid data, resetting to initial value: {}", INITIAL_SFC_NUMBER);
-            long initialValue = INITIAL_SFC_NUMBER;
-            writeCounter(initialValue);
-            return initialValue;
-        }
+        return String.valueOf(nextSequenceValue(counterFilePath, INITIAL_SFC_NUMBER));
     }
     
-    private void writeCounter(long value) throws IOException
-    {
-        java.nio.file.Files.write(counterFilePath, String.valueOf(value).getBytes());
-    }
-
     public SFC updateSFC(String id, SFC sfcDetails)
     {
         if (id == null || id.trim().isEmpty())
@@ -215,76 +153,79 @@ public class SFCRepository extends AbstractJsonRepository<SFC>
         if (sfcDetails == null)
             throw new IllegalArgumentException("SFC details cannot be null");
 
-        SFC existingSFC = findById(id).orElseThrow(() -> 
-            new SFCNotFoundException("SFC not found with id: " + id));
-
-        if (sfcDetails.getSfcNumber() != null && !sfcDetails.getSfcNumber().trim().isEmpty())
+        return inWriteLock(() ->
         {
-            Optional<SFC> numberCheck = getSFCBySFCNumber(sfcDetails.getSfcNumber());
-            if (numberCheck.isPresent() && !id.equals(numberCheck.get().getId()))
+            SFC existingSFC = findByIdForUpdate(id).orElseThrow(() -> 
+                new SFCNotFoundException("SFC not found with id: " + id));
+
+            if (sfcDetails.getSfcNumber() != null && !sfcDetails.getSfcNumber().trim().isEmpty())
             {
-                throw new SFCAlreadyExistsException("SFC with number " + sfcDetails.getSfcNumber() + " already exists");
+                Optional<SFC> numberCheck = getSFCBySFCNumber(sfcDetails.getSfcNumber());
+                if (numberCheck.isPresent() && !id.equals(numberCheck.get().getId()))
+                {
+                    throw new SFCAlreadyExistsException("SFC with number " + sfcDetails.getSfcNumber() + " already exists");
+                }
             }
-        }
 
-        // Update fields
-        if (sfcDetails.getSfcNumber() != null)
-        {
-            existingSFC.setSfcNumber(sfcDetails.getSfcNumber());
-        }
-        if (sfcDetails.getRmaId() != null)
-        {
-            existingSFC.setRmaId(sfcDetails.getRmaId());
-        }
-        if (sfcDetails.getRmaNumber() != null)
-        {
-            existingSFC.setRmaNumber(sfcDetails.getRmaNumber());
-        }
-        if (sfcDetails.getOrderId() != null)
-        {
-            existingSFC.setOrderId(sfcDetails.getOrderId());
-        }
-        if (sfcDetails.getOrderNumber() != null)
-        {
-            existingSFC.setOrderNumber(sfcDetails.getOrderNumber());
-        }
-        if (sfcDetails.getCustomerId() != null)
-        {
-            existingSFC.setCustomerId(sfcDetails.getCustomerId());
-        }
-        if (sfcDetails.getCustomerName() != null)
-        {
-            existingSFC.setCustomerName(sfcDetails.getCustomerName());
-        }
-        if (sfcDetails.getStartedDate() != null)
-        {
-            existingSFC.setStartedDate(sfcDetails.getStartedDate());
-        }
-        if (sfcDetails.getCompletedDate() != null)
-        {
-            existingSFC.setCompletedDate(sfcDetails.getCompletedDate());
-        }
-        if (sfcDetails.getStatus() != null)
-        {
-            existingSFC.setStatus(sfcDetails.getStatus());
-        }
-        if (sfcDetails.getAssignedTo() != null)
-        {
-            existingSFC.setAssignedTo(sfcDetails.getAssignedTo());
-        }
-        if (sfcDetails.getNotes() != null)
-        {
-            existingSFC.setNotes(sfcDetails.getNotes());
-        }
-        if (sfcDetails.getJsonData() != null)
-        {
-            existingSFC.setJsonData(sfcDetails.getJsonData());
-        }
+            // Update fields
+            if (sfcDetails.getSfcNumber() != null)
+            {
+                existingSFC.setSfcNumber(sfcDetails.getSfcNumber());
+            }
+            if (sfcDetails.getRmaId() != null)
+            {
+                existingSFC.setRmaId(sfcDetails.getRmaId());
+            }
+            if (sfcDetails.getRmaNumber() != null)
+            {
+                existingSFC.setRmaNumber(sfcDetails.getRmaNumber());
+            }
+            if (sfcDetails.getOrderId() != null)
+            {
+                existingSFC.setOrderId(sfcDetails.getOrderId());
+            }
+            if (sfcDetails.getOrderNumber() != null)
+            {
+                existingSFC.setOrderNumber(sfcDetails.getOrderNumber());
+            }
+            if (sfcDetails.getCustomerId() != null)
+            {
+                existingSFC.setCustomerId(sfcDetails.getCustomerId());
+            }
+            if (sfcDetails.getCustomerName() != null)
+            {
+                existingSFC.setCustomerName(sfcDetails.getCustomerName());
+            }
+            if (sfcDetails.getStartedDate() != null)
+            {
+                existingSFC.setStartedDate(sfcDetails.getStartedDate());
+            }
+            if (sfcDetails.getCompletedDate() != null)
+            {
+                existingSFC.setCompletedDate(sfcDetails.getCompletedDate());
+            }
+            if (sfcDetails.getStatus() != null)
+            {
+                existingSFC.setStatus(sfcDetails.getStatus());
+            }
+            if (sfcDetails.getAssignedTo() != null)
+            {
+                existingSFC.setAssignedTo(sfcDetails.getAssignedTo());
+            }
+            if (sfcDetails.getNotes() != null)
+            {
+                existingSFC.setNotes(sfcDetails.getNotes());
+            }
+            if (sfcDetails.getJsonData() != null)
+            {
+                existingSFC.setJsonData(sfcDetails.getJsonData());
+            }
         
-        saveItems();
-        logger.info("Updated SFC with ID: {}, status: {}", id, existingSFC.getStatus());
+            saveItem(existingSFC);
+            logger.info("Updated SFC with ID: {}, status: {}", id, existingSFC.getStatus());
         
-        return existingSFC;
+            return existingSFC;
+        });
     }
 
     public void deleteSFC(String id)
@@ -0,0 +1,37 @@
+package com.edge.repository;
+
+import java.util.List;
+
+/**
+ * One result of a {@link TextIndex} search: the entity, its score (higher is better,
+ * on the same scale for every text index, so results of several collections can be
+ * merged) and the fields the query terms were found in.
+ */
+public final class SearchHit<T>
+{
+    private final T entity;
+    private final int score;
+    private final List<String> matchedFields;
+
+    SearchHit(T entity, int score, List<String> matchedFields)
+    {
+        this.entity = entity;
+        this.score = score;
+        this.matchedFields = matchedFields;
+    }
+
+    public T getEntity()
+    {
+        return entity;
+    }
+
+    public int getScore()
+    {
+        return score;
+    }
+
+    public List<String> getMatchedFields()
+    {
+        return matchedFields;
+    }
+}
@@ -0,0 +1,424 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Stores a collection as a directory of JSON array segment files of at most
+ * {@code jsondb.segment-size} records each, e.g.
+ * <pre>
+ * data/orders.segments/manifest.json
+ * data/orders.segments/seg-000000.g000012.json
+ * data/orders.segments/seg-000001.g000015.json
+ * </pre>
+ * A flush rewrites only the segments that contain changed records, so updating one
+ * order costs one segment rather than the whole collection. Records keep their
+ * segment; new records are appended to the last segment, and a segment that becomes
+ * empty is dropped.
+ * <p>
+ * Every rewrite goes to a new file named after the flush's generation, and the
+ * manifest listing the current segment files is replaced atomically last. The
+ * manifest switch is the commit point: a crash before it leaves the previous
+ * generation intact, and files not listed in the manifest are removed on load. The
+ * files a flush replaces are only deleted once the new files and manifest have been
+ * forced, so a crash can never leave a manifest on disk whose segments are gone.
+ * Segment files are GZIP-compressed with {@code jsondb.compress}; the manifest is not.
+ * <p>
+ * When there is no manifest yet the segments are built from the collection's JSON
+ * data file and write-ahead log, which are no longer updated from then on.
+ */
+class SegmentedStorageEngine<T> implements StorageEngine<T>
+{
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedStorageEngine.class);
+
+    static final String TYPE = "segmented";
+    static final String DIRECTORY_EXTENSION = ".segments";
+    private static final String MANIFEST_FILE_NAME = "manifest.json";
+    private static final int FORMAT_VERSION = 1;
+
+    private final String entityName;
+    private final Path directory;
+    private final Path manifestPath;
+    private final ObjectMapper objectMapper;
+    private final Class<T> entityType;
+    private final Function<T, String> idOf;
+    private final int segmentSize;
+    private final StorageEngine<T> importSource;
+    private final FileCompression compression;
+
+    // In manifest order; a record's position in the collection is its segment's
+    // position followed by its position within the segment
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, Segment> segmentsById = new HashMap<>();
+    private final Set<Path> unsyncedFiles = new LinkedHashSet<>();
+    // Replaced by the manifest but kept until the files replacing them are forced
+    private final Set<Path> pendingDeletes = new LinkedHashSet<>();
+    private long generation;
+    private int nextSegmentNumber;
+    private int pendingCount;
+    private boolean structureChanged;
+
+    SegmentedStorageEngine(String entityName, Path directory, ObjectMapper objectMapper, Class<T> entityType,
+        Function<T, String> idOf, int segmentSize, StorageEngine<T> importSource, FileCompression compression)
+    {
+        this.entityName = entityName;
+        this.directory = directory;
+        this.manifestPath = directory.resolve(MANIFEST_FILE_NAME);
+        this.objectMapper = objectMapper;
+        this.entityType = entityType;
+        this.idOf = idOf;
+        this.segmentSize = Math.max(1, segmentSize);
+        this.importSource = importSource;
+        this.compression = compression;
+    }
+
+    @Override
+    public String getType()
+    {
+        return TYPE;
+    }
+
+    @Override
+    public synchronized void load(Consumer<T> onEntity, Consumer<String> onDelete) throws IOException
+    {
+        segments.clear();
+        segmentsById.clear();
+        pendingDeletes.clear();
+        if (!Files.exists(manifestPath))
+        {
+            importFromSource(onEntity, onDelete);
+            return;
+        }
+
+        JsonNode manifest = objectMapper.readTree(manifestPath.toFile());
+        if (manifest.path("format").asInt() != FORMAT_VERSION)
+        {
+            throw new IOException("Unsupported segment manifest format in " + manifestPath);
+        }
+        generation = manifest.path("generation").asLong();
+        nextSegmentNumber = manifest.path("nextSegment").asInt();
+        int count = 0;
+        for (JsonNode entry : manifest.path("segments"))
+        {
+            Segment segment = new Segment(entry.path("number").asInt());
+            segment.fileName = entry.path("file").asText();
+            segments.add(segment);
+            for (T entity : JsonFileStorageEngine.readJsonArray(directory.resolve(segment.fileName), objectMapper, entityType, entityName))
+            {
+                onEntity.accept(entity);
+                if (entity != null)
+                {
+                    segment.put(idOf.apply(entity), entity);
+                    count++;
+                }
+            }
+            segment.dirty = false;
+        }
+        removeUnlistedFiles();
+        logger.info("Successfully loaded {} {} from {} segments", count, entityName, segments.size());
+    }
+
+    private void importFromSource(Consumer<T> onEntity, Consumer<String> onDelete) throws IOException
+    {
+        // The repository assigns missing IDs in onEntity, so entities are collected after it
+        Map<String, T> imported = new LinkedHashMap<>();
+        importSource.load(entity ->
+        {
+            onEntity.accept(entity);
+            if (entity != null)
+            {
+                imported.put(idOf.apply(entity), entity);
+            }
+        }, id ->
+        {
+            onDelete.accept(id);
+            imported.remove(id);
+        });
+        importSource.close();
+
+        compact(imported.values());
+        logger.info("Imported {} {} from the JSON data file into {} segments", imported.size(), entityName, segments.size());
+    }
+
+    /**
+     * Removes segment files of generations that never made it into the manifest, e.g.
+     * after a crash during a flush, and files superseded by the manifest.
+     */
+    private void removeUnlistedFiles() throws IOException
+    {
+        Set<String> listed = new HashSet<>();
+        for (Segment segment : segments)
+        {
+            listed.add(segment.fileName);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "seg-*.json"))
+        {
+            for (Path file : files)
+            {
+                if (!listed.contains(file.getFileName().toString()))
+                {
+                    Files.deleteIfExists(file);
+                    logger.debug("Removed unlisted segment file {}", file);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void put(String id, T entity)
+    {
+        Segment segment = segmentsById.get(id);
+        if (segment == null)
+        {
+            segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.records.size() >= segmentSize)
+            {
+                segment = new Segment(nextSegmentNumber++);
+                segments.add(segment);
+            }
+        }
+        segment.put(id, entity);
+        pendingCount++;
+    }
+
+    @Override
+    public synchronized void delete(String id)
+    {
+        Segment segment = segmentsById.remove(id);
+        if (segment != null)
+        {
+            segment.records.remove(id);
+            segment.dirty = true;
+            pendingCount++;
+        }
+    }
+
+    /**
+     * The next flush switches the manifest to segments containing the whole batch.
+     */
+    @Override
+    public synchronized void applyBatch(Map<String, T> changes) throws IOException
+    {
+        StorageEngine.super.applyBatch(changes);
+    }
+
+    @Override
+    public synchronized int getPendingCount()
+    {
+        return pendingCount;
+    }
+
+    /**
+     * Writes every dirty segment to a file of the next generation, then switches the
+     * manifest over to the new files. The files they replace are deleted by the next
+     * forced flush, or by this one once more of them are waiting than there are
+     * segments, which keeps the directory at most about twice the collection's size.
+     */
+    @Override
+    public synchronized void flush(boolean force) throws IOException
+    {
+        if (pendingCount > 0 || structureChanged)
+        {
+            Files.createDirectories(directory);
+            long nextGeneration = generation + 1;
+            Map<Segment, String> written = new LinkedHashMap<>();
+            List<Path> obsolete = new ArrayList<>();
+            try
+            {
+                for (Segment segment : segments)
+                {
+                    if (segment.dirty && !segment.records.isEmpty())
+                    {
+                        String fileName = String.format("seg-%06d.g%06d.json", segment.number, nextGeneration);
+                        writeFile(directory.resolve(fileName), segment.records.values());
+                        written.put(segment, fileName);
+                    }
+                }
+                List<Segment> remaining = new ArrayList<>();
+                for (Segment segment : segments)
+                {
+                    if (segment.records.isEmpty())
+                    {
+                        if (segment.fileName != null)
+                        {
+                            obsolete.add(directory.resolve(segment.fileName));
+                        }
+                    }
+                    else
+                    {
+                        remaining.add(segment);
+                    }
+                }
+                writeManifest(remaining, written, nextGeneration);
+                segments.retainAll(remaining);
+            }
+            catch (IOException e)
+            {
+                // The manifest still lists the previous files; the dirty segments stay dirty
+                for (String fileName : written.values())
+                {
+                    Files.deleteIfExists(directory.resolve(fileName));
+                }
+                throw e;
+            }
+
+            for (Map.Entry<Segment, String> entry : written.entrySet())
+            {
+                Segment segment = entry.getKey();
+                if (segment.fileName != null)
+                {
+                    obsolete.add(directory.resolve(segment.fileName));
+                }
+                segment.fileName = entry.getValue();
+                segment.dirty = false;
+                unsyncedFiles.add(directory.resolve(segment.fileName));
+            }
+            unsyncedFiles.add(manifestPath);
+            generation = nextGeneration;
+            pendingCount = 0;
+            structureChanged = false;
+            for (Path file : obsolete)
+            {
+                unsyncedFiles.remove(file);
+                pendingDeletes.add(file);
+            }
+        }
+        if (force || pendingDeletes.size() > segments.size())
+        {
+            sync();
+        }
+    }
+
+    private void writeFile(Path file, Collection<T> records) throws IOException
+    {
+        try (OutputStream out = compression.newOutputStream(file))
+        {
+            objectMapper.writeValue(out, records);
+        }
+    }
+
+    private void writeManifest(List<Segment> listed, Map<Segment, String> written, long manifestGeneration) throws IOException
+    {
+        ObjectNode manifest = objectMapper.createObjectNode();
+        manifest.put("format", FORMAT_VERSION);
+        manifest.put("entity", entityName);
+        manifest.put("generation", manifestGeneration);
+        manifest.put("nextSegment", nextSegmentNumber);
+        ArrayNode entries = manifest.putArray("segments");
+        for (Segment segment : listed)
+        {
+            ObjectNode entry = entries.addObject();
+            entry.put("number", segment.number);
+            entry.put("file", written.getOrDefault(segment, segment.fileName));
+            entry.put("records", segment.records.size());
+        }
+        Path tempFilePath = manifestPath.resolveSibling(MANIFEST_FILE_NAME + ".tmp");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(tempFilePath.toFile(), manifest);
+        Files.move(tempFilePath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void sync() throws IOException
+    {
+        for (Path file : unsyncedFiles)
+        {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+            {
+                channel.force(true);
+            }
+            catch (NoSuchFileException e)
+            {
+                // Superseded by a later flush
+            }
+        }
+        unsyncedFiles.clear();
+        DurableFiles.forceDirectory(directory);
+        for (Path file : pendingDeletes)
+        {
+            Files.deleteIfExists(file);
+        }
+        pendingDeletes.clear();
+    }
+
+    @Override
+    public boolean needsCompaction()
+    {
+        return false;
+    }
+
+    /**
+     * Redistributes the entities over full segments and rewrites all of them.
+     */
+    @Override
+    public synchronized void compact(Collection<T> entities) throws IOException
+    {
+        for (Segment segment : segments)
+        {
+            segment.records.clear();
+        }
+        segmentsById.clear();
+        Segment current = null;
+        for (T entity : entities)
+        {
+            if (current == null || current.records.size() >= segmentSize)
+            {
+                current = new Segment(nextSegmentNumber++);
+                segments.add(current);
+            }
+            current.put(idOf.apply(entity), entity);
+        }
+        structureChanged = true;
+        flush(true);
+    }
+
+    @Override
+    public void close()
+    {
+        // Segment files are closed after every write
+    }
+
+    private final class Segment
+    {
+        final int number;
+        final Map<String, T> records = new LinkedHashMap<>();
+        // Null until the segment has been written
+        String fileName;
+        boolean dirty;
+
+        Segment(int number)
+        {
+            this.number = number;
+        }
+
+        void put(String id, T entity)
+        {
+            records.put(id, entity);
+            segmentsById.put(id, this);
+            dirty = true;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out document numbers (order, invoice, PO, RMA, SFC) from in-memory counters.
+ * <p>
+ * Each sequence is backed by a counter file holding the highest number that may have
+ * been issued. Instead of rewriting the file for every number, a block of
+ * {@code jsondb.sequence-block-size} numbers is reserved at a time: the new upper bound
+ * is written (to a temporary file, forced and atomically moved into place) before any
+ * number from the block is returned. After a crash the sequence resumes above the last
+ * reservation, so numbers are never reused; at most the unused rest of one block is
+ * skipped. On a clean shutdown the file is set back to the last issued number, so a
+ * normal restart continues without a gap.
+ */
+@Component
+public class SequenceService
+{
+    private static final Logger logger = LoggerFactory.getLogger(SequenceService.class);
+    static final int DEFAULT_BLOCK_SIZE = 1000;
+
+    private final Map<Path, Sequence> sequences = new ConcurrentHashMap<>();
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    @Autowired(required = false)
+    public void setJsonDbConfig(JsonDbConfig config)
+    {
+        this.blockSize = Math.max(1, config.getSequenceBlockSize());
+    }
+
+    /**
+     * Returns the next number of the sequence stored in the given counter file. A
+     * missing, empty or unreadable file starts the sequence after initialValue.
+     */
+    public long next(Path counterFilePath, long initialValue)
+    {
+        return sequences.computeIfAbsent(counterFilePath.toAbsolutePath().normalize(),
+            path -> new Sequence(path, initialValue)).next();
+    }
+
+    /**
+     * Makes sure the sequence in the given counter file continues after value, e.g.
+     * once data that used numbers up to it has been restored. A sequence that is
+     * already further along is left alone.
+     */
+    public void advanceTo(Path counterFilePath, long value)
+    {
+        sequences.computeIfAbsent(counterFilePath.toAbsolutePath().normalize(),
+            path -> new Sequence(path, value)).advanceTo(value);
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        for (Sequence sequence : sequences.values())
+        {
+            sequence.release();
+        }
+    }
+
+    private final class Sequence
+    {
+        private final Path counterFilePath;
+        private final AtomicLong lastIssued;
+        private volatile long reservedUpTo;
+
+        Sequence(Path counterFilePath, long initialValue)
+        {
+            this.counterFilePath = counterFilePath;
+            long start = readCounter(initialValue);
+            this.lastIssued = new AtomicLong(start);
+            this.reservedUpTo = start;
+        }
+
+        long next()
+        {
+            long value = lastIssued.incrementAndGet();
+            if (value > reservedUpTo)
+            {
+                synchronized (this)
+                {
+                    if (value > reservedUpTo)
+                    {
+                        long newLimit = Math.max(reservedUpTo, value - 1) + blockSize;
+                        writeCounter(newLimit);
+                        reservedUpTo = newLimit;
+                        logger.info("Reserved numbers up to {} in {}", newLimit, counterFilePath.getFileName());
+                    }
+                }
+            }
+            return value;
+        }
+
+        synchronized void advanceTo(long value)
+        {
+            lastIssued.accumulateAndGet(value, Math::max);
+            if (reservedUpTo < value)
+            {
+                writeCounter(value);
+                reservedUpTo = value;
+            }
+        }
+
+        /**
+         * Gives back the unused part of the current block. Callers racing with the
+         * release either block on the reservation path or are detected by the second
+         * read, in which case the block is kept.
+         */
+        synchronized void release()
+        {
+            long last = lastIssued.get();
+            long reserved = reservedUpTo;
+            if (last >= reserved)
+            {
+                return;
+            }
+            reservedUpTo = last;
+            writeCounter(last);
+            if (lastIssued.get() != last)
+            {
+                writeCounter(reserved);
+                reservedUpTo = reserved;
+            }
+        }
+
+        private long readCounter(long initialValue)
+        {
+            try
+            {
+                if (!Files.exists(counterFilePath))
+                {
+                    logger.info("Counter file {} not found, starting after {}", counterFilePath.getFileName(), initialValue);
+                    return initialValue;
+                }
+                String content = Files.readString(counterFilePath, StandardCharsets.UTF_8).trim();
+                if (content.isEmpty())
+                {
+                    logger.info("Counter file {} is empty, starting after {}", counterFilePath.getFileName(), initialValue);
+                    return initialValue;
+                }
+                return Math.max(Long.parseLong(content), initialValue);
+            }
+            catch (IOException | NumberFormatException e)
+            {
+                logger.warn("Counter file {} is unreadable, starting after {}: {}", counterFilePath.getFileName(), initialValue, e.getMessage());
+                return initialValue;
+            }
+        }
+
+        private void writeCounter(long value)
+        {
+            Path tempFilePath = counterFilePath.resolveSibling(counterFilePath.getFileName() + ".tmp");
+            try
+            {
+                Files.createDirectories(counterFilePath.getParent());
+                Files.writeString(tempFilePath, String.valueOf(value), StandardCharsets.UTF_8);
+                try (FileChannel channel = FileChannel.open(tempFilePath, StandardOpenOption.WRITE))
+                {
+                    channel.force(true);
+                }
+                Files.move(tempFilePath, counterFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e)
+            {
+                logger.error("Failed to write counter file {}", counterFilePath, e);
+                throw new AbstractJsonRepository.DataPersistenceException("Failed to reserve numbers in " + counterFilePath.getFileName(), e);
+            }
+        }
+    }
+}
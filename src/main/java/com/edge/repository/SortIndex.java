@@ -0,0 +1,225 @@
+package com.edge.repository;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Ordered index over one entity field, declared by a repository through
+ * {@link AbstractJsonRepository#sortIndex} and kept up to date by the repository on
+ * every mutation. It lets {@link AbstractJsonRepository#findPage} serve a page of the
+ * collection sorted by the field by walking from the page's cursor, instead of
+ * sorting the whole collection per request.
+ * <p>
+ * Entities are ordered by the field's value, then by ID, so the order is total and a
+ * cursor stays valid while entities around it change. Entities with a null value sort
+ * after all others. Like {@link EntityIndex}, the index is persistent and every
+ * {@link RepositorySnapshot} holds the version current at its commit.
+ * <p>
+ * A prefix index, declared through {@link AbstractJsonRepository#prefixIndex}, orders
+ * the keys of a unique index normalized as by {@link TextIndex#normalize}, for
+ * autocompletion. It is not offered for sorting or filtering.
+ */
+public class SortIndex<T>
+{
+    private final String name;
+    private final Class<?> type;
+    private final Function<T, ? extends Comparable<?>> field;
+    // The unique index whose keys a prefix index holds, or null
+    private final EntityIndex<T> prefixOf;
+    // Sort key -> entity; persistent, so snapshots share it as it is
+    private PersistentTreeMap<SortKey, T> entries = PersistentTreeMap.empty();
+    // ID -> key the entity was last indexed under
+    private PersistentMap<String, SortKey> keysById = PersistentMap.empty();
+
+    SortIndex(String name, Class<?> type, Function<T, ? extends Comparable<?>> field)
+    {
+        this(name, type, field, null);
+    }
+
+    private SortIndex(String name, Class<?> type, Function<T, ? extends Comparable<?>> field, EntityIndex<T> prefixOf)
+    {
+        this.name = name;
+        this.type = type;
+        this.field = field;
+        this.prefixOf = prefixOf;
+    }
+
+    static <T> SortIndex<T> prefixIndex(EntityIndex<T> keys)
+    {
+        return new SortIndex<>(keys.getName(), String.class, entity ->
+        {
+            String key = keys.keyStringOf(entity);
+            return key == null ? null : TextIndex.normalize(key);
+        }, keys);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * The type of the field's values, which a page cursor's value is read back as.
+     */
+    Class<?> getType()
+    {
+        return type;
+    }
+
+    /**
+     * The unique index whose normalized keys this prefix index holds, or null if it is
+     * a sort index.
+     */
+    EntityIndex<T> getPrefixOf()
+    {
+        return prefixOf;
+    }
+
+    Comparable<?> valueOf(T entity)
+    {
+        return field.apply(entity);
+    }
+
+    SortKey keyOf(String id, T entity)
+    {
+        return new SortKey(valueOf(entity), id);
+    }
+
+    void put(String id, T entity)
+    {
+        SortKey key = keyOf(id, entity);
+        SortKey old = keysById.get(id);
+        if (old != null && !old.equals(key))
+        {
+            entries = entries.without(old);
+        }
+        entries = entries.with(key, entity);
+        keysById = keysById.with(id, key);
+    }
+
+    void remove(String id)
+    {
+        SortKey old = keysById.get(id);
+        if (old != null)
+        {
+            keysById = keysById.without(id);
+            entries = entries.without(old);
+        }
+    }
+
+    /**
+     * The current entries, for a snapshot; later changes do not affect them.
+     */
+    PersistentTreeMap<SortKey, T> entries()
+    {
+        return entries;
+    }
+
+    void clear()
+    {
+        entries = PersistentTreeMap.empty();
+        keysById = PersistentMap.empty();
+    }
+
+    /**
+     * Captures the writer-side state for a unit of work to roll back to, see
+     * {@link EntityIndex#saveState}.
+     */
+    SavedState<T> saveState()
+    {
+        return new SavedState<>(entries, keysById);
+    }
+
+    void restore(SavedState<T> state)
+    {
+        entries = state.entries;
+        keysById = state.keysById;
+    }
+
+    static final class SavedState<T>
+    {
+        private final PersistentTreeMap<SortKey, T> entries;
+        private final PersistentMap<String, SortKey> keysById;
+
+        private SavedState(PersistentTreeMap<SortKey, T> entries, PersistentMap<String, SortKey> keysById)
+        {
+            this.entries = entries;
+            this.keysById = keysById;
+        }
+    }
+
+    /**
+     * A field value and the ID of the entity it belongs to, ordered by value (nulls
+     * last), then ID. A bound (see {@link #before} and {@link #after}) has no ID and
+     * sorts before or after every key with its value, so it delimits a range of values.
+     */
+    static final class SortKey implements Comparable<SortKey>
+    {
+        final Comparable<?> value;
+        final String id;
+        // -1 before, 1 after all keys with the value, 0 for the key of an entity
+        private final int bound;
+
+        SortKey(Comparable<?> value, String id)
+        {
+            this(value, id, 0);
+        }
+
+        private SortKey(Comparable<?> value, String id, int bound)
+        {
+            this.value = value;
+            this.id = id;
+            this.bound = bound;
+        }
+
+        static SortKey before(Comparable<?> value)
+        {
+            return new SortKey(value, null, -1);
+        }
+
+        static SortKey after(Comparable<?> value)
+        {
+            return new SortKey(value, null, 1);
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public int compareTo(SortKey other)
+        {
+            if (value != other.value)
+            {
+                if (value == null)
+                {
+                    return 1;
+                }
+                if (other.value == null)
+                {
+                    return -1;
+                }
+                int comparison = ((Comparable) value).compareTo(other.value);
+                if (comparison != 0)
+                {
+                    return comparison;
+                }
+            }
+            if (bound != 0 || other.bound != 0)
+            {
+                return Integer.compare(bound, other.bound);
+            }
+            return id.compareTo(other.id);
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof SortKey key && Objects.equals(value, key.value) && Objects.equals(id, key.id)
+                && bound == key.bound;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(value, id, bound);
+        }
+    }
+}
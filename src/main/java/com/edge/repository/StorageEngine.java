@@ -0,0 +1,93 @@
+package com.edge.repository;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Durable storage behind an {@link AbstractJsonRepository}. The repository keeps the
+ * whole collection in memory and serves every read from there; an engine only
+ * persists changes and streams the stored collection back when the repository loads.
+ * <p>
+ * The engine for a collection is chosen with {@code jsondb.storage.<collection>}
+ * ({@code json}, {@code segmented} or {@code h2}). Changes are handed over one entity
+ * at a time and may be buffered until {@link #flush(boolean)}. All calls except flush
+ * are made while the repository's writer lock is held; flush may also come from the
+ * write-behind flusher, so implementations must be thread-safe.
+ */
+public interface StorageEngine<T>
+{
+    /**
+     * Short name of the engine as used in the configuration, e.g. {@code json}.
+     */
+    String getType();
+
+    /**
+     * Streams the stored collection in its stored order. An entity passed to onEntity
+     * replaces an earlier one with the same ID; onDelete removes one.
+     */
+    void load(Consumer<T> onEntity, Consumer<String> onDelete) throws IOException;
+
+    /**
+     * Like {@link #load}, but where the engine supports it, hands stored records over
+     * as {@link LazyRecord}s whose stubs carry only the given properties. The default
+     * loads every entity in full.
+     */
+    default void loadLazily(Set<String> keyProperties, Consumer<LazyRecord<T>> onRecord,
+        Consumer<T> onEntity, Consumer<String> onDelete) throws IOException
+    {
+        load(onEntity, onDelete);
+    }
+
+    void put(String id, T entity) throws IOException;
+
+    void delete(String id) throws IOException;
+
+    /**
+     * Accepts the changes of a {@link UnitOfWork}, which must survive a crash together
+     * or not at all; a null value deletes the entity. Like put and delete, the batch
+     * may be buffered until the next flush. The default hands the changes to put and
+     * delete, which is enough for engines that write all pending changes atomically;
+     * such engines must still keep a concurrent flush from splitting the batch.
+     */
+    default void applyBatch(Map<String, T> changes) throws IOException
+    {
+        for (Map.Entry<String, T> change : changes.entrySet())
+        {
+            if (change.getValue() == null)
+            {
+                delete(change.getKey());
+            }
+            else
+            {
+                put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /**
+     * Number of changes accepted by put/delete that have not been flushed yet.
+     */
+    int getPendingCount();
+
+    /**
+     * Writes the pending changes; with force, also makes every change written so far
+     * durable before returning.
+     */
+    void flush(boolean force) throws IOException;
+
+    /**
+     * Whether the engine would like {@link #compact} to be called, e.g. because its
+     * change log has grown large.
+     */
+    boolean needsCompaction();
+
+    /**
+     * Replaces the stored collection with the given entities, in their iteration order.
+     */
+    void compact(Collection<T> entities) throws IOException;
+
+    void close();
+}
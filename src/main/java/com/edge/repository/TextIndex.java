@@ -0,0 +1,455 @@
+package com.edge.repository;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Full-text index over some text fields of an entity, declared by a repository through
+ * {@link AbstractJsonRepository#textIndex} and kept up to date by the repository on
+ * every mutation, like {@link EntityIndex}.
+ * <p>
+ * Text is normalized (NFKC, so full-width and half-width forms match, then lower
+ * case) and cut into character bigrams and trigrams, so a query matches anywhere
+ * inside a word and needs no word boundaries, which Japanese names do not have.
+ * Characters outside ASCII are also indexed on their own, so a single kanji or kana
+ * can be searched for. The index maps each gram to the entities containing it, in
+ * collection order. A query looks up the grams of its terms (trigrams for terms of
+ * three or more characters) and walks only the shortest list, checking each candidate
+ * against the normalized text kept per entity, so no entity is read.
+ * <p>
+ * The postings are persistent, and every {@link RepositorySnapshot} holds the version
+ * current at its commit.
+ */
+public class TextIndex<T>
+{
+    private final AbstractJsonRepository<T> owner;
+    private final String name;
+    private final List<Field<T>> fields;
+    private State state = emptyState();
+
+    TextIndex(AbstractJsonRepository<T> owner, String name, List<Field<T>> fields)
+    {
+        if (fields.isEmpty())
+        {
+            throw new IllegalArgumentException("Text index " + name + " must have at least one field");
+        }
+        this.owner = owner;
+        this.name = name;
+        this.fields = List.copyOf(fields);
+    }
+
+    /**
+     * A text field of the entity; fields declared first rank higher.
+     */
+    public static <T> Field<T> field(String name, Function<T, String> value)
+    {
+        return new Field<>(name, value);
+    }
+
+    public static final class Field<T>
+    {
+        private final String name;
+        private final Function<T, String> value;
+
+        private Field(String name, Function<T, String> value)
+        {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the best matches for the query, best first. Every whitespace-separated
+     * term must occur in one of the fields. A term ranks higher the closer the match
+     * is to the whole field (equal, then prefix, then start of a word, then anywhere),
+     * and each field counts half as much as the one declared before it; ties keep
+     * collection order. Archived
+     * entities are not searched.
+     *
+     * @throws IllegalArgumentException if the query has no term that can be looked up
+     */
+    public List<SearchHit<T>> search(String query, int limit)
+    {
+        return owner.search(this, query, limit);
+    }
+
+    static String normalize(String text)
+    {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    // Adds the single non-ASCII characters if asked, and the grams of the given lengths
+    // in code points
+    private static void addGrams(String word, Set<String> grams, boolean singles, int minLength, int maxLength)
+    {
+        int[] starts = new int[word.codePointCount(0, word.length()) + 1];
+        for (int i = 0, at = 0; i < starts.length; i++)
+        {
+            starts[i] = at;
+            if (at < word.length())
+            {
+                at = word.offsetByCodePoints(at, 1);
+            }
+        }
+        int count = starts.length - 1;
+        for (int i = 0; i < count; i++)
+        {
+            if (singles && word.charAt(starts[i]) > 0x7f)
+            {
+                grams.add(word.substring(starts[i], starts[i + 1]));
+            }
+            for (int length = minLength; length <= maxLength && i + length <= count; length++)
+            {
+                grams.add(word.substring(starts[i], starts[i + length]));
+            }
+        }
+    }
+
+    /**
+     * The grams to look a query term up by: the term itself if it is a single non-ASCII
+     * character or has two characters, else its trigrams. None for a single ASCII
+     * character, which is only checked on the candidates of the other terms.
+     */
+    private static Set<String> queryGrams(String term)
+    {
+        Set<String> grams = new LinkedHashSet<>();
+        int length = term.codePointCount(0, term.length());
+        if (length == 2 || (length == 1 && term.charAt(0) > 0x7f))
+        {
+            grams.add(term);
+        }
+        else if (length > 2)
+        {
+            addGrams(term, grams, false, 3, 3);
+        }
+        return grams;
+    }
+
+    private static List<String> wordsOf(String normalized)
+    {
+        List<String> words = new ArrayList<>();
+        for (String word : normalized.split("\\s+"))
+        {
+            if (!word.isEmpty())
+            {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Whether the indexed fields of the two entities are equal, for checking lazy stubs.
+     */
+    boolean sameText(T entity, T other)
+    {
+        for (Field<T> field : fields)
+        {
+            if (!Objects.equals(field.value.apply(entity), field.value.apply(other)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Entry entryOf(int position, T entity)
+    {
+        String[] texts = new String[fields.size()];
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i < texts.length; i++)
+        {
+            String text = fields.get(i).value.apply(entity);
+            texts[i] = text == null ? "" : normalize(text);
+            for (String word : wordsOf(texts[i]))
+            {
+                addGrams(word, grams, true, 2, 3);
+            }
+        }
+        return new Entry(position, texts, grams.toArray(new String[0]));
+    }
+
+    void put(String id, int position, T entity)
+    {
+        Entry entry = entryOf(position, entity);
+        State current = state;
+        Entry old = current.entriesById.get(id);
+        if (old != null && old.position == position && Arrays.equals(old.texts, entry.texts))
+        {
+            return;
+        }
+        PersistentMap<String, PersistentSequence<Entry>> postings = current.postings;
+        if (old != null)
+        {
+            Set<String> grams = Set.of(entry.grams);
+            for (String gram : old.grams)
+            {
+                if (old.position != position || !grams.contains(gram))
+                {
+                    postings = withoutPosting(postings, gram, old.position);
+                }
+            }
+        }
+        for (String gram : entry.grams)
+        {
+            PersistentSequence<Entry> entries = postings.get(gram);
+            postings = postings.with(gram, (entries == null ? PersistentSequence.<Entry>empty() : entries).with(position, entry));
+        }
+        state = new State(postings, current.entriesById.with(id, entry));
+    }
+
+    void remove(String id)
+    {
+        State current = state;
+        Entry old = current.entriesById.get(id);
+        if (old == null)
+        {
+            return;
+        }
+        PersistentMap<String, PersistentSequence<Entry>> postings = current.postings;
+        for (String gram : old.grams)
+        {
+            postings = withoutPosting(postings, gram, old.position);
+        }
+        state = new State(postings, current.entriesById.without(id));
+    }
+
+    /**
+     * Indexes a freshly loaded collection from scratch, collecting each gram's entities
+     * first and building its list once instead of adding them one by one.
+     */
+    void rebuild(PersistentSequence<T> items, PersistentMap<String, Integer> positionsById, Function<T, String> ids)
+    {
+        Map<String, List<Entry>> entriesByGram = new HashMap<>();
+        PersistentMap<String, Entry> entriesById = PersistentMap.empty();
+        for (T entity : items.asList())
+        {
+            String id = ids.apply(entity);
+            Entry entry = entryOf(positionsById.get(id), entity);
+            for (String gram : entry.grams)
+            {
+                entriesByGram.computeIfAbsent(gram, key -> new ArrayList<>()).add(entry);
+            }
+            entriesById = entriesById.with(id, entry);
+        }
+        PersistentMap<String, PersistentSequence<Entry>> postings = PersistentMap.empty();
+        for (Map.Entry<String, List<Entry>> gram : entriesByGram.entrySet())
+        {
+            int[] positions = gram.getValue().stream().mapToInt(entry -> entry.position).toArray();
+            postings = postings.with(gram.getKey(), PersistentSequence.ofSorted(positions, gram.getValue()));
+        }
+        state = new State(postings, entriesById);
+    }
+
+    private static PersistentMap<String, PersistentSequence<Entry>> withoutPosting(
+        PersistentMap<String, PersistentSequence<Entry>> postings, String gram, int position)
+    {
+        PersistentSequence<Entry> entries = postings.get(gram);
+        if (entries == null)
+        {
+            return postings;
+        }
+        PersistentSequence<Entry> remaining = entries.without(position);
+        return remaining.isEmpty() ? postings.without(gram) : postings.with(gram, remaining);
+    }
+
+    void clear()
+    {
+        state = emptyState();
+    }
+
+    static State emptyState()
+    {
+        return new State(PersistentMap.empty(), PersistentMap.empty());
+    }
+
+    /**
+     * The current postings and texts, for a snapshot, or for a unit of work to roll
+     * back to; later changes do not affect them.
+     */
+    State state()
+    {
+        return state;
+    }
+
+    void restore(State saved)
+    {
+        state = saved;
+    }
+
+    /**
+     * Returns the positions of the best matches in a state of the index, best first.
+     */
+    List<Match> search(State searched, String query, int limit)
+    {
+        if (limit < 1)
+        {
+            throw new IllegalArgumentException("limit must be at least 1 but was " + limit);
+        }
+        List<String> terms = wordsOf(normalize(query == null ? "" : query));
+        PersistentSequence<Entry> shortest = null;
+        for (String term : terms)
+        {
+            for (String gram : queryGrams(term))
+            {
+                PersistentSequence<Entry> entries = searched.postings.get(gram);
+                if (entries == null)
+                {
+                    return List.of();
+                }
+                if (shortest == null || entries.size() < shortest.size())
+                {
+                    shortest = entries;
+                }
+            }
+        }
+        if (shortest == null)
+        {
+            throw new IllegalArgumentException("Search needs a term of at least 2 characters");
+        }
+        // Higher scores rank first, then earlier positions; the worst match kept is at the head
+        Comparator<Match> ranking = Comparator.comparingInt(Match::score)
+            .thenComparing(Comparator.comparingInt(Match::position).reversed());
+        PriorityQueue<Match> best = new PriorityQueue<>(ranking);
+        for (Entry entry : shortest.asList())
+        {
+            int score = score(entry, terms, null);
+            // Candidates come in position order, so a tie with the worst kept ranks lower
+            if (score > 0 && (best.size() < limit || score > best.peek().score()))
+            {
+                best.add(new Match(entry.position, score, null));
+                if (best.size() > limit)
+                {
+                    best.poll();
+                }
+            }
+        }
+        List<Match> ranked = new ArrayList<>(best);
+        ranked.sort(ranking.reversed());
+        List<Match> results = new ArrayList<>(ranked.size());
+        for (Match match : ranked)
+        {
+            Entry entry = shortest.get(match.position());
+            List<String> matchedFields = new ArrayList<>();
+            score(entry, terms, matchedFields);
+            results.add(new Match(match.position(), match.score(), List.copyOf(matchedFields)));
+        }
+        return results;
+    }
+
+    /**
+     * Scores the entry for the terms, or returns 0 if a term is in none of its fields;
+     * adds the names of the fields the terms were found in if a list is given.
+     */
+    private int score(Entry entry, List<String> terms, List<String> matchedFields)
+    {
+        int score = 0;
+        for (String term : terms)
+        {
+            int termScore = 0;
+            int termField = -1;
+            for (int i = 0; i < entry.texts.length; i++)
+            {
+                String text = entry.texts[i];
+                int at = text.indexOf(term);
+                if (at < 0)
+                {
+                    continue;
+                }
+                int closeness;
+                if (text.length() == term.length())
+                {
+                    closeness = 4;
+                }
+                else if (at == 0)
+                {
+                    closeness = 3;
+                }
+                else if (startsWord(text, at) || startsWord(text, text.indexOf(" " + term) + 1))
+                {
+                    closeness = 2;
+                }
+                else
+                {
+                    closeness = 1;
+                }
+                // Each later field counts half as much; the same scale for every index
+                int fieldScore = Math.max(1, (closeness * 100) >> i);
+                if (fieldScore > termScore)
+                {
+                    termScore = fieldScore;
+                    termField = i;
+                }
+            }
+            if (termField < 0)
+            {
+                return 0;
+            }
+            score += termScore;
+            if (matchedFields != null && !matchedFields.contains(fields.get(termField).name))
+            {
+                matchedFields.add(fields.get(termField).name);
+            }
+        }
+        return score;
+    }
+
+    private static boolean startsWord(String text, int at)
+    {
+        return at > 0 && Character.isWhitespace(text.charAt(at - 1));
+    }
+
+    /**
+     * Normalized texts of one entity and the grams it is listed under.
+     */
+    private static final class Entry
+    {
+        final int position;
+        final String[] texts;
+        final String[] grams;
+
+        Entry(int position, String[] texts, String[] grams)
+        {
+            this.position = position;
+            this.texts = texts;
+            this.grams = grams;
+        }
+    }
+
+    static final class State
+    {
+        private final PersistentMap<String, PersistentSequence<Entry>> postings;
+        private final PersistentMap<String, Entry> entriesById;
+
+        private State(PersistentMap<String, PersistentSequence<Entry>> postings, PersistentMap<String, Entry> entriesById)
+        {
+            this.postings = postings;
+            this.entriesById = entriesById;
+        }
+    }
+
+    record Match(int position, int score, List<String> fields)
+    {
+    }
+}
@@ -0,0 +1,187 @@
+package com.edge.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Groups changes to several repositories, e.g. shipping an order and taking its
+ * lines out of inventory, so they are stored together or not at all.
+ * <pre>
+ * UnitOfWork.execute(List.of(orderRepository, inventoryRepository), () -&gt; ...);
+ * </pre>
+ * The writer locks of all participating repositories are taken up front (in
+ * collection name order, so two units cannot deadlock) and held until the unit
+ * ends. The work runs against the in-memory collections as usual, but the changes
+ * are buffered instead of written, and other threads keep reading the previous
+ * snapshots. If the work throws, every participant is rolled back in memory and
+ * nothing is written. Otherwise each collection's changes go to its storage engine
+ * as one batch (one write-ahead log record for JSON storage), which is atomic per
+ * collection. Batches are handed to every engine before any is flushed; if an
+ * engine rejects its batch, the commit fails and every participant is rolled back,
+ * the ones whose batch was already accepted by a second batch that restores their
+ * entities. A batch that is accepted but fails to flush stays pending in its engine,
+ * like any other change.
+ * <p>
+ * Repositories not listed write through as usual. The {@link ChangeFeed} records the
+ * changes when the unit commits. Actions registered with {@link #afterCommit} run once
+ * the new snapshots are published and are dropped if the unit fails.
+ */
+public final class UnitOfWork
+{
+    private static final Logger logger = LoggerFactory.getLogger(UnitOfWork.class);
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+
+    private final List<AbstractJsonRepository<?>> participants;
+    private final List<Runnable> afterCommitActions = new ArrayList<>();
+
+    private UnitOfWork(List<AbstractJsonRepository<?>> participants)
+    {
+        this.participants = participants;
+    }
+
+    /**
+     * Runs the work as a unit of work over the given repositories and returns its
+     * result. Called inside a unit that already covers them, the work simply joins it.
+     */
+    public static <R> R execute(List<? extends AbstractJsonRepository<?>> repositories, Supplier<R> work)
+    {
+        UnitOfWork outer = current.get();
+        if (outer != null)
+        {
+            if (!outer.participants.containsAll(repositories))
+            {
+                throw new IllegalStateException("A nested unit of work may only use the repositories of the enclosing one");
+            }
+            return work.get();
+        }
+
+        List<AbstractJsonRepository<?>> ordered = new ArrayList<>(new LinkedHashSet<>(repositories));
+        ordered.sort(Comparator.comparing(AbstractJsonRepository::getCollectionName));
+        UnitOfWork unit = new UnitOfWork(ordered);
+        R result = unit.run(work);
+        unit.runAfterCommitActions();
+        return result;
+    }
+
+    /**
+     * Runs the action after the current thread's unit of work has committed, or right
+     * away outside a unit of work.
+     */
+    public static void afterCommit(Runnable action)
+    {
+        UnitOfWork unit = current.get();
+        if (unit == null)
+        {
+            action.run();
+        }
+        else
+        {
+            unit.afterCommitActions.add(action);
+        }
+    }
+
+    private <R> R run(Supplier<R> work)
+    {
+        List<AbstractJsonRepository<?>> entered = new ArrayList<>(participants.size());
+        try
+        {
+            for (AbstractJsonRepository<?> repository : participants)
+            {
+                repository.enterUnitOfWork();
+                entered.add(repository);
+            }
+            current.set(this);
+
+            R result;
+            try
+            {
+                result = work.get();
+            }
+            catch (RuntimeException | Error e)
+            {
+                entered.forEach(AbstractJsonRepository::rollbackUnitOfWork);
+                throw e;
+            }
+            commit();
+            return result;
+        }
+        finally
+        {
+            current.remove();
+            // Publishes the new snapshots
+            for (int i = entered.size() - 1; i >= 0; i--)
+            {
+                entered.get(i).leaveUnitOfWork();
+            }
+        }
+    }
+
+    private void commit()
+    {
+        for (int i = 0; i < participants.size(); i++)
+        {
+            try
+            {
+                participants.get(i).writeUnitOfWork();
+            }
+            catch (RuntimeException e)
+            {
+                // The failed participant has undone its own batch
+                for (AbstractJsonRepository<?> accepted : participants.subList(0, i))
+                {
+                    accepted.undoUnitOfWork();
+                }
+                for (AbstractJsonRepository<?> remaining : participants.subList(i + 1, participants.size()))
+                {
+                    remaining.rollbackUnitOfWork();
+                }
+                afterCommitActions.clear();
+                logger.error("Unit of work failed to commit {}: {}", participants.get(i).getEntityName(), e.getMessage());
+                throw e;
+            }
+        }
+        RuntimeException flushFailure = null;
+        for (AbstractJsonRepository<?> participant : participants)
+        {
+            try
+            {
+                participant.commitUnitOfWork();
+            }
+            catch (RuntimeException e)
+            {
+                // The changes are committed in memory and pending in the engine; the
+                // other participants still record and flush theirs
+                if (flushFailure == null)
+                {
+                    flushFailure = e;
+                }
+            }
+        }
+        if (flushFailure != null)
+        {
+            afterCommitActions.clear();
+            throw flushFailure;
+        }
+    }
+
+    private void runAfterCommitActions()
+    {
+        for (Runnable action : afterCommitActions)
+        {
+            try
+            {
+                action.run();
+            }
+            catch (RuntimeException e)
+            {
+                logger.error("After-commit action failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+}
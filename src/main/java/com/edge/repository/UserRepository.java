@@ -1,12 +1,10 @@
 package com.edge.repository;
 
 import com.edge.entity.User;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,33 +15,17 @@ public class UserRepository extends AbstractJsonRepository<User>
     private static final String DATA_FILE_NAME = "users.json";
     private static final String DATA_DIR_NAME = "data";
 
+    private final EntityIndex<User> byEmail = uniqueIndex("email", User::getEmail);
+    private final EntityIndex<User> byUserid = uniqueIndex("userid", User::getUserid);
+    private final SortIndex<User> useridOrder = sortIndex("userid", String.class, User::getUserid);
+    private final SortIndex<User> lastNameOrder = sortIndex("lastName", String.class, User::getLastName);
+    private final SortIndex<User> roleOrder = sortIndex("role", String.class, User::getRole);
+
     public UserRepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "users");
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException
-    {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty user list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<User>>() {});
-            logger.info("Successfully loaded {} users from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
-    }
-
     @Override
     protected String getId(User entity)
     {
@@ -59,13 +41,13 @@ public class UserRepository extends AbstractJsonRepository<User>
     public Optional<User> getUserByEmail(String email)
     {
         if (email == null || email.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(user -> email.equals(user.getEmail())).findFirst();
+        return byEmail.findFirst(email);
     }
 
     public Optional<User> getUserByUserid(String userid)
     {
         if (userid == null || userid.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(user -> userid.equals(user.getUserid())).findFirst();
+        return byUserid.findFirst(userid);
     }
 
     public Optional<User> getUserById(String id)
@@ -78,6 +60,11 @@ public class UserRepository extends AbstractJsonRepository<User>
         return findAll();
     }
 
+    public Page<User> getAllUsers(PageRequest request)
+    {
+        return findPage(request);
+    }
+
     public User createUser(User user)
     {
         if (user == null) throw new IllegalArgumentException("User cannot be null");
@@ -93,28 +80,31 @@ public class UserRepository extends AbstractJsonRepository<User>
         if (userDetails == null)
             throw new IllegalArgumentException("User details cannot be null");
 
-        User existingUser = findById(id).orElseThrow(() -> new UserNotFoundException("User not found with id: " + id));
-        
-        Optional<User> emailCheck = getUserByEmail(userDetails.getEmail());
-        if (emailCheck.isPresent() && !id.equals(emailCheck.get().getId()))
-            throw new UserAlreadyExistsException("User with email " + userDetails.getEmail() + " already exists");
-
-        // Update fields manually
-        existingUser.setUserid(userDetails.getUserid());
-        existingUser.setFirstName(userDetails.getFirstName());
-        existingUser.setLastName(userDetails.getLastName());
-        existingUser.setEmail(userDetails.getEmail());
-        existingUser.setRole(userDetails.getRole());
-        existingUser.setJsonData(userDetails.getJsonData());
-        // Update password only if provided
-        if (userDetails.getPassword() != null && !userDetails.getPassword().isEmpty())
+        return inWriteLock(() ->
         {
-            existingUser.setPassword(userDetails.getPassword());
-        }
+            User existingUser = findByIdForUpdate(id).orElseThrow(() -> new UserNotFoundException("User not found with id: " + id));
+        
+            Optional<User> emailCheck = getUserByEmail(userDetails.getEmail());
+            if (emailCheck.isPresent() && !id.equals(emailCheck.get().getId()))
+                throw new UserAlreadyExistsException("User with email " + userDetails.getEmail() + " already exists");
+
+            // Update fields manually
+            existingUser.setUserid(userDetails.getUserid());
+            existingUser.setFirstName(userDetails.getFirstName());
+            existingUser.setLastName(userDetails.getLastName());
+            existingUser.setEmail(userDetails.getEmail());
+            existingUser.setRole(userDetails.getRole());
+            existingUser.setJsonData(userDetails.getJsonData());
+            // Update password only if provided
+            if (userDetails.getPassword() != null && !userDetails.getPassword().isEmpty())
+            {
+                existingUser.setPassword(userDetails.getPassword());
+            }
         
-        saveItems();
-        logger.info("Updated user with ID: {}", id);
-        return existingUser;
+            saveItem(existingUser);
+            logger.info("Updated user with ID: {}", id);
+            return existingUser;
+        });
     }
 
     public void deleteUser(String id)
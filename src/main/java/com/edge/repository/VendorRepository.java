@@ -4,12 +4,10 @@ package com.edge.repository;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Vendor;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,33 +18,24 @@ public class VendorRepository extends AbstractJsonRepository<Vendor>
     private static final String DATA_FILE_NAME = "vendors.json";
     private static final String DATA_DIR_NAME = "data";
 
+    private final EntityIndex<Vendor> byEmail = uniqueIndex("email", Vendor::getEmail);
+    private final EntityIndex<Vendor> byVendorNumber = uniqueIndex("vendorNumber", Vendor::getVendorNumber);
+    private final SortIndex<Vendor> vendorNumberOrder = sortIndex("vendorNumber", String.class, Vendor::getVendorNumber);
+    private final SortIndex<Vendor> companyNameOrder = sortIndex("companyName", String.class, Vendor::getCompanyName);
+    private final SortIndex<Vendor> lastNameOrder = sortIndex("lastName", String.class, Vendor::getLastName);
+    private final SortIndex<Vendor> vendorNumberPrefix = prefixIndex(byVendorNumber);
+    private final TextIndex<Vendor> vendorText = textIndex("text",
+        TextIndex.field("companyName", Vendor::getCompanyName),
+        TextIndex.field("vendorNumber", Vendor::getVendorNumber),
+        TextIndex.field("lastName", Vendor::getLastName),
+        TextIndex.field("firstName", Vendor::getFirstName),
+        TextIndex.field("email", Vendor::getEmail));
+
     public VendorRepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "vendors");
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException
-    {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty vendor list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Vendor>>() {});
-            logger.info("Successfully loaded {} vendors from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
-    }
-
     @Override
     protected String getId(Vendor entity)
     {
@@ -62,13 +51,13 @@ public class VendorRepository extends AbstractJsonRepository<Vendor>
     public Optional<Vendor> getVendorByEmail(String email)
     {
         if (email == null || email.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(vendor -> email.equals(vendor.getEmail())).findFirst();
+        return byEmail.findFirst(email);
     }
 
     public Optional<Vendor> getVendorByVendorNumber(String vendorNumber)
     {
         if (vendorNumber == null || vendorNumber.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(vendor -> vendorNumber.equals(vendor.getVendorNumber())).findFirst();
+        return byVendorNumber.findFirst(vendorNumber);
     }
 
     public Optional<Vendor> getVendorById(String id)
@@ -81,6 +70,21 @@ public class VendorRepository extends AbstractJsonRepository<Vendor>
         return findAll();
     }
 
+    public Page<Vendor> getAllVendors(PageRequest request)
+    {
+        return findPage(request);
+    }
+
+    public List<SearchHit<Vendor>> searchVendors(String query, int limit)
+    {
+        return vendorText.search(query, limit);
+    }
+
+    public List<Vendor> findByVendorNumberPrefix(String prefix, int limit)
+    {
+        return findByPrefix(vendorNumberPrefix, prefix, limit);
+    }
+
     public Vendor createVendor(Vendor vendor)
     {
         if (vendor == null) throw new IllegalArgumentException("Vendor cannot be null");
@@ -104,54 +108,57 @@ public class VendorRepository extends AbstractJsonRepository<Vendor>
         if (vendorDetails == null)
             throw new IllegalArgumentException("Vendor details cannot be null");
 
-        Vendor existingVendor = findById(id).orElseThrow(() -> 
-            new VendorNotFoundException("Vendor not found with id: " + id));
-        
-        if (vendorDetails.getEmail() != null && !vendorDetails.getEmail().trim().isEmpty())
+        return inWriteLock(() ->
         {
-            Optional<Vendor> emailCheck = getVendorByEmail(vendorDetails.getEmail());
-            if (emailCheck.isPresent() && !id.equals(emailCheck.get().getId()))
+            Vendor existingVendor = findByIdForUpdate(id).orElseThrow(() -> 
+                new VendorNotFoundException("Vendor not found with id: " + id));
+        
+            if (vendorDetails.getEmail() != null && !vendorDetails.getEmail().trim().isEmpty())
             {
-                throw new VendorAlreadyExistsException("Vendor with email " + vendorDetails.getEmail() + " already exists");
+                Optional<Vendor> emailCheck = getVendorByEmail(vendorDetails.getEmail());
+                if (emailCheck.isPresent() && !id.equals(emailCheck.get().getId()))
+                {
+                    throw new VendorAlreadyExistsException("Vendor with email " + vendorDetails.getEmail() + " already exists");
+                }
             }
-        }
 
-        // Update fields
-        existingVendor.setVendorNumber(vendorDetails.getVendorNumber());
-        existingVendor.setCompanyName(vendorDetails.getCompanyName());
-        existingVendor.setFirstName(vendorDetails.getFirstName());
-        existingVendor.setLastName(vendorDetails.getLastName());
-        existingVendor.setEmail(vendorDetails.getEmail());
-        existingVendor.setPhone(vendorDetails.getPhone());
-        existingVendor.setAddressId(vendorDetails.getAddressId());
+            // Update fields
+            existingVendor.setVendorNumber(vendorDetails.getVendorNumber());
+            existingVendor.setCompanyName(vendorDetails.getCompanyName());
+            existingVendor.setFirstName(vendorDetails.getFirstName());
+            existingVendor.setLastName(vendorDetails.getLastName());
+            existingVendor.setEmail(vendorDetails.getEmail());
+            existingVendor.setPhone(vendorDetails.getPhone());
+            existingVendor.setAddressId(vendorDetails.getAddressId());
         
-        // Update jsonData, preserving addressIds if not provided
-        if (vendorDetails.getJsonData() != null)
-        {
-            java.util.Map<String, Object> newJsonData = new java.util.HashMap<>(vendorDetails.getJsonData());
-            // If addressIds is in the new jsonData, use it; otherwise preserve existing
-            if (!newJsonData.containsKey("addressIds") && existingVendor.getJsonData() != null && 
-                existingVendor.getJsonData().containsKey("addressIds"))
+            // Update jsonData, preserving addressIds if not provided
+            if (vendorDetails.getJsonData() != null)
             {
-                newJsonData.put("addressIds", existingVendor.getJsonData().get("addressIds"));
+                java.util.Map<String, Object> newJsonData = new java.util.HashMap<>(vendorDetails.getJsonData());
+                // If addressIds is in the new jsonData, use it; otherwise preserve existing
+                if (!newJsonData.containsKey("addressIds") && existingVendor.getJsonData() != null && 
+                    existingVendor.getJsonData().containsKey("addressIds"))
+                {
+                    newJsonData.put("addressIds", existingVendor.getJsonData().get("addressIds"));
+                }
+                existingVendor.setJsonData(new java.util.HashMap<>(newJsonData));
+            }
+            else if (existingVendor.getJsonData() != null && existingVendor.getJsonData().containsKey("addressIds"))
+            {
+                // Preserve existing addressIds if jsonData is null in update
+                java.util.Map<String, Object> jsonData = new java.util.HashMap<>();
+                jsonData.put("addressIds", existingVendor.getJsonData().get("addressIds"));
+                existingVendor.setJsonData(jsonData);
+            }
+            else
+            {
+                existingVendor.setJsonData(vendorDetails.getJsonData());
             }
-            existingVendor.setJsonData(new java.util.HashMap<>(newJsonData));
-        }
-        else if (existingVendor.getJsonData() != null && existingVendor.getJsonData().containsKey("addressIds"))
-        {
-            // Preserve existing addressIds if jsonData is null in update
-            java.util.Map<String, Object> jsonData = new java.util.HashMap<>();
-            jsonData.put("addressIds", existingVendor.getJsonData().get("addressIds"));
-            existingVendor.setJsonData(jsonData);
-        }
-        else
-        {
-            existingVendor.setJsonData(vendorDetails.getJsonData());
-        }
         
-        saveItems();
-        logger.info("Updated vendor with ID: {}", id);
-        return existingVendor;
+            saveItem(existingVendor);
+            logger.info("Updated vendor with ID: {}", id);
+            return existingVendor;
+        });
     }
 
     public void deleteVendor(String id)
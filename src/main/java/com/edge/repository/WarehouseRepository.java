@@ -4,12 +4,10 @@ package com.edge.repository;
  * @author Hidenori Takaku
  */
 import com.edge.entity.Warehouse;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,33 +18,16 @@ public class WarehouseRepository extends AbstractJsonRepository<Warehouse>
     private static final String DATA_FILE_NAME = "warehouses.json";
     private static final String DATA_DIR_NAME = "data";
 
+    private final EntityIndex<Warehouse> byWarehouseCode = uniqueIndex("warehouseCode", Warehouse::getWarehouseCode);
+    private final EntityIndex<Warehouse> byActive = index("active", Warehouse::isActive);
+    private final SortIndex<Warehouse> warehouseCodeOrder = sortIndex("warehouseCode", String.class, Warehouse::getWarehouseCode);
+    private final SortIndex<Warehouse> warehouseNameOrder = sortIndex("warehouseName", String.class, Warehouse::getWarehouseName);
+
     public WarehouseRepository()
     {
         super(DATA_DIR_NAME, DATA_FILE_NAME, "warehouses");
     }
 
-    @Override
-    protected void loadItemsFromFile() throws IOException
-    {
-        String content = new String(java.nio.file.Files.readAllBytes(dataFilePath));
-        if (content.trim().isEmpty())
-        {
-            logger.info("Data file is empty, starting with empty warehouse list");
-            items = new java.util.ArrayList<>();
-            return;
-        }
-        try
-        {
-            items = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Warehouse>>() {});
-            logger.info("Successfully loaded {} warehouses from data file", items.size());
-        }
-        catch (Exception e)
-        {
-            logger.error("Error parsing JSON data: {}", e.getMessage(), e);
-            items = new java.util.ArrayList<>();
-        }
-    }
-
     @Override
     protected String getId(Warehouse entity)
     {
@@ -67,7 +48,7 @@ public class WarehouseRepository extends AbstractJsonRepository<Warehouse>
     public Optional<Warehouse> getWarehouseByCode(String warehouseCode)
     {
         if (warehouseCode == null || warehouseCode.trim().isEmpty()) return Optional.empty();
-        return items.stream().filter(warehouse -> warehouseCode.equals(warehouse.getWarehouseCode())).findFirst();
+        return byWarehouseCode.findFirst(warehouseCode);
     }
 
     public List<Warehouse> getAllWarehouses()
@@ -75,11 +56,19 @@ public class WarehouseRepository extends AbstractJsonRepository<Warehouse>
         return findAll();
     }
 
+    public Page<Warehouse> getAllWarehouses(PageRequest request)
+    {
+        return findPage(request);
+    }
+
     public List<Warehouse> getActiveWarehouses()
     {
-        return items.stream()
-            .filter(warehouse -> warehouse.isActive())
-            .collect(java.util.stream.Collectors.toList());
+        return byActive.findAll(true);
+    }
+
+    public Page<Warehouse> getActiveWarehouses(PageRequest request)
+    {
+        return byActive.findPage(request, true);
     }
 
     public Warehouse createWarehouse(Warehouse warehouse)
@@ -100,29 +89,32 @@ public class WarehouseRepository extends AbstractJsonRepository<Warehouse>
         if (warehouseDetails == null)
             throw new IllegalArgumentException("Warehouse details cannot be null");
 
-        Warehouse existingWarehouse = findById(id).orElseThrow(() -> 
-            new WarehouseNotFoundException("Warehouse not found with id: " + id));
-
-        if (warehouseDetails.getWarehouseCode() != null && !warehouseDetails.getWarehouseCode().trim().isEmpty())
+        return inWriteLock(() ->
         {
-            Optional<Warehouse> codeCheck = getWarehouseByCode(warehouseDetails.getWarehouseCode());
-            if (codeCheck.isPresent() && !id.equals(codeCheck.get().getId()))
+            Warehouse existingWarehouse = findByIdForUpdate(id).orElseThrow(() -> 
+                new WarehouseNotFoundException("Warehouse not found with id: " + id));
+
+            if (warehouseDetails.getWarehouseCode() != null && !warehouseDetails.getWarehouseCode().trim().isEmpty())
             {
-                throw new WarehouseAlreadyExistsException("Warehouse with code " + warehouseDetails.getWarehouseCode() + " already exists");
+                Optional<Warehouse> codeCheck = getWarehouseByCode(warehouseDetails.getWarehouseCode());
+                if (codeCheck.isPresent() && !id.equals(codeCheck.get().getId()))
+                {
+                    throw new WarehouseAlreadyExistsException("Warehouse with code " + warehouseDetails.getWarehouseCode() + " already exists");
+                }
             }
-        }
 
-        // Update fields
-        existingWarehouse.setWarehouseCode(warehouseDetails.getWarehouseCode());
-        existingWarehouse.setWarehouseName(warehouseDetails.getWarehouseName());
-        existingWarehouse.setAddressId(warehouseDetails.getAddressId());
-        existingWarehouse.setDescription(warehouseDetails.getDescription());
-        existingWarehouse.setActive(warehouseDetails.isActive());
-        existingWarehouse.setJsonData(warehouseDetails.getJsonData());
+            // Update fields
+            existingWarehouse.setWarehouseCode(warehouseDetails.getWarehouseCode());
+            existingWarehouse.setWarehouseName(warehouseDetails.getWarehouseName());
+            existingWarehouse.setAddressId(warehouseDetails.getAddressId());
+            existingWarehouse.setDescription(warehouseDetails.getDescription());
+            existingWarehouse.setActive(warehouseDetails.isActive());
+            existingWarehouse.setJsonData(warehouseDetails.getJsonData());
         
-        saveItems();
-        logger.info("Updated warehouse with ID: {}", id);
-        return existingWarehouse;
+            saveItem(existingWarehouse);
+            logger.info("Updated warehouse with ID: {}", id);
+            return existingWarehouse;
+        });
     }
 
     public void deleteWarehouse(String id)
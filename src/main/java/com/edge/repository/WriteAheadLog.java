@@ -0,0 +1,255 @@
+package com.edge.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of PUT/DELETE records for one collection, stored as JSON lines
+ * next to the collection's snapshot file. Records are idempotent, so replaying the
+ * log over a snapshot that already contains some of them is safe.
+ * <p>
+ * Appended records are buffered until {@link #flush(boolean)}, which writes all of
+ * them with a single gathering write (group commit). A BATCH record holds the changes
+ * of a unit of work on one line, so a torn write drops all of them or none.
+ */
+class WriteAheadLog
+{
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    static final String OP_PUT = "PUT";
+    static final String OP_DELETE = "DELETE";
+    static final String OP_BATCH = "BATCH";
+
+    private final Path logFilePath;
+    private final ObjectMapper objectMapper;
+    private final List<ByteBuffer> pending = new ArrayList<>();
+    private FileChannel channel;
+    private int recordCount;
+
+    WriteAheadLog(Path logFilePath, ObjectMapper objectMapper)
+    {
+        this.logFilePath = logFilePath;
+        this.objectMapper = objectMapper;
+    }
+
+    Path getLogFilePath()
+    {
+        return logFilePath;
+    }
+
+    synchronized int getRecordCount()
+    {
+        return recordCount;
+    }
+
+    synchronized int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    synchronized void appendPut(String id, Object entity) throws IOException
+    {
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("op", OP_PUT);
+        record.put("id", id);
+        record.set("entity", objectMapper.valueToTree(entity));
+        append(record);
+    }
+
+    synchronized void appendDelete(String id) throws IOException
+    {
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("op", OP_DELETE);
+        record.put("id", id);
+        append(record);
+    }
+
+    /**
+     * Appends the changes as one BATCH record; a null value is a delete.
+     */
+    synchronized void appendBatch(Map<String, ?> changes) throws IOException
+    {
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("op", OP_BATCH);
+        ArrayNode changeRecords = record.putArray("records");
+        for (Map.Entry<String, ?> change : changes.entrySet())
+        {
+            ObjectNode changeRecord = changeRecords.addObject();
+            changeRecord.put("op", change.getValue() == null ? OP_DELETE : OP_PUT);
+            changeRecord.put("id", change.getKey());
+            if (change.getValue() != null)
+            {
+                changeRecord.set("entity", objectMapper.valueToTree(change.getValue()));
+            }
+        }
+        append(record);
+        // Counted per change, as the compaction threshold is about replay cost
+        recordCount += changes.size() - 1;
+    }
+
+    private void append(ObjectNode record) throws IOException
+    {
+        byte[] line = objectMapper.writeValueAsBytes(record);
+        ByteBuffer buffer = ByteBuffer.allocate(line.length + 1);
+        buffer.put(line).put((byte) '\n').flip();
+        pending.add(buffer);
+        recordCount++;
+    }
+
+    /**
+     * Writes all buffered records to the log file, optionally forcing them to disk.
+     */
+    synchronized void flush(boolean force) throws IOException
+    {
+        if (pending.isEmpty())
+        {
+            return;
+        }
+        
+        ByteBuffer[] buffers = pending.toArray(new ByteBuffer[0]);
+        FileChannel out = openChannel();
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers)
+        {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0)
+        {
+            remaining -= out.write(buffers);
+        }
+        pending.clear();
+        if (force)
+        {
+            out.force(false);
+        }
+    }
+
+    private FileChannel openChannel() throws IOException
+    {
+        if (channel == null || !channel.isOpen())
+        {
+            channel = FileChannel.open(logFilePath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    /**
+     * Replays every record in the log in order. A torn or unparseable line (e.g. from a
+     * crash mid-append) is logged and skipped.
+     */
+    synchronized <T> int replay(Class<T> entityType, BiConsumer<String, T> onPut, Consumer<String> onDelete) throws IOException
+    {
+        pending.clear();
+        recordCount = 0;
+        if (!Files.exists(logFilePath))
+        {
+            return 0;
+        }
+
+        int applied = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(logFilePath, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                lineNumber++;
+                if (line.isBlank())
+                {
+                    continue;
+                }
+                try
+                {
+                    JsonNode record = objectMapper.readTree(line);
+                    if (OP_BATCH.equals(record.path("op").asText()))
+                    {
+                        // Parse every change before applying any of them
+                        List<Runnable> changes = new ArrayList<>();
+                        for (JsonNode change : record.path("records"))
+                        {
+                            changes.add(parseChange(change, entityType, onPut, onDelete, lineNumber));
+                        }
+                        changes.forEach(Runnable::run);
+                        applied += changes.size();
+                    }
+                    else
+                    {
+                        parseChange(record, entityType, onPut, onDelete, lineNumber).run();
+                        applied++;
+                    }
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Skipping corrupt record at {}:{}: {}", logFilePath, lineNumber, e.getMessage());
+                }
+            }
+        }
+        recordCount = applied;
+        return applied;
+    }
+
+    private <T> Runnable parseChange(JsonNode record, Class<T> entityType, BiConsumer<String, T> onPut,
+        Consumer<String> onDelete, int lineNumber) throws IOException
+    {
+        String op = record.path("op").asText();
+        String id = record.path("id").asText(null);
+        if (OP_PUT.equals(op))
+        {
+            T entity = objectMapper.treeToValue(record.get("entity"), entityType);
+            return () -> onPut.accept(id, entity);
+        }
+        if (OP_DELETE.equals(op))
+        {
+            return () -> onDelete.accept(id);
+        }
+        throw new IOException("Unknown record type '" + op + "' at line " + lineNumber);
+    }
+
+    /**
+     * Discards all records, including buffered ones; called once their effects are
+     * contained in a new snapshot.
+     */
+    synchronized void truncate() throws IOException
+    {
+        pending.clear();
+        FileChannel out = openChannel();
+        out.truncate(0);
+        out.force(true);
+        recordCount = 0;
+    }
+
+    synchronized void close()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Failed to close write-ahead log {}: {}", logFilePath, e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
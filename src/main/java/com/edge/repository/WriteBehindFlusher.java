@@ -0,0 +1,114 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background flusher for write-behind mode. When {@code jsondb.write-behind} is
+ * enabled, repositories only buffer their write-ahead log records and this component
+ * writes them out once per {@code jsondb.flush-interval-millis}. Everything still
+ * buffered is forced to disk on shutdown.
+ */
+@Component
+public class WriteBehindFlusher
+{
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindFlusher.class);
+
+    private final JsonDbConfig config;
+    private final Set<AbstractJsonRepository<?>> repositories = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService executor;
+
+    @Autowired
+    public WriteBehindFlusher(JsonDbConfig config)
+    {
+        this.config = config;
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        if (!config.isWriteBehind())
+        {
+            return;
+        }
+        
+        executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "repository-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = config.getFlushIntervalMillis();
+        executor.scheduleWithFixedDelay(this::flushAll, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("Write-behind enabled: flushing every {} ms or every {} pending changes", interval, config.getFlushMaxPending());
+    }
+
+    public boolean isEnabled()
+    {
+        return config.isWriteBehind();
+    }
+
+    public int getMaxPending()
+    {
+        return config.getFlushMaxPending();
+    }
+
+    void register(AbstractJsonRepository<?> repository)
+    {
+        repositories.add(repository);
+    }
+
+    private void flushAll()
+    {
+        for (AbstractJsonRepository<?> repository : repositories)
+        {
+            try
+            {
+                repository.flush();
+            }
+            catch (Exception e)
+            {
+                logger.error("Background flush failed for {}: {}", repository.entityName, e.getMessage(), e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdown();
+            try
+            {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (AbstractJsonRepository<?> repository : repositories)
+        {
+            try
+            {
+                repository.awaitDurable();
+            }
+            catch (Exception e)
+            {
+                logger.error("Final flush failed for {}: {}", repository.entityName, e.getMessage(), e);
+            }
+        }
+    }
+}
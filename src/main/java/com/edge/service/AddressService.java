@@ -3,12 +3,13 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.Address;
 import com.edge.entity.Customer;
 import com.edge.entity.Vendor;
 import com.edge.repository.AddressRepository;
 import com.edge.repository.CustomerRepository;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import com.edge.repository.VendorRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -30,16 +31,16 @@ public class AddressService
     @Autowired
     private VendorRepository vendorRepository;
     
-    @Autowired
-    private WebSocketNotificationService notificationService;
-    
-    private static final String DATA_TYPE_ID = "addresses";
-    
     public List<Address> getAllAddresses()
     {
         return addressRepository.getAllAddresses();
     }
     
+    public Page<Address> getAllAddresses(PageRequest request)
+    {
+        return addressRepository.getAllAddresses(request);
+    }
+    
     public Optional<Address> getAddressById(String id)
     {
         return addressRepository.getAddressById(id);
@@ -149,18 +150,63 @@ public class AddressService
             .collect(Collectors.toList());
     }
     
+    public Page<Address> getAddressesByCustomerId(String customerId, PageRequest request)
+    {
+        List<String> addressIds = customerId == null ? List.of() : customerRepository.getCustomerById(customerId)
+            .map(customer -> addressIdsOf(customer.getJsonData()))
+            .orElse(List.of());
+        return addressRepository.findPageByIds(addressIds, request);
+    }
+    
+    public Page<Address> getAddressesByCustomerIdAndType(String customerId, String addressType, PageRequest request)
+    {
+        if (addressType == null || addressType.trim().isEmpty())
+        {
+            return getAddressesByCustomerId(customerId, request);
+        }
+        List<String> addressIds = customerId == null ? List.of() : customerRepository.getCustomerById(customerId)
+            .map(customer -> addressIdsOf(customer.getJsonData()))
+            .orElse(List.of());
+        List<String> matchingIds = addressIds.stream()
+            .filter(id -> addressRepository.getAddressById(id)
+                .map(address -> addressType.equals(address.getAddressType()))
+                .orElse(false))
+            .collect(Collectors.toList());
+        return addressRepository.findPageByIds(matchingIds, request);
+    }
+    
+    public Page<Address> getAddressesByVendorId(String vendorId, PageRequest request)
+    {
+        List<String> addressIds = vendorId == null ? List.of() : vendorRepository.getVendorById(vendorId)
+            .map(vendor -> addressIdsOf(vendor.getJsonData()))
+            .orElse(List.of());
+        return addressRepository.findPageByIds(addressIds, request);
+    }
+    
+    /**
+     * The address IDs a customer or vendor keeps in its jsonData, empty if none.
+     */
+    private static List<String> addressIdsOf(java.util.Map<String, Object> jsonData)
+    {
+        Object addressIds = jsonData == null ? null : jsonData.get("addressIds");
+        if (!(addressIds instanceof List<?> ids))
+        {
+            return List.of();
+        }
+        return ids.stream()
+            .filter(String.class::isInstance)
+            .map(String.class::cast)
+            .collect(Collectors.toList());
+    }
+    
     public Address createAddress(Address address)
     {
-        Address created = addressRepository.createAddress(address);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return addressRepository.createAddress(address);
     }
     
     public Address updateAddress(String id, Address addressDetails)
     {
-        Address updated = addressRepository.updateAddress(id, addressDetails);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        return updated;
+        return addressRepository.updateAddress(id, addressDetails);
     }
     
     public void deleteAddress(String id)
@@ -184,23 +230,23 @@ public class AddressService
             if (addressIds != null && addressIds.contains(id))
             {
                 addressIds.remove(id);
-                // Update customer with updated addressIds
-                if (customer.getJsonData() == null)
+                // Update a copy of the customer with updated addressIds
+                Customer updatedCustomer = customerRepository.findByIdForUpdate(customer.getId()).orElse(null);
+                if (updatedCustomer == null)
                 {
-                    customer.setJsonData(new java.util.HashMap<>());
+                    continue;
                 }
-                customer.getJsonData().put("addressIds", addressIds);
-                customerRepository.updateCustomer(customer.getId(), customer);
+                if (updatedCustomer.getJsonData() == null)
+                {
+                    updatedCustomer.setJsonData(new java.util.HashMap<>());
+                }
+                updatedCustomer.getJsonData().put("addressIds", addressIds);
+                customerRepository.updateCustomer(updatedCustomer.getId(), updatedCustomer);
             }
         }
         
         // Delete the address
-        Optional<Address> addressToDelete = addressRepository.getAddressById(id);
         addressRepository.deleteAddress(id);
-        if (addressToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, addressToDelete.get());
-        }
     }
 }
 
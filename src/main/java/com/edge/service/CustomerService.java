@@ -3,9 +3,10 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.Customer;
 import com.edge.repository.CustomerRepository;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -19,16 +20,16 @@ public class CustomerService
     @Autowired
     private CustomerRepository customerRepository;
     
-    @Autowired
-    private WebSocketNotificationService notificationService;
-    
-    private static final String DATA_TYPE_ID = "customers";
-    
     public List<Customer> getAllCustomers()
     {
         return customerRepository.getAllCustomers();
     }
     
+    public Page<Customer> getAllCustomers(PageRequest request)
+    {
+        return customerRepository.getAllCustomers(request);
+    }
+    
     public Optional<Customer> getCustomerById(String id)
     {
         return customerRepository.getCustomerById(id);
@@ -46,26 +47,17 @@ public class CustomerService
     
     public Customer createCustomer(Customer customer)
     {
-        Customer created = customerRepository.createCustomer(customer);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return customerRepository.createCustomer(customer);
     }
     
     public Customer updateCustomer(String id, Customer customerDetails)
     {
-        Customer updated = customerRepository.updateCustomer(id, customerDetails);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        return updated;
+        return customerRepository.updateCustomer(id, customerDetails);
     }
     
     public void deleteCustomer(String id)
     {
-        Optional<Customer> customerToDelete = customerRepository.getCustomerById(id);
         customerRepository.deleteCustomer(id);
-        if (customerToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, customerToDelete.get());
-        }
     }
 }
 
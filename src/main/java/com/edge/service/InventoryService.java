@@ -3,9 +3,10 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.Inventory;
 import com.edge.repository.InventoryRepository;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -19,16 +20,16 @@ public class InventoryService
     @Autowired
     private InventoryRepository inventoryRepository;
     
-    @Autowired
-    private WebSocketNotificationService notificationService;
-    
-    private static final String DATA_TYPE_ID = "inventory";
-    
     public List<Inventory> getAllInventory()
     {
         return inventoryRepository.getAllInventory();
     }
     
+    public Page<Inventory> getAllInventory(PageRequest request)
+    {
+        return inventoryRepository.getAllInventory(request);
+    }
+    
     public Optional<Inventory> getInventoryById(String id)
     {
         return inventoryRepository.getInventoryById(id);
@@ -44,52 +45,49 @@ public class InventoryService
         return inventoryRepository.getInventoryByProductId(productId);
     }
     
+    public Page<Inventory> getInventoryByProductId(String productId, PageRequest request)
+    {
+        return inventoryRepository.getInventoryByProductId(productId, request);
+    }
+    
     public List<Inventory> getInventoryByWarehouseId(String warehouseId)
     {
         return inventoryRepository.getInventoryByWarehouseId(warehouseId);
     }
     
+    public Page<Inventory> getInventoryByWarehouseId(String warehouseId, PageRequest request)
+    {
+        return inventoryRepository.getInventoryByWarehouseId(warehouseId, request);
+    }
+    
     public Inventory createOrUpdateInventory(String productId, String warehouseId, Integer quantity)
     {
-        Inventory inventory = inventoryRepository.createOrUpdateInventory(productId, warehouseId, quantity);
-        // Determine if this is a create or update based on whether inventory existed
-        Optional<Inventory> existing = inventoryRepository.getInventoryByProductAndWarehouse(productId, warehouseId);
-        DataChangeNotification.ChangeType changeType = existing.isPresent() 
-            ? DataChangeNotification.ChangeType.UPDATE 
-            : DataChangeNotification.ChangeType.CREATE;
-        notificationService.notifyDataChange(changeType, DATA_TYPE_ID, inventory);
-        return inventory;
+        return inventoryRepository.createOrUpdateInventory(productId, warehouseId, quantity);
     }
     
     public Inventory adjustInventory(String productId, String warehouseId, Integer quantityChange)
     {
-        Inventory inventory = inventoryRepository.adjustInventory(productId, warehouseId, quantityChange);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, inventory);
-        return inventory;
+        return inventoryRepository.adjustInventory(productId, warehouseId, quantityChange);
     }
     
     public Inventory createInventory(Inventory inventory)
     {
-        Inventory created = inventoryRepository.createInventory(inventory);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return inventoryRepository.createInventory(inventory);
     }
     
     public Inventory updateInventory(String id, Inventory inventoryDetails)
     {
-        Inventory updated = inventoryRepository.updateInventory(id, inventoryDetails);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        return updated;
+        return updateInventory(id, inventoryDetails, null);
+    }
+    
+    public Inventory updateInventory(String id, Inventory inventoryDetails, Long expectedVersion)
+    {
+        return inventoryRepository.updateInventory(id, inventoryDetails, expectedVersion);
     }
     
     public void deleteInventory(String id)
     {
-        Optional<Inventory> inventoryToDelete = inventoryRepository.getInventoryById(id);
         inventoryRepository.deleteInventory(id);
-        if (inventoryToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, inventoryToDelete.get());
-        }
     }
 }
 
@@ -3,19 +3,24 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.Order;
 import com.edge.entity.OrderItem;
 import com.edge.entity.Product;
 import com.edge.entity.Warehouse;
+import com.edge.repository.AbstractJsonRepository.EntityNotFoundException;
+import com.edge.repository.InventoryRepository;
 import com.edge.repository.OrderRepository;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import com.edge.repository.ProductRepository;
+import com.edge.repository.UnitOfWork;
 import com.edge.repository.WarehouseRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Component
 public class OrderService
@@ -31,18 +36,21 @@ public class OrderService
     private WarehouseRepository warehouseRepository;
     
     @Autowired
-    private InventoryService inventoryService;
+    private InventoryRepository inventoryRepository;
     
     @Autowired
-    private WebSocketNotificationService notificationService;
-    
-    private static final String DATA_TYPE_ID = "orders";
+    private InventoryService inventoryService;
     
     public List<Order> getAllOrders()
     {
         return orderRepository.getAllOrders();
     }
     
+    public Page<Order> getAllOrders(PageRequest request)
+    {
+        return orderRepository.getAllOrders(request);
+    }
+    
     public Optional<Order> getOrderById(String id)
     {
         return orderRepository.getOrderById(id);
@@ -58,32 +66,55 @@ public class OrderService
         return orderRepository.getOrdersByCustomerId(customerId);
     }
     
+    public Page<Order> getOrdersByCustomerId(String customerId, PageRequest request)
+    {
+        return orderRepository.getOrdersByCustomerId(customerId, request);
+    }
+    
     public List<Order> getOrdersByStatus(String status)
     {
         return orderRepository.getOrdersByStatus(status);
     }
     
+    public Page<Order> getOrdersByStatus(String status, PageRequest request)
+    {
+        return orderRepository.getOrdersByStatus(status, request);
+    }
+    
     public Order createOrder(Order order)
     {
         // Enrich order items with product information
         enrichOrderItems(order);
-        Order created = orderRepository.createOrder(order);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return orderRepository.createOrder(order);
     }
     
     public Order updateOrder(String id, Order orderDetails)
+    {
+        return updateOrder(id, orderDetails, null);
+    }
+    
+    /**
+     * Updates the order only if it is still at the expected version (null for an
+     * unconditional update); a stale version fails before anything is changed.
+     */
+    public Order updateOrder(String id, Order orderDetails, Long expectedVersion)
+    {
+        // The order and its inventory changes are stored together; notifications follow the commit
+        return UnitOfWork.execute(List.of(orderRepository, inventoryRepository), () -> applyOrderUpdate(id, orderDetails, expectedVersion));
+    }
+    
+    private Order applyOrderUpdate(String id, Order orderDetails, Long expectedVersion)
     {
         System.out.println("OrderService.updateOrder - ID: " + id + ", Status: " + orderDetails.getStatus());
         
         // Get existing order to check status change
         Order existingOrder = orderRepository.getOrderById(id)
-            .orElseThrow(() -> new RuntimeException("Order not found with id: " + id));
+            .orElseThrow(() -> new EntityNotFoundException("Order not found with id: " + id));
         String oldStatus = existingOrder.getStatus();
         
         // Enrich order items with product information
         enrichOrderItems(orderDetails);
-        Order updated = orderRepository.updateOrder(id, orderDetails);
+        Order updated = orderRepository.updateOrder(id, orderDetails, expectedVersion);
         System.out.println("OrderService.updateOrder - Updated status: " + updated.getStatus());
         
         // Handle inventory decrease when order is shipped
@@ -92,92 +123,105 @@ public class OrderService
             decreaseInventoryForOrder(updated);
         }
         
-        // Broadcast update via WebSocket
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        
         return updated;
     }
     
     public Order addOrderItem(String orderId, String productId, Integer quantity)
     {
-        Order order = orderRepository.getOrderById(orderId)
-            .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderId));
-        
+        return addOrderItem(orderId, productId, quantity, null);
+    }
+    
+    public Order addOrderItem(String orderId, String productId, Integer quantity, Long expectedVersion)
+    {
         Product product = productRepository.getProductById(productId)
-            .orElseThrow(() -> new RuntimeException("Product not found with id: " + productId));
+            .orElseThrow(() -> new EntityNotFoundException("Product not found with id: " + productId));
         
-        // Check if item already exists
-        Optional<OrderItem> existingItem = order.getItems().stream()
-            .filter(item -> productId.equals(item.getProductId()))
-            .findFirst();
-        
-        if (existingItem.isPresent())
+        return editOrderItems(orderId, expectedVersion, order ->
         {
-            // Update quantity
-            OrderItem item = existingItem.get();
-            item.setQuantity(item.getQuantity() + quantity);
-            item.calculateLineTotal();
-        }
-        else
-        {
-            // Create new item
-            OrderItem newItem = new OrderItem();
-            newItem.setId(java.util.UUID.randomUUID().toString());
-            newItem.setProductId(product.getId());
-            newItem.setProductCode(product.getProductCode());
-            newItem.setProductName(product.getProductName());
-            newItem.setQuantity(quantity);
-            newItem.setUnitPrice(product.getUnitPrice());
-            newItem.calculateLineTotal();
-            order.getItems().add(newItem);
-        }
-        
-        order.calculateTotals();
-        return orderRepository.updateOrder(orderId, order);
+            // Check if item already exists
+            Optional<OrderItem> existingItem = order.getItems().stream()
+                .filter(item -> productId.equals(item.getProductId()))
+                .findFirst();
+            
+            if (existingItem.isPresent())
+            {
+                // Update quantity
+                OrderItem item = existingItem.get();
+                item.setQuantity(item.getQuantity() + quantity);
+                item.calculateLineTotal();
+            }
+            else
+            {
+                // Create new item
+                OrderItem newItem = new OrderItem();
+                newItem.setId(java.util.UUID.randomUUID().toString());
+                newItem.setProductId(product.getId());
+                newItem.setProductCode(product.getProductCode());
+                newItem.setProductName(product.getProductName());
+                newItem.setQuantity(quantity);
+                newItem.setUnitPrice(product.getUnitPrice());
+                newItem.calculateLineTotal();
+                order.getItems().add(newItem);
+            }
+        });
     }
     
     public Order updateOrderItemQuantity(String orderId, String itemId, Integer quantity)
     {
-        Order order = orderRepository.getOrderById(orderId)
-            .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderId));
-        
-        OrderItem item = order.getItems().stream()
-            .filter(i -> itemId.equals(i.getId()))
-            .findFirst()
-            .orElseThrow(() -> new RuntimeException("Order item not found with id: " + itemId));
-        
-        item.setQuantity(quantity);
-        item.calculateLineTotal();
-        order.calculateTotals();
-        
-        return orderRepository.updateOrder(orderId, order);
+        return updateOrderItemQuantity(orderId, itemId, quantity, null);
+    }
+    
+    public Order updateOrderItemQuantity(String orderId, String itemId, Integer quantity, Long expectedVersion)
+    {
+        return editOrderItems(orderId, expectedVersion, order ->
+        {
+            OrderItem item = order.getItems().stream()
+                .filter(i -> itemId.equals(i.getId()))
+                .findFirst()
+                .orElseThrow(() -> new EntityNotFoundException("Order item not found with id: " + itemId));
+            
+            item.setQuantity(quantity);
+            item.calculateLineTotal();
+        });
     }
     
     public Order removeOrderItem(String orderId, String itemId)
     {
-        Order order = orderRepository.getOrderById(orderId)
-            .orElseThrow(() -> new RuntimeException("Order not found with id: " + orderId));
-        
-        boolean removed = order.getItems().removeIf(item -> itemId.equals(item.getId()));
-        if (!removed)
+        return removeOrderItem(orderId, itemId, null);
+    }
+    
+    public Order removeOrderItem(String orderId, String itemId, Long expectedVersion)
+    {
+        return editOrderItems(orderId, expectedVersion, order ->
         {
-            throw new RuntimeException("Order item not found with id: " + itemId);
-        }
-        
-        order.calculateTotals();
-        return orderRepository.updateOrder(orderId, order);
+            boolean removed = order.getItems().removeIf(item -> itemId.equals(item.getId()));
+            if (!removed)
+            {
+                throw new EntityNotFoundException("Order item not found with id: " + itemId);
+            }
+        });
+    }
+    
+    /**
+     * Reads the order, applies the edit to its items and writes it back while holding
+     * the orders' writer lock, so two concurrent edits cannot overwrite each other. With
+     * an expected version (null for none) a stale order fails before anything changes.
+     */
+    private Order editOrderItems(String orderId, Long expectedVersion, Consumer<Order> edit)
+    {
+        return UnitOfWork.execute(List.of(orderRepository), () ->
+        {
+            Order order = orderRepository.findByIdForUpdate(orderId)
+                .orElseThrow(() -> new EntityNotFoundException("Order not found with id: " + orderId));
+            edit.accept(order);
+            order.calculateTotals();
+            return orderRepository.updateOrder(orderId, order, expectedVersion != null ? expectedVersion : order.getVersion());
+        });
     }
     
     public void deleteOrder(String id)
     {
-        Optional<Order> orderToDelete = orderRepository.getOrderById(id);
         orderRepository.deleteOrder(id);
-        
-        // Broadcast deletion via WebSocket
-        if (orderToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, orderToDelete.get());
-        }
     }
     
     public String generateNextInvoiceNumber()
@@ -242,8 +286,9 @@ public class OrderService
                     System.out.println("Decreased inventory for product " + item.getProductId() + 
                         " by " + item.getQuantity() + " in warehouse " + warehouseId);
                 }
-                catch (Exception e)
+                catch (IllegalArgumentException e)
                 {
+                    // E.g. not enough stock; the line is skipped, other failures roll back the whole update
                     System.err.println("Error decreasing inventory for product " + item.getProductId() + ": " + e.getMessage());
                 }
             }
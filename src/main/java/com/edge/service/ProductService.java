@@ -3,8 +3,9 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.Product;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import com.edge.repository.ProductRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -19,21 +20,26 @@ public class ProductService
     @Autowired
     private ProductRepository productRepository;
     
-    @Autowired
-    private WebSocketNotificationService notificationService;
-    
-    private static final String DATA_TYPE_ID = "products";
-    
     public List<Product> getAllProducts()
     {
         return productRepository.getAllProducts();
     }
     
+    public Page<Product> getAllProducts(PageRequest request)
+    {
+        return productRepository.getAllProducts(request);
+    }
+    
     public List<Product> getActiveProducts()
     {
         return productRepository.getActiveProducts();
     }
     
+    public Page<Product> getActiveProducts(PageRequest request)
+    {
+        return productRepository.getActiveProducts(request);
+    }
+    
     public Optional<Product> getProductById(String id)
     {
         return productRepository.getProductById(id);
@@ -46,26 +52,17 @@ public class ProductService
     
     public Product createProduct(Product product)
     {
-        Product created = productRepository.createProduct(product);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return productRepository.createProduct(product);
     }
     
     public Product updateProduct(String id, Product productDetails)
     {
-        Product updated = productRepository.updateProduct(id, productDetails);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        return updated;
+        return productRepository.updateProduct(id, productDetails);
     }
     
     public void deleteProduct(String id)
     {
-        Optional<Product> productToDelete = productRepository.getProductById(id);
         productRepository.deleteProduct(id);
-        if (productToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, productToDelete.get());
-        }
     }
 }
 
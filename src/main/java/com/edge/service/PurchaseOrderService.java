@@ -3,14 +3,17 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.PurchaseOrder;
 import com.edge.entity.PurchaseOrderItem;
 import com.edge.entity.Product;
 import com.edge.entity.Warehouse;
 import com.edge.repository.PurchaseOrderRepository;
+import com.edge.repository.InventoryRepository;
 import com.edge.repository.ProductRepository;
+import com.edge.repository.UnitOfWork;
 import com.edge.repository.WarehouseRepository;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -31,18 +34,21 @@ public class PurchaseOrderService
     private WarehouseRepository warehouseRepository;
     
     @Autowired
-    private InventoryService inventoryService;
+    private InventoryRepository inventoryRepository;
     
     @Autowired
-    private WebSocketNotificationService notificationService;
-    
-    private static final String DATA_TYPE_ID = "purchase-orders";
+    private InventoryService inventoryService;
     
     public List<PurchaseOrder> getAllPurchaseOrders()
     {
         return purchaseOrderRepository.getAllPurchaseOrders();
     }
     
+    public Page<PurchaseOrder> getAllPurchaseOrders(PageRequest request)
+    {
+        return purchaseOrderRepository.getAllPurchaseOrders(request);
+    }
+    
     public Optional<PurchaseOrder> getPurchaseOrderById(String id)
     {
         return purchaseOrderRepository.getPurchaseOrderById(id);
@@ -58,21 +64,35 @@ public class PurchaseOrderService
         return purchaseOrderRepository.getPurchaseOrdersBySupplierId(supplierId);
     }
     
+    public Page<PurchaseOrder> getPurchaseOrdersBySupplierId(String supplierId, PageRequest request)
+    {
+        return purchaseOrderRepository.getPurchaseOrdersBySupplierId(supplierId, request);
+    }
+    
     public List<PurchaseOrder> getPurchaseOrdersByStatus(String status)
     {
         return purchaseOrderRepository.getPurchaseOrdersByStatus(status);
     }
     
+    public Page<PurchaseOrder> getPurchaseOrdersByStatus(String status, PageRequest request)
+    {
+        return purchaseOrderRepository.getPurchaseOrdersByStatus(status, request);
+    }
+    
     public PurchaseOrder createPurchaseOrder(PurchaseOrder po)
     {
         // Enrich PO items with product information
         enrichPurchaseOrderItems(po);
-        PurchaseOrder created = purchaseOrderRepository.createPurchaseOrder(po);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return purchaseOrderRepository.createPurchaseOrder(po);
     }
     
     public PurchaseOrder updatePurchaseOrder(String id, PurchaseOrder poDetails)
+    {
+        // The PO and its inventory changes are stored together; notifications follow the commit
+        return UnitOfWork.execute(List.of(purchaseOrderRepository, inventoryRepository), () -> applyPurchaseOrderUpdate(id, poDetails));
+    }
+    
+    private PurchaseOrder applyPurchaseOrderUpdate(String id, PurchaseOrder poDetails)
     {
         System.out.println("PurchaseOrderService.updatePurchaseOrder - ID: " + id + ", Status: " + poDetails.getStatus());
         
@@ -92,15 +112,12 @@ public class PurchaseOrderService
             increaseInventoryForPurchaseOrder(updated);
         }
         
-        // Broadcast update via WebSocket
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        
         return updated;
     }
     
     public PurchaseOrder addPurchaseOrderItem(String poId, String productId, Integer quantity)
     {
-        PurchaseOrder po = purchaseOrderRepository.getPurchaseOrderById(poId)
+        PurchaseOrder po = purchaseOrderRepository.findByIdForUpdate(poId)
             .orElseThrow(() -> new RuntimeException("Purchase Order not found with id: " + poId));
         
         Product product = productRepository.getProductById(productId)
@@ -138,7 +155,7 @@ public class PurchaseOrderService
     
     public PurchaseOrder updatePurchaseOrderItemQuantity(String poId, String itemId, Integer quantity)
     {
-        PurchaseOrder po = purchaseOrderRepository.getPurchaseOrderById(poId)
+        PurchaseOrder po = purchaseOrderRepository.findByIdForUpdate(poId)
             .orElseThrow(() -> new RuntimeException("Purchase Order not found with id: " + poId));
         
         PurchaseOrderItem item = po.getItems().stream()
@@ -155,7 +172,7 @@ public class PurchaseOrderService
     
     public PurchaseOrder removePurchaseOrderItem(String poId, String itemId)
     {
-        PurchaseOrder po = purchaseOrderRepository.getPurchaseOrderById(poId)
+        PurchaseOrder po = purchaseOrderRepository.findByIdForUpdate(poId)
             .orElseThrow(() -> new RuntimeException("Purchase Order not found with id: " + poId));
         
         boolean removed = po.getItems().removeIf(item -> itemId.equals(item.getId()));
@@ -170,14 +187,7 @@ public class PurchaseOrderService
     
     public void deletePurchaseOrder(String id)
     {
-        Optional<PurchaseOrder> poToDelete = purchaseOrderRepository.getPurchaseOrderById(id);
         purchaseOrderRepository.deletePurchaseOrder(id);
-        
-        // Broadcast deletion via WebSocket
-        if (poToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, poToDelete.get());
-        }
     }
     
     public String generateNextInvoiceNumber()
@@ -242,8 +252,9 @@ public class PurchaseOrderService
                     System.out.println("Increased inventory for product " + item.getProductId() + 
                         " by " + item.getQuantity() + " in warehouse " + warehouseId);
                 }
-                catch (Exception e)
+                catch (IllegalArgumentException e)
                 {
+                    // The line is skipped, other failures roll back the whole update
                     System.err.println("Error increasing inventory for product " + item.getProductId() + ": " + e.getMessage());
                 }
             }
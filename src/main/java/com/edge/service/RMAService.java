@@ -3,16 +3,19 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.RMA;
 import com.edge.entity.RMAItem;
 import com.edge.entity.Product;
 import com.edge.entity.Warehouse;
+import com.edge.repository.InventoryRepository;
 import com.edge.repository.RMARepository;
 import com.edge.repository.OrderRepository;
 import com.edge.repository.ProductRepository;
 import com.edge.repository.CustomerRepository;
+import com.edge.repository.UnitOfWork;
 import com.edge.repository.WarehouseRepository;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -40,18 +43,21 @@ public class RMAService
     private WarehouseRepository warehouseRepository;
     
     @Autowired
-    private InventoryService inventoryService;
+    private InventoryRepository inventoryRepository;
     
     @Autowired
-    private WebSocketNotificationService notificationService;
-    
-    private static final String DATA_TYPE_ID = "rmas";
+    private InventoryService inventoryService;
     
     public List<RMA> getAllRMAs()
     {
         return rmaRepository.getAllRMAs();
     }
     
+    public Page<RMA> getAllRMAs(PageRequest request)
+    {
+        return rmaRepository.getAllRMAs(request);
+    }
+    
     public Optional<RMA> getRMAById(String id)
     {
         return rmaRepository.getRMAById(id);
@@ -67,28 +73,47 @@ public class RMAService
         return rmaRepository.getRMAsByOrderId(orderId);
     }
     
+    public Page<RMA> getRMAsByOrderId(String orderId, PageRequest request)
+    {
+        return rmaRepository.getRMAsByOrderId(orderId, request);
+    }
+    
     public List<RMA> getRMAsByCustomerId(String customerId)
     {
         return rmaRepository.getRMAsByCustomerId(customerId);
     }
     
+    public Page<RMA> getRMAsByCustomerId(String customerId, PageRequest request)
+    {
+        return rmaRepository.getRMAsByCustomerId(customerId, request);
+    }
+    
     public List<RMA> getRMAsByStatus(String status)
     {
         return rmaRepository.getRMAsByStatus(status);
     }
     
+    public Page<RMA> getRMAsByStatus(String status, PageRequest request)
+    {
+        return rmaRepository.getRMAsByStatus(status, request);
+    }
+    
     public RMA createRMA(RMA rma)
     {
         // Enrich RMA with order and customer information
         enrichRMAWithOrderInfo(rma);
         enrichRMAItems(rma);
         
-        RMA created = rmaRepository.createRMA(rma);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return rmaRepository.createRMA(rma);
     }
     
     public RMA updateRMA(String id, RMA rmaDetails)
+    {
+        // The RMA and its inventory changes are stored together; notifications follow the commit
+        return UnitOfWork.execute(List.of(rmaRepository, inventoryRepository), () -> applyRMAUpdate(id, rmaDetails));
+    }
+    
+    private RMA applyRMAUpdate(String id, RMA rmaDetails)
     {
         System.out.println("RMAService.updateRMA - ID: " + id + ", Status: " + rmaDetails.getStatus());
         
@@ -138,15 +163,12 @@ public class RMAService
             decreaseInventoryForRMA(existingRMA);
         }
         
-        // Broadcast update via WebSocket
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        
         return updated;
     }
     
     public RMA addRMAItem(String rmaId, String productId, Integer quantity, String reason)
     {
-        RMA rma = rmaRepository.getRMAById(rmaId)
+        RMA rma = rmaRepository.findByIdForUpdate(rmaId)
             .orElseThrow(() -> new RuntimeException("RMA not found with id: " + rmaId));
         
         Product product = productRepository.getProductById(productId)
@@ -188,7 +210,7 @@ public class RMAService
     
     public RMA updateRMAItemQuantity(String rmaId, String itemId, Integer quantity)
     {
-        RMA rma = rmaRepository.getRMAById(rmaId)
+        RMA rma = rmaRepository.findByIdForUpdate(rmaId)
             .orElseThrow(() -> new RuntimeException("RMA not found with id: " + rmaId));
         
         RMAItem item = rma.getItems().stream()
@@ -209,7 +231,7 @@ public class RMAService
     
     public RMA updateRMAItemReturnedQuantity(String rmaId, String itemId, Integer returnedQuantity)
     {
-        RMA rma = rmaRepository.getRMAById(rmaId)
+        RMA rma = rmaRepository.findByIdForUpdate(rmaId)
             .orElseThrow(() -> new RuntimeException("RMA not found with id: " + rmaId));
         
         RMAItem item = rma.getItems().stream()
@@ -226,7 +248,7 @@ public class RMAService
     
     public RMA updateRMAItemCondition(String rmaId, String itemId, String condition)
     {
-        RMA rma = rmaRepository.getRMAById(rmaId)
+        RMA rma = rmaRepository.findByIdForUpdate(rmaId)
             .orElseThrow(() -> new RuntimeException("RMA not found with id: " + rmaId));
         
         RMAItem item = rma.getItems().stream()
@@ -237,17 +259,12 @@ public class RMAService
         item.setCondition(condition);
         rma.calculateTotals();
         
-        RMA updated = rmaRepository.updateRMA(rmaId, rma);
-        
-        // Broadcast update via WebSocket
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        
-        return updated;
+        return rmaRepository.updateRMA(rmaId, rma);
     }
     
     public RMA removeRMAItem(String rmaId, String itemId)
     {
-        RMA rma = rmaRepository.getRMAById(rmaId)
+        RMA rma = rmaRepository.findByIdForUpdate(rmaId)
             .orElseThrow(() -> new RuntimeException("RMA not found with id: " + rmaId));
         
         boolean removed = rma.getItems().removeIf(item -> itemId.equals(item.getId()));
@@ -262,14 +279,7 @@ public class RMAService
     
     public void deleteRMA(String id)
     {
-        Optional<RMA> rmaToDelete = rmaRepository.getRMAById(id);
         rmaRepository.deleteRMA(id);
-        
-        // Broadcast deletion via WebSocket
-        if (rmaToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, rmaToDelete.get());
-        }
     }
     
     private void enrichRMAWithOrderInfo(RMA rma)
@@ -373,7 +383,7 @@ public class RMAService
                     System.out.println("Increased inventory (restocked) for product " + item.getProductId() + 
                         " by " + item.getReturnedQuantity() + " in warehouse " + warehouseId + " for RMA " + rma.getRmaNumber());
                 }
-                catch (Exception e)
+                catch (IllegalArgumentException e)
                 {
                     System.err.println("Error increasing inventory for product " + item.getProductId() + 
                         " in RMA " + rma.getRmaNumber() + ": " + e.getMessage());
@@ -421,8 +431,9 @@ public class RMAService
                     System.out.println("Decreased inventory (rollback) for product " + item.getProductId() + 
                         " by " + item.getReturnedQuantity() + " in warehouse " + warehouseId + " for cancelled RMA " + rma.getRmaNumber());
                 }
-                catch (Exception e)
+                catch (IllegalArgumentException e)
                 {
+                    // E.g. not enough stock; the line is skipped, other failures roll back the whole update
                     System.err.println("Error decreasing inventory for product " + item.getProductId() + 
                         " in RMA " + rma.getRmaNumber() + ": " + e.getMessage());
                     e.printStackTrace();
@@ -3,12 +3,13 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.SFC;
 import com.edge.entity.RMA;
 import com.edge.repository.SFCRepository;
 import com.edge.repository.RMARepository;
 import com.edge.repository.CustomerRepository;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -29,16 +30,16 @@ public class SFCService
     @Autowired
     private CustomerRepository customerRepository;
     
-    @Autowired
-    private WebSocketNotificationService notificationService;
-    
-    private static final String DATA_TYPE_ID = "sfcs";
-    
     public List<SFC> getAllSFCs()
     {
         return sfcRepository.getAllSFCs();
     }
     
+    public Page<SFC> getAllSFCs(PageRequest request)
+    {
+        return sfcRepository.getAllSFCs(request);
+    }
+    
     public Optional<SFC> getSFCById(String id)
     {
         return sfcRepository.getSFCById(id);
@@ -49,11 +50,21 @@ public class SFCService
         return sfcRepository.getSFCsByRMAId(rmaId);
     }
     
+    public Page<SFC> getSFCsByRMAId(String rmaId, PageRequest request)
+    {
+        return sfcRepository.getSFCsByRMAId(rmaId, request);
+    }
+    
     public List<SFC> getSFCsByStatus(String status)
     {
         return sfcRepository.getSFCsByStatus(status);
     }
     
+    public Page<SFC> getSFCsByStatus(String status, PageRequest request)
+    {
+        return sfcRepository.getSFCsByStatus(status, request);
+    }
+    
     /**
      * Create an SFC record from an RMA
      * This is typically called when an RMA is approved or when shop floor processing is initiated
@@ -91,9 +102,7 @@ public class SFCService
             });
         }
         
-        SFC created = sfcRepository.createSFC(sfc);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return sfcRepository.createSFC(sfc);
     }
     
     public SFC createSFC(SFC sfc)
@@ -104,9 +113,7 @@ public class SFCService
             enrichSFCWithRMAInfo(sfc);
         }
         
-        SFC created = sfcRepository.createSFC(sfc);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return sfcRepository.createSFC(sfc);
     }
     
     public SFC updateSFC(String id, SFC sfcDetails)
@@ -128,24 +135,12 @@ public class SFCService
             sfcDetails.setCompletedDate(LocalDateTime.now());
         }
         
-        SFC updated = sfcRepository.updateSFC(id, sfcDetails);
-        
-        // Broadcast update via WebSocket
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        
-        return updated;
+        return sfcRepository.updateSFC(id, sfcDetails);
     }
     
     public void deleteSFC(String id)
     {
-        Optional<SFC> sfcToDelete = sfcRepository.getSFCById(id);
         sfcRepository.deleteSFC(id);
-        
-        // Broadcast deletion via WebSocket
-        if (sfcToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, sfcToDelete.get());
-        }
     }
     
     private void enrichSFCWithRMAInfo(SFC sfc)
@@ -0,0 +1,124 @@
+package com.edge.service;
+
+import com.edge.repository.CustomerRepository;
+import com.edge.repository.OrderRepository;
+import com.edge.repository.ProductRepository;
+import com.edge.repository.RMARepository;
+import com.edge.repository.SearchHit;
+import com.edge.repository.VendorRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Full-text search over products, customers and vendors, merging the ranked hits of
+ * each repository's text index, and prefix lookups of codes and numbers for
+ * autocompletion.
+ */
+@Component
+public class SearchService
+{
+    public static final List<String> TYPES = List.of("products", "customers", "vendors");
+    public static final List<String> TYPEAHEAD_FIELDS = List.of("productCode", "customerNumber", "vendorNumber", "orderNumber", "rmaNumber");
+    public static final int MAX_LIMIT = 100;
+    
+    @Autowired
+    private ProductRepository productRepository;
+    
+    @Autowired
+    private CustomerRepository customerRepository;
+    
+    @Autowired
+    private VendorRepository vendorRepository;
+    
+    @Autowired
+    private OrderRepository orderRepository;
+    
+    @Autowired
+    private RMARepository rmaRepository;
+    
+    /**
+     * Returns up to limit results of the given types, best first, each as
+     * {@code {"type", "score", "matchedFields", "item"}}.
+     *
+     * @throws IllegalArgumentException if the query, a type or the limit is not valid
+     */
+    public List<Map<String, Object>> search(String query, Set<String> types, int limit)
+    {
+        if (limit < 1 || limit > MAX_LIMIT)
+        {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT + " but was " + limit);
+        }
+        for (String type : types)
+        {
+            if (!TYPES.contains(type))
+            {
+                throw new IllegalArgumentException("Unknown type '" + type + "', types: " + TYPES);
+            }
+        }
+        List<Map<String, Object>> results = new ArrayList<>();
+        if (types.contains("products"))
+        {
+            addResults(results, "product", productRepository.searchProducts(query, limit));
+        }
+        if (types.contains("customers"))
+        {
+            addResults(results, "customer", customerRepository.searchCustomers(query, limit));
+        }
+        if (types.contains("vendors"))
+        {
+            addResults(results, "vendor", vendorRepository.searchVendors(query, limit));
+        }
+        // Stable, so equal scores keep the order above
+        results.sort(Comparator.comparingInt((Map<String, Object> result) -> (Integer) result.get("score")).reversed());
+        return results.size() > limit ? List.copyOf(results.subList(0, limit)) : results;
+    }
+    
+    /**
+     * Returns up to limit records whose code or number starts with the prefix, in
+     * the order of that field; case and full-width forms are ignored.
+     *
+     * @throws IllegalArgumentException if the field, prefix or limit is not valid
+     */
+    public List<?> typeahead(String field, String prefix, int limit)
+    {
+        if (limit < 1 || limit > MAX_LIMIT)
+        {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT + " but was " + limit);
+        }
+        switch (field)
+        {
+            case "productCode":
+                return productRepository.findByProductCodePrefix(prefix, limit);
+            case "customerNumber":
+                return customerRepository.findByCustomerNumberPrefix(prefix, limit);
+            case "vendorNumber":
+                return vendorRepository.findByVendorNumberPrefix(prefix, limit);
+            case "orderNumber":
+                return orderRepository.findByOrderNumberPrefix(prefix, limit);
+            case "rmaNumber":
+                return rmaRepository.findByRmaNumberPrefix(prefix, limit);
+            default:
+                throw new IllegalArgumentException("Unknown field '" + field + "', fields: " + TYPEAHEAD_FIELDS);
+        }
+    }
+    
+    private static <T> void addResults(List<Map<String, Object>> results, String type, List<SearchHit<T>> hits)
+    {
+        for (SearchHit<T> hit : hits)
+        {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("type", type);
+            result.put("score", hit.getScore());
+            result.put("matchedFields", hit.getMatchedFields());
+            result.put("item", hit.getEntity());
+            results.add(result);
+        }
+    }
+}
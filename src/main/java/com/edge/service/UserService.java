@@ -1,7 +1,8 @@
 package com.edge.service;
 
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.User;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import com.edge.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -16,19 +17,19 @@ public class UserService
     @Autowired
     private UserRepository userRepository;
     
-    @Autowired
-    private WebSocketNotificationService notificationService;
-    
     @Autowired
     private AuthService authService;
     
-    private static final String DATA_TYPE_ID = "users";
-    
     public List<User> getAllUsers()
     {
         return userRepository.getAllUsers();
     }
     
+    public Page<User> getAllUsers(PageRequest request)
+    {
+        return userRepository.getAllUsers(request);
+    }
+    
     public Optional<User> getUserById(String id)
     {
         return userRepository.getUserById(id);
@@ -47,9 +48,7 @@ public class UserService
             String hashedPassword = authService.encodePassword(user.getPassword());
             user.setPassword(hashedPassword);
         }
-        User createdUser = userRepository.createUser(user);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, createdUser);
-        return createdUser;
+        return userRepository.createUser(user);
     }
     
     public User updateUser(String id, User userDetails)
@@ -60,18 +59,11 @@ public class UserService
             String hashedPassword = authService.encodePassword(userDetails.getPassword());
             userDetails.setPassword(hashedPassword);
         }
-        User updatedUser = userRepository.updateUser(id, userDetails);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updatedUser);
-        return updatedUser;
+        return userRepository.updateUser(id, userDetails);
     }
     
     public void deleteUser(String id)
     {
-        Optional<User> userToDelete = userRepository.getUserById(id);
         userRepository.deleteUser(id);
-        if (userToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, userToDelete.get());
-        }
     }
 }
@@ -3,8 +3,9 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.Vendor;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import com.edge.repository.VendorRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -19,16 +20,16 @@ public class VendorService
     @Autowired
     private VendorRepository vendorRepository;
     
-    @Autowired
-    private WebSocketNotificationService notificationService;
-    
-    private static final String DATA_TYPE_ID = "vendors";
-    
     public List<Vendor> getAllVendors()
     {
         return vendorRepository.getAllVendors();
     }
     
+    public Page<Vendor> getAllVendors(PageRequest request)
+    {
+        return vendorRepository.getAllVendors(request);
+    }
+    
     public Optional<Vendor> getVendorById(String id)
     {
         return vendorRepository.getVendorById(id);
@@ -46,26 +47,17 @@ public class VendorService
     
     public Vendor createVendor(Vendor vendor)
     {
-        Vendor created = vendorRepository.createVendor(vendor);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return vendorRepository.createVendor(vendor);
     }
     
     public Vendor updateVendor(String id, Vendor vendorDetails)
     {
-        Vendor updated = vendorRepository.updateVendor(id, vendorDetails);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        return updated;
+        return vendorRepository.updateVendor(id, vendorDetails);
     }
     
     public void deleteVendor(String id)
     {
-        Optional<Vendor> vendorToDelete = vendorRepository.getVendorById(id);
         vendorRepository.deleteVendor(id);
-        if (vendorToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, vendorToDelete.get());
-        }
     }
 }
 
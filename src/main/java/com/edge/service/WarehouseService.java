@@ -3,8 +3,9 @@ package com.edge.service;
 /**
  * @author Hidenori Takaku
  */
-import com.edge.config.DataChangeNotification;
 import com.edge.entity.Warehouse;
+import com.edge.repository.Page;
+import com.edge.repository.PageRequest;
 import com.edge.repository.WarehouseRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -19,16 +20,16 @@ public class WarehouseService
     @Autowired
     private WarehouseRepository warehouseRepository;
     
-    @Autowired
-    private WebSocketNotificationService notificationService;
-    
-    private static final String DATA_TYPE_ID = "warehouses";
-    
     public List<Warehouse> getAllWarehouses()
     {
         return warehouseRepository.getAllWarehouses();
     }
     
+    public Page<Warehouse> getAllWarehouses(PageRequest request)
+    {
+        return warehouseRepository.getAllWarehouses(request);
+    }
+    
     public Optional<Warehouse> getWarehouseById(String id)
     {
         return warehouseRepository.getWarehouseById(id);
@@ -44,28 +45,24 @@ public class WarehouseService
         return warehouseRepository.getActiveWarehouses();
     }
     
+    public Page<Warehouse> getActiveWarehouses(PageRequest request)
+    {
+        return warehouseRepository.getActiveWarehouses(request);
+    }
+    
     public Warehouse createWarehouse(Warehouse warehouse)
     {
-        Warehouse created = warehouseRepository.createWarehouse(warehouse);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.CREATE, DATA_TYPE_ID, created);
-        return created;
+        return warehouseRepository.createWarehouse(warehouse);
     }
     
     public Warehouse updateWarehouse(String id, Warehouse warehouseDetails)
     {
-        Warehouse updated = warehouseRepository.updateWarehouse(id, warehouseDetails);
-        notificationService.notifyDataChange(DataChangeNotification.ChangeType.UPDATE, DATA_TYPE_ID, updated);
-        return updated;
+        return warehouseRepository.updateWarehouse(id, warehouseDetails);
     }
     
     public void deleteWarehouse(String id)
     {
-        Optional<Warehouse> warehouseToDelete = warehouseRepository.getWarehouseById(id);
         warehouseRepository.deleteWarehouse(id);
-        if (warehouseToDelete.isPresent())
-        {
-            notificationService.notifyDataChange(DataChangeNotification.ChangeType.DELETE, DATA_TYPE_ID, warehouseToDelete.get());
-        }
     }
 }
 
@@ -1,23 +1,42 @@
 package com.edge.service;
 
 import com.edge.config.DataChangeNotification;
+import com.edge.repository.ChangeEvent;
+import com.edge.repository.ChangeFeed;
+import jakarta.annotation.PostConstruct;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
+/**
+ * Pushes every change from the repositories' {@link ChangeFeed} to the WebSocket
+ * clients, with the collection name (e.g. "orders") as the data type ID.
+ */
 @Service
 public class WebSocketNotificationService
 {
-    
+
     private final SimpMessagingTemplate messagingTemplate;
-    
-    public WebSocketNotificationService(SimpMessagingTemplate messagingTemplate)
+    private final ChangeFeed changeFeed;
+
+    public WebSocketNotificationService(SimpMessagingTemplate messagingTemplate, ChangeFeed changeFeed)
     {
         this.messagingTemplate = messagingTemplate;
+        this.changeFeed = changeFeed;
+    }
+
+    @PostConstruct
+    public void subscribe()
+    {
+        changeFeed.subscribe(this::notifyDataChange);
     }
-    
-    public void notifyDataChange(DataChangeNotification.ChangeType changeType, String dataTypeId, Object data)
+
+    /**
+     * Broadcasts a change with the entity as it is now, or as it was for a delete.
+     */
+    private void notifyDataChange(ChangeEvent event)
     {
-        DataChangeNotification notification = new DataChangeNotification(changeType, dataTypeId, data);
-        messagingTemplate.convertAndSend("/topic/data-changes", notification);
+        DataChangeNotification.ChangeType changeType = DataChangeNotification.ChangeType.valueOf(event.getType().name());
+        Object data = event.getType() == ChangeEvent.Type.DELETE ? event.getBefore() : event.getAfter();
+        messagingTemplate.convertAndSend("/topic/data-changes", new DataChangeNotification(changeType, event.getCollection(), data));
     }
 }
@@ -0,0 +1,123 @@
+package com.edge.controller;
+
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Order;
+import com.edge.repository.AbstractJsonRepository.VersionConflictException;
+import com.edge.repository.OrderRepository;
+import com.edge.service.OrderService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Conditional order updates: the version an update is based on travels as an ETag
+ * and comes back in If-Match, and an update based on any other version is rejected
+ * with 412 before anything is written.
+ */
+class OrderVersionTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private OrderRepository orders;
+	private OrderController controller;
+	private String id;
+
+	@BeforeEach
+	void setUp()
+	{
+		orders = orders();
+		OrderRepository repository = orders;
+		OrderService service = new OrderService()
+		{
+			@Override
+			public Order updateOrder(String id, Order orderDetails, Long expectedVersion)
+			{
+				return repository.updateOrder(id, orderDetails, expectedVersion);
+			}
+		};
+		controller = new OrderController();
+		ReflectionTestUtils.setField(controller, "orderService", service);
+
+		Order order = new Order();
+		order.setOrderNumber("100001");
+		order.setStatus("PENDING_APPROVAL");
+		id = orders.createOrder(order).getId();
+	}
+
+	@Test
+	void updatesWithTheCurrentTagAndAdvancesTheVersion()
+	{
+		assertEquals(1L, orders.getOrderById(id).orElseThrow().getVersion());
+
+		ResponseEntity<Order> response = controller.updateOrder(id, details("APPROVED"), "\"1\"");
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals("\"2\"", response.getHeaders().getETag());
+		assertEquals(2L, response.getBody().getVersion());
+
+		// Without If-Match the update is unconditional
+		response = controller.updateOrder(id, details("SHIPPING_INSTRUCTED"), null);
+		assertEquals("\"3\"", response.getHeaders().getETag());
+	}
+
+	@Test
+	void rejectsStaleAndMalformedTagsWithNothingWritten()
+	{
+		for (String ifMatch : new String[] { "\"0\"", "\"2\"", "W/\"1\"", "1", "\"one\"", "\"\"" })
+		{
+			ResponseEntity<Order> response = controller.updateOrder(id, details("APPROVED"), ifMatch);
+			assertEquals(HttpStatus.PRECONDITION_FAILED, response.getStatusCode(), ifMatch);
+		}
+
+		Order current = orders.getOrderById(id).orElseThrow();
+		assertEquals("PENDING_APPROVAL", current.getStatus());
+		assertEquals(1L, current.getVersion());
+		orders.close();
+		Order stored = orders().getOrderById(id).orElseThrow();
+		assertEquals("PENDING_APPROVAL", stored.getStatus());
+		assertEquals(1L, stored.getVersion());
+	}
+
+	@Test
+	void rejectsSavingACopyReadAtAnOlderVersion()
+	{
+		Order copy = orders.getOrderById(id).orElseThrow();
+		controller.updateOrder(id, details("APPROVED"), "\"1\"");
+
+		copy.setStatus("CANCELLED");
+		assertThrows(VersionConflictException.class, () -> orders.save(copy));
+		assertEquals("APPROVED", orders.getOrderById(id).orElseThrow().getStatus());
+		assertEquals(2L, orders.getOrderById(id).orElseThrow().getVersion());
+	}
+
+	private OrderRepository orders()
+	{
+		Path dir = dataDir;
+		OrderRepository repository = new OrderRepository()
+		{
+			@Override
+			protected Path initializeDataFilePath(String dataDirName, String fileName)
+			{
+				return dir.resolve(fileName);
+			}
+		};
+		repository.setJsonDbConfig(new JsonDbConfig());
+		return repository;
+	}
+
+	private static Order details(String status)
+	{
+		Order details = new Order();
+		details.setStatus(status);
+		return details;
+	}
+}
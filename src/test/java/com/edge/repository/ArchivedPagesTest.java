@@ -0,0 +1,132 @@
+package com.edge.repository;
+
+import com.edge.entity.Order;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Pages of a collection with an archive: archived entities are listed, counted,
+ * sorted and filtered together with the in-memory ones.
+ */
+class ArchivedPagesTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private OrderStore orders;
+
+	@BeforeEach
+	void setUp()
+	{
+		orders = new OrderStore(dataDir);
+		orders.save(order("1001", "PAID", 14));
+		orders.save(order("1002", "PENDING", 13));
+		orders.save(order("1003", "PAID", 12));
+		orders.save(order("1004", "PAID", 0));
+		orders.save(order("1005", "PENDING", 0));
+		assertEquals(2, orders.archive());
+	}
+
+	@Test
+	void listsArchivedEntitiesFirstInInsertionOrder()
+	{
+		List<Page<Order>> pages = allPages(new PageRequest(2, null, null), orders::findPage);
+
+		assertEquals(List.of(List.of("1001", "1003"), List.of("1002", "1004"), List.of("1005")), numbers(pages));
+		assertEquals(5, pages.get(0).getTotal());
+		assertEquals(5, pages.get(2).getTotal());
+	}
+
+	@Test
+	void mergesArchivedEntitiesIntoSortedPages()
+	{
+		List<Page<Order>> pages = allPages(new PageRequest(2, null, "-orderNumber"), orders::findPage);
+
+		assertEquals(List.of(List.of("1005", "1004"), List.of("1003", "1002"), List.of("1001")), numbers(pages));
+	}
+
+	@Test
+	void readsOnlyThePartitionsASortedPageReaches() throws IOException
+	{
+		Path archiveDirectory = orders.getArchiveDirectory();
+		String month = YearMonth.now().minusMonths(12).toString();
+		JsonNode keys = new ObjectMapper().readTree(archiveDirectory.resolve(month + ".keys.json").toFile());
+		assertEquals("1003", keys.path("records").get(0).path("sort").path("orderNumber").asText());
+
+		// The page ends before the oldest partition, which is never read
+		Files.delete(archiveDirectory.resolve(YearMonth.now().minusMonths(14) + ".json"));
+		Page<Order> page = orders.findPage(new PageRequest(3, null, "-orderNumber"));
+		assertEquals(List.of(List.of("1005", "1004", "1003")), numbers(List.of(page)));
+		assertEquals(5, page.getTotal());
+	}
+
+	@Test
+	void filtersAndLooksUpArchivedEntities()
+	{
+		PageRequest paid = new PageRequest(2, null, null);
+		paid.setFilter("status = 'PAID'");
+		List<Page<Order>> pages = allPages(paid, orders::findPage);
+		assertEquals(List.of(List.of("1001", "1003"), List.of("1004")), numbers(pages));
+		assertEquals(3, pages.get(0).getTotal());
+
+		Page<Order> byIndex = orders.byStatus.findPage(new PageRequest(10, null, "orderNumber"), "PAID");
+		assertEquals(List.of(List.of("1001", "1003", "1004")), numbers(List.of(byIndex)));
+
+		List<String> ids = new ArrayList<>();
+		for (Order order : orders.findAll())
+		{
+			ids.add(0, order.getId());
+		}
+		// 1002, 1003 and 1001: the archived ones first, in the order of the IDs
+		Page<Order> byIds = orders.findPageByIds(ids.subList(2, 5), new PageRequest(10, null, null));
+		assertEquals(List.of(List.of("1003", "1001", "1002")), numbers(List.of(byIds)));
+		assertEquals(3, byIds.getTotal());
+	}
+
+	private static List<Page<Order>> allPages(PageRequest first, Function<PageRequest, Page<Order>> find)
+	{
+		List<Page<Order>> pages = new ArrayList<>();
+		PageRequest request = first;
+		while (true)
+		{
+			Page<Order> page = find.apply(request);
+			pages.add(page);
+			if (page.getNextCursor() == null)
+			{
+				return pages;
+			}
+			PageRequest next = new PageRequest(first.getLimit(), page.getNextCursor(), first.getSort());
+			next.setFilter(first.getFilter());
+			request = next;
+		}
+	}
+
+	private static List<List<String>> numbers(List<Page<Order>> pages)
+	{
+		return pages.stream().map(page -> page.getItems().stream().map(Order::getOrderNumber).toList()).toList();
+	}
+
+	private static Order order(String number, String status, int monthsAgo)
+	{
+		Order order = new Order();
+		order.setOrderNumber(number);
+		order.setStatus(status);
+		order.setOrderDate(LocalDateTime.now().minusMonths(monthsAgo));
+		return order;
+	}
+}
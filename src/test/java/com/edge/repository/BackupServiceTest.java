@@ -0,0 +1,166 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Order;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Backups made by {@link BackupService}: verification, restore of full and
+ * incremental backups, and archive files taken as they were at the cut.
+ */
+class BackupServiceTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private final JsonDbConfig config = new JsonDbConfig();
+	private OrderStore orders;
+	private BackupService backups;
+
+	@BeforeEach
+	void setUp()
+	{
+		config.setBackupDir(dataDir.resolve("backups").toString());
+		config.setSegmentSize(2);
+		orders = new OrderStore(dataDir, config);
+		backups = new BackupService(List.of(orders));
+		backups.setJsonDbConfig(config);
+	}
+
+	@Test
+	void restoresAFullBackupIncludingTheArchive()
+	{
+		orders.save(order("1001", "PAID", 12));
+		orders.save(order("1002", "PENDING", 0));
+		orders.save(order("1003", "PENDING", 0));
+		assertEquals(1, orders.archive());
+
+		BackupManifest backup = backups.backup(false);
+		assertEquals(List.of(), backups.verify(backup));
+		assertNull(backup.getBase());
+		assertEquals(2, backup.getCollections().get("orders"));
+
+		orders.deleteById(orders.snapshot().getItems().get(0).getId());
+		orders.save(order("1004", "PAID", 12));
+		orders.archive();
+		backups.restore(backup);
+
+		assertEquals(List.of("1002", "1003"), numbers(orders));
+		assertEquals(List.of("1001"), archivedNumbers(orders));
+	}
+
+	@Test
+	void incrementalBackupStoresOnlyChangedFiles()
+	{
+		orders.save(order("1001", "PAID", 12));
+		orders.save(order("1002", "PENDING", 0));
+		orders.save(order("1003", "PENDING", 0));
+		orders.save(order("1004", "PENDING", 0));
+		orders.archive();
+		BackupManifest full = backups.backup(false);
+
+		Order changed = orders.findByIdForUpdate(orders.snapshot().getItems().get(2).getId()).orElseThrow();
+		changed.setNotes("rush");
+		orders.save(changed);
+		BackupManifest incremental = backups.backup(true);
+
+		assertEquals(full.getId(), incremental.getBase());
+		assertEquals(List.of("orders/part-00000.json"), storedIn(full, incremental));
+		assertEquals(List.of("orders/part-00001.json"), storedIn(incremental, incremental));
+		// The unchanged archive files are taken from the full backup, not copied again
+		assertTrue(incremental.getFiles().stream()
+			.filter(file -> file.getPath().startsWith("orders/archive/"))
+			.allMatch(file -> file.getBackup().equals(full.getId())));
+		assertFalse(Files.exists(dataDir.resolve("backups").resolve(incremental.getId()).resolve("orders/archive")));
+		assertEquals(List.of(), backups.verify(incremental));
+
+		orders.save(order("1005", "PENDING", 0));
+		backups.restore(incremental);
+		assertEquals(List.of("1002", "1003", "1004"), numbers(orders));
+		assertEquals("rush", orders.findById(changed.getId()).orElseThrow().getNotes());
+		assertEquals(List.of("1001"), archivedNumbers(orders));
+	}
+
+	@Test
+	void refusesToRestoreABackupWhoseBaseIsDamaged() throws IOException
+	{
+		orders.save(order("1001", "PENDING", 0));
+		orders.save(order("1002", "PENDING", 0));
+		BackupManifest full = backups.backup(false);
+		orders.save(order("1003", "PENDING", 0));
+		BackupManifest incremental = backups.backup(true);
+		// The incremental backup refers to the first part held by the full one
+		Path part = dataDir.resolve("backups").resolve(full.getId()).resolve("orders/part-00000.json");
+		Files.writeString(part, "[]");
+		orders.save(order("1004", "PENDING", 0));
+
+		List<String> problems = backups.verify(incremental);
+		assertEquals(1, problems.size());
+		assertTrue(problems.get(0).contains("does not match its checksum"), problems.get(0));
+		assertThrows(IllegalStateException.class, () -> backups.restore(incremental));
+		assertEquals(List.of("1001", "1002", "1003", "1004"), numbers(orders));
+	}
+
+	@Test
+	void keepsTheArchiveAsItWasAtTheCut()
+	{
+		orders.save(order("1001", "PAID", 12));
+		orders.archive();
+		BackupManifest backup = backups.backup(false);
+
+		// Rewrites the partition the backup already holds
+		orders.save(order("1002", "PAID", 12));
+		orders.archive();
+
+		assertEquals(List.of(), backups.verify(backup));
+		backups.restore(backup);
+		assertEquals(List.of("1001"), archivedNumbers(orders));
+	}
+
+	private static List<String> storedIn(BackupManifest owner, BackupManifest manifest)
+	{
+		return manifest.getFiles().stream()
+			.filter(file -> file.getBackup().equals(owner.getId()) && file.getPath().contains("/part-"))
+			.map(BackupManifest.FileEntry::getPath)
+			.toList();
+	}
+
+	private static List<String> numbers(OrderStore store)
+	{
+		return store.snapshot().getItems().stream().map(Order::getOrderNumber).sorted().toList();
+	}
+
+	private static List<String> archivedNumbers(OrderStore store)
+	{
+		List<String> inMemory = numbers(store);
+		return store.findAll().stream()
+			.map(Order::getOrderNumber)
+			.filter(number -> !inMemory.contains(number))
+			.sorted()
+			.toList();
+	}
+
+	private static Order order(String number, String status, int monthsAgo)
+	{
+		Order order = new Order();
+		order.setOrderNumber(number);
+		order.setStatus(status);
+		order.setOrderDate(LocalDateTime.now().minusMonths(monthsAgo));
+		return order;
+	}
+}
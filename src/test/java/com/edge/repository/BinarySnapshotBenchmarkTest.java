@@ -0,0 +1,128 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Order;
+import com.edge.entity.OrderItem;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the JSON and binary snapshot load paths of {@link OrderRepository} on a
+ * generated data file. Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class BinarySnapshotBenchmarkTest
+{
+
+	private static final int ORDER_COUNT = 100_000;
+	private static final int ROUNDS = 3;
+
+	@TempDir
+	static Path dataDir;
+
+	static class BenchmarkOrderRepository extends OrderRepository
+	{
+		BenchmarkOrderRepository(boolean binarySnapshot)
+		{
+			JsonDbConfig config = new JsonDbConfig();
+			config.setBinarySnapshot(binarySnapshot);
+			setJsonDbConfig(config);
+		}
+
+		@Override
+		protected Path initializeDataFilePath(String dataDirName, String fileName)
+		{
+			return dataDir.resolve(fileName);
+		}
+	}
+
+	@BeforeAll
+	static void writeOrders() throws Exception
+	{
+		new BenchmarkOrderRepository(false).objectMapper.writeValue(dataDir.resolve("orders.json").toFile(), generateOrders(ORDER_COUNT));
+	}
+
+	/**
+	 * Orders with three lines each, shaped like the ones the application stores.
+	 */
+	static List<Order> generateOrders(int count)
+	{
+		List<Order> orders = new ArrayList<>(count);
+		LocalDateTime start = LocalDateTime.of(2024, 1, 1, 9, 0);
+		for (int i = 0; i < count; i++)
+		{
+			Order order = new Order();
+			order.setId("order-" + i);
+			order.setOrderNumber(String.valueOf(100000 + i));
+			order.setCustomerId("customer-" + (i % 500));
+			order.setOrderDate(start.plusMinutes(i));
+			order.setShipDate(start.plusMinutes(i).plusDays(2));
+			order.setStatus(i % 3 == 0 ? "SHIPPED" : "APPROVED");
+			for (int line = 0; line < 3; line++)
+			{
+				OrderItem item = new OrderItem();
+				item.setId(order.getId() + "-" + line);
+				item.setProductId("product-" + ((i + line) % 200));
+				item.setProductCode("P" + ((i + line) % 200));
+				item.setProductName("Product " + ((i + line) % 200));
+				item.setQuantity(1 + line);
+				item.setUnitPrice(new BigDecimal("19.99").add(BigDecimal.valueOf(line)));
+				item.calculateLineTotal();
+				order.getItems().add(item);
+			}
+			order.setTax(new BigDecimal("4.80"));
+			order.setShippingCost(new BigDecimal("7.50"));
+			order.calculateTotals();
+			order.setJsonData(Map.of("channel", "web"));
+			orders.add(order);
+		}
+		return orders;
+	}
+
+	@Test
+	void compareJsonAndBinarySnapshotLoads() throws Exception
+	{
+		List<Order> fromJson = new BenchmarkOrderRepository(false).findAll();
+
+		// The first load with snapshots enabled parses JSON and writes the snapshot
+		new BenchmarkOrderRepository(true).ensureLoaded();
+		Path snapshotFile = dataDir.resolve("orders" + BinarySnapshot.FILE_EXTENSION);
+		assertTrue(Files.exists(snapshotFile));
+
+		List<Order> fromSnapshot = new BenchmarkOrderRepository(true).findAll();
+		assertEquals(fromJson, fromSnapshot);
+
+		long jsonMillis = bestLoadMillis(false);
+		long snapshotMillis = bestLoadMillis(true);
+		System.out.printf("Loading %d orders: JSON %d ms (%d KB), binary snapshot %d ms (%d KB)%n",
+			ORDER_COUNT, jsonMillis, Files.size(dataDir.resolve("orders.json")) / 1024,
+			snapshotMillis, Files.size(snapshotFile) / 1024);
+	}
+
+	private static long bestLoadMillis(boolean binarySnapshot)
+	{
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			BenchmarkOrderRepository repository = new BenchmarkOrderRepository(binarySnapshot);
+			long start = System.nanoTime();
+			repository.ensureLoaded();
+			best = Math.min(best, (System.nanoTime() - start) / 1_000_000);
+			assertEquals(ORDER_COUNT, repository.findAll().size());
+		}
+		return best;
+	}
+}
@@ -0,0 +1,163 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Order;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The change feed: sequence numbers delivered in order while several repositories
+ * write at once, the log rotated at its size limit, and subscribers resuming from a
+ * sequence number in the rotated file.
+ */
+class ChangeFeedTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private ChangeFeed feed;
+
+	@BeforeEach
+	void setUp()
+	{
+		feed = new ChangeFeed(dataDir);
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		feed.close();
+	}
+
+	@Test
+	void deliversChangesFromConcurrentWritersInSequenceOrder() throws Exception
+	{
+		List<OrderStore> stores = List.of(new OrderStore(dataDir.resolve("a")), new OrderStore(dataDir.resolve("b")));
+		List<Long> delivered = Collections.synchronizedList(new ArrayList<>());
+		feed.subscribe(event -> delivered.add(event.getSequence()));
+		for (OrderStore store : stores)
+		{
+			store.setChangeFeed(feed);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<?>> writers = new ArrayList<>();
+			for (int t = 0; t < 4; t++)
+			{
+				OrderStore store = stores.get(t % 2);
+				int writer = t;
+				writers.add(executor.submit(() ->
+				{
+					for (int i = 0; i < 25; i++)
+					{
+						Order order = store.save(order(writer + "-" + i, "PENDING"));
+						order = store.findByIdForUpdate(order.getId()).orElseThrow();
+						order.setStatus("APPROVED");
+						store.save(order);
+					}
+				}));
+			}
+			for (Future<?> writer : writers)
+			{
+				writer.get();
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		// Closing waits for the dispatcher to deliver everything published
+		feed.close();
+
+		List<Long> expected = LongStream.rangeClosed(1, 200).boxed().toList();
+		assertEquals(expected, delivered);
+		assertEquals(expected, feed.readSince(0).stream().map(ChangeEvent::getSequence).toList());
+		// Each entity's create precedes its update
+		for (ChangeEvent event : feed.readSince(0))
+		{
+			if (event.getType() == ChangeEvent.Type.UPDATE)
+			{
+				assertEquals("PENDING", event.getBefore().path("status").asText());
+				assertEquals("APPROVED", event.getAfter().path("status").asText());
+			}
+		}
+	}
+
+	@Test
+	void rotatesTheLogAndResumesSubscribersFromTheRotatedFile() throws IOException
+	{
+		JsonDbConfig config = new JsonDbConfig();
+		config.setChangeLogMaxBytes(1000);
+		feed.setJsonDbConfig(config);
+		record(1, 30);
+
+		assertTrue(Files.exists(dataDir.resolve("changes.log.1")));
+		List<Long> logged = feed.readSince(0).stream().map(ChangeEvent::getSequence).toList();
+		long oldest = logged.get(0);
+		assertTrue(oldest > 1, "nothing was rotated out");
+		assertEquals(LongStream.rangeClosed(oldest, 30).boxed().toList(), logged);
+		assertTrue(Files.size(dataDir.resolve("changes.log")) <= 1000);
+
+		// Resume from a sequence number that is only in the rotated file
+		List<Long> delivered = Collections.synchronizedList(new ArrayList<>());
+		feed.subscribe(oldest, event -> delivered.add(event.getSequence()));
+		record(31, 35);
+		feed.close();
+
+		assertEquals(LongStream.rangeClosed(oldest + 1, 35).boxed().toList(), delivered);
+	}
+
+	@Test
+	void resumesTheSequenceAfterATornLine() throws IOException
+	{
+		record(1, 3);
+		feed.close();
+		// A crash in the middle of appending the next line
+		Files.writeString(dataDir.resolve("changes.log"), "{\"sequence\":4,\"coll", StandardOpenOption.APPEND);
+
+		feed = new ChangeFeed(dataDir);
+		assertEquals(3, feed.getLastSequence());
+		record(4, 4);
+		assertEquals(List.of(1L, 2L, 3L, 4L), feed.readSince(0).stream().map(ChangeEvent::getSequence).toList());
+	}
+
+	private void record(int from, int to)
+	{
+		List<ChangeEvent> events = new ArrayList<>();
+		for (int i = from; i <= to; i++)
+		{
+			events.add(feed.record("products", String.valueOf(i), null, objectMapper.createObjectNode().put("productCode", "A-" + i)));
+		}
+		feed.publish(events);
+	}
+
+	private static Order order(String number, String status)
+	{
+		Order order = new Order();
+		order.setOrderNumber(number);
+		order.setStatus(status);
+		return order;
+	}
+}
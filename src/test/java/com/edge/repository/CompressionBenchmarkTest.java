@@ -0,0 +1,89 @@
+package com.edge.repository;
+
+import com.edge.entity.Order;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares write and load times and file sizes of plain and GZIP-compressed data
+ * files and binary snapshots for collections of generated orders. Run with
+ * {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class CompressionBenchmarkTest
+{
+
+	private static final int[] ORDER_COUNTS = {1_000, 10_000, 100_000};
+	private static final int ROUNDS = 3;
+
+	@TempDir
+	Path dataDir;
+
+	private final ObjectMapper objectMapper = new OrderRepository().objectMapper;
+
+	@Test
+	void compareCompressionLevels() throws Exception
+	{
+		System.out.printf("%8s %-8s %12s %10s %10s %14s %10s %10s%n",
+			"orders", "encoding", "JSON KB", "write ms", "load ms", "snapshot KB", "write ms", "load ms");
+		for (int count : ORDER_COUNTS)
+		{
+			List<Order> orders = BinarySnapshotBenchmarkTest.generateOrders(count);
+			measure(orders, "plain", FileCompression.NONE);
+			measure(orders, "gzip-1", FileCompression.gzip(1));
+			measure(orders, "gzip-6", FileCompression.gzip(6));
+		}
+	}
+
+	private void measure(List<Order> orders, String name, FileCompression compression) throws IOException
+	{
+		Path dataFile = dataDir.resolve(name + "-" + orders.size() + ".json");
+		JsonFileStorageEngine<Order> engine = new JsonFileStorageEngine<>("orders", dataFile, objectMapper, Order.class,
+			false, Integer.MAX_VALUE, compression);
+		BinarySnapshot<Order> snapshot = new BinarySnapshot<>(JsonFileStorageEngine.resolveSiblingPath(dataFile,
+			BinarySnapshot.FILE_EXTENSION), dataFile, objectMapper, Order.class, compression);
+
+		long jsonWrite = Long.MAX_VALUE;
+		long jsonLoad = Long.MAX_VALUE;
+		long snapshotWrite = Long.MAX_VALUE;
+		long snapshotLoad = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			engine.compact(orders);
+			jsonWrite = Math.min(jsonWrite, System.nanoTime() - start);
+
+			List<Order> loaded = new ArrayList<>(orders.size());
+			start = System.nanoTime();
+			engine.load(loaded::add, id -> { });
+			jsonLoad = Math.min(jsonLoad, System.nanoTime() - start);
+			assertEquals(orders.size(), loaded.size());
+
+			start = System.nanoTime();
+			snapshot.write(orders);
+			snapshotWrite = Math.min(snapshotWrite, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			assertEquals(orders.size(), snapshot.read(order -> { }));
+			snapshotLoad = Math.min(snapshotLoad, System.nanoTime() - start);
+		}
+		engine.close();
+		assertEquals(compression.isEnabled(), FileCompression.isCompressed(dataFile));
+		assertTrue(snapshot.isCurrent());
+
+		System.out.printf("%8d %-8s %12d %10d %10d %14d %10d %10d%n", orders.size(), name,
+			Files.size(dataFile) / 1024, jsonWrite / 1_000_000, jsonLoad / 1_000_000,
+			Files.size(snapshot.getSnapshotFilePath()) / 1024, snapshotWrite / 1_000_000, snapshotLoad / 1_000_000);
+	}
+}
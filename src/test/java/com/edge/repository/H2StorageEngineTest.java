@@ -0,0 +1,144 @@
+package com.edge.repository;
+
+import com.edge.entity.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A collection stored in an H2 table: changes written per flush, reloaded in insertion
+ * order after a reopen, and imported once from the JSON data file.
+ */
+class H2StorageEngineTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final EntityIndex<Product> byProductCode =
+		new EntityIndex<>(null, "productCode", false, List.<Function<Product, ?>>of(Product::getProductCode));
+
+	@Test
+	void storesPutsDeletesAndBatchesAcrossReopen() throws IOException, SQLException
+	{
+		H2StorageEngine<Product> engine = engine();
+		assertEquals(Map.of(), load(engine));
+		engine.put("1", product("1", "A-1"));
+		engine.put("2", product("2", "A-2"));
+		engine.flush(false);
+		engine.put("2", product("2", "A-2b"));
+		engine.delete("1");
+		Map<String, Product> batch = new LinkedHashMap<>();
+		batch.put("3", product("3", "A-3"));
+		batch.put("4", null);
+		engine.applyBatch(batch);
+		assertEquals(4, engine.getPendingCount());
+		engine.flush(true);
+		assertEquals(0, engine.getPendingCount());
+		engine.close();
+
+		H2StorageEngine<Product> reopened = engine();
+		Map<String, Product> loaded = load(reopened);
+		assertEquals(List.of("2", "3"), List.copyOf(loaded.keySet()));
+		assertEquals("A-2b", loaded.get("2").getProductCode());
+		reopened.close();
+		// The index column follows the updated entity
+		assertEquals(List.of("A-2b", "A-3"), column("IDX_PRODUCT_CODE"));
+	}
+
+	@Test
+	void keepsChangesThatWereNotFlushedOutOfTheTable() throws IOException
+	{
+		H2StorageEngine<Product> engine = engine();
+		load(engine);
+		engine.put("1", product("1", "A-1"));
+		engine.flush(true);
+		engine.put("2", product("2", "A-2"));
+		// Closed without a flush, as by a crash
+		engine.close();
+
+		assertEquals(List.of("1"), List.copyOf(load(engine()).keySet()));
+	}
+
+	@Test
+	void importsTheJsonDataFileOnceAndCompactsInOrder() throws IOException
+	{
+		JsonFileStorageEngine<Product> json = jsonEngine();
+		json.compact(List.of(product("1", "A-1"), product("2", "A-2")));
+		json.close();
+
+		H2StorageEngine<Product> engine = engine();
+		assertEquals(List.of("1", "2"), List.copyOf(load(engine).keySet()));
+		engine.compact(List.of(product("3", "A-3"), product("2", "A-2")));
+		engine.flush(true);
+		engine.close();
+
+		// Reloaded from the table, not imported again
+		assertEquals(List.of("3", "2"), List.copyOf(load(engine()).keySet()));
+	}
+
+	private H2StorageEngine<Product> engine()
+	{
+		return new H2StorageEngine<>(jdbcUrl(), "products", objectMapper, Product.class, Product::getId,
+			List.of(byProductCode), jsonEngine());
+	}
+
+	private JsonFileStorageEngine<Product> jsonEngine()
+	{
+		return new JsonFileStorageEngine<>("products", dataDir.resolve("products.json"), objectMapper, Product.class,
+			false, 1000, FileCompression.NONE);
+	}
+
+	private String jdbcUrl()
+	{
+		return "jdbc:h2:file:" + dataDir.resolve("jsondb").toAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE";
+	}
+
+	private List<String> column(String name) throws SQLException
+	{
+		List<String> values = new ArrayList<>();
+		try (Connection connection = DriverManager.getConnection(jdbcUrl(), "sa", "");
+			 Statement statement = connection.createStatement();
+			 ResultSet rows = statement.executeQuery("SELECT " + name + " FROM JSONDB_PRODUCTS ORDER BY SEQ"))
+		{
+			while (rows.next())
+			{
+				values.add(rows.getString(1));
+			}
+		}
+		return values;
+	}
+
+	private static Map<String, Product> load(StorageEngine<Product> engine) throws IOException
+	{
+		Map<String, Product> collection = new LinkedHashMap<>();
+		engine.load(product -> collection.put(product.getId(), product), collection::remove);
+		return collection;
+	}
+
+	private static Product product(String id, String code)
+	{
+		Product product = new Product();
+		product.setId(id);
+		product.setProductCode(code);
+		product.setUnitPrice(BigDecimal.TEN);
+		return product;
+	}
+}
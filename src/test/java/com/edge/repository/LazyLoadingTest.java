@@ -0,0 +1,172 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Order;
+import com.edge.entity.OrderItem;
+import com.edge.entity.RMA;
+import com.edge.entity.RMAItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Orders and RMAs loaded lazily ({@code jsondb.lazy}): the stubs carry the same index
+ * and sort keys as the stored records, so lookups and sorted pages answer like an
+ * eagerly loaded collection, and a stub materializes to the stored entity.
+ */
+class LazyLoadingTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	@Test
+	void lazilyLoadedOrdersMatchEagerlyLoadedOnes()
+	{
+		OrderRepository writer = orders(false);
+		writer.createOrder(order("100001", "C1", "PAID", 3, "12.50"));
+		writer.createOrder(order("100002", "C2", "PENDING", 1, "99.99"));
+		writer.createOrder(order("100003", "C1", "SHIPPED", 7, "0.10"));
+		writer.saveItems();
+		writer.close();
+
+		OrderRepository eager = orders(false);
+		OrderRepository lazy = orders(true);
+		List<Order> stubs = lazy.snapshot().getItems();
+		assertTrue(stubs.stream().allMatch(stub -> stub.getItems().isEmpty()), "orders were not loaded lazily");
+		List<Order> stored = eager.getAllOrders();
+		assertKeysMatch(stored, stubs, List.of(Order::getId, Order::getOrderNumber, Order::getCustomerId,
+			Order::getStatus, Order::getOrderDate, Order::getTotal));
+
+		for (String sort : List.of("orderNumber", "-orderDate", "status", "-total"))
+		{
+			assertEquals(ids(eager.getAllOrders(new PageRequest(10, null, sort)).getItems(), Order::getId),
+				ids(lazy.getAllOrders(new PageRequest(10, null, sort)).getItems(), Order::getId), sort);
+		}
+		assertEquals(ids(eager.getOrdersByCustomerId("C1"), Order::getId), ids(lazy.getOrdersByCustomerId("C1"), Order::getId));
+		assertEquals(eager.getOrderByOrderNumber("100002"), lazy.getOrderByOrderNumber("100002"));
+		assertEquals(stored, lazy.getAllOrders());
+	}
+
+	@Test
+	void lazilyLoadedRmasMatchEagerlyLoadedOnes()
+	{
+		RMARepository writer = rmas(false);
+		writer.save(rma("500001", "O1", "APPROVED", 2, "40.00", "5.00"));
+		writer.save(rma("500002", "O2", "RECEIVED", 1, "15.25", "0"));
+		writer.saveItems();
+		writer.close();
+
+		RMARepository eager = rmas(false);
+		RMARepository lazy = rmas(true);
+		List<RMA> stubs = lazy.snapshot().getItems();
+		assertTrue(stubs.stream().allMatch(stub -> stub.getItems().isEmpty()), "RMAs were not loaded lazily");
+		List<RMA> stored = eager.findAll();
+		assertKeysMatch(stored, stubs, List.of(RMA::getId, RMA::getRmaNumber, RMA::getOrderId, RMA::getCustomerId,
+			RMA::getStatus, RMA::getRmaDate, RMA::getTotal));
+
+		assertEquals(ids(eager.findPage(new PageRequest(10, null, "-total")).getItems(), RMA::getId),
+			ids(lazy.findPage(new PageRequest(10, null, "-total")).getItems(), RMA::getId));
+		assertEquals(stored, lazy.findAll());
+	}
+
+	private static <T> void assertKeysMatch(List<T> stored, List<T> stubs, List<Function<T, ?>> keys)
+	{
+		assertEquals(stored.size(), stubs.size());
+		for (int i = 0; i < stored.size(); i++)
+		{
+			for (Function<T, ?> key : keys)
+			{
+				assertEquals(key.apply(stored.get(i)), key.apply(stubs.get(i)));
+			}
+		}
+	}
+
+	private static <T> List<String> ids(List<T> entities, Function<T, String> idOf)
+	{
+		return entities.stream().map(idOf).toList();
+	}
+
+	private OrderRepository orders(boolean lazy)
+	{
+		Path dir = dataDir;
+		OrderRepository repository = new OrderRepository()
+		{
+			@Override
+			protected Path initializeDataFilePath(String dataDirName, String fileName)
+			{
+				return dir.resolve(fileName);
+			}
+		};
+		repository.setJsonDbConfig(config(lazy));
+		return repository;
+	}
+
+	private RMARepository rmas(boolean lazy)
+	{
+		Path dir = dataDir;
+		RMARepository repository = new RMARepository()
+		{
+			@Override
+			protected Path initializeDataFilePath(String dataDirName, String fileName)
+			{
+				return dir.resolve(fileName);
+			}
+		};
+		repository.setJsonDbConfig(config(lazy));
+		return repository;
+	}
+
+	private static JsonDbConfig config(boolean lazy)
+	{
+		JsonDbConfig config = new JsonDbConfig();
+		config.setLazy(Map.of("orders", lazy, "rmas", lazy));
+		return config;
+	}
+
+	private static Order order(String number, String customerId, String status, int quantity, String unitPrice)
+	{
+		OrderItem item = new OrderItem();
+		item.setProductCode("PROD" + quantity);
+		item.setQuantity(quantity);
+		item.setUnitPrice(new BigDecimal(unitPrice));
+		item.setLineTotal(new BigDecimal(unitPrice).multiply(BigDecimal.valueOf(quantity)));
+		Order order = new Order();
+		order.setOrderNumber(number);
+		order.setCustomerId(customerId);
+		order.setStatus(status);
+		order.setOrderDate(LocalDateTime.now().minusDays(quantity));
+		order.setTax(BigDecimal.ONE);
+		order.setShippingCost(BigDecimal.ZERO);
+		order.getItems().add(item);
+		return order;
+	}
+
+	private static RMA rma(String number, String orderId, String status, int quantity, String unitPrice, String restockingFee)
+	{
+		RMAItem item = new RMAItem();
+		item.setProductCode("PROD" + quantity);
+		item.setQuantity(quantity);
+		item.setUnitPrice(new BigDecimal(unitPrice));
+		item.setLineTotal(new BigDecimal(unitPrice).multiply(BigDecimal.valueOf(quantity)));
+		RMA rma = new RMA();
+		rma.setRmaNumber(number);
+		rma.setOrderId(orderId);
+		rma.setCustomerId("C1");
+		rma.setStatus(status);
+		rma.setRmaDate(LocalDateTime.now().minusDays(quantity));
+		rma.setRestockingFee(new BigDecimal(restockingFee));
+		rma.getItems().add(item);
+		rma.calculateTotals();
+		return rma;
+	}
+}
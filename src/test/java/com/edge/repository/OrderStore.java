@@ -0,0 +1,76 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Order;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Order collection in a test's data directory, declared like {@link OrderRepository}
+ * but without its counter files: unique order numbers, customer and status indexes,
+ * versions, an order number sort and prefix index, and paid and cancelled orders
+ * archived by month.
+ */
+class OrderStore extends AbstractJsonRepository<Order>
+{
+	final EntityIndex<Order> byOrderNumber = uniqueIndex("orderNumber", Order::getOrderNumber);
+	final EntityIndex<Order> byCustomerId = index("customerId", Order::getCustomerId);
+	final EntityIndex<Order> byStatus = index("status", Order::getStatus);
+	final SortIndex<Order> orderNumberOrder = sortIndex("orderNumber", String.class, Order::getOrderNumber);
+	final SortIndex<Order> orderNumberPrefix = prefixIndex(byOrderNumber);
+
+	OrderStore(Path dataDir)
+	{
+		this(dataDir, new JsonDbConfig());
+	}
+
+	OrderStore(Path dataDir, JsonDbConfig config)
+	{
+		super(dataDir.toString(), "orders.json", "orders");
+		setJsonDbConfig(config);
+	}
+
+	List<Order> findByOrderNumberPrefix(String prefix, int limit)
+	{
+		return findByPrefix(orderNumberPrefix, prefix, limit);
+	}
+
+	@Override
+	protected String getId(Order order)
+	{
+		return order.getId();
+	}
+
+	@Override
+	protected void setId(Order order, String id)
+	{
+		order.setId(id);
+	}
+
+	@Override
+	protected Long getVersion(Order order)
+	{
+		return order.getVersion();
+	}
+
+	@Override
+	protected void setVersion(Order order, long version)
+	{
+		order.setVersion(version);
+	}
+
+	@Override
+	protected ObjectMapper createObjectMapper()
+	{
+		return super.createObjectMapper().registerModule(new JavaTimeModule());
+	}
+
+	@Override
+	protected ArchivePolicy<Order> getArchivePolicy()
+	{
+		return ArchivePolicy.monthly(Order::getOrderDate, Order::getStatus, "PAID", "CANCELLED");
+	}
+}
@@ -0,0 +1,89 @@
+package com.edge.repository;
+
+import com.edge.entity.Order;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Autocompletion through a prefix index: normalized matching, in memory and in the
+ * archive.
+ */
+class PrefixIndexTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private OrderStore orders;
+
+	@BeforeEach
+	void setUp()
+	{
+		orders = new OrderStore(dataDir);
+		orders.save(order("PR-1001", "PAID", 14));
+		orders.save(order("PR-1002", "PENDING", 0));
+		orders.save(order("pr-1003", "PENDING", 0));
+		orders.save(order("ＰＲ-1004", "PENDING", 0));
+		orders.save(order("PX-1005", "PENDING", 0));
+		assertEquals(1, orders.archive());
+	}
+
+	@Test
+	void matchesIgnoringCaseAndFullWidthForms()
+	{
+		List<String> expected = List.of("PR-1001", "PR-1002", "pr-1003", "ＰＲ-1004");
+		assertEquals(expected, numbers(orders.findByOrderNumberPrefix("Pr", 10)));
+		assertEquals(expected, numbers(orders.findByOrderNumberPrefix("pr-10", 10)));
+		assertEquals(expected, numbers(orders.findByOrderNumberPrefix("ＰＲ", 10)));
+		assertEquals(List.of("PR-1001", "PR-1002"), numbers(orders.findByOrderNumberPrefix("PR", 2)));
+		assertEquals(List.of("PX-1005"), numbers(orders.findByOrderNumberPrefix("px", 10)));
+		assertEquals(List.of(), numbers(orders.findByOrderNumberPrefix("PR-2", 10)));
+	}
+
+	@Test
+	void completesArchivedEntities()
+	{
+		assertEquals(List.of("PR-1001"), numbers(orders.findByOrderNumberPrefix("pr-1001", 10)));
+
+		// A partition rewritten by a later archive run is completed from its new keys
+		orders.save(order("PR-0999", "PAID", 14));
+		assertEquals(1, orders.archive());
+		assertEquals(List.of("PR-0999", "PR-1001"), numbers(orders.findByOrderNumberPrefix("pr-", 2)));
+	}
+
+	@Test
+	void isNotOfferedForSortingOrFiltering()
+	{
+		assertEquals(List.of("orderNumber"), orders.getSortFields());
+		PageRequest request = new PageRequest(10, null, null);
+		request.setFilter("orderNumber >= 'PR-1002'");
+		request.setExplain(true);
+		Page<Order> page = orders.findPage(request);
+
+		assertEquals("range orderNumber (orderNumber >= 'PR-1002')", page.getPlan().getAccess());
+		assertEquals(List.of("PR-1002", "pr-1003", "ＰＲ-1004", "PX-1005"), numbers(page.getItems()));
+		assertThrows(IllegalArgumentException.class, () -> orders.findByOrderNumberPrefix("", 10));
+	}
+
+	private static List<String> numbers(List<Order> found)
+	{
+		return found.stream().map(Order::getOrderNumber).toList();
+	}
+
+	private static Order order(String number, String status, int monthsAgo)
+	{
+		Order order = new Order();
+		order.setOrderNumber(number);
+		order.setStatus(status);
+		order.setOrderDate(LocalDateTime.now().minusMonths(monthsAgo));
+		return order;
+	}
+}
@@ -0,0 +1,120 @@
+package com.edge.repository;
+
+import com.edge.entity.Order;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Filters answered by {@link QueryPlanner}: the access path chosen and the rows it
+ * returns, from memory and the archive.
+ */
+class QueryPlannerTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private OrderStore orders;
+
+	@BeforeEach
+	void setUp()
+	{
+		orders = new OrderStore(dataDir);
+		orders.save(order("1001", "PAID", "C1"));
+		orders.save(order("1002", "PENDING", "C1"));
+		orders.save(order("1003", "PAID", "C2"));
+		orders.save(order("1004", "PENDING", "C2"));
+	}
+
+	@Test
+	void answersAnOrOfIndexedConditionsAsAUnionReturningEachRowOnce()
+	{
+		Page<Order> page = filter("status = 'PAID' or customerId = 'C1'");
+
+		assertEquals("union", page.getPlan().getAccess());
+		assertEquals(List.of("1001", "1002", "1003"), numbers(page));
+		assertEquals(3, page.getTotal());
+		assertEquals(List.of(2, 2), page.getPlan().getBranches().stream().map(QueryPlan::getMatched).toList());
+		assertEquals(4, page.getPlan().getExamined());
+	}
+
+	@Test
+	void readsArchivedEntitiesByIndexOrByScanningTheArchive()
+	{
+		orders.save(order("0998", "PAID", "C3", 14));
+		orders.save(order("0999", "CANCELLED", "C3", 13));
+		assertEquals(2, orders.archive());
+
+		Page<Order> paid = filter("status = 'PAID'");
+		assertEquals("index status (status = 'PAID')", paid.getPlan().getArchive());
+		assertEquals(List.of("0998", "1001", "1003"), numbers(paid));
+		assertEquals(orders.byStatus.findAll("PAID").stream().map(Order::getOrderNumber).toList(), numbers(paid));
+		assertEquals(3, paid.getPlan().getExamined());
+
+		Page<Order> range = filter("orderNumber < '1002'");
+		assertEquals("range orderNumber (orderNumber < '1002')", range.getPlan().getAccess());
+		assertEquals("scan", range.getPlan().getArchive());
+		assertEquals(List.of("0998", "0999", "1001"), numbers(range));
+
+		Page<Order> union = filter("status = 'PAID' or customerId = 'C3'");
+		assertEquals("union of index status (status = 'PAID') or index customerId (customerId = 'C3')",
+			union.getPlan().getArchive());
+		assertEquals(List.of("0998", "0999", "1001", "1003"), numbers(union));
+	}
+
+	@Test
+	void rejectsFiltersNestedTooDeeply()
+	{
+		String nested = "(".repeat(Filter.MAX_DEPTH) + "status = 'PAID'" + ")".repeat(Filter.MAX_DEPTH);
+		assertEquals(List.of("1001", "1003"), numbers(filter(nested)));
+
+		String tooDeep = "(".repeat(100_000) + "status = 'PAID'" + ")".repeat(100_000);
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> filter(tooDeep));
+		assertTrue(e.getMessage().contains("more than " + Filter.MAX_DEPTH + " deep"), e.getMessage());
+	}
+
+	@Test
+	void rejectsFractionsForWholeNumberProperties()
+	{
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> filter("version < 1.5"));
+		assertTrue(e.getMessage().contains("Invalid value 1.5 for 'version'"), e.getMessage());
+		assertEquals(4, filter("version < 2.0").getTotal());
+	}
+
+	private Page<Order> filter(String filter)
+	{
+		PageRequest request = new PageRequest(100, null, null);
+		request.setFilter(filter);
+		request.setExplain(true);
+		return orders.findPage(request);
+	}
+
+	private static List<String> numbers(Page<Order> page)
+	{
+		return page.getItems().stream().map(Order::getOrderNumber).toList();
+	}
+
+	private static Order order(String number, String status, String customerId)
+	{
+		return order(number, status, customerId, 0);
+	}
+
+	private static Order order(String number, String status, String customerId, int monthsAgo)
+	{
+		Order order = new Order();
+		order.setOrderNumber(number);
+		order.setStatus(status);
+		order.setCustomerId(customerId);
+		order.setOrderDate(LocalDateTime.now().minusMonths(monthsAgo));
+		return order;
+	}
+}
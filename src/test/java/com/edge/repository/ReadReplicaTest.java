@@ -0,0 +1,187 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A {@link ReadReplica} seeding from the primary's backup, tailing its change log,
+ * resuming from its stored position and getting past a gap in the log.
+ */
+class ReadReplicaTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private final JsonDbConfig config = new JsonDbConfig();
+	private ChangeFeed feed;
+	private ProductStore primary;
+	private BackupService primaryBackups;
+
+	@BeforeEach
+	void setUp() throws IOException
+	{
+		Path primaryDir = Files.createDirectories(dataDir.resolve("primary"));
+		config.setBackupDir(dataDir.resolve("backups").toString());
+		config.setReplicaOf(primaryDir.toString());
+		config.setReplicaBackupDir(dataDir.resolve("backups").toString());
+		feed = new ChangeFeed(primaryDir);
+		primary = new ProductStore(primaryDir);
+		primary.setChangeFeed(feed);
+		primaryBackups = new BackupService(List.of(primary));
+		primaryBackups.setJsonDbConfig(config);
+		primaryBackups.setChangeFeed(feed);
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		feed.close();
+	}
+
+	@Test
+	void appliesTheChangesLoggedAfterTheBackup() throws IOException
+	{
+		Product first = primary.save(product("P-1"));
+		primaryBackups.backup(false);
+		Product changed = primary.findByIdForUpdate(first.getId()).orElseThrow();
+		changed.setProductName("renamed");
+		primary.save(changed);
+		Product second = primary.save(product("P-2"));
+		primary.save(product("P-3"));
+		primary.deleteById(second.getId());
+
+		Path replicaDir = Files.createDirectories(dataDir.resolve("replica"));
+		ProductStore store = new ProductStore(replicaDir);
+		ReadReplica replica = replica(store, replicaDir);
+		replica.poll();
+
+		assertEquals(ReadReplica.State.STREAMING, replica.getState(), replica.getProblem());
+		assertEquals(5, replica.getAppliedSequence());
+		assertEquals("5", position(replicaDir));
+		assertEquals(List.of("P-1", "P-3"), codes(store));
+		assertEquals("renamed", store.findById(first.getId()).orElseThrow().getProductName());
+
+		// A restarted replica resumes from its position, without the backup
+		primary.save(product("P-4"));
+		deleteBackups();
+		store.close();
+		store = new ProductStore(replicaDir);
+		replica = replica(store, replicaDir);
+		replica.poll();
+
+		assertEquals(ReadReplica.State.STREAMING, replica.getState());
+		assertEquals(List.of("P-1", "P-3", "P-4"), codes(store));
+		assertEquals("6", position(replicaDir));
+	}
+
+	@Test
+	void stallsAtAGapNoBackupCoversUntilThereIsOne() throws IOException
+	{
+		primary.save(product("P-1"));
+		primaryBackups.backup(false);
+		primary.save(product("P-2"));
+		primary.save(product("P-3"));
+		primary.save(product("P-4"));
+		// As if appending change 3 to the log had failed on the primary; done after the
+		// last change, as the feed would not append at the end of the rewritten file
+		Path log = dataDir.resolve("primary").resolve(ChangeFeed.LOG_FILE_NAME);
+		List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+		Files.write(log, lines.stream().filter(line -> !line.contains("\"sequence\":3,")).toList(), StandardCharsets.UTF_8);
+
+		Path replicaDir = Files.createDirectories(dataDir.resolve("replica"));
+		ProductStore store = new ProductStore(replicaDir);
+		ReadReplica replica = replica(store, replicaDir);
+		for (int poll = 0; poll < 3; poll++)
+		{
+			replica.poll();
+			assertEquals(ReadReplica.State.STALLED, replica.getState());
+			assertEquals(2, replica.getAppliedSequence());
+			assertEquals("2", position(replicaDir));
+			assertEquals(List.of("P-1", "P-2"), codes(store));
+		}
+		assertTrue(replica.getProblem().contains("continues at sequence 4, not 3"), replica.getProblem());
+
+		// A backup made after the gap holds the missing change
+		primaryBackups.backup(false);
+		replica.poll();
+		replica.poll();
+
+		assertEquals(ReadReplica.State.STREAMING, replica.getState(), replica.getProblem());
+		assertEquals(4, replica.getAppliedSequence());
+		assertEquals("4", position(replicaDir));
+		assertEquals(List.of("P-1", "P-2", "P-3", "P-4"), codes(store));
+	}
+
+	private ReadReplica replica(ProductStore store, Path replicaDir)
+	{
+		BackupService backups = new BackupService(List.of(store));
+		ReadReplica replica = new ReadReplica(List.of(store), backups, replicaDir);
+		replica.setJsonDbConfig(config);
+		replica.follow();
+		return replica;
+	}
+
+	private void deleteBackups() throws IOException
+	{
+		try (Stream<Path> paths = Files.walk(dataDir.resolve("backups")))
+		{
+			for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+			{
+				Files.delete(path);
+			}
+		}
+	}
+
+	private static String position(Path replicaDir) throws IOException
+	{
+		return Files.readString(replicaDir.resolve(ReadReplica.POSITION_FILE_NAME), StandardCharsets.UTF_8);
+	}
+
+	private static List<String> codes(ProductStore store)
+	{
+		return store.findAll().stream().map(Product::getProductCode).sorted().toList();
+	}
+
+	private static Product product(String code)
+	{
+		Product product = new Product();
+		product.setProductCode(code);
+		return product;
+	}
+
+	static class ProductStore extends AbstractJsonRepository<Product>
+	{
+		ProductStore(Path dataDir)
+		{
+			super(dataDir.toString(), "products.json", "products");
+		}
+
+		@Override
+		protected String getId(Product product)
+		{
+			return product.getId();
+		}
+
+		@Override
+		protected void setId(Product product, String id)
+		{
+			product.setId(id);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.edge.repository;
+
+import com.edge.entity.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A collection stored as segment files: only changed segments are rewritten, the
+ * manifest switch decides which generation is loaded, and replaced files are deleted
+ * once the new generation is forced.
+ */
+class SegmentedStorageEngineTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private Path directory;
+	private SegmentedStorageEngine<Product> engine;
+
+	@BeforeEach
+	void setUp() throws IOException
+	{
+		directory = dataDir.resolve("products.segments");
+		engine = engine();
+		load(engine);
+		for (int i = 1; i <= 5; i++)
+		{
+			engine.put(String.valueOf(i), product(String.valueOf(i), "A-" + i));
+		}
+		engine.flush(true);
+	}
+
+	@Test
+	void rewritesOnlyTheSegmentsWithChanges() throws IOException
+	{
+		assertEquals(List.of("seg-000000.g000002.json", "seg-000001.g000002.json", "seg-000002.g000002.json"), segmentFiles());
+
+		engine.put("3", product("3", "A-3b"));
+		engine.flush(true);
+		assertEquals(List.of("seg-000000.g000002.json", "seg-000001.g000003.json", "seg-000002.g000002.json"), segmentFiles());
+		assertEquals(3, objectMapper.readTree(directory.resolve("manifest.json").toFile()).path("generation").asInt());
+
+		// A segment whose records are all deleted is dropped
+		engine.delete("5");
+		engine.flush(true);
+		assertEquals(List.of("seg-000000.g000002.json", "seg-000001.g000003.json"), segmentFiles());
+
+		Map<String, Product> loaded = load(engine());
+		assertEquals(List.of("1", "2", "3", "4"), List.copyOf(loaded.keySet()));
+		assertEquals("A-3b", loaded.get("3").getProductCode());
+	}
+
+	@Test
+	void keepsReplacedFilesUntilTheNewGenerationIsForced() throws IOException
+	{
+		engine.put("1", product("1", "A-1b"));
+		engine.flush(false);
+		// The manifest already lists the new file; the replaced one waits for a forced flush
+		assertEquals(List.of("seg-000000.g000002.json", "seg-000000.g000003.json", "seg-000001.g000002.json",
+			"seg-000002.g000002.json"), segmentFiles());
+		assertEquals("A-1b", load(engine()).get("1").getProductCode());
+
+		engine.flush(true);
+		assertEquals(List.of("seg-000000.g000003.json", "seg-000001.g000002.json", "seg-000002.g000002.json"), segmentFiles());
+	}
+
+	@Test
+	void loadsTheGenerationTheManifestListsAndRemovesOthers() throws IOException
+	{
+		// A crash after writing a segment file but before the manifest switch
+		Files.writeString(directory.resolve("seg-000001.g000003.json"), "[{\"id\":\"3\",\"productCode\":\"lost\"}]");
+
+		Map<String, Product> loaded = load(engine());
+		assertEquals("A-3", loaded.get("3").getProductCode());
+		assertEquals(List.of("seg-000000.g000002.json", "seg-000001.g000002.json", "seg-000002.g000002.json"), segmentFiles());
+	}
+
+	@Test
+	void reloadsACompactedCollectionInItsNewOrder() throws IOException
+	{
+		engine.delete("2");
+		engine.flush(false);
+		engine.compact(List.of(product("5", "A-5"), product("4", "A-4"), product("3", "A-3"), product("1", "A-1")));
+
+		assertEquals(List.of("seg-000003.g000004.json", "seg-000004.g000004.json"), segmentFiles());
+		assertEquals(List.of("5", "4", "3", "1"), List.copyOf(load(engine()).keySet()));
+	}
+
+	private SegmentedStorageEngine<Product> engine()
+	{
+		JsonFileStorageEngine<Product> source = new JsonFileStorageEngine<>("products", dataDir.resolve("products.json"),
+			objectMapper, Product.class, false, 1000, FileCompression.NONE);
+		return new SegmentedStorageEngine<>("products", directory, objectMapper, Product.class, Product::getId, 2, source,
+			FileCompression.NONE);
+	}
+
+	private List<String> segmentFiles() throws IOException
+	{
+		try (Stream<Path> files = Files.list(directory))
+		{
+			return files.map(file -> file.getFileName().toString()).filter(name -> name.startsWith("seg-")).sorted().toList();
+		}
+	}
+
+	private static Map<String, Product> load(StorageEngine<Product> engine) throws IOException
+	{
+		Map<String, Product> collection = new LinkedHashMap<>();
+		engine.load(product -> collection.put(product.getId(), product), collection::remove);
+		return collection;
+	}
+
+	private static Product product(String id, String code)
+	{
+		Product product = new Product();
+		product.setId(id);
+		product.setProductCode(code);
+		product.setUnitPrice(BigDecimal.TEN);
+		return product;
+	}
+}
@@ -0,0 +1,123 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Numbers issued from reserved blocks: never reused after a crash, which skips at most
+ * the rest of a block, and continued without a gap after a clean shutdown.
+ */
+class SequenceServiceTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	@Test
+	void resumesAboveTheReservedBoundAfterACrash() throws IOException
+	{
+		Path counter = dataDir.resolve("order_counter.txt");
+		SequenceService service = service();
+		assertEquals(100001, service.next(counter, 100000));
+		assertEquals(100002, service.next(counter, 100000));
+		assertEquals(100003, service.next(counter, 100000));
+		// The whole block is reserved before its first number is handed out
+		assertEquals("100010", Files.readString(counter));
+
+		// Dropped without shutdown(), as by a crash
+		SequenceService restarted = service();
+		assertEquals(100011, restarted.next(counter, 100000));
+		assertEquals("100020", Files.readString(counter));
+	}
+
+	@Test
+	void continuesWithoutAGapAfterACleanShutdown() throws IOException
+	{
+		Path counter = dataDir.resolve("invoice_counter.txt");
+		SequenceService service = service();
+		for (int i = 1; i <= 12; i++)
+		{
+			assertEquals(i, service.next(counter, 0));
+		}
+		assertEquals("20", Files.readString(counter));
+		service.shutdown();
+		assertEquals("12", Files.readString(counter));
+
+		assertEquals(13, service().next(counter, 0));
+	}
+
+	@Test
+	void advancesPastRestoredNumbers() throws IOException
+	{
+		Path counter = dataDir.resolve("rma_counter.txt");
+		SequenceService service = service();
+		assertEquals(1, service.next(counter, 0));
+		service.advanceTo(counter, 500);
+		service.advanceTo(counter, 200);
+		assertEquals(501, service.next(counter, 0));
+		service.shutdown();
+
+		assertEquals(502, service().next(counter, 0));
+	}
+
+	@Test
+	void issuesEachNumberOnceToConcurrentCallers() throws Exception
+	{
+		Path counter = dataDir.resolve("po_counter.txt");
+		SequenceService service = service();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Future<List<Long>>> results = new ArrayList<>();
+			for (int t = 0; t < 8; t++)
+			{
+				results.add(executor.submit(() ->
+				{
+					List<Long> numbers = new ArrayList<>();
+					for (int i = 0; i < 250; i++)
+					{
+						numbers.add(service.next(counter, 0));
+					}
+					return numbers;
+				}));
+			}
+			Set<Long> issued = new HashSet<>();
+			for (Future<List<Long>> result : results)
+			{
+				issued.addAll(result.get());
+			}
+			assertEquals(2000, issued.size());
+			assertEquals(1, issued.stream().mapToLong(Long::longValue).min().orElseThrow());
+			assertEquals(2000, issued.stream().mapToLong(Long::longValue).max().orElseThrow());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		service.shutdown();
+		assertEquals("2000", Files.readString(counter));
+	}
+
+	private static SequenceService service()
+	{
+		JsonDbConfig config = new JsonDbConfig();
+		config.setSequenceBlockSize(10);
+		SequenceService service = new SequenceService();
+		service.setJsonDbConfig(config);
+		return service;
+	}
+}
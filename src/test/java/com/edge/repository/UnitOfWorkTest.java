@@ -0,0 +1,283 @@
+package com.edge.repository;
+
+import com.edge.entity.Product;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Commit protocol of {@link UnitOfWork}: all participants are stored together or not
+ * at all, in memory and in storage, and after-commit actions only run once the new
+ * snapshots are published.
+ */
+class UnitOfWorkTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	@Test
+	void commitsAllParticipantsTogether()
+	{
+		ProductStore alpha = new ProductStore(dataDir, "alpha");
+		ProductStore beta = new ProductStore(dataDir, "beta");
+		Product existing = alpha.save(product("A-1"));
+
+		UnitOfWork.execute(List.of(beta, alpha), () ->
+		{
+			alpha.deleteById(existing.getId());
+			alpha.save(product("A-2"));
+			beta.save(product("B-1"));
+			return null;
+		});
+
+		assertEquals(List.of("A-2"), codes(alpha));
+		assertEquals(List.of("B-1"), codes(beta));
+		alpha.close();
+		beta.close();
+		assertEquals(List.of("A-2"), codes(new ProductStore(dataDir, "alpha")));
+		assertEquals(List.of("B-1"), codes(new ProductStore(dataDir, "beta")));
+	}
+
+	@Test
+	void rollsBackEveryParticipantWhenTheWorkFails()
+	{
+		ProductStore alpha = new ProductStore(dataDir, "alpha");
+		ProductStore beta = new ProductStore(dataDir, "beta");
+		Product existing = alpha.save(product("A-1"));
+
+		assertThrows(IllegalStateException.class, () -> UnitOfWork.execute(List.of(alpha, beta), () ->
+		{
+			Product changed = alpha.findByIdForUpdate(existing.getId()).orElseThrow();
+			changed.setProductCode("A-1b");
+			alpha.save(changed);
+			beta.save(product("B-1"));
+			throw new IllegalStateException("out of stock");
+		}));
+
+		assertEquals(List.of("A-1"), codes(alpha));
+		assertEquals(List.of(), codes(beta));
+		alpha.close();
+		beta.close();
+		assertEquals(List.of("A-1"), codes(new ProductStore(dataDir, "alpha")));
+		assertEquals(List.of(), codes(new ProductStore(dataDir, "beta")));
+	}
+
+	@Test
+	void rollsBackAcceptedParticipantsWhenALaterBatchIsRejected()
+	{
+		ProductStore alpha = new ProductStore(dataDir, "alpha");
+		ProductStore beta = new ProductStore(dataDir, "beta");
+		Product existing = alpha.save(product("A-1"));
+		beta.save(product("B-1"));
+		// beta commits after alpha; its engine takes one change of the batch, then fails
+		beta.engine.failNextBatch = true;
+		List<String> afterCommit = new ArrayList<>();
+
+		assertThrows(AbstractJsonRepository.DataPersistenceException.class, () -> UnitOfWork.execute(List.of(alpha, beta), () ->
+		{
+			Product changed = alpha.findByIdForUpdate(existing.getId()).orElseThrow();
+			changed.setProductCode("A-1b");
+			alpha.save(changed);
+			alpha.save(product("A-2"));
+			beta.save(product("B-2"));
+			beta.save(product("B-3"));
+			UnitOfWork.afterCommit(() -> afterCommit.add("ran"));
+			return null;
+		}));
+
+		assertEquals(List.of("A-1"), codes(alpha));
+		assertEquals(List.of("B-1"), codes(beta));
+		assertEquals(List.of(), afterCommit);
+		alpha.close();
+		beta.close();
+		assertEquals(List.of("A-1"), codes(new ProductStore(dataDir, "alpha")));
+		assertEquals(List.of("B-1"), codes(new ProductStore(dataDir, "beta")));
+	}
+
+	@Test
+	void runsAfterCommitActionsInOrderOncePublished()
+	{
+		ProductStore alpha = new ProductStore(dataDir, "alpha");
+		ProductStore beta = new ProductStore(dataDir, "beta");
+		List<String> events = new ArrayList<>();
+
+		Product created = UnitOfWork.execute(List.of(alpha, beta), () ->
+		{
+			Product saved = alpha.save(product("A-1"));
+			UnitOfWork.afterCommit(() -> events.add("first: published=" + alpha.snapshot().findById(saved.getId()).isPresent()));
+			UnitOfWork.execute(List.of(beta), () ->
+			{
+				beta.save(product("B-1"));
+				UnitOfWork.afterCommit(() -> events.add("nested: published=" + (beta.snapshot().size() == 1)));
+				return null;
+			});
+			// Other readers keep seeing the previous snapshot until the unit commits
+			events.add("inside: published=" + alpha.snapshot().findById(saved.getId()).isPresent());
+			return saved;
+		});
+
+		assertEquals(List.of("inside: published=false", "first: published=true", "nested: published=true"), events);
+		assertTrue(alpha.findById(created.getId()).isPresent());
+		List<String> immediate = new ArrayList<>();
+		UnitOfWork.afterCommit(() -> immediate.add("ran"));
+		assertEquals(List.of("ran"), immediate);
+	}
+
+	@Test
+	void keepsCommittingAfterAFailedAfterCommitAction()
+	{
+		ProductStore alpha = new ProductStore(dataDir, "alpha");
+		List<String> events = new ArrayList<>();
+
+		UnitOfWork.execute(List.of(alpha), () ->
+		{
+			alpha.save(product("A-1"));
+			UnitOfWork.afterCommit(() ->
+			{
+				throw new IllegalStateException("notification failed");
+			});
+			UnitOfWork.afterCommit(() -> events.add("second"));
+			return null;
+		});
+
+		assertEquals(List.of("A-1"), codes(alpha));
+		assertEquals(List.of("second"), events);
+		assertFalse(alpha.isWriting());
+	}
+
+	private static List<String> codes(ProductStore store)
+	{
+		return store.findAll().stream().map(Product::getProductCode).toList();
+	}
+
+	private static Product product(String code)
+	{
+		Product product = new Product();
+		product.setProductCode(code);
+		return product;
+	}
+
+	static class ProductStore extends AbstractJsonRepository<Product>
+	{
+		FailingEngine<Product> engine;
+
+		ProductStore(Path dataDir, String collection)
+		{
+			super(dataDir.toString(), collection + ".json", collection);
+		}
+
+		@Override
+		protected String getId(Product product)
+		{
+			return product.getId();
+		}
+
+		@Override
+		protected void setId(Product product, String id)
+		{
+			product.setId(id);
+		}
+
+		@Override
+		protected StorageEngine<Product> createStorageEngine()
+		{
+			engine = new FailingEngine<>(super.createStorageEngine());
+			return engine;
+		}
+	}
+
+	/**
+	 * Passes everything on to the real engine, except that the next batch, once
+	 * armed, fails after its first change has been accepted.
+	 */
+	static class FailingEngine<T> implements StorageEngine<T>
+	{
+		private final StorageEngine<T> delegate;
+		volatile boolean failNextBatch;
+
+		FailingEngine(StorageEngine<T> delegate)
+		{
+			this.delegate = delegate;
+		}
+
+		@Override
+		public String getType()
+		{
+			return delegate.getType();
+		}
+
+		@Override
+		public void load(Consumer<T> onEntity, Consumer<String> onDelete) throws IOException
+		{
+			delegate.load(onEntity, onDelete);
+		}
+
+		@Override
+		public void put(String id, T entity) throws IOException
+		{
+			delegate.put(id, entity);
+		}
+
+		@Override
+		public void delete(String id) throws IOException
+		{
+			delegate.delete(id);
+		}
+
+		@Override
+		public void applyBatch(Map<String, T> changes) throws IOException
+		{
+			if (failNextBatch)
+			{
+				failNextBatch = false;
+				Map.Entry<String, T> first = changes.entrySet().iterator().next();
+				delegate.put(first.getKey(), first.getValue());
+				throw new IOException("No space left on device");
+			}
+			delegate.applyBatch(changes);
+		}
+
+		@Override
+		public int getPendingCount()
+		{
+			return delegate.getPendingCount();
+		}
+
+		@Override
+		public void flush(boolean force) throws IOException
+		{
+			delegate.flush(force);
+		}
+
+		@Override
+		public boolean needsCompaction()
+		{
+			return delegate.needsCompaction();
+		}
+
+		@Override
+		public void compact(Collection<T> entities) throws IOException
+		{
+			delegate.compact(entities);
+		}
+
+		@Override
+		public void close()
+		{
+			delegate.close();
+		}
+	}
+}
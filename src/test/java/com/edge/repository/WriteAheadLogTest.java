@@ -0,0 +1,161 @@
+package com.edge.repository;
+
+import com.edge.entity.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Replay of the write-ahead log and recovery of a JSON-file collection from its data
+ * file plus log after the process stopped without compacting.
+ */
+class WriteAheadLogTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Test
+	void replaysPutsDeletesAndBatchesInOrder() throws IOException
+	{
+		Path logFile = dataDir.resolve("products.wal");
+		WriteAheadLog log = new WriteAheadLog(logFile, objectMapper);
+		log.appendPut("1", product("1", "A-1"));
+		log.appendPut("2", product("2", "A-2"));
+		log.appendPut("1", product("1", "A-1b"));
+		log.appendDelete("2");
+		Map<String, Product> batch = new LinkedHashMap<>();
+		batch.put("3", product("3", "A-3"));
+		batch.put("1", null);
+		log.appendBatch(batch);
+		log.flush(true);
+		log.close();
+
+		WriteAheadLog reopened = new WriteAheadLog(logFile, objectMapper);
+		Map<String, Product> recovered = replay(reopened);
+		assertEquals(List.of("3"), List.copyOf(recovered.keySet()));
+		assertEquals("A-3", recovered.get("3").getProductCode());
+		// Counted per change
+		assertEquals(6, reopened.getRecordCount());
+	}
+
+	@Test
+	void recordsStillBufferedAreNotReplayed() throws IOException
+	{
+		Path logFile = dataDir.resolve("products.wal");
+		WriteAheadLog log = new WriteAheadLog(logFile, objectMapper);
+		log.appendPut("1", product("1", "A-1"));
+		log.flush(false);
+		log.appendPut("2", product("2", "A-2"));
+		assertEquals(1, log.getPendingCount());
+		// The process dies before the second record is flushed
+		log.close();
+
+		Map<String, Product> recovered = replay(new WriteAheadLog(logFile, objectMapper));
+		assertEquals(List.of("1"), List.copyOf(recovered.keySet()));
+	}
+
+	@Test
+	void skipsCorruptAndTruncatedLines() throws IOException
+	{
+		Path logFile = dataDir.resolve("products.wal");
+		WriteAheadLog log = new WriteAheadLog(logFile, objectMapper);
+		log.appendPut("1", product("1", "A-1"));
+		log.flush(false);
+		log.close();
+		Files.writeString(logFile, "not json at all\n{\"op\":\"MOVE\",\"id\":\"1\"}\n", StandardCharsets.UTF_8,
+			StandardOpenOption.APPEND);
+		log = new WriteAheadLog(logFile, objectMapper);
+		log.appendPut("2", product("2", "A-2"));
+		log.flush(false);
+		log.close();
+		// A torn batch at the end of the file, as left by a crash mid-append
+		String batch = "{\"op\":\"BATCH\",\"records\":[{\"op\":\"DELETE\",\"id\":\"1\"},{\"op\":\"PUT\",\"id\":\"3\",\"entity\":{\"id\":\"3\"";
+		Files.writeString(logFile, batch, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		Map<String, Product> recovered = replay(new WriteAheadLog(logFile, objectMapper));
+		assertEquals(List.of("1", "2"), List.copyOf(recovered.keySet()));
+	}
+
+	@Test
+	void recoversDataFileAndLogAfterCrashBeforeCompaction() throws IOException
+	{
+		Path dataFile = dataDir.resolve("products.json");
+		JsonFileStorageEngine<Product> engine = engine(dataFile);
+		engine.compact(List.of(product("1", "A-1"), product("2", "A-2")));
+		engine.put("2", product("2", "A-2b"));
+		engine.delete("1");
+		engine.applyBatch(Map.of("3", product("3", "A-3")));
+		engine.flush(true);
+		// No close and no compaction: the next start reads the data file and the log
+
+		Map<String, Product> recovered = load(engine(dataFile));
+		assertEquals(List.of("2", "3"), List.copyOf(recovered.keySet()));
+		assertEquals("A-2b", recovered.get("2").getProductCode());
+		assertNull(recovered.get("1"));
+	}
+
+	@Test
+	void replayOverCompactedDataFileIsIdempotent() throws IOException
+	{
+		Path dataFile = dataDir.resolve("products.json");
+		JsonFileStorageEngine<Product> engine = engine(dataFile);
+		engine.put("1", product("1", "A-1"));
+		engine.put("2", product("2", "A-2"));
+		engine.delete("1");
+		engine.flush(true);
+		Path logFile = JsonFileStorageEngine.resolveSiblingPath(dataFile, ".wal");
+		byte[] logged = Files.readAllBytes(logFile);
+		engine.compact(List.of(product("2", "A-2")));
+		engine.close();
+		// A crash between writing the data file and truncating the log leaves both
+		Files.write(logFile, logged);
+
+		Map<String, Product> recovered = load(engine(dataFile));
+		assertEquals(List.of("2"), List.copyOf(recovered.keySet()));
+	}
+
+	private JsonFileStorageEngine<Product> engine(Path dataFile)
+	{
+		return new JsonFileStorageEngine<>("products", dataFile, objectMapper, Product.class, false, 1000,
+			FileCompression.NONE);
+	}
+
+	private Map<String, Product> replay(WriteAheadLog log) throws IOException
+	{
+		Map<String, Product> collection = new LinkedHashMap<>();
+		log.replay(Product.class, collection::put, collection::remove);
+		return collection;
+	}
+
+	private static Map<String, Product> load(StorageEngine<Product> engine) throws IOException
+	{
+		Map<String, Product> collection = new LinkedHashMap<>();
+		engine.load(product -> collection.put(product.getId(), product), collection::remove);
+		return collection;
+	}
+
+	private static Product product(String id, String code)
+	{
+		Product product = new Product();
+		product.setId(id);
+		product.setProductCode(code);
+		product.setUnitPrice(BigDecimal.TEN);
+		return product;
+	}
+}
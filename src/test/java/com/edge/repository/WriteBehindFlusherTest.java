@@ -0,0 +1,134 @@
+package com.edge.repository;
+
+import com.edge.config.JsonDbConfig;
+import com.edge.entity.Order;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Write-behind mode: changes are buffered and written together by an explicit flush,
+ * once enough are pending, by the background flusher, and on shutdown. What another
+ * store reads from the same directory is what survives a crash at that point.
+ */
+class WriteBehindFlusherTest
+{
+
+	@TempDir
+	Path dataDir;
+
+	private final JsonDbConfig config = new JsonDbConfig();
+	private WriteBehindFlusher flusher;
+	private OrderStore orders;
+
+	@BeforeEach
+	void setUp()
+	{
+		config.setWriteBehind(true);
+		config.setFlushIntervalMillis(60_000);
+		config.setFlushMaxPending(100);
+	}
+
+	@AfterEach
+	void tearDown()
+	{
+		flusher.shutdown();
+	}
+
+	@Test
+	void writesBufferedChangesTogetherOnFlush()
+	{
+		start();
+		Order first = orders.save(order("1001", "PENDING"));
+		orders.save(order("1002", "PENDING"));
+		update(first.getId(), "APPROVED");
+		update(first.getId(), "SHIPPED");
+		assertEquals(List.of(), stored());
+
+		orders.flush();
+		assertEquals(List.of("1001:SHIPPED", "1002:PENDING"), stored());
+
+		orders.save(order("1003", "PENDING"));
+		orders.deleteById(first.getId());
+		assertEquals(List.of("1001:SHIPPED", "1002:PENDING"), stored());
+		orders.awaitDurable();
+		assertEquals(List.of("1002:PENDING", "1003:PENDING"), stored());
+	}
+
+	@Test
+	void writesOnceTheMaximumIsPending()
+	{
+		config.setFlushMaxPending(3);
+		start();
+		orders.save(order("1001", "PENDING"));
+		orders.save(order("1002", "PENDING"));
+		assertEquals(List.of(), stored());
+		orders.save(order("1003", "PENDING"));
+		assertEquals(List.of("1001:PENDING", "1002:PENDING", "1003:PENDING"), stored());
+	}
+
+	@Test
+	void writesInTheBackgroundEveryInterval() throws InterruptedException
+	{
+		config.setFlushIntervalMillis(20);
+		start();
+		orders.save(order("1001", "PENDING"));
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (stored().isEmpty() && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(20);
+		}
+		assertEquals(List.of("1001:PENDING"), stored());
+	}
+
+	@Test
+	void drainsPendingChangesOnShutdown()
+	{
+		start();
+		Order first = orders.save(order("1001", "PENDING"));
+		orders.save(order("1002", "PENDING"));
+		update(first.getId(), "CANCELLED");
+		assertEquals(List.of(), stored());
+
+		flusher.shutdown();
+		assertEquals(List.of("1001:CANCELLED", "1002:PENDING"), stored());
+	}
+
+	private void start()
+	{
+		flusher = new WriteBehindFlusher(config);
+		flusher.start();
+		orders = new OrderStore(dataDir, config);
+		orders.setWriteBehindFlusher(flusher);
+	}
+
+	private void update(String id, String status)
+	{
+		Order order = orders.findByIdForUpdate(id).orElseThrow();
+		order.setStatus(status);
+		orders.save(order);
+	}
+
+	/**
+	 * Reads the collection as a restart would, without flushing the writing store.
+	 */
+	private List<String> stored()
+	{
+		OrderStore reader = new OrderStore(dataDir, new JsonDbConfig());
+		return reader.findAll().stream().map(order -> order.getOrderNumber() + ":" + order.getStatus()).sorted().toList();
+	}
+
+	private static Order order(String number, String status)
+	{
+		Order order = new Order();
+		order.setOrderNumber(number);
+		order.setStatus(status);
+		return order;
+	}
+}